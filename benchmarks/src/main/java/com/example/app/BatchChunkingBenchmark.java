@@ -0,0 +1,99 @@
+package com.example.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.JobInfo;
+
+/**
+ * createBatchesFromCSVFile のベンチマーク (CSVの分割からバッチのアップロードまで、通信は行わない)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchChunkingBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int rows;
+
+    @Param({ "5", "30" })
+    public int columns;
+
+    @Param({ "0", "50", "100" })
+    public int multibytePercent;
+
+    private File csvFile;
+    private NullBulkConnection connection;
+    private JobInfo job;
+    private BatchBufferPool bufferPool;
+    private SalesforceApiUtil sfdcApiUtil = new SalesforceApiUtil();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, AsyncApiException {
+        this.csvFile = BenchmarkData.createCsvFile(this.rows, this.columns, this.multibytePercent);
+        this.connection = new NullBulkConnection();
+        this.job = new JobInfo();
+        this.job.setId("job0");
+        this.bufferPool = new BatchBufferPool(SalesforceApiUtil.MAX_BYTES_PER_BATCH, 64L * 1024 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.csvFile.delete();
+    }
+
+    /**
+     * 分割とアップロード
+     */
+    @Benchmark
+    public int chunk() throws IOException, AsyncApiException {
+        return this.createBatches(null);
+    }
+
+    /**
+     * 分割とgzip圧縮しながらのアップロード
+     */
+    @Benchmark
+    public int chunkCompressed() throws IOException, AsyncApiException {
+        BatchCompressor compressor = new BatchCompressor(this.connection, 6, 65536);
+        try {
+            return this.createBatches(compressor);
+        } finally {
+            compressor.close();
+        }
+    }
+
+    private int createBatches(BatchCompressor compressor) throws IOException, AsyncApiException {
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(this.csvFile.getPath());
+        try {
+            splitter.nextRecord();
+            byte[] headerBytes = splitter.copyRecord();
+            List<BatchInfo> batchInfos = this.sfdcApiUtil.createBatchesFromCSVFile(this.connection, this.job, splitter, headerBytes,
+                new FixedBatchSizingPolicy(10000, SalesforceApiUtil.MAX_BYTES_PER_BATCH), this.bufferPool, 4,
+                new ArrayList<BatchSegment>(), null, compressor);
+            return batchInfos.size();
+        } finally {
+            splitter.close();
+        }
+    }
+}
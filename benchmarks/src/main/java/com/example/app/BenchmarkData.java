@@ -0,0 +1,109 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * ベンチマーク用のデータ生成
+ * 件数・項目数・マルチバイト文字(日本語)を含む項目の割合を指定してCSVを生成する。
+ * 同じ条件では常に同じデータを生成する(乱数のシードは固定)。
+ */
+public class BenchmarkData {
+
+    private static final String[] ASCII_WORDS = { "Sample", "Account", "Tokyo", "Osaka", "Branch", "Office", "Sales", "Partner" };
+    private static final String[] JAPANESE_WORDS = { "取引先", "株式会社", "東京都", "大阪府", "営業部", "支店", "説明", "担当者" };
+    private static final String[] ERRORS = {
+        "UNABLE_TO_LOCK_ROW:unable to obtain exclusive access to this record:--",
+        "REQUIRED_FIELD_MISSING:Required fields are missing: [Name]:Name --",
+        "DUPLICATE_VALUE:duplicate value found: AccountNumber duplicates value on record with id: 0010000000000AA:--",
+        "FIELD_CUSTOM_VALIDATION_EXCEPTION:[Allowable Error] 取引先番号の形式が正しくありません:--",
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * インポート用のCSVファイルを生成
+     * @param rows 件数
+     * @param columns 項目数
+     * @param multibytePercent 日本語を含む項目の割合 (0〜100)
+     * @return 一時ファイル (呼び出し元で削除する)
+     * @throws IOException
+     */
+    public static File createCsvFile(int rows, int columns, int multibytePercent) throws IOException {
+        File file = File.createTempFile("benchCsvFile", ".csv");
+        Random random = new Random(rows * 31L + columns * 7L + multibytePercent);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536)) {
+            StringBuilder line = new StringBuilder();
+            for (int c = 0; c < columns; c++) {
+                line.append(c == 0 ? "" : ",").append("Field").append(c);
+            }
+            out.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < rows; i++) {
+                line.setLength(0);
+                for (int c = 0; c < columns; c++) {
+                    if (c > 0) {
+                        line.append(',');
+                    }
+                    boolean multibyte = random.nextInt(100) < multibytePercent;
+                    String[] words = multibyte ? JAPANESE_WORDS : ASCII_WORDS;
+                    line.append('"').append(words[random.nextInt(words.length)]).append(' ').append(i);
+                    // 一部の項目は改行とエスケープしたダブルクォートを含む
+                    if (c == 1 && i % 10 == 0) {
+                        line.append("\n\"\"").append(words[random.nextInt(words.length)]).append("\"\"");
+                    }
+                    line.append('"');
+                }
+                out.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * バッチの処理結果のCSVを生成
+     * @param rows 件数
+     * @param errorPercent 失敗したレコードの割合 (0〜100)
+     * @return 処理結果 (Id,Success,Created,Error)
+     */
+    public static byte[] createResultCsv(int rows, int errorPercent) {
+        Random random = new Random(rows * 17L + errorPercent);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rows * 64);
+        StringBuilder line = new StringBuilder("\"Id\",\"Success\",\"Created\",\"Error\"\n");
+        for (int i = 0; i < rows; i++) {
+            if (random.nextInt(100) < errorPercent) {
+                line.append("\"\",\"false\",\"false\",\"").append(ERRORS[random.nextInt(ERRORS.length)]).append("\"\n");
+            } else {
+                line.append("\"001").append(String.format("%012d", i)).append("AAA\",\"true\",\"true\",\"\"\n");
+            }
+            if (line.length() > 8192) {
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                line.setLength(0);
+            }
+        }
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * エラーメッセージの生成
+     * @param count 件数
+     * @return エラーメッセージ
+     */
+    public static String[] createErrors(int count) {
+        Random random = new Random(count);
+        String[] errors = new String[count];
+        for (int i = 0; i < count; i++) {
+            errors[i] = ERRORS[random.nextInt(ERRORS.length)];
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CSV分割処理のベンチマーク
+ * 従来の readLine() + getBytes() による分割とバイト列のままの分割を比較する。
+ * 実行方法は README の「Benchmark」を参照。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvSplitBenchmark {
+
+    @Param({ "100000" })
+    public int rows;
+
+    private File csvFile;
+    private BatchBufferPool bufferPool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.csvFile = File.createTempFile("benchCsvFile", ".csv");
+        OutputStream out = new FileOutputStream(this.csvFile);
+        try {
+            out.write("Name,AccountNumber,Description\n".getBytes("UTF-8"));
+            for (int i = 0; i < this.rows; i++) {
+                out.write(("\"SampleAccount" + i + "\",\"Sample" + i + "\",\"取引先の説明 " + i + "\"\n").getBytes("UTF-8"));
+            }
+        } finally {
+            out.close();
+        }
+        this.bufferPool = new BatchBufferPool(SalesforceApiUtil.MAX_BYTES_PER_BATCH, SalesforceApiUtil.MAX_BYTES_PER_BATCH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.csvFile.delete();
+    }
+
+    /**
+     * 従来の分割処理 (1行毎に文字列へ変換してからバイト列に戻す)
+     */
+    @Benchmark
+    public int readLine() throws IOException {
+        BufferedReader rdr = new BufferedReader(new InputStreamReader(new FileInputStream(this.csvFile)));
+        BatchBuffer buffer = this.bufferPool.acquire();
+        int batches = 0;
+        try {
+            rdr.readLine();
+            String nextLine;
+            while ((nextLine = rdr.readLine()) != null) {
+                byte[] bytes = (nextLine + "\n").getBytes("UTF-8");
+                if (buffer.size() + bytes.length > SalesforceApiUtil.MAX_BYTES_PER_BATCH) {
+                    buffer.release();
+                    buffer = this.bufferPool.acquire();
+                    batches++;
+                }
+                buffer.write(bytes);
+            }
+        } finally {
+            buffer.release();
+            rdr.close();
+        }
+        return batches;
+    }
+
+    /**
+     * バイト列のままの分割処理
+     */
+    @Benchmark
+    public int byteSplitter() throws IOException {
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(this.csvFile.getPath());
+        BatchBuffer buffer = this.bufferPool.acquire();
+        int batches = 0;
+        try {
+            splitter.nextRecord();
+            while (splitter.nextRecord()) {
+                int length = splitter.getRecordLength();
+                if (buffer.size() + length > SalesforceApiUtil.MAX_BYTES_PER_BATCH) {
+                    buffer.release();
+                    buffer = this.bufferPool.acquire();
+                    batches++;
+                }
+                buffer.write(splitter.getRecordBytes(), 0, length);
+            }
+        } finally {
+            buffer.release();
+            splitter.close();
+        }
+        return batches;
+    }
+}
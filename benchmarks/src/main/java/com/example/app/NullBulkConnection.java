@@ -0,0 +1,64 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.ws.ConnectorConfig;
+
+/**
+ * ベンチマーク用のBulkConnection (通信せずにアップロードされたデータを読み捨て、固定の処理結果を返す)
+ */
+public class NullBulkConnection extends BulkConnection {
+
+    private final AtomicInteger batchCount = new AtomicInteger();
+    private final byte[] drain = new byte[65536];
+    private volatile byte[] batchResult = new byte[0];
+
+    public NullBulkConnection() throws AsyncApiException {
+        super(newConfig());
+    }
+
+    private static ConnectorConfig newConfig() {
+        ConnectorConfig config = new ConnectorConfig();
+        config.setSessionId("benchmark-session");
+        config.setRestEndpoint("http://localhost/services/async/34.0/");
+        return config;
+    }
+
+    /**
+     * getBatchResultStream で返す処理結果を設定
+     * @param batchResult 処理結果のCSV
+     */
+    public void setBatchResult(byte[] batchResult) {
+        this.batchResult = batchResult;
+    }
+
+    @Override
+    public BatchInfo createBatchFromForeignCsvStream(JobInfo job, InputStream input, String charSet) throws AsyncApiException {
+        try {
+            // 読み捨て用のバッファは内容を参照しないため共有する
+            while (input.read(this.drain) != -1) {
+                continue;
+            }
+        } catch (IOException e) {
+            throw new AsyncApiException(e.getMessage(), AsyncExceptionCode.ClientInputError);
+        }
+        BatchInfo batchInfo = new BatchInfo();
+        batchInfo.setId("batch" + this.batchCount.getAndIncrement());
+        batchInfo.setJobId(job.getId());
+        batchInfo.setState(BatchStateEnum.Queued);
+        return batchInfo;
+    }
+
+    @Override
+    public InputStream getBatchResultStream(String jobId, String batchId) throws AsyncApiException {
+        return new ByteArrayInputStream(this.batchResult);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.JobInfo;
+
+/**
+ * 処理結果のチェック(ResultChecker)のベンチマーク
+ * 1バッチ分の処理結果のCSVを読み込み、ステータスコードの集計と検知不要エラーの判定を行う。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResultCheckBenchmark {
+
+    @Param({ "10000" })
+    public int rows;
+
+    @Param({ "0", "5", "50" })
+    public int errorPercent;
+
+    private NullBulkConnection connection;
+    private JobInfo job;
+    private BatchInfo batchInfo;
+    private SkipErrorMatcher skipErrorMatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws AsyncApiException {
+        this.connection = new NullBulkConnection();
+        this.connection.setBatchResult(BenchmarkData.createResultCsv(this.rows, this.errorPercent));
+        this.job = new JobInfo();
+        this.job.setId("job0");
+        this.batchInfo = new BatchInfo();
+        this.batchInfo.setId("batch0");
+        this.batchInfo.setState(BatchStateEnum.Completed);
+        this.skipErrorMatcher = new SkipErrorMatcher(Arrays.asList(SkipErrorMatcher.DEFAULT_RULE));
+    }
+
+    @Benchmark
+    public int checkResults() throws AsyncApiException, IOException {
+        ResultChecker resultChecker = new ResultChecker(this.connection, this.job, this.skipErrorMatcher,
+            new FixedBatchSizingPolicy(10000, SalesforceApiUtil.MAX_BYTES_PER_BATCH), 1);
+        resultChecker.onBatchFinished(this.batchInfo);
+        return resultChecker.awaitSkipErrorCount();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 検知不要エラーの判定のベンチマーク
+ * ルール数を変えて、SkipErrorMatcher とルール毎の contains() による判定を比較する。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SkipErrorBenchmark {
+
+    @Param({ "1", "20", "200" })
+    public int ruleCount;
+
+    private List<String> rules;
+    private SkipErrorMatcher matcher;
+    private String[] errors;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.rules = new ArrayList<String>();
+        this.rules.add(SkipErrorMatcher.DEFAULT_RULE);
+        for (int i = 1; i < this.ruleCount; i++) {
+            this.rules.add("[Rule " + i + "] 許容するエラー" + i);
+        }
+        this.matcher = new SkipErrorMatcher(this.rules);
+        this.errors = BenchmarkData.createErrors(10000);
+    }
+
+    @Benchmark
+    public int matcher() {
+        int count = 0;
+        for (String error : this.errors) {
+            if (this.matcher.matches(error)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * ルール毎に contains() で判定 (比較用)
+     */
+    @Benchmark
+    public int contains() {
+        int count = 0;
+        for (String error : this.errors) {
+            for (String rule : this.rules) {
+                if (error.contains(rule)) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+}
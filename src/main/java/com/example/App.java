@@ -3,6 +3,15 @@ package com.example;
 import com.example.app.UserInfo;
 import com.example.app.SalesforceApiUtil;
 import com.example.app.AccountDataImport;
+import com.example.app.BulkApiSimulator;
+import com.example.app.BulkExecutors;
+import com.example.app.CsvRecordSplitter;
+import com.example.app.DataExport;
+import com.example.app.ImportEntry;
+import com.example.app.ImportMetrics;
+import com.example.app.ImportManifest;
+import com.example.app.ImportRunner;
+import com.example.app.SessionManager;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
@@ -27,6 +36,7 @@ public class App implements CommandLineRunner {
     
     private SalesforceApiUtil sfdcApiUtil = new SalesforceApiUtil();
     private AccountDataImport accountDataImport = new AccountDataImport();
+    private DataExport dataExport = new DataExport();
 
     /**
      * main
@@ -50,10 +60,33 @@ public class App implements CommandLineRunner {
             if (isError) {
                 System.exit(1);
             }
-            // ファイル読み込み情報作成
-            BufferedReader rdr = this.accountDataImport.getBufferedReader(userInfo.filePath);
+            // 終了時に実行結果のサマリーを出力 (実行中はJMXで参照可能)
+            ImportMetrics.get().writeSummaryOnExit(userInfo.metricsFile);
+            // 通信を実行するスレッドの種類 (仮想スレッドはJDK 21以降のみ)
+            BulkExecutors.setVirtualThreads(userInfo.virtualThreads);
+            // シミュレーターを使用する場合はプロセス内で起動して接続先にする
+            if (userInfo.simulateBulkApi) {
+                BulkApiSimulator simulator = BulkApiSimulator.fromUserInfo(userInfo).start(userInfo.simulatorPort);
+                userInfo.bulkEndpoint = simulator.getRestEndpoint(userInfo.apiVersion);
+            }
+            // クエリを指定した場合はエクスポートを実行
+            if (!userInfo.exportQuery.isEmpty()) {
+                long count = this.dataExport.runDataExport(userInfo.exportObject, userInfo.exportQuery, userInfo);
+                System.out.println("Exported = " + count + " : " + userInfo.exportFile);
+                System.exit(0);
+            }
+            // マニフェストを指定した場合は複数オブジェクトのインポートを実行
+            if (!userInfo.manifestFile.isEmpty()) {
+                boolean isSuccess = this.runImports(userInfo);
+                System.exit(isSuccess ? 0 : 1);
+            }
+            // ファイル読み込み情報作成 (標準入力・圧縮ファイル・クエリ結果はそのまま読み込む)
+            CsvRecordSplitter splitter = this.accountDataImport.getCsvRecordSplitter(userInfo.filePath, userInfo);
             // 取引先インポートバッチ実行
-            this.accountDataImport.runDataImport("Account", userInfo, rdr);
+            boolean isSuccess = this.accountDataImport.runDataImport("Account", userInfo, splitter);
+            if (!isSuccess) {
+                System.exit(1);
+            }
         } catch(Exception e) {
             System.out.println("<< Exception >> " + e);
             System.exit(1);
@@ -61,4 +94,37 @@ public class App implements CommandLineRunner {
 
         System.exit(0);
     }
+
+    /**
+     * マニフェストに記載された全てのインポートを実行 (ログインは1回のみ)
+     * @param userInfo ユーザ情報
+     * @return 全てのインポートが成功した場合はtrue
+     * @throws Exception
+     */
+    private boolean runImports(final UserInfo userInfo) throws Exception {
+        List<ImportEntry> entries = ImportManifest.load(userInfo.manifestFile);
+        // 全てのジョブで1つのセッションを共有
+        final SessionManager session = new SessionManager(userInfo).acquire();
+        try {
+            ImportRunner runner = new ImportRunner(new ImportRunner.ImportTask() {
+                @Override
+                public boolean run(ImportEntry entry) throws Exception {
+                    session.acquire();
+                    try {
+                        CsvRecordSplitter splitter = accountDataImport.getCsvRecordSplitter(entry.getFilePath(), userInfo);
+                        return accountDataImport.runDataImport(entry, userInfo, session, splitter);
+                    } finally {
+                        session.release();
+                    }
+                }
+            }, userInfo.maxConcurrentJobs);
+            Map<ImportEntry, Boolean> results = runner.run(entries);
+            System.out.println("LoginCount = " + session.getLoginCount());
+            return !results.containsValue(Boolean.FALSE);
+        } finally {
+            // 全てのジョブの実行通知をまとめて作成してからログアウト
+            this.accountDataImport.finishRun();
+            session.release();
+        }
+    }
 }
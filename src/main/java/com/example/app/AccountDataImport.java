@@ -1,178 +1,688 @@
 package com.example.app;
 
 import com.example.app.SalesforceApiUtil;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 import com.sforce.async.AsyncApiException;
 import com.sforce.async.BatchInfo;
 import com.sforce.async.BulkConnection;
-import com.sforce.async.CSVReader;
 import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.async.OperationEnum;
 import com.sforce.soap.partner.Error;
 import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.soap.partner.SaveResult;
+import com.sforce.soap.partner.fault.ExceptionCode;
+import com.sforce.soap.partner.fault.UnexpectedErrorFault;
 import com.sforce.soap.partner.sobject.SObject;
 import com.sforce.ws.ConnectionException;
-import com.sforce.ws.ConnectorConfig;
 
 public class AccountDataImport {
 	
     private SalesforceApiUtil sfdcApiUtil = new SalesforceApiUtil();
+    private SkipErrorMatcher skipErrorMatcher;
+    private RunReport runReport;
+    private TaskNotifier taskNotifier;
+    private final Map<String, AdaptiveBatchSizingPolicy> sizingPolicies = new HashMap<String, AdaptiveBatchSizingPolicy>();
 	
     /**
      * データインポート処理
      * @param sobjectType オブジェクトAPI名
      * @param userInfo ユーザ情報
+     * @param splitter CSVのレコード分割
+     * @return 異常なエラーが発生していない場合はtrue
      * @throws AsyncApiException
      * @throws ConnectionException
      * @throws IOException
+     * @throws InterruptedException
+     * @throws TimeoutException
      */
-    public void runDataImport(String sobjectType, UserInfo userInfo, BufferedReader rdr) throws AsyncApiException, ConnectionException, IOException {
+    public boolean runDataImport(String sobjectType, UserInfo userInfo, CsvRecordSplitter splitter) throws AsyncApiException, ConnectionException, IOException, InterruptedException, TimeoutException {
         System.out.println("-- runDataImport --");
-        // ConnectorConfig情報を作成
-        ConnectorConfig partnerConfig = this.sfdcApiUtil.getConnectorConfig(userInfo);
-        
-        // BulkAPIを実行するための接続情報を作成
-        BulkConnection connection = this.sfdcApiUtil.getBulkConnection(userInfo, partnerConfig);
-        // ジョブを作成
-        JobInfo job = this.sfdcApiUtil.createUpsertJob(sobjectType, connection, "Id");
+        // 処理の種類はログイン前に確認 (isEmptyUserInfoを通さずに呼び出された場合も同じ条件で拒否)
+        if (!SalesforceApiUtil.IMPORT_OPERATIONS.contains(userInfo.operation)) {
+            throw new IllegalArgumentException("invalid operation : " + userInfo.operation);
+        }
+        // ログインしてセッションを作成
+        SessionManager session = new SessionManager(userInfo).acquire();
 
-        // CSVファイル変換仕様のアップロード(項目のマッピング)
-        String specFileName = "./conf/spec.csv";
-        try (InputStream in = new FileInputStream(specFileName)) {
-            connection.createTransformationSpecFromStream(job, in);
+        ImportEntry entry = new ImportEntry(sobjectType, userInfo.filePath, "./conf/spec.csv", OperationEnum.valueOf(userInfo.operation), userInfo.externalIdField, new ArrayList<String>(), userInfo.deltaKeyColumn, userInfo.groupByColumn);
+        try {
+            return this.runDataImport(entry, userInfo, session, splitter);
+        } finally {
+            this.finishRun();
+            session.release();
         }
+    }
 
+    /**
+     * データインポート処理 (ログイン済みのセッションを使用)
+     * @param entry インポート対象
+     * @param userInfo ユーザ情報
+     * @param session 共有のセッション (使用中であること)
+     * @param splitter CSVのレコード分割
+     * @return 異常なエラーが発生していない場合はtrue
+     * @throws AsyncApiException
+     * @throws ConnectionException
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws TimeoutException
+     */
+    public boolean runDataImport(ImportEntry entry, UserInfo userInfo, SessionManager session, CsvRecordSplitter splitter) throws AsyncApiException, ConnectionException, IOException, InterruptedException, TimeoutException {
+        System.out.println("-- runDataImport -- " + entry);
+        BulkConnection connection = session.getBulkConnection();
         // CSVのヘッダー行を読み込み
-        byte[] headerBytes = (rdr.readLine() + "\n").getBytes("UTF-8");
+        if (!splitter.nextRecord()) {
+            throw new IOException("CSV header not found : " + entry.getFilePath());
+        }
+        byte[] headerBytes = splitter.copyRecord();
+
+        // キー項目の重複を除き、親のキー項目で並べ替える場合は整形後のファイルを送信
+        String sourcePath = entry.getFilePath();
+        String workName = entry.getWorkName();
+        // 作業ファイル(射影・差分・整形・再実行)はレコードのバイト列をそのまま出力するため、元の読み込み元の文字コードを使用
+        Charset charset = RecordSource.getCharset(sourcePath, userInfo);
+        String dedupColumn = this.getDedupColumn(entry);
+        boolean grouped = entry.getGroupByColumn() != null && !entry.getGroupByColumn().isEmpty();
+        boolean hasDelta = entry.getDeltaKeyColumn() != null && !entry.getDeltaKeyColumn().isEmpty();
+        if (RecordSource.isStreaming(sourcePath) && !userInfo.mapRecords && !hasDelta) {
+            // 整形は読み込み元を2回読み込むため、ストリーミングの読み込み元は射影・差分検出のファイルを作成する場合のみ可能
+            if (grouped) {
+                throw new IOException("groupBy requires a file source (or mapRecords/deltaKey) : " + sourcePath);
+            }
+            if (!dedupColumn.isEmpty()) {
+                System.out.println("<< WARN >> ストリーミングの読み込み元のため重複を除きません : " + dedupColumn);
+                dedupColumn = "";
+            }
+        }
+        RecordPreparer preparer = null;
+        boolean preparedInterrupted = false;
+        if (!dedupColumn.isEmpty() || grouped) {
+            preparer = new RecordPreparer(new File(userInfo.workDir), workName);
+            preparedInterrupted = isResumable(userInfo) && isWorkFileCurrent(preparer.getPreparedFile(), entry.getFilePath())
+                && this.getJournalFile(userInfo, entry, preparer.getPreparedFile().getPath()).exists();
+        }
+
+        // 変換仕様で使用する列のみに射影し、不正なレコードはアップロード前に隔離
+        long invalidCount = 0L;
+        if (userInfo.mapRecords) {
+            FieldMapper mapper = new FieldMapper(new File(userInfo.workDir), workName, charset);
+            String mappedPath = mapper.getMappedFile().getPath();
+            if (isResumable(userInfo) && isWorkFileCurrent(mapper.getMappedFile(), entry.getFilePath()) && this.getJournalFile(userInfo, entry, mappedPath).exists()) {
+                // 前回の射影後のファイルのジョブが中断している場合は同じファイルで再開
+                System.out.println("-- resumeMapped -- " + mappedPath);
+                splitter.close();
+                invalidCount = mapper.loadInvalidCount();
+            } else {
+                FieldMapper.Mapping mapping = FieldMapper.Mapping.load(entry.getSpecFile(), userInfo.fieldRulesFile, entry.getSobjectType(),
+                    Arrays.asList(dedupColumn, entry.getDeltaKeyColumn(), entry.getGroupByColumn()));
+                mapper.map(splitter, headerBytes, mapping);
+                invalidCount = mapper.getInvalidCount();
+            }
+            if (invalidCount > 0) {
+                System.out.println("InvalidRecords = " + invalidCount + " : " + mapper.getInvalidFile());
+            }
+            sourcePath = mappedPath;
+            splitter = CsvRecordSplitter.open(sourcePath);
+            splitter.nextRecord();
+            headerBytes = splitter.copyRecord();
+        }
+
+        // 差分検出 (前回成功した実行から新規・変更のレコードのみ送信)
+        DeltaDetector deltaDetector = null;
+        if (hasDelta) {
+            deltaDetector = new DeltaDetector(new File(userInfo.deltaDir), workName);
+            String deltaPath = deltaDetector.getDeltaFile().getPath();
+            if (isResumable(userInfo) && deltaDetector.isPending() && isWorkFileCurrent(deltaDetector.getDeltaFile(), entry.getFilePath())
+                && (preparedInterrupted || this.getJournalFile(userInfo, entry, deltaPath).exists())) {
+                // 前回の差分のジョブが中断している場合は同じ差分ファイルで再開
+                System.out.println("-- resumeDelta -- " + deltaPath);
+                splitter.close();
+            } else {
+                deltaDetector.detect(splitter, headerBytes, entry.getDeltaKeyColumn());
+                if (deltaDetector.getChangedCount() == 0) {
+                    System.out.println("変更されたレコードはありません : " + entry);
+                    if (invalidCount > 0) {
+                        return false;
+                    }
+                    deltaDetector.commit();
+                    return true;
+                }
+            }
+            sourcePath = deltaPath;
+            splitter = CsvRecordSplitter.open(sourcePath);
+            splitter.nextRecord();
+        }
+
+        // 行ロック競合と重複エラーを減らすためにレコードを整形
+        if (preparer != null) {
+            splitter.close();
+            if (preparedInterrupted) {
+                // 前回の整形後のファイルのジョブが中断している場合は同じファイルで再開
+                System.out.println("-- resumePrepared -- " + preparer.getPreparedFile());
+            } else {
+                preparer.prepare(sourcePath, dedupColumn, grouped ? entry.getGroupByColumn() : "", userInfo.groupBucketBytes);
+                if (preparer.getDuplicateCount() > 0) {
+                    System.out.println("DuplicateRecords = " + preparer.getDuplicateCount() + " : " + preparer.getDuplicateFile());
+                }
+            }
+            sourcePath = preparer.getPreparedFile().getPath();
+            splitter = CsvRecordSplitter.open(sourcePath);
+            splitter.nextRecord();
+        }
         
-        // CSVファイルから登録データ情報を取得してジョブバッチを作成
-        List<BatchInfo> batchInfoList = this.sfdcApiUtil.createBatchesFromCSVFile(connection, job, rdr, headerBytes);
-        // ジョブのステータスをクローズにする
-        this.sfdcApiUtil.closeJob(connection, job.getId());
-        // ジョブが完了するまで待機
-        this.sfdcApiUtil.awaitCompletion(connection, job, batchInfoList);
-
-        // 最新のジョブ情報を取得
-        JobInfo resultJob = connection.getJobStatus(job.getId());
-        // エラーの操作の結果をチェック (検知不要のエラー件数も取得)
-        int skipErrorCount = this.checkResults(connection, resultJob, batchInfoList);
-        // エラー件数のチェック
-        Boolean isError = this.isErrorRecords(resultJob, skipErrorCount);
-        // 異常なエラーが発生している場合、エラーオブジェクトに登録
+        // バッチを圧縮する場合はアップロード専用の接続を使用
+        BatchCompressor compressor = null;
+        if (userInfo.compressBatches) {
+            compressor = new BatchCompressor(session.newBulkConnection(), userInfo.compressionLevel, userInfo.compressionBufferSize);
+        }
+        ImportJobResult result;
+        int failedCount;
+        int skipErrorCount;
+        int uncountedBatchCount;
+        try {
+            // ジョブを実行
+            // (adaptiveは同じオブジェクトの以前のジョブ・前回の実行で推定した行数から開始)
+            BatchSizingPolicy sizingPolicy = this.getBatchSizingPolicy(userInfo, entry.getSobjectType());
+            result = this.executeJob(connection, entry, userInfo, sourcePath, charset, splitter, headerBytes, sizingPolicy, compressor);
+            failedCount = result.getFailedCount();
+            skipErrorCount = result.getSkipErrorCount();
+            uncountedBatchCount = result.getUncountedBatchCount();
+
+            // 再実行対象のエラー(行ロック競合など)のレコードのみ小さいバッチサイズで別ジョブとして再実行
+            if (userInfo.retryFailedRecords && result.getRetryCount() > 0) {
+                System.out.println("-- retryFailedRecords -- " + result.getRetryCount());
+                String retryPath = result.getRetryFile().getPath();
+                CsvRecordSplitter retrySplitter = CsvRecordSplitter.open(retryPath);
+                retrySplitter.nextRecord();
+                BatchSizingPolicy retryPolicy = new FixedBatchSizingPolicy(userInfo.retryRowsPerBatch, SalesforceApiUtil.MAX_BYTES_PER_BATCH);
+                ImportJobResult retryResult = this.executeJob(connection, entry, userInfo, retryPath, charset, retrySplitter, headerBytes, retryPolicy, compressor);
+                // 再実行したレコードは再実行ジョブの結果で判定
+                failedCount = failedCount - result.getRetryCount() + retryResult.getFailedCount();
+                skipErrorCount += retryResult.getSkipErrorCount();
+                uncountedBatchCount += retryResult.getUncountedBatchCount();
+            }
+        } finally {
+            if (compressor != null) {
+                compressor.printSummary();
+                compressor.close();
+            }
+            this.saveBatchSizingPolicy(userInfo, entry.getSobjectType());
+        }
+
+        // エラー件数のチェック (アップロード前に隔離したレコードも失敗として扱う)
+        failedCount += (int) invalidCount;
+        Boolean isError = this.isErrorRecords(failedCount, skipErrorCount, uncountedBatchCount);
+        RunReport report = this.getRunReport(userInfo);
+        if (report != null) {
+            report.recordJob(entry.getSobjectType(), result.getJobInfo(), failedCount, skipErrorCount, invalidCount, !isError);
+        }
+        // 異常なエラーが発生している場合は処理終了
         if (isError) {
-            System.out.println("異常なエラーです : 【" + resultJob.getId() + "】");
-            System.exit(1);
+            System.out.println("異常なエラーです : 【" + result.getJobInfo().getId() + "】");
+            return false;
+        }
+        // 成功した場合のみ今回のインデックスを反映
+        if (deltaDetector != null) {
+            deltaDetector.commit();
         }
         
-        // ジョブ実行通知レコードを作成
-        String taskId = this.createTask(partnerConfig, resultJob);
-        System.out.println("Create Task = " + taskId);
+        // ジョブ実行通知レコードを追加 (実行の終了時に複数ジョブ分をまとめて作成)
+        // (シミュレーターはSOAP APIに応答しないため作成しない)
+        if (!userInfo.simulateBulkApi && userInfo.notifyTasks) {
+            this.getTaskNotifier(session).add(this.newTask(entry, result.getJobInfo(), failedCount, skipErrorCount));
+            System.out.println("Queue Task = " + result.getJobInfo().getId());
+        }
+        return true;
     }
-    
+
     /**
-     * 指定したファイルを条件にBufferedReader変数を取得
-     * @param filePath ファイルパス
-     * @return BufferedReader変数
-     * @throws FileNotFoundException
+     * ジョブの作成からバッチの処理結果のチェックまでを実行
+     * @param connection BulkAPIの接続情報
+     * @param entry インポート対象
+     * @param userInfo ユーザ情報
+     * @param sourcePath 読み込み元のファイルパス
+     * @param charset 読み込み元の文字コード (作業ファイルの場合は元の読み込み元の文字コード)
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param headerBytes CSVのヘッダー行
+     * @param sizingPolicy バッチサイズの決定方法
+     * @param compressor バッチの圧縮 (圧縮しない場合はnull)
+     * @return ジョブの実行結果
+     * @throws AsyncApiException
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws TimeoutException
      */
-    public BufferedReader getBufferedReader(String filePath) throws FileNotFoundException {
-    	BufferedReader rdr = new BufferedReader(
-            new InputStreamReader(new FileInputStream(filePath))
-        );
-    	return rdr;
+    private ImportJobResult executeJob(BulkConnection connection, ImportEntry entry, UserInfo userInfo, String sourcePath, Charset charset, CsvRecordSplitter splitter, byte[] headerBytes, BatchSizingPolicy sizingPolicy, BatchCompressor compressor) throws AsyncApiException, IOException, InterruptedException, TimeoutException {
+        // ジョブ単位のスコープで実行 (期限を過ぎた場合はアップロード・完了待ち・処理結果の取得を中断)
+        // (サーバー側のジョブは中止しないため、次回の実行時にチェックポイントから再開できる)
+        JobScope scope = JobScope.open(entry.getSobjectType(), userInfo.jobDeadlineMillis);
+        try {
+            return this.runJob(connection, entry, userInfo, sourcePath, charset, splitter, headerBytes, sizingPolicy, compressor, scope);
+        } catch (InterruptedException | IOException | AsyncApiException | RejectedExecutionException e) {
+            // 期限切れの割り込みで中断した場合はタイムアウトとして扱う
+            if (scope.isExpired()) {
+                throw new TimeoutException("job deadline exceeded : " + entry.getSobjectType() + " (" + userInfo.jobDeadlineMillis + "ms)");
+            }
+            throw e;
+        } finally {
+            scope.close();
+        }
     }
 
     /**
-     * 処理結果チェック
+     * ジョブのスコープ内でジョブの作成(または再開)・バッチの作成・完了待ち・処理結果のチェックを実行
      * @param connection BulkAPIの接続情報
-     * @param job ジョブ情報
-     * @param batchInfoList バッチ情報
+     * @param entry インポート対象
+     * @param userInfo ユーザ情報
+     * @param sourcePath 読み込み元のファイルパス
+     * @param charset 読み込み元の文字コード (作業ファイルの場合は元の読み込み元の文字コード)
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param headerBytes CSVのヘッダー行
+     * @param sizingPolicy バッチサイズの決定方法
+     * @param compressor バッチの圧縮 (圧縮しない場合はnull)
+     * @param scope ジョブのスコープ (完了待ちのタイムアウトに期限までの残り時間を使用)
+     * @return ジョブの実行結果
      * @throws AsyncApiException
      * @throws IOException
+     * @throws InterruptedException
+     * @throws TimeoutException
      */
-    private int checkResults(BulkConnection connection, JobInfo job, List<BatchInfo> batchInfoList) throws AsyncApiException, IOException {
-        System.out.println("-- checkResults --");
+    private ImportJobResult runJob(BulkConnection connection, ImportEntry entry, UserInfo userInfo, String sourcePath, Charset charset, CsvRecordSplitter splitter, byte[] headerBytes, BatchSizingPolicy sizingPolicy, BatchCompressor compressor, JobScope scope) throws AsyncApiException, IOException, InterruptedException, TimeoutException {
+        // チェックポイントを開く (前回中断したジョブがあれば再接続)
+        // ストリーミングの読み込み元は読み直せないため再開しない
+        boolean streaming = RecordSource.isStreaming(sourcePath);
+        ImportJournal journal = null;
+        if (isResumable(userInfo) && !streaming) {
+            journal = ImportJournal.open(this.getJournalFile(userInfo, entry, sourcePath));
+            if (journal.isResumable() && !journal.isSameSource(new File(sourcePath))) {
+                // 読み込み元を修正して再実行した場合は前回のジョブを再開せずに最初から実行
+                System.out.println("<< WARN >> 読み込み元のファイルが前回の実行から変更されているため、新しいジョブで実行します : " + sourcePath + " (前回のジョブ = " + journal.getJobId() + ")");
+                journal.reset();
+            }
+        }
+        List<BatchSegment> segments = new ArrayList<BatchSegment>();
+        JobInfo job;
+        if (journal != null && journal.isResumable()) {
+            job = this.resumeJob(connection, journal, sourcePath, charset, headerBytes, segments);
+        } else {
+            // ジョブを作成
+            job = this.sfdcApiUtil.createJob(entry.getSobjectType(), connection, entry.getOperation(), entry.getExternalIdFieldName());
 
-        // 対象外エラー情報取得
-        ArrayList<String> skipErrorList = this.getSkipErrorList();
-        // 検知不要エラー件数
-        int skipErrorCount = 0;
-        
-        // バッチ情報をループしてエラーチェック
-        for (BatchInfo b : batchInfoList) {
-            CSVReader rdr = new CSVReader(connection.getBatchResultStream(job.getId(), b.getId()));
-            List<String> resultHeader = rdr.nextRecord();
-            int resultCols = resultHeader.size();
-            List<String> row;
-            while ((row = rdr.nextRecord()) != null) {
-                Map<String, String> resultInfo = new HashMap<String, String>();
-                for (int i = 0; i < resultCols; i++) {
-                    resultInfo.put(resultHeader.get(i), row.get(i));
+            // CSVファイル変換仕様のアップロード(項目のマッピング)
+            String specFileName = entry.getSpecFile();
+            try (InputStream in = new FileInputStream(specFileName)) {
+                connection.createTransformationSpecFromStream(job, in);
+            }
+            if (journal != null) {
+                journal.recordJob(job.getId(), new File(sourcePath));
+            }
+        }
+
+        List<BatchInfo> batchInfoList;
+        if (journal == null || !journal.isJobClosed()) {
+            BatchBufferPool bufferPool = new BatchBufferPool(SalesforceApiUtil.MAX_BYTES_PER_BATCH, userInfo.batchMemoryBudget);
+            if (streaming) {
+                // 読み込み元から直接ジョブバッチを作成 (展開済みのファイルは作成しない)
+                batchInfoList = this.sfdcApiUtil.createBatchesFromCSVFile(connection, job, splitter, headerBytes, sizingPolicy, bufferPool, userInfo.maxInFlightBatches, segments, null, compressor, charset);
+            } else {
+                // 再開時はアップロード済みの範囲が連続している位置から読み込み
+                long resumeOffset = getResumeOffset(segments, splitter.getPosition());
+                splitter.close();
+                // レコードの区切りで分割した範囲毎に並列に読み込み、ジョブバッチを作成 (ヘッダー行は共通)
+                List<CsvShardPlanner.Shard> shards = CsvShardPlanner.plan(sourcePath, resumeOffset, userInfo.readerShards);
+                batchInfoList = this.sfdcApiUtil.createBatchesFromShards(connection, job, sourcePath, shards, headerBytes, sizingPolicy, bufferPool, userInfo.maxInFlightBatches, segments, journal, compressor, charset);
+            }
+            // ジョブのステータスをクローズにする
+            this.sfdcApiUtil.closeJob(connection, job.getId());
+            if (journal != null) {
+                journal.recordJobClosed();
+            }
+        } else {
+            splitter.close();
+            batchInfoList = new ArrayList<BatchInfo>();
+        }
+        if (batchInfoList.size() != segments.size()) {
+            // 再開時は前回作成したバッチも含めて監視
+            batchInfoList = Arrays.asList(connection.getBatchInfoList(job.getId()).getBatchInfo());
+        }
+
+        // 失敗レコードの出力先を作成
+        // (失敗レコードはバッチの範囲を読み込み元から読み直して抽出するため、ストリーミングの読み込み元は抽出しない)
+        FailedRecordWriter failedRecordWriter = null;
+        if (streaming && userInfo.extractFailedRecords) {
+            System.out.println("<< WARN >> ストリーミングの読み込み元のため失敗レコードは抽出しません : " + sourcePath);
+        } else if (userInfo.extractFailedRecords) {
+            File failedFile = new File(userInfo.failedRecordDir, entry.getSobjectType() + "-" + job.getId() + "-failed.csv");
+            File retryFile = userInfo.retryFailedRecords ? new File(userInfo.failedRecordDir, entry.getSobjectType() + "-" + job.getId() + "-retry.csv") : null;
+            failedRecordWriter = new FailedRecordWriter(sourcePath, headerBytes, failedFile, retryFile, userInfo.retryableErrors, charset);
+        }
+        try {
+            // ジョブが完了するまで待機 (完了したバッチから順に処理結果のチェックを開始)
+            // (完了時のジョブ情報を最新のジョブ情報として使用)
+            ResultChecker resultChecker = new ResultChecker(connection, job, this.getSkipErrorMatcher(userInfo), sizingPolicy, userInfo.resultThreads);
+            // 失敗・未処理のバッチはバッチの範囲のレコード件数を失敗として数える
+            resultChecker.setSegments(segments);
+            if (failedRecordWriter != null) {
+                resultChecker.setFailedRecordWriter(failedRecordWriter, segments);
+            }
+            RunReport report = this.getRunReport(userInfo);
+            if (report != null) {
+                resultChecker.setRunReport(report, entry.getSobjectType());
+            }
+            JobInfo resultJob = this.sfdcApiUtil.awaitCompletion(connection, job, batchInfoList, sizingPolicy, scope.remainingMillis(userInfo.jobTimeoutMillis), resultChecker);
+            // エラーの操作の結果をチェック (検知不要のエラー件数も取得)
+            int skipErrorCount = resultChecker.awaitSkipErrorCount();
+            if (failedRecordWriter == null) {
+                if (journal != null) {
+                    journal.complete();
+                }
+                return new ImportJobResult(resultJob, skipErrorCount, resultChecker.getFailuresByStatusCode(), null, null, 0,
+                    resultChecker.getFailedBatchRecordCount(), resultChecker.getUncountedBatchCount());
+            }
+            failedRecordWriter.close();
+            System.out.println("FailedRecords = " + failedRecordWriter.getFailedCount() + " : " + failedRecordWriter.getFailedFile());
+            if (journal != null) {
+                journal.complete();
+            }
+            return new ImportJobResult(resultJob, skipErrorCount, resultChecker.getFailuresByStatusCode(),
+                failedRecordWriter.getFailedFile(), failedRecordWriter.getRetryFile(), failedRecordWriter.getRetryCount(),
+                resultChecker.getFailedBatchRecordCount(), resultChecker.getUncountedBatchCount());
+        } finally {
+            if (failedRecordWriter != null) {
+                failedRecordWriter.close();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * 重複を除くキー項目のCSVのヘッダー名 (upsertは外部ID項目、update/delete/hardDeleteはId)
+     * @param entry インポート対象
+     * @return CSVのヘッダー名 (重複を除かない場合は空)
+     * @throws IOException
+     */
+    private String getDedupColumn(ImportEntry entry) throws IOException {
+        switch (entry.getOperation()) {
+        case upsert:
+            return RecordPreparer.resolveCsvColumn(entry.getSpecFile(), entry.getExternalIdFieldName());
+        case update:
+        case delete:
+        case hardDelete:
+            return RecordPreparer.resolveCsvColumn(entry.getSpecFile(), "Id");
+        default:
+            return "";
+        }
+    }
+
+    /**
+     * チェックポイントのファイル
+     * @param userInfo ユーザ情報
+     * @param entry インポート対象
+     * @param sourcePath 読み込み元のファイルパス
+     * @return ファイル
+     */
+    private File getJournalFile(UserInfo userInfo, ImportEntry entry, String sourcePath) {
+        return new File(userInfo.journalDir, entry.getSobjectType() + "-" + new File(sourcePath).getName() + ".journal");
+    }
+
+    /**
+     * 中断したジョブを再開するか
+     * (シミュレーターのジョブ・バッチは再起動すると残らないため、シミュレーター使用時はチェックポイントを記録しない)
+     * @param userInfo ユーザ情報
+     * @return 再開する場合はtrue
+     */
+    private static boolean isResumable(UserInfo userInfo) {
+        return userInfo.resumable && !userInfo.simulateBulkApi;
+    }
+
+    /**
+     * 作業ファイルが読み込み元の変更後に作成されたか (読み込み元を修正した場合は前回の作業ファイルで再開しない)
+     * @param workFile 作業ファイル
+     * @param sourcePath 元の読み込み元のファイルパス
+     * @return 作業ファイルが存在し、読み込み元より新しい場合はtrue
+     */
+    private static boolean isWorkFileCurrent(File workFile, String sourcePath) {
+        return workFile.exists() && workFile.lastModified() >= new File(sourcePath).lastModified();
+    }
+
+    /**
+     * 前回中断したジョブへの再接続
+     * アップロードの完了を記録する前に中断したバッチは、サーバーのバッチのリクエスト内容と読み込み元の範囲を比較して対応付ける。
+     * 対応付けられない範囲は再度アップロードする。
+     * @param connection BulkAPIの接続情報
+     * @param journal チェックポイント
+     * @param sourcePath 読み込み元のファイルパス
+     * @param charset 読み込み元の文字コード
+     * @param headerBytes CSVのヘッダー行
+     * @param segments アップロード済みのバッチの範囲 (追加先)
+     * @return ジョブ情報
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    private JobInfo resumeJob(BulkConnection connection, ImportJournal journal, String sourcePath, Charset charset, byte[] headerBytes, List<BatchSegment> segments) throws AsyncApiException, IOException {
+        System.out.println("-- resumeJob -- " + journal.getJobId());
+        JobInfo job = connection.getJobStatus(journal.getJobId());
+        if (job.getState() == JobStateEnum.Aborted || job.getState() == JobStateEnum.Failed) {
+            throw new IOException("前回のジョブは再開できません : " + job.getId() + " " + job.getState());
+        }
+        segments.addAll(journal.getUploadedSegments());
+        List<BatchSegment> pending = journal.getPendingSegments();
+        if (!pending.isEmpty()) {
+            Set<String> known = new HashSet<String>();
+            for (BatchSegment segment : segments) {
+                known.add(segment.getBatchId());
+            }
+            for (BatchInfo batchInfo : connection.getBatchInfoList(job.getId()).getBatchInfo()) {
+                if (known.contains(batchInfo.getId())) {
+                    continue;
                 }
-                boolean success = Boolean.valueOf(resultInfo.get("Success"));
-                String error = resultInfo.get("Error");
-
-                if (!success) {
-                    // 発生しても問題ないエラーの件数をカウント
-                    Boolean isSkip = this.isSkipError(error, skipErrorList);
-                    if (isSkip) {
-                        skipErrorCount++;
+                BatchSegment matched = null;
+                for (BatchSegment segment : pending) {
+                    if (segment.getBatchId() == null && this.isSameBatchRequest(connection, job, batchInfo, sourcePath, charset, headerBytes, segment)) {
+                        matched = segment;
+                        break;
                     }
                 }
+                if (matched == null) {
+                    throw new IOException("チェックポイントに記録されていないバッチがあります : " + batchInfo.getId());
+                }
+                matched.setBatchId(batchInfo.getId());
+                journal.recordBatch(matched);
+                segments.add(matched);
             }
         }
+        System.out.println("UploadedBatches = " + segments.size());
+        return job;
+    }
 
-        return skipErrorCount;
+    /**
+     * サーバーのバッチのリクエスト内容が読み込み元の範囲と一致するか
+     * (UTF-8以外の読み込み元はアップロード時と同じくUTF-8に変換して比較)
+     * @param connection BulkAPIの接続情報
+     * @param job ジョブ情報
+     * @param batchInfo バッチ情報
+     * @param sourcePath 読み込み元のファイルパス
+     * @param charset 読み込み元の文字コード
+     * @param headerBytes CSVのヘッダー行
+     * @param segment バッチの範囲
+     * @return 一致する場合はtrue
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    private boolean isSameBatchRequest(BulkConnection connection, JobInfo job, BatchInfo batchInfo, String sourcePath, Charset charset, byte[] headerBytes, BatchSegment segment) throws AsyncApiException, IOException {
+        byte[] expected = new byte[headerBytes.length + (int) (segment.getEndOffset() - segment.getStartOffset())];
+        System.arraycopy(headerBytes, 0, expected, 0, headerBytes.length);
+        try (RandomAccessFile file = new RandomAccessFile(sourcePath, "r")) {
+            file.seek(segment.getStartOffset());
+            file.readFully(expected, headerBytes.length, expected.length - headerBytes.length);
+        }
+        if (!StandardCharsets.UTF_8.equals(charset)) {
+            expected = new String(expected, charset).getBytes(StandardCharsets.UTF_8);
+        }
+        try (InputStream in = new BufferedInputStream(connection.getBatchRequestInputStream(job.getId(), batchInfo.getId()))) {
+            for (int i = 0; i < expected.length; i++) {
+                if (in.read() != (expected[i] & 0xFF)) {
+                    return false;
+                }
+            }
+            return in.read() == -1;
+        }
     }
 
     /**
-     * 発生したエラーが検知不要のエラー情報と一致するか判定
-     * @param error エラーメッセージ
-     * @param skipErrorList 検知不要エラー情報
-     * @return 判定結果
+     * アップロード済みの範囲が先頭から連続している位置
+     * @param segments アップロード済みのバッチの範囲
+     * @param dataStart データ行の開始位置
+     * @return 読み込みを再開する位置
      */
-    private Boolean isSkipError(String error, List<String> skipErrorList) {
-    	System.out.println("error = " + error);
-        for (String key : skipErrorList) {
-            if (error.indexOf(key) != -1) {
-                return true;
+    static long getResumeOffset(List<BatchSegment> segments, long dataStart) {
+        List<BatchSegment> sorted = new ArrayList<BatchSegment>(segments);
+        Collections.sort(sorted, new Comparator<BatchSegment>() {
+            @Override
+            public int compare(BatchSegment a, BatchSegment b) {
+                return Long.compare(a.getStartOffset(), b.getStartOffset());
             }
+        });
+        long offset = dataStart;
+        for (BatchSegment segment : sorted) {
+            if (segment.getStartOffset() != offset) {
+                break;
+            }
+            offset = segment.getEndOffset();
+        }
+        return offset;
+    }
+    
+    /**
+     * 指定したファイルを条件にCSVのレコード分割を取得
+     * ファイルはUTF-8として文字列に変換せずにそのまま読み込む。
+     * @param filePath ファイルパス
+     * @return CSVのレコード分割
+     * @throws IOException
+     */
+    public CsvRecordSplitter getCsvRecordSplitter(String filePath) throws IOException {
+        return CsvRecordSplitter.open(filePath);
+    }
+
+    /**
+     * 指定した読み込み元のCSVのレコード分割を取得
+     * 標準入力("-")・gzip・zip・クエリ(*.sql)は展開済みのファイルを作成せずに読み込む。
+     * @param filePath ファイルパス
+     * @param userInfo ユーザ情報
+     * @return CSVのレコード分割
+     * @throws IOException
+     */
+    public CsvRecordSplitter getCsvRecordSplitter(String filePath, UserInfo userInfo) throws IOException {
+        return RecordSource.open(filePath, userInfo);
+    }
+
+    /**
+     * バッチサイズの決定方法を取得
+     * @param userInfo ユーザ情報
+     * @return バッチサイズの決定方法
+     */
+    public BatchSizingPolicy getBatchSizingPolicy(UserInfo userInfo) {
+        if ("adaptive".equals(userInfo.batchSizing)) {
+            return new AdaptiveBatchSizingPolicy(userInfo.minRowsPerBatch, userInfo.maxRowsPerBatch, SalesforceApiUtil.MAX_BYTES_PER_BATCH, userInfo.targetBatchMillis);
+        }
+        return new FixedBatchSizingPolicy(userInfo.maxRowsPerBatch, SalesforceApiUtil.MAX_BYTES_PER_BATCH);
+    }
+
+    /**
+     * オブジェクト毎のバッチサイズの決定方法を取得 (adaptiveは初回のみ作成し、前回保存した行数を読み込む)
+     * @param userInfo ユーザ情報
+     * @param sobjectType オブジェクトAPI名
+     * @return バッチサイズの決定方法
+     */
+    private synchronized BatchSizingPolicy getBatchSizingPolicy(UserInfo userInfo, String sobjectType) {
+        if (!"adaptive".equals(userInfo.batchSizing)) {
+            return this.getBatchSizingPolicy(userInfo);
+        }
+        AdaptiveBatchSizingPolicy policy = this.sizingPolicies.get(sobjectType);
+        if (policy == null) {
+            policy = ((AdaptiveBatchSizingPolicy) this.getBatchSizingPolicy(userInfo)).load(this.getBatchSizingFile(userInfo, sobjectType));
+            this.sizingPolicies.put(sobjectType, policy);
         }
-        return false;
+        return policy;
     }
 
     /**
-     * 検知エラー情報の取得
-     * @return 検知エラー情報 
+     * adaptiveで推定した行数を保存 (次回の実行の初期値)
+     * @param userInfo ユーザ情報
+     * @param sobjectType オブジェクトAPI名
      */
-    private ArrayList<String> getSkipErrorList() {
-        // 検知不要のエラー情報(エラーメッセージ)を取得
-        ArrayList<String> skipErrorList = new ArrayList<String>();
-        skipErrorList.add("[Allowable Error]");
-        return skipErrorList;
+    private void saveBatchSizingPolicy(UserInfo userInfo, String sobjectType) {
+        AdaptiveBatchSizingPolicy policy;
+        synchronized (this) {
+            policy = this.sizingPolicies.get(sobjectType);
+        }
+        if (policy == null) {
+            return;
+        }
+        try {
+            policy.save(this.getBatchSizingFile(userInfo, sobjectType));
+        } catch (IOException e) {
+            System.out.println("<< WARN >> バッチサイズを保存できません : " + e.getMessage());
+        }
+    }
+
+    private File getBatchSizingFile(UserInfo userInfo, String sobjectType) {
+        return new File(userInfo.workDir, sobjectType + ".batchsize");
+    }
+
+    /**
+     * 検知不要エラーの判定を取得 (初回のみファイルから読み込み)
+     * @param userInfo ユーザ情報
+     * @return 検知不要エラーの判定
+     * @throws IOException
+     */
+    private synchronized SkipErrorMatcher getSkipErrorMatcher(UserInfo userInfo) throws IOException {
+        if (this.skipErrorMatcher == null) {
+            this.skipErrorMatcher = SkipErrorMatcher.load(userInfo.skipErrorFile);
+        }
+        return this.skipErrorMatcher;
     }
     
     /**
      * ジョブのエラー件数と検知不要エラー件数の比較
-     * @param resultJob ジョブ情報
+     * @param failedCount エラー件数
+     * @param skipErrorCount 検知不要エラー件数
+     * @param uncountedBatchCount レコード件数が不明な失敗・未処理のバッチ数
      * @return 比較結果
      */
-    private Boolean isErrorRecords(JobInfo resultJob, int skipErrorCount) {
+    private Boolean isErrorRecords(int failedCount, int skipErrorCount, int uncountedBatchCount) {
         // 異常なエラーが発生しているか確認
-    	System.out.println("NumberRecordsFailed = " + resultJob.getNumberRecordsFailed());
+    	System.out.println("NumberRecordsFailed = " + failedCount);
     	System.out.println("SkipErrorCount = " + skipErrorCount);
     	
-        if (resultJob.getNumberRecordsFailed() != skipErrorCount) {
+        // 件数が不明な失敗バッチがある場合は送信できなかったレコードがあるため異常とする
+        if (uncountedBatchCount > 0) {
+            System.out.println("UncountedFailedBatches = " + uncountedBatchCount);
+            return true;
+        }
+        if (failedCount != skipErrorCount) {
             return true;
         } else {
             return false;
@@ -180,53 +690,131 @@ public class AccountDataImport {
     }
     
     /**
-     * ジョブ通知用のタスクレコードを作成
-     * @param partnerConfig セッション情報
+     * 実行レポートを取得 (初回のみファイルを作成)
+     * @param userInfo ユーザ情報
+     * @return 実行レポート (出力しない場合はnull)
+     * @throws IOException
+     */
+    private synchronized RunReport getRunReport(UserInfo userInfo) throws IOException {
+        if (this.runReport == null && !userInfo.reportDir.isEmpty()) {
+            this.runReport = RunReport.open(userInfo.reportDir);
+            System.out.println("RunReport = " + this.runReport.getFile());
+        }
+        return this.runReport;
+    }
+
+    /**
+     * ジョブ実行通知の一括作成を取得 (初回のみ作成)
+     * @param session 共有のセッション
+     * @return ジョブ実行通知の一括作成
+     */
+    private synchronized TaskNotifier getTaskNotifier(final SessionManager session) {
+        if (this.taskNotifier == null) {
+            this.taskNotifier = new TaskNotifier(new TaskNotifier.TaskSender() {
+                @Override
+                public int send(SObject[] tasks) throws ConnectionException {
+                    return createTasks(session, tasks);
+                }
+            });
+        }
+        return this.taskNotifier;
+    }
+
+    /**
+     * 実行の終了処理 (ジョブ実行通知の残りを作成し、実行レポートを閉じる)
+     * セッションを解放する前に呼び出す。
+     */
+    public void finishRun() {
+        TaskNotifier notifier;
+        RunReport report;
+        synchronized (this) {
+            notifier = this.taskNotifier;
+            report = this.runReport;
+            this.taskNotifier = null;
+            this.runReport = null;
+        }
+        if (notifier != null) {
+            int created = notifier.flush();
+            System.out.println("Create Task = " + created + " / " + notifier.getQueuedCount());
+        }
+        if (report != null) {
+            try {
+                report.close();
+                System.out.println("RunReport = " + report.getFile() + " (jobs=" + report.getJobCount() + ", batches=" + report.getBatchCount() + ")");
+            } catch (IOException e) {
+                System.out.println("<< IOException >> " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * ジョブ通知用のタスクレコードを作成 (登録はしない)
+     * @param entry インポート対象
      * @param job ジョブ情報
-     * @return レコードID
+     * @param failedCount エラー件数
+     * @param skipErrorCount 検知不要エラー件数
+     * @return タスクレコード
+     */
+    private SObject newTask(ImportEntry entry, JobInfo job, int failedCount, int skipErrorCount) {
+        SObject task = new SObject();
+        task.setType("Task");
+        // マニフェストでは複数のオブジェクトの通知を作成するため、件名にオブジェクトAPI名を含める
+        task.setField("Subject", entry.getSobjectType() + " インポートバッチ実行通知");
+        task.setField("ActivityDate", new Date());
+        task.setField("Priority", "High");
+        task.setField("Description", entry.getSobjectType() + " インポートバッチが実行されました。\n取り込みジョブを確認してください。\n【ジョブID = " + job.getId() + "】"
+            + "\n【オブジェクト = " + entry.getSobjectType() + "、処理件数 = " + job.getNumberRecordsProcessed()
+            + "、エラー件数 = " + failedCount + "、検知不要エラー件数 = " + skipErrorCount + "】");
+        return task;
+    }
+
+    /**
+     * ジョブ通知用のタスクレコードをまとめて登録
+     * @param session 共有のセッション
+     * @param tasks タスクレコード (200件まで)
+     * @return 登録した件数
      * @throws ConnectionException
      */
-    private String createTask(ConnectorConfig partnerConfig, JobInfo job) throws ConnectionException {
-        PartnerConnection partnerConnection = null;
-        String result = null;
+    private int createTasks(SessionManager session, SObject[] tasks) throws ConnectionException {
+        // 共有のPartnerConnectionを使用
+        PartnerConnection partnerConnection = session.getPartnerConnection();
+        String sessionId = session.getSessionId();
+        // INSERTを実行
+        // (PartnerAPIの呼び出しもBulkAPIと同じAPI制限の範囲内で実行)
+        ApiGovernor governor = session.getGovernor();
+        SaveResult[] results;
         try {
-            // PartnerConnectionを作成
-            partnerConnection = com.sforce.soap.partner.Connector.newConnection(partnerConfig);
-            
-            // 現在の日時を取得
-            Date date = new Date();
-            
-            // Task Objectを作成
-            SObject task = new SObject();
-            task.setType("Task");
-            task.setField("Subject", "取引先インポートバッチ実行通知");
-            task.setField("ActivityDate", date);
-            task.setField("Priority", "High");
-            task.setField("Description", "取引先インポートバッチが実行されました。\n取り込みジョブを確認してください。\n【ジョブID = " + job.getId() + "】");
-            // sObjectのリストに追加
-            SObject[] tasks = new SObject[1];
-            tasks[0] = task;
-            // INSERTを実行
-            SaveResult[] results = partnerConnection.create(tasks);
-
-            // 処理結果を判定
-            for (int j = 0; j < results.length; j++) {
-                if (results[j].isSuccess()) {
-                    result = results[j].getId();
-                } else {
-                    for (int i = 0; i < results[j].getErrors().length; i++) {
-                        Error err = results[j].getErrors()[i];
-                        System.out.println("Errors were found on item " + j);
-                        System.out.println("Error code: " + err.getStatusCode().toString());
-                        System.out.println("Error message: " + err.getMessage());
-                    }
-                }
+            governor.acquireCall();
+        } catch (InterruptedIOException e) {
+            throw new ConnectionException(e.getMessage(), e);
+        }
+        try {
+            results = partnerConnection.create(tasks);
+        } catch (UnexpectedErrorFault e) {
+            if (e.getExceptionCode() != ExceptionCode.INVALID_SESSION_ID) {
+                throw e;
             }
-        } catch (ConnectionException e) {
-            System.out.println("<< ConnectionException >> " + e.getMessage());
+            // セッションが無効になった場合は再作成して再実行
+            session.refresh(sessionId);
+            results = session.getPartnerConnection().create(tasks);
         } finally {
-            partnerConnection.logout();
+            governor.releaseCall();
+        }
+
+        // 処理結果を判定
+        int created = 0;
+        for (int j = 0; j < results.length; j++) {
+            if (results[j].isSuccess()) {
+                created++;
+            } else {
+                for (int i = 0; i < results[j].getErrors().length; i++) {
+                    Error err = results[j].getErrors()[i];
+                    System.out.println("Errors were found on item " + j);
+                    System.out.println("Error code: " + err.getStatusCode().toString());
+                    System.out.println("Error message: " + err.getMessage());
+                }
+            }
         }
-        return result;
+        return created;
     }
 }
@@ -0,0 +1,150 @@
+package com.example.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+
+/**
+ * 処理時間に応じて変化するバッチサイズ
+ * 完了したバッチの1行あたりの処理時間から、目標の処理時間に収まる行数を推定して増減させる。
+ * 行ロック競合やタイムアウトが発生した場合は行数を半分にする。
+ * 完了通知はバッチの作成後に届くため、同じオブジェクトの以降のジョブで同じインスタンスを使用し、
+ * 実行の終了時に推定した行数をファイルに保存して次回の実行の初期値にする。
+ */
+public class AdaptiveBatchSizingPolicy implements BatchSizingPolicy {
+
+    private final int minRowsPerBatch;
+    private final int maxRowsPerBatch;
+    private final int maxBytesPerBatch;
+    private final long targetBatchMillis;
+    private volatile int currentRowsPerBatch;
+
+    /**
+     * コンストラクタ
+     * @param minRowsPerBatch バッチあたりの最小行数
+     * @param maxRowsPerBatch バッチあたりの最大行数 (初期値)
+     * @param maxBytesPerBatch バッチあたりの最大バイト数
+     * @param targetBatchMillis 目標とするバッチあたりの処理時間(ミリ秒)
+     */
+    public AdaptiveBatchSizingPolicy(int minRowsPerBatch, int maxRowsPerBatch, int maxBytesPerBatch, long targetBatchMillis) {
+        if (minRowsPerBatch < 1 || minRowsPerBatch > maxRowsPerBatch) {
+            throw new IllegalArgumentException("invalid rows per batch : " + minRowsPerBatch + " - " + maxRowsPerBatch);
+        }
+        this.minRowsPerBatch = minRowsPerBatch;
+        this.maxRowsPerBatch = maxRowsPerBatch;
+        this.maxBytesPerBatch = maxBytesPerBatch;
+        this.targetBatchMillis = targetBatchMillis;
+        this.currentRowsPerBatch = maxRowsPerBatch;
+    }
+
+    /**
+     * 前回保存した行数を初期値にする (ファイルがない・不正な場合は最大行数のまま)
+     * @param stateFile 行数の保存先
+     * @return AdaptiveBatchSizingPolicy
+     */
+    public AdaptiveBatchSizingPolicy load(File stateFile) {
+        if (!stateFile.exists()) {
+            return this;
+        }
+        try {
+            long rows = Long.parseLong(new String(Files.readAllBytes(stateFile.toPath()), StandardCharsets.UTF_8).trim());
+            synchronized (this) {
+                this.update(rows);
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("<< WARN >> バッチサイズの前回値を読み込めません : " + stateFile + " " + e.getMessage());
+        }
+        return this;
+    }
+
+    /**
+     * 現在の行数を保存
+     * @param stateFile 行数の保存先
+     * @throws IOException
+     */
+    public void save(File stateFile) throws IOException {
+        File dir = stateFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("directory not created : " + dir);
+        }
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        Files.write(tmp.toPath(), String.valueOf(this.currentRowsPerBatch).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public int getMaxRowsPerBatch() {
+        return this.currentRowsPerBatch;
+    }
+
+    @Override
+    public int getMaxBytesPerBatch() {
+        return this.maxBytesPerBatch;
+    }
+
+    @Override
+    public synchronized void onBatchCompleted(BatchInfo batchInfo) {
+        if (batchInfo.getState() == BatchStateEnum.Failed) {
+            // タイムアウト・行ロック競合で失敗したバッチは行数を半分にする
+            if (isContentionMessage(batchInfo.getStateMessage())) {
+                this.shrink();
+            }
+            return;
+        }
+        int processed = batchInfo.getNumberRecordsProcessed();
+        long processingTime = batchInfo.getTotalProcessingTime();
+        if (processed <= 0 || processingTime <= 0) {
+            return;
+        }
+        // 1行あたりの処理時間から目標時間に収まる行数を推定 (1回の増加は2倍まで)
+        double millisPerRow = (double) processingTime / processed;
+        long estimated = (long) (this.targetBatchMillis / millisPerRow);
+        long next = (this.currentRowsPerBatch + Math.min(estimated, this.currentRowsPerBatch * 2L)) / 2;
+        this.update(next);
+    }
+
+    @Override
+    public synchronized void onLockErrors(int count) {
+        if (count > 0) {
+            this.shrink();
+        }
+    }
+
+    /**
+     * 行数を半分にする
+     */
+    private void shrink() {
+        this.update(this.currentRowsPerBatch / 2);
+    }
+
+    /**
+     * 行数を最小値〜最大値の範囲で更新
+     * @param rows 行数
+     */
+    private void update(long rows) {
+        int next = (int) Math.max(this.minRowsPerBatch, Math.min(this.maxRowsPerBatch, rows));
+        if (next != this.currentRowsPerBatch) {
+            System.out.println("RowsPerBatch = " + this.currentRowsPerBatch + " -> " + next);
+            this.currentRowsPerBatch = next;
+        }
+    }
+
+    /**
+     * タイムアウト・行ロック競合によるエラーメッセージか判定
+     * @param message エラーメッセージ
+     * @return 判定結果
+     */
+    private static boolean isContentionMessage(String message) {
+        if (message == null) {
+            return false;
+        }
+        return message.indexOf("UNABLE_TO_LOCK_ROW") != -1
+            || message.indexOf("Max CPU time exceeded") != -1
+            || message.indexOf("timeout") != -1
+            || message.indexOf("Timed out") != -1;
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * 組織のAPI制限と同時実行数の制御
+ * BulkAPI・PartnerAPIの呼び出し数とバッチ数をトークンバケットで制限し、制限に達する前に呼び出し元を待機させる。
+ * (ジョブの途中でAPI制限を超えて失敗しないように、処理を遅らせて制限内に収める)
+ * 制限は設定値、またはログイン後にRESTのLimitsリソースから取得した残数(予備を除く)を使用する。
+ * 複数スレッドから同時に使用できる。
+ */
+public class ApiGovernor {
+
+    /** Limitsリソースの1日の制限の期間 */
+    static final long DAILY_WINDOW_MILLIS = 24L * 60 * 60 * 1000;
+    /** Limitsリソースの接続・読み込みのタイムアウト(ミリ秒) */
+    static final int LIMITS_TIMEOUT_MILLIS = 10000;
+
+    private static final String[] API_LIMIT_KEYS = { "DailyApiRequests" };
+    private static final String[] BATCH_LIMIT_KEYS = { "DailyBulkApiBatches", "DailyBulkApiRequests" };
+
+    private volatile TokenBucket calls;
+    private volatile TokenBucket batches;
+    private final Semaphore concurrency;
+    private final double reserve;
+    private final AtomicLong throttledMillis = new AtomicLong();
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * コンストラクタ
+     * @param callLimit 期間あたりの呼び出し数の上限 (0の場合は無制限)
+     * @param batchLimit 期間あたりのバッチ数の上限 (0の場合は無制限)
+     * @param windowMillis 期間(ミリ秒)
+     * @param maxConcurrentCalls 同時に実行する呼び出し数の上限 (0の場合は無制限)
+     * @param reserve Limitsリソースの上限のうち使用しない割合 (0.0〜1.0)
+     */
+    public ApiGovernor(long callLimit, long batchLimit, long windowMillis, int maxConcurrentCalls, double reserve) {
+        this.calls = callLimit > 0 ? new TokenBucket("calls", callLimit, windowMillis, callLimit) : null;
+        this.batches = batchLimit > 0 ? new TokenBucket("batches", batchLimit, windowMillis, batchLimit) : null;
+        this.concurrency = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+        this.reserve = Math.max(0.0, Math.min(1.0, reserve));
+    }
+
+    /**
+     * 制限しないApiGovernor
+     * @return ApiGovernor
+     */
+    public static ApiGovernor unlimited() {
+        return new ApiGovernor(0L, 0L, DAILY_WINDOW_MILLIS, 0, 0.0);
+    }
+
+    /**
+     * 設定値からApiGovernorを作成
+     * @param userInfo ユーザ情報
+     * @return ApiGovernor
+     */
+    public static ApiGovernor fromUserInfo(UserInfo userInfo) {
+        return new ApiGovernor(userInfo.apiCallLimit, userInfo.batchLimit, userInfo.apiLimitWindowMillis, userInfo.maxConcurrentCalls, userInfo.apiLimitReserve);
+    }
+
+    /**
+     * 呼び出しの開始 (制限に達している場合は待機。終了時は releaseCall() を呼び出すこと)
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    public void acquireCall() throws InterruptedIOException {
+        this.acquire(this.calls, 1L);
+        if (this.concurrency != null) {
+            long start = System.currentTimeMillis();
+            try {
+                this.concurrency.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("api call interrupted");
+            }
+            this.throttledMillis.addAndGet(System.currentTimeMillis() - start);
+        }
+        this.callCount.incrementAndGet();
+    }
+
+    /**
+     * 呼び出しの終了
+     */
+    public void releaseCall() {
+        if (this.concurrency != null) {
+            this.concurrency.release();
+        }
+    }
+
+    /**
+     * バッチの作成前に呼び出す (制限に達している場合は待機)
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    public void acquireBatch() throws InterruptedIOException {
+        this.acquire(this.batches, 1L);
+        this.batchCount.incrementAndGet();
+    }
+
+    /**
+     * サーバーでAPI制限を超えた場合に呼び出す (以降の呼び出しは次のトークンが補充されるまで待機)
+     * @return 制限している場合はtrue (待機してから再実行できる)
+     */
+    public boolean onQuotaExceeded() {
+        System.out.println("<< WARN >> API制限を超えました。残数を0として呼び出しを待機します。");
+        boolean limited = false;
+        for (TokenBucket bucket : new TokenBucket[] { this.calls, this.batches }) {
+            if (bucket != null) {
+                bucket.drain();
+                limited = true;
+            }
+        }
+        return limited;
+    }
+
+    /**
+     * RESTのLimitsリソースから1日の上限と残数を取得して制限に反映
+     * @param serviceEndpoint ログイン後のSOAPのサービスエンドポイント (https://host/services/Soap/u/35.0/組織ID)
+     * @param sessionId セッションID
+     * @param apiVersion APIバージョン
+     * @throws IOException 取得に失敗した場合 (タイムアウトを含む)
+     */
+    public void loadLimits(String serviceEndpoint, String sessionId, String apiVersion) throws IOException {
+        this.loadLimits(serviceEndpoint, sessionId, apiVersion, LIMITS_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * RESTのLimitsリソースから1日の上限と残数を取得して制限に反映 (タイムアウトを指定)
+     * ログイン中(セッションの共有のロック中)に呼び出すため、応答がない場合も待ち続けない。
+     * @param serviceEndpoint ログイン後のSOAPのサービスエンドポイント
+     * @param sessionId セッションID
+     * @param apiVersion APIバージョン
+     * @param timeoutMillis 接続・読み込みのタイムアウト(ミリ秒)
+     * @throws IOException 取得に失敗した場合 (タイムアウトを含む)
+     */
+    void loadLimits(String serviceEndpoint, String sessionId, String apiVersion, int timeoutMillis) throws IOException {
+        String host = serviceEndpoint.substring(0, serviceEndpoint.indexOf("/services/"));
+        HttpURLConnection connection = (HttpURLConnection) new URL(host + "/services/data/v" + apiVersion + "/limits").openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setRequestProperty("Authorization", "Bearer " + sessionId);
+        connection.setRequestProperty("Accept", "application/json");
+        try (InputStream in = connection.getInputStream()) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> limits = new ObjectMapper().readValue(in, Map.class);
+            this.applyLimits(limits);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Limitsリソースの内容を制限に反映 (設定値より少ない場合のみ)
+     * @param limits Limitsリソースの内容 ({"DailyApiRequests":{"Max":..,"Remaining":..}, ..})
+     */
+    void applyLimits(Map<String, Object> limits) {
+        this.calls = this.applyLimit(this.calls, "calls", find(limits, API_LIMIT_KEYS));
+        this.batches = this.applyLimit(this.batches, "batches", find(limits, BATCH_LIMIT_KEYS));
+    }
+
+    /**
+     * 呼び出し数
+     * @return 呼び出し数
+     */
+    public long getCallCount() {
+        return this.callCount.get();
+    }
+
+    /**
+     * バッチ数
+     * @return バッチ数
+     */
+    public long getBatchCount() {
+        return this.batchCount.get();
+    }
+
+    /**
+     * 制限により待機した時間の合計
+     * @return ミリ秒
+     */
+    public long getThrottledMillis() {
+        return this.throttledMillis.get();
+    }
+
+    /**
+     * 現在使用できる呼び出し数
+     * @return 呼び出し数 (無制限の場合は-1)
+     */
+    public long getAvailableCalls() {
+        TokenBucket bucket = this.calls;
+        return bucket == null ? -1L : bucket.available();
+    }
+
+    /**
+     * 現在作成できるバッチ数
+     * @return バッチ数 (無制限の場合は-1)
+     */
+    public long getAvailableBatches() {
+        TokenBucket bucket = this.batches;
+        return bucket == null ? -1L : bucket.available();
+    }
+
+    public void printSummary() {
+        System.out.println("ApiCalls = " + this.getCallCount() + ", Batches = " + this.getBatchCount() + ", ThrottledMillis = " + this.getThrottledMillis());
+    }
+
+    private void acquire(TokenBucket bucket, long permits) throws InterruptedIOException {
+        if (bucket == null) {
+            return;
+        }
+        try {
+            this.throttledMillis.addAndGet(bucket.acquire(permits));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("api limit wait interrupted");
+        }
+    }
+
+    private TokenBucket applyLimit(TokenBucket current, String name, Map<?, ?> limit) {
+        if (limit == null || !(limit.get("Max") instanceof Number) || !(limit.get("Remaining") instanceof Number)) {
+            return current;
+        }
+        long max = ((Number) limit.get("Max")).longValue();
+        long remaining = ((Number) limit.get("Remaining")).longValue();
+        // 予備の分を残して使用する
+        long reserved = (long) Math.ceil(max * this.reserve);
+        long capacity = Math.max(1L, max - reserved);
+        long tokens = Math.max(0L, remaining - reserved);
+        System.out.println("-- apiLimit -- " + name + " max=" + max + " remaining=" + remaining + " usable=" + tokens);
+        if (current != null && current.available() <= tokens) {
+            return current;
+        }
+        return new TokenBucket(name, capacity, DAILY_WINDOW_MILLIS, tokens);
+    }
+
+    private static Map<?, ?> find(Map<String, Object> limits, String[] keys) {
+        for (String key : keys) {
+            if (limits.get(key) instanceof Map) {
+                return (Map<?, ?>) limits.get(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * トークンバケット (期間あたりcapacity個のトークンを均等に補充する)
+     */
+    static class TokenBucket {
+
+        private final String name;
+        private final long capacity;
+        private final double tokensPerNano;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(String name, long capacity, long windowMillis, long initialTokens) {
+            this.name = name;
+            this.capacity = capacity;
+            this.tokensPerNano = (double) capacity / TimeUnit.MILLISECONDS.toNanos(Math.max(1L, windowMillis));
+            this.tokens = Math.min(capacity, initialTokens);
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * トークンを取得 (不足している場合は補充されるまで待機)
+         * @param permits トークン数
+         * @return 待機した時間(ミリ秒)
+         * @throws InterruptedException
+         */
+        long acquire(long permits) throws InterruptedException {
+            long start = System.nanoTime();
+            boolean logged = false;
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    this.refill();
+                    if (this.tokens >= permits) {
+                        this.tokens -= permits;
+                        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    }
+                    waitNanos = (long) Math.ceil((permits - this.tokens) / this.tokensPerNano);
+                }
+                if (!logged) {
+                    System.out.println("-- throttle -- " + this.name + " wait=" + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms");
+                    logged = true;
+                }
+                // 他のスレッドと取り合うため、長い待機は区切って再確認する
+                TimeUnit.NANOSECONDS.sleep(Math.max(1L, Math.min(waitNanos, TimeUnit.SECONDS.toNanos(1))));
+            }
+        }
+
+        synchronized long available() {
+            this.refill();
+            return (long) this.tokens;
+        }
+
+        synchronized void drain() {
+            this.refill();
+            this.tokens = 0.0;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerNano);
+            this.lastRefill = now;
+        }
+    }
+}
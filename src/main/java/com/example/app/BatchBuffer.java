@@ -0,0 +1,121 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * バッチ1件分のCSVデータ
+ * プールから取得したメモリブロックに書き込み、ブロックに収まらない場合は一時ファイルに切り替える。
+ */
+public class BatchBuffer extends OutputStream {
+
+    private final BatchBufferPool pool;
+    private byte[] block;
+    private int count = 0;
+    private File spillFile;
+    private OutputStream spillOut;
+
+    /**
+     * コンストラクタ
+     * @param pool バッファのプール
+     * @param block メモリブロック (nullの場合は一時ファイルを使用)
+     * @throws IOException
+     */
+    BatchBuffer(BatchBufferPool pool, byte[] block) throws IOException {
+        this.pool = pool;
+        this.block = block;
+        if (block == null) {
+            this.openSpillFile();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.block != null && this.count + len > this.block.length) {
+            // メモリブロックに収まらない場合は一時ファイルに切り替え
+            this.openSpillFile();
+            this.spillOut.write(this.block, 0, this.count);
+            this.pool.releaseBlock(this.block);
+            this.block = null;
+        }
+        if (this.block != null) {
+            System.arraycopy(b, off, this.block, this.count, len);
+        } else {
+            this.spillOut.write(b, off, len);
+        }
+        this.count += len;
+    }
+
+    /**
+     * 書き込み済みのバイト数
+     * @return バイト数
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * 一時ファイルを使用しているか判定
+     * @return 判定結果
+     */
+    public boolean isSpilled() {
+        return this.block == null;
+    }
+
+    /**
+     * 書き込んだデータの読み込み
+     * メモリ上のデータはコピーせずにそのまま読み込む。
+     * @return 入力ストリーム
+     * @throws IOException
+     */
+    public InputStream openInputStream() throws IOException {
+        if (this.block != null) {
+            return new ByteArrayInputStream(this.block, 0, this.count);
+        }
+        this.spillOut.flush();
+        return new FileInputStream(this.spillFile);
+    }
+
+    /**
+     * メモリブロックの返却と一時ファイルの削除
+     */
+    public void release() {
+        if (this.block != null) {
+            this.pool.releaseBlock(this.block);
+            this.block = null;
+        }
+        if (this.spillOut != null) {
+            try {
+                this.spillOut.close();
+            } catch (IOException e) {
+                System.out.println("<< IOException >> " + e.getMessage());
+            }
+            this.spillOut = null;
+        }
+        if (this.spillFile != null) {
+            this.spillFile.delete();
+            this.spillFile = null;
+        }
+        this.count = 0;
+    }
+
+    /**
+     * 一時ファイルの作成
+     * @throws IOException
+     */
+    private void openSpillFile() throws IOException {
+        this.spillFile = File.createTempFile("tmpCsvFile", ".csv");
+        this.spillOut = new BufferedOutputStream(new FileOutputStream(this.spillFile), 65536);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * バッチ作成用のメモリバッファのプール
+ * バッファはバッチ毎に再利用し、メモリ使用量の上限を超える場合は一時ファイルに書き出す。
+ */
+public class BatchBufferPool {
+
+    private final int blockSize;
+    private final long memoryBudget;
+    private final Deque<byte[]> freeBlocks = new ArrayDeque<byte[]>();
+    private long allocatedBytes = 0L;
+    private int spillCount = 0;
+
+    /**
+     * コンストラクタ
+     * @param blockSize バッファ1つあたりのサイズ (バッチあたりの最大バイト数)
+     * @param memoryBudget バッファに使用するメモリの上限 (0の場合は常に一時ファイルを使用)
+     */
+    public BatchBufferPool(int blockSize, long memoryBudget) {
+        this.blockSize = blockSize;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * バッファの取得
+     * 空いているバッファがなく、メモリの上限にも達している場合は一時ファイルを使用する。
+     * @return バッファ
+     * @throws IOException
+     */
+    public BatchBuffer acquire() throws IOException {
+        byte[] block = this.acquireBlock();
+        if (block != null) {
+            return new BatchBuffer(this, block);
+        }
+        synchronized (this) {
+            this.spillCount++;
+        }
+        return new BatchBuffer(this, null);
+    }
+
+    /**
+     * 一時ファイルに書き出したバッファの数
+     * @return 件数
+     */
+    public synchronized int getSpillCount() {
+        return this.spillCount;
+    }
+
+    /**
+     * 確保済みのメモリ量
+     * @return バイト数
+     */
+    public synchronized long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * メモリブロックの取得
+     * @return メモリブロック (上限に達している場合はnull)
+     */
+    private synchronized byte[] acquireBlock() {
+        byte[] block = this.freeBlocks.pollFirst();
+        if (block != null) {
+            return block;
+        }
+        if (this.allocatedBytes + this.blockSize > this.memoryBudget) {
+            return null;
+        }
+        this.allocatedBytes += this.blockSize;
+        return new byte[this.blockSize];
+    }
+
+    /**
+     * メモリブロックをプールに返却
+     * @param block メモリブロック
+     */
+    synchronized void releaseBlock(byte[] block) {
+        this.freeBlocks.offerFirst(block);
+    }
+}
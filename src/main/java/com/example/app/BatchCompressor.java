@@ -0,0 +1,215 @@
+package com.example.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+
+/**
+ * バッチのgzip圧縮アップロード
+ * WSCはバッチ作成のリクエストを圧縮しない(ConnectorConfigのcompressionはSOAPのみ)ため、バッチのCSVをgzip形式に圧縮しながら送信する。
+ * 「Content-Encoding: gzip」ヘッダーは接続単位で送信されるため、アップロード専用の接続を使用する。
+ * Deflaterはバッチ毎に作成せずに再利用し、圧縮率と圧縮に使用したCPU時間をバッチ毎に出力する。
+ */
+public class BatchCompressor implements Closeable {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final BulkConnection connection;
+    private final int level;
+    private final int bufferSize;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    /**
+     * コンストラクタ
+     * @param connection アップロード専用のBulkAPI接続情報 (共有の接続は使用しないこと)
+     * @param level 圧縮レベル (1:速度優先 〜 9:圧縮率優先)
+     * @param bufferSize 圧縮前のデータの読み込みバッファのサイズ
+     */
+    public BatchCompressor(BulkConnection connection, int level, int bufferSize) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel must be 1-9 : " + level);
+        }
+        this.connection = connection;
+        this.level = level;
+        this.bufferSize = bufferSize;
+        this.connection.addHeader("Content-Encoding", "gzip");
+    }
+
+    /**
+     * 圧縮してバッチを作成
+     * @param job ジョブ情報
+     * @param in バッチのCSVデータ
+     * @return バッチ情報
+     * @throws AsyncApiException
+     */
+    public BatchInfo createBatch(JobInfo job, InputStream in) throws AsyncApiException {
+        Deflater deflater = this.deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(this.level, true);
+        }
+        GzipInputStream gzip = new GzipInputStream(in, deflater, this.bufferSize);
+        try {
+            BatchInfo batchInfo = this.connection.createBatchFromForeignCsvStream(job, gzip, "UTF-8");
+            this.rawBytes.addAndGet(gzip.rawCount);
+            this.compressedBytes.addAndGet(gzip.compressedCount);
+            this.cpuNanos.addAndGet(gzip.cpuNanos);
+            System.out.println("BatchCompression = " + batchInfo.getId() + " " + gzip.rawCount + " -> " + gzip.compressedCount
+                + " (" + ratio(gzip.compressedCount, gzip.rawCount) + "%), cpu = " + (gzip.cpuNanos / 1000000L) + "ms");
+            return batchInfo;
+        } finally {
+            deflater.reset();
+            this.deflaters.offer(deflater);
+        }
+    }
+
+    /**
+     * 圧縮結果の合計を出力
+     */
+    public void printSummary() {
+        System.out.println("CompressionTotal = " + this.rawBytes.get() + " -> " + this.compressedBytes.get()
+            + " (" + ratio(this.compressedBytes.get(), this.rawBytes.get()) + "%), cpu = " + (this.cpuNanos.get() / 1000000L) + "ms");
+    }
+
+    public long getRawBytes() {
+        return this.rawBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return this.compressedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        Deflater deflater;
+        while ((deflater = this.deflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+
+    private static String ratio(long compressed, long raw) {
+        return raw == 0L ? "0.0" : String.format("%.1f", compressed * 100.0 / raw);
+    }
+
+    /**
+     * 読み込み元をgzip形式に圧縮しながら読み込むストリーム (ヘッダー10バイト + deflateデータ + CRC32・サイズ8バイト)
+     */
+    static class GzipInputStream extends InputStream {
+
+        private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+        private final InputStream in;
+        private final Deflater deflater;
+        private final byte[] inBuf;
+        private final CRC32 crc = new CRC32();
+        private final byte[] trailer = new byte[8];
+        private int headerPos = 0;
+        private int trailerPos = -1;
+        private long rawCount = 0L;
+        private long compressedCount = 0L;
+        private long cpuNanos = 0L;
+
+        GzipInputStream(InputStream in, Deflater deflater, int bufferSize) {
+            this.in = in;
+            this.deflater = deflater;
+            this.inBuf = new byte[bufferSize];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n;
+            if (this.headerPos < HEADER.length) {
+                n = Math.min(len, HEADER.length - this.headerPos);
+                System.arraycopy(HEADER, this.headerPos, b, off, n);
+                this.headerPos += n;
+            } else if (!this.deflater.finished()) {
+                n = this.deflate(b, off, len);
+            } else {
+                n = this.readTrailer(b, off, len);
+            }
+            if (n > 0) {
+                this.compressedCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+
+        /**
+         * 圧縮したデータを読み込み (圧縮に使用したCPU時間を計測)
+         */
+        private int deflate(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                if (this.deflater.needsInput() && !this.deflater.finished()) {
+                    int read = this.in.read(this.inBuf, 0, this.inBuf.length);
+                    if (read < 0) {
+                        this.deflater.finish();
+                    } else if (read > 0) {
+                        this.crc.update(this.inBuf, 0, read);
+                        this.rawCount += read;
+                        this.deflater.setInput(this.inBuf, 0, read);
+                    }
+                }
+                long start = cpuTime();
+                int n = this.deflater.deflate(b, off, len);
+                this.cpuNanos += cpuTime() - start;
+                if (n > 0) {
+                    return n;
+                }
+                if (this.deflater.finished()) {
+                    return this.readTrailer(b, off, len);
+                }
+            }
+        }
+
+        private int readTrailer(byte[] b, int off, int len) {
+            if (this.trailerPos < 0) {
+                writeInt(this.trailer, 0, (int) this.crc.getValue());
+                writeInt(this.trailer, 4, (int) this.rawCount);
+                this.trailerPos = 0;
+            }
+            if (this.trailerPos >= this.trailer.length) {
+                return -1;
+            }
+            int n = Math.min(len, this.trailer.length - this.trailerPos);
+            System.arraycopy(this.trailer, this.trailerPos, b, off, n);
+            this.trailerPos += n;
+            return n;
+        }
+
+        private static void writeInt(byte[] b, int off, int value) {
+            b[off] = (byte) value;
+            b[off + 1] = (byte) (value >>> 8);
+            b[off + 2] = (byte) (value >>> 16);
+            b[off + 3] = (byte) (value >>> 24);
+        }
+
+        private static long cpuTime() {
+            return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.app;
+
+/**
+ * バッチに含まれるレコードの読み込み元での範囲
+ * バッチの処理結果の行と読み込み元のレコードを対応付けるために使用する。
+ */
+public class BatchSegment {
+
+    private final int index;
+    private final long startOffset;
+    private final long endOffset;
+    private final int rowCount;
+    private String batchId;
+
+    /**
+     * コンストラクタ
+     * @param index バッチの番号 (0から)
+     * @param startOffset 先頭レコードの開始位置
+     * @param endOffset 最終レコードの終了位置
+     * @param rowCount レコード件数 (ヘッダー行を除く)
+     */
+    public BatchSegment(int index, long startOffset, long endOffset, int rowCount) {
+        this.index = index;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.rowCount = rowCount;
+    }
+
+    public int getIndex() {
+        return this.index;
+    }
+
+    public long getStartOffset() {
+        return this.startOffset;
+    }
+
+    public long getEndOffset() {
+        return this.endOffset;
+    }
+
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    public String getBatchId() {
+        return this.batchId;
+    }
+
+    public void setBatchId(String batchId) {
+        this.batchId = batchId;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchSegment[" + this.index + ", " + this.startOffset + "-" + this.endOffset + ", rows=" + this.rowCount + ", batchId=" + this.batchId + "]";
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.app;
+
+import com.sforce.async.BatchInfo;
+
+/**
+ * バッチサイズの決定方法
+ * バッチを区切る度に参照され、処理が完了したバッチの情報を受け取って次のバッチサイズに反映する。
+ */
+public interface BatchSizingPolicy {
+
+    /**
+     * バッチあたりの最大行数 (ヘッダー行を除く)
+     * @return 行数
+     */
+    int getMaxRowsPerBatch();
+
+    /**
+     * バッチあたりの最大バイト数 (ヘッダー行を含む)
+     * @return バイト数
+     */
+    int getMaxBytesPerBatch();
+
+    /**
+     * バッチの処理完了を通知
+     * @param batchInfo 完了(または失敗)したバッチ情報
+     */
+    void onBatchCompleted(BatchInfo batchInfo);
+
+    /**
+     * 行ロック競合(UNABLE_TO_LOCK_ROW)によるエラーを通知
+     * @param count エラー件数
+     */
+    void onLockErrors(int count);
+}
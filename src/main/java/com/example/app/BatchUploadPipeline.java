@@ -0,0 +1,253 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+
+/**
+ * バッチの並列アップロード処理
+ * CSVの分割(呼び出し元スレッド、分割読み込み時は複数の読み込みスレッド)とバッチのアップロード(ワーカースレッド)を同時に実行する。
+ * 同時にアップロード中のバッチ数は上限を超えないように待機させ、メモリやディスクの使用量を抑える。
+ * バッファはアップロード後にプールへ返却する。
+ */
+public class BatchUploadPipeline {
+
+    private final BulkConnection connection;
+    private final JobInfo jobInfo;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final List<Future<BatchInfo>> futures = new ArrayList<Future<BatchInfo>>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    private ImportJournal journal;
+    private BatchCompressor compressor;
+
+    /**
+     * コンストラクタ
+     * @param connection BulkAPIの接続情報
+     * @param jobInfo ジョブ情報
+     * @param maxInFlightBatches 同時にアップロードするバッチ数の上限
+     */
+    public BatchUploadPipeline(BulkConnection connection, JobInfo jobInfo, int maxInFlightBatches) {
+        if (maxInFlightBatches < 1) {
+            throw new IllegalArgumentException("maxInFlightBatches must be >= 1 : " + maxInFlightBatches);
+        }
+        this.connection = connection;
+        this.jobInfo = jobInfo;
+        this.inFlight = new Semaphore(maxInFlightBatches);
+        this.executor = BulkExecutors.newExecutor("batch-upload", maxInFlightBatches);
+    }
+
+    /**
+     * チェックポイントの記録先を設定
+     * @param journal チェックポイント
+     * @return BatchUploadPipeline
+     */
+    public BatchUploadPipeline setJournal(ImportJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * バッチを圧縮してアップロードする場合に設定
+     * @param compressor バッチの圧縮 (nullの場合は圧縮しない)
+     * @return BatchUploadPipeline
+     */
+    public BatchUploadPipeline setCompressor(BatchCompressor compressor) {
+        this.compressor = compressor;
+        return this;
+    }
+
+    /**
+     * 分割したCSVデータをアップロード待ちに追加
+     * 上限までアップロード中の場合は空きが出るまで待機する。
+     * @param buffer 分割したCSVデータ
+     * @param segment 読み込み元でのバッチの範囲 (アップロード後にバッチIDを設定)
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    public void submit(final BatchBuffer buffer, final BatchSegment segment) throws IOException, AsyncApiException {
+        try {
+            this.inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            buffer.release();
+            throw new InterruptedIOException("batch upload interrupted");
+        }
+        // 先に失敗したバッチがあれば残りの読み込みを中断
+        try {
+            this.throwIfFailed();
+            if (this.journal != null) {
+                this.journal.recordSubmit(segment);
+            }
+        } catch (IOException | AsyncApiException e) {
+            this.inFlight.release();
+            buffer.release();
+            throw e;
+        }
+        ImportMetrics.get().onBatchSubmitted(segment.getRowCount(), segment.getEndOffset() - segment.getStartOffset());
+        Future<BatchInfo> future = this.executor.submit(new Callable<BatchInfo>() {
+            @Override
+            public BatchInfo call() throws Exception {
+                long start = System.nanoTime();
+                boolean success = false;
+                try {
+                    BatchInfo batchInfo = upload(buffer);
+                    segment.setBatchId(batchInfo.getId());
+                    if (journal != null) {
+                        journal.recordBatch(segment);
+                    }
+                    success = true;
+                    return batchInfo;
+                } catch (Exception e) {
+                    // 最初の失敗を記録して読み込み側へ通知
+                    failure.compareAndSet(null, e);
+                    throw e;
+                } finally {
+                    ImportMetrics.get().onBatchUploaded(System.nanoTime() - start, success);
+                    buffer.release();
+                    inFlight.release();
+                }
+            }
+        });
+        synchronized (this.futures) {
+            this.futures.add(future);
+        }
+    }
+
+    /**
+     * 全てのアップロード完了を待機してバッチ情報を取得
+     * @return バッチ情報 (submitした順)
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    public List<BatchInfo> awaitBatchInfos() throws IOException, AsyncApiException {
+        List<BatchInfo> batchInfos = new ArrayList<BatchInfo>(this.futures.size());
+        try {
+            for (Future<BatchInfo> future : this.snapshotFutures()) {
+                batchInfos.add(this.getResult(future));
+            }
+        } finally {
+            this.shutdown();
+        }
+        return batchInfos;
+    }
+
+    /**
+     * ワーカースレッドを停止 (アップロード中のバッチは中断)
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * バッチの作成
+     * @param buffer 分割したCSVデータ
+     * @return バッチ情報
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    private BatchInfo upload(BatchBuffer buffer) throws IOException, AsyncApiException {
+        System.out.println("-- createBatch --");
+        String sessionId = this.connection.getConfig().getSessionId();
+        try {
+            return this.createBatch(buffer);
+        } catch (AsyncApiException e) {
+            // セッションが無効になった場合は再作成してバッファから読み直す
+            if (e.getExceptionCode() != AsyncExceptionCode.InvalidSessionId || !(this.connection instanceof ManagedBulkConnection)) {
+                throw e;
+            }
+            ((ManagedBulkConnection) this.connection).refreshSession(sessionId);
+            return this.createBatch(buffer);
+        }
+    }
+
+    /**
+     * バッファの内容でバッチを作成
+     * @param buffer 分割したCSVデータ
+     * @return バッチ情報
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    private BatchInfo createBatch(BatchBuffer buffer) throws IOException, AsyncApiException {
+        InputStream in = buffer.openInputStream();
+        try {
+            if (this.compressor != null) {
+                return this.compressor.createBatch(this.jobInfo, in);
+            }
+            return this.connection.createBatchFromForeignCsvStream(this.jobInfo, in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 完了済みのアップロードに失敗があれば例外を送出 (ワーカーが記録した最初の失敗のみ確認する)
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    private void throwIfFailed() throws IOException, AsyncApiException {
+        Throwable cause = this.failure.get();
+        if (cause != null) {
+            rethrow(cause);
+        }
+    }
+
+    /**
+     * アップロード処理の一覧のコピー (複数の読み込みスレッドから同時にsubmitされるため)
+     * @return アップロード処理 (submitした順)
+     */
+    private List<Future<BatchInfo>> snapshotFutures() {
+        synchronized (this.futures) {
+            return new ArrayList<Future<BatchInfo>>(this.futures);
+        }
+    }
+
+    /**
+     * アップロード結果を取得 (ワーカーで発生した例外は元の型で送出)
+     * @param future アップロード処理
+     * @return バッチ情報
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    private BatchInfo getResult(Future<BatchInfo> future) throws IOException, AsyncApiException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("batch upload interrupted");
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * ワーカーで発生した例外を元の型で送出
+     * @param cause 例外
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    private static void rethrow(Throwable cause) throws IOException, AsyncApiException {
+        if (cause instanceof AsyncApiException) {
+            throw (AsyncApiException) cause;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new IOException("batch upload failed", cause);
+    }
+}
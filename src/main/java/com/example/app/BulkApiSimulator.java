@@ -0,0 +1,540 @@
+package com.example.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import javax.xml.namespace.QName;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.AsyncXmlOutputStream;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchInfoList;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.ConcurrencyMode;
+import com.sforce.async.ContentType;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.async.OperationEnum;
+import com.sforce.ws.bind.XMLizable;
+import com.sforce.ws.parser.XmlInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * BulkAPIのローカルシミュレーター (負荷試験・長時間試験用)
+ * インポートで使用するエンドポイント(ジョブ作成、変換仕様、バッチ作成、バッチ情報、処理結果、ジョブのクローズ)をプロセス内のHTTPサーバーで応答する。
+ * 応答の遅延、レコードの失敗率、行ロック競合の発生率、バッチの失敗率、処理件数の上限(件/秒)を設定でき、
+ * 組織のAPI制限を消費せずにクライアント側の処理性能の上限を計測できる。
+ * 処理結果はバッチ毎の乱数の種から再生成するため、1,000万件規模でもメモリをほとんど使用しない。
+ */
+public class BulkApiSimulator {
+
+    private static final String BASE_PATH = "/services/async/";
+    private static final String LOCK_ERROR = "UNABLE_TO_LOCK_ROW:unable to obtain exclusive access to this record";
+    private static final String ROW_ERROR = "REQUIRED_FIELD_MISSING:Required fields are missing: [Name]";
+
+    private final Map<String, SimulatedJob> jobs = new ConcurrentHashMap<String, SimulatedJob>();
+    private final AtomicLong jobSequence = new AtomicLong();
+    private final AtomicLong batchSequence = new AtomicLong();
+    private final Random seeds = new Random();
+    private HttpServer server;
+    private ExecutorService requestExecutor;
+    private ExecutorService processor;
+    private long latencyMillis = 0L;
+    private long rowsPerSecond = 0L;
+    private double rowFailureRate = 0.0;
+    private double lockErrorRate = 0.0;
+    private double batchFailureRate = 0.0;
+    private int threads = 4;
+    private long nextFreeNanos = 0L;
+
+    /**
+     * 設定ファイルの値で作成
+     * @param userInfo ユーザ情報
+     * @return BulkApiSimulator (未起動)
+     */
+    public static BulkApiSimulator fromUserInfo(UserInfo userInfo) {
+        return new BulkApiSimulator()
+            .setLatencyMillis(userInfo.simulatorLatencyMillis)
+            .setRowsPerSecond(userInfo.simulatorRowsPerSecond)
+            .setRowFailureRate(userInfo.simulatorRowFailureRate)
+            .setLockErrorRate(userInfo.simulatorLockErrorRate)
+            .setBatchFailureRate(userInfo.simulatorBatchFailureRate)
+            .setThreads(userInfo.simulatorThreads);
+    }
+
+    /**
+     * リクエスト毎の応答の遅延
+     * @param latencyMillis 遅延(ミリ秒)
+     * @return BulkApiSimulator
+     */
+    public BulkApiSimulator setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * 全てのバッチを合わせた処理件数の上限
+     * @param rowsPerSecond 件/秒 (0の場合は無制限)
+     * @return BulkApiSimulator
+     */
+    public BulkApiSimulator setRowsPerSecond(long rowsPerSecond) {
+        this.rowsPerSecond = rowsPerSecond;
+        return this;
+    }
+
+    /**
+     * レコードの失敗率 (REQUIRED_FIELD_MISSING)
+     * @param rowFailureRate 0.0〜1.0
+     * @return BulkApiSimulator
+     */
+    public BulkApiSimulator setRowFailureRate(double rowFailureRate) {
+        this.rowFailureRate = rowFailureRate;
+        return this;
+    }
+
+    /**
+     * 行ロック競合の発生率 (UNABLE_TO_LOCK_ROW)
+     * @param lockErrorRate 0.0〜1.0
+     * @return BulkApiSimulator
+     */
+    public BulkApiSimulator setLockErrorRate(double lockErrorRate) {
+        this.lockErrorRate = lockErrorRate;
+        return this;
+    }
+
+    /**
+     * バッチの失敗率 (バッチ全体がFailedになる)
+     * @param batchFailureRate 0.0〜1.0
+     * @return BulkApiSimulator
+     */
+    public BulkApiSimulator setBatchFailureRate(double batchFailureRate) {
+        this.batchFailureRate = batchFailureRate;
+        return this;
+    }
+
+    /**
+     * 同時に処理するバッチ数
+     * @param threads スレッド数
+     * @return BulkApiSimulator
+     */
+    public BulkApiSimulator setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * HTTPサーバーを起動
+     * @param port ポート番号 (0の場合は空いているポート)
+     * @return BulkApiSimulator
+     * @throws IOException
+     */
+    public BulkApiSimulator start(int port) throws IOException {
+        this.processor = Executors.newFixedThreadPool(this.threads, new NamedThreadFactory("bulk-simulator-process"));
+        this.requestExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("bulk-simulator-http"));
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.createContext(BASE_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } catch (AsyncApiException e) {
+                    sendXml(exchange, 400, BulkConnection.ERROR_QNAME, e);
+                } catch (Exception e) {
+                    sendXml(exchange, 500, BulkConnection.ERROR_QNAME, new AsyncApiException(String.valueOf(e), AsyncExceptionCode.Unknown));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.setExecutor(this.requestExecutor);
+        this.server.start();
+        System.out.println("-- startBulkApiSimulator -- port=" + this.server.getAddress().getPort());
+        return this;
+    }
+
+    /**
+     * HTTPサーバーを停止
+     */
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.requestExecutor.shutdownNow();
+            this.processor.shutdownNow();
+            this.server = null;
+        }
+    }
+
+    /**
+     * BulkAPIのRESTエンドポイント (ConnectorConfig.setRestEndpointに指定する)
+     * @param apiVersion APIバージョン
+     * @return RESTエンドポイント
+     */
+    public String getRestEndpoint(String apiVersion) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + BASE_PATH + apiVersion;
+    }
+
+    /**
+     * リクエストのパスに応じて処理
+     * @param exchange リクエスト
+     * @throws Exception
+     */
+    private void dispatch(HttpExchange exchange) throws Exception {
+        if (this.latencyMillis > 0) {
+            Thread.sleep(this.latencyMillis);
+        }
+        String sessionId = exchange.getRequestHeaders().getFirst(BulkConnection.SESSION_ID);
+        if (sessionId == null || sessionId.isEmpty()) {
+            throw new AsyncApiException("Invalid session id", AsyncExceptionCode.InvalidSessionId);
+        }
+        // /services/async/<version>/job/<jobId>/batch/<batchId>/result
+        String[] path = exchange.getRequestURI().getPath().substring(BASE_PATH.length()).split("/");
+        boolean post = "POST".equals(exchange.getRequestMethod());
+        if (path.length < 2 || !"job".equals(path[1])) {
+            throw new AsyncApiException("Unknown resource : " + exchange.getRequestURI(), AsyncExceptionCode.InvalidUrl);
+        }
+        if (path.length == 2 && post) {
+            this.sendXml(exchange, 201, BulkConnection.JOB_QNAME, this.createJob(this.readXml(exchange, new JobInfo())).toJobInfo());
+            return;
+        }
+        SimulatedJob job = this.getJob(path.length > 2 ? path[2] : null);
+        if (path.length == 3) {
+            if (post) {
+                job.update(this.readXml(exchange, new JobInfo()));
+            }
+            this.sendXml(exchange, 200, BulkConnection.JOB_QNAME, job.toJobInfo());
+        } else if (path.length == 4 && "spec".equals(path[3]) && post) {
+            this.readBody(exchange).close();
+            exchange.sendResponseHeaders(201, -1);
+        } else if (path.length == 4 && "batch".equals(path[3])) {
+            if (post) {
+                this.sendXml(exchange, 201, BulkConnection.BATCH_QNAME, this.createBatch(job, exchange).toBatchInfo());
+            } else {
+                BatchInfoList list = new BatchInfoList();
+                list.setBatchInfo(job.toBatchInfos());
+                this.sendXml(exchange, 200, BulkConnection.BATCH_LIST_QNAME, list);
+            }
+        } else if (path.length == 5 && "batch".equals(path[3])) {
+            this.sendXml(exchange, 200, BulkConnection.BATCH_QNAME, job.getBatch(path[4]).toBatchInfo());
+        } else if (path.length == 6 && "batch".equals(path[3]) && "result".equals(path[5])) {
+            this.sendResult(exchange, job, job.getBatch(path[4]));
+        } else {
+            throw new AsyncApiException("Unknown resource : " + exchange.getRequestURI(), AsyncExceptionCode.InvalidUrl);
+        }
+    }
+
+    private SimulatedJob createJob(JobInfo request) throws AsyncApiException {
+        if (request.getOperation() == null || request.getOperation() == OperationEnum.query) {
+            throw new AsyncApiException("Operation not supported by simulator : " + request.getOperation(), AsyncExceptionCode.FeatureNotEnabled);
+        }
+        SimulatedJob job = new SimulatedJob(String.format("750SIM%012d", this.jobSequence.incrementAndGet()), request);
+        this.jobs.put(job.id, job);
+        return job;
+    }
+
+    private SimulatedJob getJob(String jobId) throws AsyncApiException {
+        SimulatedJob job = jobId == null ? null : this.jobs.get(jobId);
+        if (job == null) {
+            throw new AsyncApiException("Unable to find job : " + jobId, AsyncExceptionCode.InvalidJob);
+        }
+        return job;
+    }
+
+    /**
+     * バッチを作成して処理待ちに追加 (レコード件数のみ数え、データは保持しない)
+     */
+    private SimulatedBatch createBatch(SimulatedJob job, HttpExchange exchange) throws IOException, AsyncApiException {
+        if (job.state != JobStateEnum.Open) {
+            throw new AsyncApiException("Job not open : " + job.id, AsyncExceptionCode.InvalidJobState);
+        }
+        int rows = 0;
+        try (InputStream in = this.readBody(exchange)) {
+            CsvRecordSplitter splitter = new CsvRecordSplitter(Channels.newChannel(in));
+            while (splitter.nextRecord()) {
+                rows++;
+            }
+        }
+        long seed;
+        synchronized (this.seeds) {
+            seed = this.seeds.nextLong();
+        }
+        final SimulatedBatch batch = new SimulatedBatch(this.batchSequence.incrementAndGet(), job.id, Math.max(0, rows - 1), seed);
+        job.batches.add(batch);
+        this.processor.submit(new Runnable() {
+            @Override
+            public void run() {
+                process(batch);
+            }
+        });
+        return batch;
+    }
+
+    /**
+     * バッチの処理 (処理件数の上限に合わせて待機してから結果を確定)
+     */
+    private void process(SimulatedBatch batch) {
+        batch.setState(BatchStateEnum.InProgress, null);
+        try {
+            long waitNanos = this.reserve(batch.rows);
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        Random random = new Random(batch.seed);
+        if (random.nextDouble() < this.batchFailureRate) {
+            batch.setState(BatchStateEnum.Failed, "InvalidBatch : simulated batch failure");
+            return;
+        }
+        int failed = 0;
+        for (int i = 0; i < batch.rows; i++) {
+            if (this.errorFor(random) != null) {
+                failed++;
+            }
+        }
+        batch.failed = failed;
+        batch.setState(BatchStateEnum.Completed, null);
+    }
+
+    /**
+     * 処理件数の上限から処理完了までの待機時間を予約
+     */
+    private synchronized long reserve(int rows) {
+        if (this.rowsPerSecond <= 0) {
+            return 0L;
+        }
+        long now = System.nanoTime();
+        long start = Math.max(now, this.nextFreeNanos);
+        this.nextFreeNanos = start + rows * 1000000000L / this.rowsPerSecond;
+        return this.nextFreeNanos - now;
+    }
+
+    /**
+     * レコードの処理結果 (乱数の消費順はprocessと結果の出力で同じにする)
+     * @return エラーメッセージ (成功の場合はnull)
+     */
+    private String errorFor(Random random) {
+        double r = random.nextDouble();
+        if (r < this.lockErrorRate) {
+            return LOCK_ERROR;
+        }
+        return r < this.lockErrorRate + this.rowFailureRate ? ROW_ERROR : null;
+    }
+
+    /**
+     * バッチの処理結果をCSVで出力 (処理時と同じ乱数の種から再生成)
+     */
+    private void sendResult(HttpExchange exchange, SimulatedJob job, SimulatedBatch batch) throws IOException, AsyncApiException {
+        if (batch.state != BatchStateEnum.Completed) {
+            throw new AsyncApiException("Batch not completed : " + batch.id, AsyncExceptionCode.InvalidBatch);
+        }
+        boolean created = job.operation == OperationEnum.insert;
+        exchange.getResponseHeaders().set("Content-Type", BulkConnection.CSV_CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, 0);
+        Random random = new Random(batch.seed);
+        random.nextDouble();
+        try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            out.write("\"Id\",\"Success\",\"Created\",\"Error\"\n");
+            for (int i = 0; i < batch.rows; i++) {
+                String error = this.errorFor(random);
+                if (error == null) {
+                    out.write("\"001" + String.format("%09d%06d", batch.number, i) + "\",\"true\",\"" + created + "\",\"\"\n");
+                } else {
+                    out.write("\"\",\"false\",\"false\",\"" + error + "\"\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * リクエストの本文 (gzip圧縮されている場合は展開)
+     */
+    private InputStream readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            return new GZIPInputStream(in, 65536);
+        }
+        return in;
+    }
+
+    private <T extends XMLizable> T readXml(HttpExchange exchange, T result) throws Exception {
+        try (InputStream in = this.readBody(exchange)) {
+            XmlInputStream xin = new XmlInputStream();
+            xin.setInput(in, "UTF-8");
+            result.load(xin, BulkConnection.typeMapper);
+        }
+        return result;
+    }
+
+    private void sendXml(HttpExchange exchange, int status, QName name, XMLizable value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncXmlOutputStream out = new AsyncXmlOutputStream(bytes, false);
+        value.write(name, out, BulkConnection.typeMapper);
+        out.endDocument();
+        out.close();
+        exchange.getResponseHeaders().set("Content-Type", BulkConnection.XML_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.size());
+        try (OutputStream body = exchange.getResponseBody()) {
+            bytes.writeTo(body);
+        }
+    }
+
+    private static Calendar now() {
+        return Calendar.getInstance();
+    }
+
+    /**
+     * シミュレーター上のジョブ
+     */
+    private static class SimulatedJob {
+
+        private final String id;
+        private final OperationEnum operation;
+        private final String object;
+        private final String externalIdFieldName;
+        private final ContentType contentType;
+        private final Calendar createdDate = now();
+        private final List<SimulatedBatch> batches = new CopyOnWriteArrayList<SimulatedBatch>();
+        private volatile JobStateEnum state = JobStateEnum.Open;
+
+        SimulatedJob(String id, JobInfo request) {
+            this.id = id;
+            this.operation = request.getOperation();
+            this.object = request.getObject();
+            this.externalIdFieldName = request.getExternalIdFieldName();
+            this.contentType = request.getContentType() == null ? ContentType.CSV : request.getContentType();
+        }
+
+        void update(JobInfo request) {
+            if (request.getState() != null) {
+                this.state = request.getState();
+            }
+        }
+
+        SimulatedBatch getBatch(String batchId) throws AsyncApiException {
+            for (SimulatedBatch batch : this.batches) {
+                if (batch.id.equals(batchId)) {
+                    return batch;
+                }
+            }
+            throw new AsyncApiException("Unable to find batch : " + batchId, AsyncExceptionCode.InvalidBatch);
+        }
+
+        BatchInfo[] toBatchInfos() {
+            List<BatchInfo> result = new ArrayList<BatchInfo>(this.batches.size());
+            for (SimulatedBatch batch : this.batches) {
+                result.add(batch.toBatchInfo());
+            }
+            return result.toArray(new BatchInfo[result.size()]);
+        }
+
+        JobInfo toJobInfo() {
+            JobInfo info = new JobInfo();
+            info.setId(this.id);
+            info.setOperation(this.operation);
+            info.setObject(this.object);
+            info.setExternalIdFieldName(this.externalIdFieldName);
+            info.setContentType(this.contentType);
+            info.setConcurrencyMode(ConcurrencyMode.Parallel);
+            info.setState(this.state);
+            info.setCreatedDate(this.createdDate);
+            info.setSystemModstamp(now());
+            int queued = 0;
+            int inProgress = 0;
+            int completed = 0;
+            int failed = 0;
+            int processed = 0;
+            int failedRecords = 0;
+            for (SimulatedBatch batch : this.batches) {
+                BatchStateEnum batchState = batch.state;
+                if (batchState == BatchStateEnum.Queued) {
+                    queued++;
+                } else if (batchState == BatchStateEnum.InProgress) {
+                    inProgress++;
+                } else if (batchState == BatchStateEnum.Completed) {
+                    completed++;
+                    processed += batch.rows;
+                    failedRecords += batch.failed;
+                } else {
+                    failed++;
+                }
+            }
+            info.setNumberBatchesQueued(queued);
+            info.setNumberBatchesInProgress(inProgress);
+            info.setNumberBatchesCompleted(completed);
+            info.setNumberBatchesFailed(failed);
+            info.setNumberBatchesTotal(this.batches.size());
+            info.setNumberRecordsProcessed(processed);
+            info.setNumberRecordsFailed(failedRecords);
+            return info;
+        }
+    }
+
+    /**
+     * シミュレーター上のバッチ (処理結果は乱数の種のみ保持)
+     */
+    private static class SimulatedBatch {
+
+        private final long number;
+        private final String id;
+        private final String jobId;
+        private final int rows;
+        private final long seed;
+        private final Calendar createdDate = now();
+        private volatile Calendar systemModstamp = this.createdDate;
+        private volatile BatchStateEnum state = BatchStateEnum.Queued;
+        private volatile String stateMessage;
+        private volatile int failed = 0;
+
+        SimulatedBatch(long number, String jobId, int rows, long seed) {
+            this.number = number;
+            this.id = String.format("751SIM%012d", number);
+            this.jobId = jobId;
+            this.rows = rows;
+            this.seed = seed;
+        }
+
+        void setState(BatchStateEnum state, String stateMessage) {
+            this.stateMessage = stateMessage;
+            this.systemModstamp = now();
+            this.state = state;
+        }
+
+        BatchInfo toBatchInfo() {
+            BatchInfo info = new BatchInfo();
+            info.setId(this.id);
+            info.setJobId(this.jobId);
+            info.setState(this.state);
+            info.setStateMessage(this.stateMessage);
+            info.setCreatedDate(this.createdDate);
+            info.setSystemModstamp(this.systemModstamp);
+            if (this.state == BatchStateEnum.Completed) {
+                info.setNumberRecordsProcessed(this.rows);
+                info.setNumberRecordsFailed(this.failed);
+            }
+            return info;
+        }
+    }
+}
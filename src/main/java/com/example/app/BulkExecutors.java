@@ -0,0 +1,83 @@
+package com.example.app;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * BulkAPIの通信を実行するスレッドの作成
+ * 通常はスレッド数を指定したスレッドプールを使用する。
+ * 仮想スレッドを有効にした場合(JDK 21以降)はタスク毎に仮想スレッドを作成するため、スレッド数を決めずに数百のアップロード・処理結果の取得を同時に待機できる。
+ * JDK 8でもビルドできるように、仮想スレッドのAPIはリフレクションで呼び出す。
+ * 作成したスレッドは実行中のジョブのスコープ(JobScope)に登録し、ジョブの取消・期限切れの時に停止する。
+ */
+public final class BulkExecutors {
+
+    private static volatile boolean virtualThreads = false;
+
+    private BulkExecutors() {
+    }
+
+    /**
+     * 仮想スレッドを使用するか設定
+     * @param enabled 使用する場合はtrue (実行中のJDKが対応していない場合は使用しない)
+     */
+    public static void setVirtualThreads(boolean enabled) {
+        if (enabled && !isVirtualThreadsSupported()) {
+            System.out.println("<< WARN >> 実行中のJDK(" + System.getProperty("java.version") + ")は仮想スレッドに対応していないため、スレッドプールを使用します。");
+            enabled = false;
+        }
+        virtualThreads = enabled;
+    }
+
+    public static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * 実行中のJDKが仮想スレッドに対応しているか
+     * @return 対応している場合はtrue
+     */
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 通信を実行するスレッドを作成 (実行中のジョブのスコープがあれば登録)
+     * @param prefix スレッド名の接頭辞
+     * @param platformThreads 仮想スレッドを使用しない場合のスレッド数
+     * @return ExecutorService
+     */
+    public static ExecutorService newExecutor(String prefix, int platformThreads) {
+        ExecutorService executor = virtualThreads ? newVirtualThreadExecutor(prefix) : Executors.newFixedThreadPool(platformThreads, new NamedThreadFactory(prefix));
+        JobScope scope = JobScope.current();
+        if (scope != null) {
+            scope.register(executor);
+        }
+        return executor;
+    }
+
+    /**
+     * タスク毎に仮想スレッドを作成するExecutorService (Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory()))
+     * @param prefix スレッド名の接頭辞
+     * @return ExecutorService
+     */
+    static ExecutorService newVirtualThreadExecutor(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual threads are not available", e);
+        }
+    }
+}
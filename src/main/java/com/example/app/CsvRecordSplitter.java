@@ -0,0 +1,225 @@
+package com.example.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * CSVのレコード分割
+ * 文字列に変換せずにバイト列のままレコードの区切り(ダブルクォート外の改行)を検出する。
+ * ダブルクォートで囲まれた項目内の改行はレコードの区切りとして扱わない。
+ */
+public class CsvRecordSplitter implements Closeable {
+
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer readBuffer;
+    private byte[] record = new byte[4096];
+    private int recordLength = 0;
+    private long recordOffset = 0L;
+    private long position = 0L;
+    private long readPosition = 0L;
+    private long readLimit = Long.MAX_VALUE;
+    private boolean eof = false;
+
+    /**
+     * コンストラクタ
+     * @param channel 読み込み元
+     */
+    public CsvRecordSplitter(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * コンストラクタ
+     * @param channel 読み込み元
+     * @param bufferSize 読み込みバッファのサイズ
+     */
+    public CsvRecordSplitter(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.readBuffer = ByteBuffer.allocate(bufferSize);
+        this.readBuffer.flip();
+    }
+
+    /**
+     * 指定したファイルのレコード分割を作成
+     * @param filePath ファイルパス
+     * @return レコード分割
+     * @throws IOException
+     */
+    public static CsvRecordSplitter open(String filePath) throws IOException {
+        return open(filePath, 0L);
+    }
+
+    /**
+     * 指定したファイルの指定位置からのレコード分割を作成
+     * @param filePath ファイルパス
+     * @param offset 読み込み開始位置 (レコードの開始位置であること)
+     * @return レコード分割
+     * @throws IOException
+     */
+    public static CsvRecordSplitter open(String filePath, long offset) throws IOException {
+        return open(filePath, offset, Long.MAX_VALUE);
+    }
+
+    /**
+     * 指定したファイルの指定範囲のレコード分割を作成 (分割読み込み用)
+     * @param filePath ファイルパス
+     * @param offset 読み込み開始位置 (レコードの開始位置であること)
+     * @param limit 読み込み終了位置 (レコードの開始位置またはファイルの末尾であること)
+     * @return レコード分割
+     * @throws IOException
+     */
+    public static CsvRecordSplitter open(String filePath, long offset, long limit) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        channel.position(offset);
+        CsvRecordSplitter splitter = new CsvRecordSplitter(channel);
+        splitter.position = offset;
+        splitter.readPosition = offset;
+        splitter.readLimit = limit;
+        return splitter;
+    }
+
+    /**
+     * 次のレコードを読み込み
+     * 読み込んだレコードは改行を含めて getRecordBytes() の先頭 getRecordLength() バイトに格納する。
+     * 最終行に改行がない場合は改行を補う。
+     * @return レコードが存在する場合はtrue
+     * @throws IOException
+     */
+    public boolean nextRecord() throws IOException {
+        this.recordLength = 0;
+        this.recordOffset = this.position;
+        boolean inQuotes = false;
+        while (true) {
+            if (!this.readBuffer.hasRemaining() && !this.fill()) {
+                if (this.recordLength == 0) {
+                    return false;
+                }
+                this.append(new byte[] { LF }, 0, 1);
+                return true;
+            }
+            byte[] buf = this.readBuffer.array();
+            int start = this.readBuffer.position();
+            int end = this.readBuffer.limit();
+            for (int i = start; i < end; i++) {
+                byte b = buf[i];
+                if (b == QUOTE) {
+                    // エスケープされたダブルクォート("")は2回反転するため状態は変わらない
+                    inQuotes = !inQuotes;
+                } else if (b == LF && !inQuotes) {
+                    this.append(buf, start, i + 1 - start);
+                    this.readBuffer.position(i + 1);
+                    this.position += i + 1 - start;
+                    return true;
+                }
+            }
+            this.append(buf, start, end - start);
+            this.readBuffer.position(end);
+            this.position += end - start;
+        }
+    }
+
+    /**
+     * 読み込んだレコードのバイト列 (再利用されるため次のレコード読み込みまで有効)
+     * @return バイト列
+     */
+    public byte[] getRecordBytes() {
+        return this.record;
+    }
+
+    /**
+     * 読み込んだレコードのバイト数
+     * @return バイト数
+     */
+    public int getRecordLength() {
+        return this.recordLength;
+    }
+
+    /**
+     * 読み込んだレコードの開始位置 (読み込み元の先頭からのバイト数)
+     * @return 開始位置
+     */
+    public long getRecordOffset() {
+        return this.recordOffset;
+    }
+
+    /**
+     * 読み込み済みの位置 (読み込んだレコードの終了位置)
+     * @return 読み込み元の先頭からのバイト数
+     */
+    public long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * 読み込んだレコードのコピーを取得
+     * @return バイト列
+     */
+    public byte[] copyRecord() {
+        byte[] copy = new byte[this.recordLength];
+        System.arraycopy(this.record, 0, copy, 0, this.recordLength);
+        return copy;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * 読み込みバッファにデータを読み込み
+     * @return データが存在する場合はtrue
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+        this.readBuffer.clear();
+        long remaining = this.readLimit - this.readPosition;
+        if (remaining <= 0) {
+            this.readBuffer.flip();
+            this.eof = true;
+            return false;
+        }
+        if (remaining < this.readBuffer.capacity()) {
+            this.readBuffer.limit((int) remaining);
+        }
+        int n;
+        do {
+            n = this.channel.read(this.readBuffer);
+        } while (n == 0);
+        this.readBuffer.flip();
+        if (n < 0) {
+            this.eof = true;
+            return false;
+        }
+        this.readPosition += n;
+        return true;
+    }
+
+    /**
+     * レコードのバイト列に追加
+     * @param b 追加するバイト列
+     * @param off 開始位置
+     * @param len バイト数
+     */
+    private void append(byte[] b, int off, int len) {
+        int required = this.recordLength + len;
+        if (required > this.record.length) {
+            byte[] grown = new byte[Math.max(required, this.record.length * 2)];
+            System.arraycopy(this.record, 0, grown, 0, this.recordLength);
+            this.record = grown;
+        }
+        System.arraycopy(b, off, this.record, this.recordLength, len);
+        this.recordLength = required;
+    }
+}
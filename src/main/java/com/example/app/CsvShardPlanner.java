@@ -0,0 +1,215 @@
+package com.example.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * CSVファイルの分割読み込みの範囲の決定
+ * ファイルをバイト数で等分した範囲を並列に走査し、範囲毎のダブルクォートの数(偶奇)と最初の改行の位置を求める。
+ * 先頭からダブルクォートの偶奇を累積すると各範囲の先頭がダブルクォート内かどうかが決まるため、
+ * 項目内の改行で区切らずに、ダブルクォート外の改行の直後(レコードの開始位置)で区切ることができる。
+ */
+public final class CsvShardPlanner {
+
+    /** 分割する範囲の最小のバイト数 (これより小さいファイルは分割しない) */
+    static final long MIN_SHARD_BYTES = 8L * 1024 * 1024;
+
+    private static final byte QUOTE = '"';
+    private static final byte LF = '\n';
+    private static final int SCAN_BUFFER_SIZE = 256 * 1024;
+
+    private CsvShardPlanner() {
+    }
+
+    /**
+     * 読み込み範囲
+     */
+    public static class Shard {
+
+        private final long start;
+        private final long end;
+
+        public Shard(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return this.start;
+        }
+
+        public long getEnd() {
+            return this.end;
+        }
+
+        @Override
+        public String toString() {
+            return "Shard[" + this.start + "-" + this.end + "]";
+        }
+    }
+
+    /**
+     * ファイルを読み込み範囲に分割
+     * @param filePath ファイルパス
+     * @param dataStart データの開始位置 (ヘッダー行の直後などレコードの開始位置であること)
+     * @param shards 分割数の上限
+     * @return 読み込み範囲 (先頭から順、データがない場合は空)
+     * @throws IOException
+     */
+    public static List<Shard> plan(String filePath, long dataStart, int shards) throws IOException {
+        return plan(filePath, dataStart, shards, MIN_SHARD_BYTES);
+    }
+
+    /**
+     * ファイルを読み込み範囲に分割
+     * @param filePath ファイルパス
+     * @param dataStart データの開始位置 (レコードの開始位置であること)
+     * @param shards 分割数の上限
+     * @param minShardBytes 範囲の最小のバイト数
+     * @return 読み込み範囲 (先頭から順、データがない場合は空)
+     * @throws IOException
+     */
+    static List<Shard> plan(final String filePath, long dataStart, int shards, long minShardBytes) throws IOException {
+        long size = new File(filePath).length();
+        List<Shard> result = new ArrayList<Shard>();
+        if (dataStart >= size) {
+            return result;
+        }
+        int count = (int) Math.max(1L, Math.min((long) shards, (size - dataStart) / Math.max(1L, minShardBytes)));
+        if (count == 1) {
+            result.add(new Shard(dataStart, size));
+            return result;
+        }
+        System.out.println("-- planShards -- " + count);
+
+        // 等分した範囲を並列に走査
+        long step = (size - dataStart) / count;
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>(count);
+        ExecutorService executor = Executors.newFixedThreadPool(count, new NamedThreadFactory("csv-shard"));
+        try {
+            for (int i = 0; i < count; i++) {
+                final long from = dataStart + step * i;
+                final long to = i == count - 1 ? size : from + step;
+                futures.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws Exception {
+                        return scan(filePath, from, to);
+                    }
+                }));
+            }
+            long[][] scans = new long[count][];
+            for (int i = 0; i < count; i++) {
+                scans[i] = getResult(futures.get(i));
+            }
+
+            // 各範囲の先頭のダブルクォートの偶奇から、最初のレコードの区切りを決定
+            long previous = dataStart;
+            int parity = 0;
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    long cut = findCut(scans, i, parity, size);
+                    if (cut > previous) {
+                        result.add(new Shard(previous, cut));
+                        previous = cut;
+                    }
+                }
+                parity ^= (int) (scans[i][0] & 1L);
+            }
+            if (size > previous) {
+                result.add(new Shard(previous, size));
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 範囲の先頭から最初のレコードの区切り(ダブルクォート外の改行の直後)を検索
+     * @param scans 範囲毎の走査結果
+     * @param index 検索を開始する範囲
+     * @param parity 範囲の先頭までのダブルクォートの数の偶奇
+     * @param size ファイルのサイズ
+     * @return レコードの開始位置 (見つからない場合はファイルのサイズ)
+     */
+    private static long findCut(long[][] scans, int index, int parity, long size) {
+        for (int i = index; i < scans.length; i++) {
+            long lf = scans[i][1 + parity];
+            if (lf >= 0) {
+                return lf + 1;
+            }
+            parity ^= (int) (scans[i][0] & 1L);
+        }
+        return size;
+    }
+
+    /**
+     * 範囲を走査
+     * @param filePath ファイルパス
+     * @param from 開始位置
+     * @param to 終了位置
+     * @return [ダブルクォートの数, 範囲内のダブルクォートが偶数個の位置で最初の改行, 奇数個の位置で最初の改行] (改行がない場合は-1)
+     * @throws IOException
+     */
+    static long[] scan(String filePath, long from, long to) throws IOException {
+        long quotes = 0L;
+        long[] firstLf = { -1L, -1L };
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            long position = from;
+            while (position < to) {
+                buffer.clear();
+                if (to - position < buffer.capacity()) {
+                    buffer.limit((int) (to - position));
+                }
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    break;
+                }
+                byte[] buf = buffer.array();
+                for (int i = 0; i < n; i++) {
+                    byte b = buf[i];
+                    if (b == QUOTE) {
+                        quotes++;
+                    } else if (b == LF) {
+                        int parity = (int) (quotes & 1L);
+                        if (firstLf[parity] < 0) {
+                            firstLf[parity] = position + i;
+                        }
+                    }
+                }
+                position += n;
+            }
+        }
+        return new long[] { quotes, firstLf[0], firstLf[1] };
+    }
+
+    private static long[] getResult(Future<long[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("shard planning interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("shard planning failed", cause);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.ws.ConnectionException;
+
+public class DataExport {
+
+    private SalesforceApiUtil sfdcApiUtil = new SalesforceApiUtil();
+
+    /**
+     * データエクスポート処理
+     * PK Chunkingでクエリを分割し、完了したチャンクから順に結果を並行して取得する。
+     * @param sobjectType オブジェクトAPI名
+     * @param soql クエリ
+     * @param userInfo ユーザ情報
+     * @return エクスポートした件数
+     * @throws AsyncApiException
+     * @throws ConnectionException
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws TimeoutException
+     */
+    public long runDataExport(String sobjectType, String soql, UserInfo userInfo) throws AsyncApiException, ConnectionException, IOException, InterruptedException, TimeoutException {
+        System.out.println("-- runDataExport --");
+        // ログインしてセッションを作成
+        SessionManager session = new SessionManager(userInfo).acquire();
+        try {
+            return this.runDataExport(sobjectType, soql, userInfo, session);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * データエクスポート処理 (ログイン済みのセッションを使用)
+     * @param sobjectType オブジェクトAPI名
+     * @param soql クエリ
+     * @param userInfo ユーザ情報
+     * @param session 共有のセッション (使用中であること)
+     * @return エクスポートした件数
+     * @throws AsyncApiException
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws TimeoutException
+     */
+    public long runDataExport(String sobjectType, String soql, UserInfo userInfo, SessionManager session) throws AsyncApiException, IOException, InterruptedException, TimeoutException {
+        BulkConnection connection = session.getBulkConnection();
+
+        // PK Chunkingのヘッダーはジョブ作成時のみ必要なため専用の接続で作成
+        JobInfo job = this.sfdcApiUtil.createQueryJob(sobjectType, session.newBulkConnection(), userInfo.pkChunkSize);
+        BatchInfo queryBatch = connection.createBatchFromStream(job, new ByteArrayInputStream(soql.getBytes(StandardCharsets.UTF_8)));
+        this.sfdcApiUtil.closeJob(connection, job.getId());
+
+        // ジョブ単位のスコープで結果を取得 (期限を過ぎた場合はダウンロードを中断)
+        JobScope scope = JobScope.open(sobjectType, userInfo.jobDeadlineMillis);
+        try {
+            // 分割されたチャンクのバッチも監視し、完了したチャンクから結果を取得
+            QueryExporter exporter = new QueryExporter(connection, job, new File(userInfo.exportFile), userInfo.exportSharded, userInfo.exportThreads, userInfo.exportQueueBlocks);
+            try {
+                List<BatchInfo> batchInfoList = new ArrayList<BatchInfo>();
+                batchInfoList.add(queryBatch);
+                JobMonitor monitor = new JobMonitor(connection, job, batchInfoList).setTrackNewBatches(true);
+                monitor.addListener(new JobMonitor.BatchListener() {
+                    @Override
+                    public void onBatchFinished(BatchInfo b) {
+                        System.out.println("BATCH STATUS:\n" + b);
+                    }
+                });
+                monitor.addListener(exporter);
+                JobInfo resultJob = monitor.await(scope.remainingMillis(userInfo.jobTimeoutMillis));
+                if (resultJob.getState() == JobStateEnum.Aborted || resultJob.getState() == JobStateEnum.Failed) {
+                    throw new IOException("query job " + resultJob.getState() + " 【" + job.getId() + "】");
+                }
+                if (resultJob.getNumberBatchesFailed() > 0) {
+                    throw new IOException("query batches failed : " + resultJob.getNumberBatchesFailed() + " 【" + job.getId() + "】");
+                }
+                return exporter.awaitRecordCount();
+            } finally {
+                exporter.shutdown();
+            }
+        } catch (InterruptedException | IOException | AsyncApiException | RejectedExecutionException e) {
+            if (scope.isExpired()) {
+                throw new TimeoutException("job deadline exceeded : " + sobjectType + " (" + userInfo.jobDeadlineMillis + "ms)");
+            }
+            throw e;
+        } finally {
+            scope.close();
+        }
+    }
+}
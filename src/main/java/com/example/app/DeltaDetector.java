@@ -0,0 +1,275 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 前回成功したインポートからの差分検出
+ * レコードをキー項目のハッシュ値と内容のハッシュ値に変換し、前回のインデックスと比較して新規・変更のレコードのみ差分ファイルに出力する。
+ * 前回存在して今回存在しないキーは削除ファイルに出力する。
+ * 今回のインデックスは「.new」として作成し、インポートが成功した場合のみ commit() で前回のインデックスと置き換える。
+ * ハッシュ値は64ビットのため、異なるレコードを同じと判定する確率は無視できる程度に小さい。
+ */
+public class DeltaDetector {
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final File indexFile;
+    private final File keysFile;
+    private final File newIndexFile;
+    private final File newKeysFile;
+    private final File deltaFile;
+    private final File deletedFile;
+    private long totalCount = 0L;
+    private long changedCount = 0L;
+    private long unchangedCount = 0L;
+    private long deletedCount = 0L;
+
+    /**
+     * コンストラクタ
+     * @param dir インデックスと差分ファイルの出力先
+     * @param name ファイル名 (オブジェクトAPI名と読み込み元のファイル名)
+     */
+    public DeltaDetector(File dir, String name) {
+        this.indexFile = new File(dir, name + ".idx");
+        this.keysFile = new File(dir, name + ".keys");
+        this.newIndexFile = new File(dir, name + ".idx.new");
+        this.newKeysFile = new File(dir, name + ".keys.new");
+        this.deltaFile = new File(dir, name + "-delta.csv");
+        this.deletedFile = new File(dir, name + "-deleted.csv");
+    }
+
+    /**
+     * 差分を検出してファイルに出力
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param headerBytes CSVのヘッダー行
+     * @param keyColumn キー項目の名前 (ヘッダー行の名前)
+     * @throws IOException
+     */
+    public void detect(CsvRecordSplitter splitter, byte[] headerBytes, String keyColumn) throws IOException {
+        System.out.println("-- detectDelta -- " + keyColumn);
+        int keyIndex = indexOfColumn(headerBytes, headerBytes.length, keyColumn);
+        if (keyIndex < 0) {
+            throw new IOException("delta key column not found : " + keyColumn);
+        }
+        DeltaIndex previous = DeltaIndex.open(this.indexFile, this.keysFile);
+        long[] seen = previous == null ? null : new long[(int) ((previous.capacity() + 63) >>> 6)];
+        int[] range = new int[2];
+        try (DeltaIndex current = DeltaIndex.create(this.newIndexFile, this.newKeysFile, previous == null ? 0L : previous.size());
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(this.deltaFile), 65536)) {
+            out.write(headerBytes);
+            while (splitter.nextRecord()) {
+                byte[] record = splitter.getRecordBytes();
+                int length = splitter.getRecordLength();
+                this.totalCount++;
+                // キーのないレコード(新規登録など)は常に送信し、インデックスには追加しない
+                if (!findField(record, length, keyIndex, range) || range[0] == range[1]) {
+                    out.write(record, 0, length);
+                    this.changedCount++;
+                    continue;
+                }
+                long keyHash = hash(record, range[0], range[1] - range[0]);
+                long contentHash = hash(record, 0, trimLineEnd(record, length));
+                long slot = previous == null ? -1L : previous.find(keyHash);
+                if (slot >= 0) {
+                    seen[(int) (slot >>> 6)] |= 1L << slot;
+                }
+                if (slot < 0 || previous.getContentHash(slot) != contentHash) {
+                    out.write(record, 0, length);
+                    this.changedCount++;
+                } else {
+                    this.unchangedCount++;
+                }
+                current.put(keyHash, contentHash, record, range[0], range[1] - range[0]);
+            }
+            if (previous != null) {
+                this.writeDeleted(previous, seen, headerBytes, keyIndex);
+            }
+        } finally {
+            splitter.close();
+            if (previous != null) {
+                previous.close();
+            }
+        }
+        System.out.println("DeltaRecords = " + this.changedCount + " / " + this.totalCount + ", Unchanged = " + this.unchangedCount + ", Deleted = " + this.deletedCount);
+    }
+
+    /**
+     * 今回のインデックスで前回のインデックスを置き換え (インポート成功後に呼び出す)
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        if (!this.newIndexFile.exists()) {
+            return;
+        }
+        Files.move(this.newKeysFile.toPath(), this.keysFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(this.newIndexFile.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("-- commitDeltaIndex -- " + this.indexFile);
+    }
+
+    /**
+     * 前回の差分検出の結果がインデックスの置き換え前か (インポートが中断・失敗している)
+     * @return 置き換え前の場合はtrue
+     */
+    public boolean isPending() {
+        return this.newIndexFile.exists() && this.deltaFile.exists();
+    }
+
+    public File getDeltaFile() {
+        return this.deltaFile;
+    }
+
+    public File getDeletedFile() {
+        return this.deletedFile;
+    }
+
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    public long getChangedCount() {
+        return this.changedCount;
+    }
+
+    public long getDeletedCount() {
+        return this.deletedCount;
+    }
+
+    /**
+     * 今回存在しなかったキーを削除ファイルに出力
+     * @param previous 前回のインデックス
+     * @param seen 今回存在したエントリの位置
+     * @param headerBytes CSVのヘッダー行
+     * @param keyIndex キー項目の位置
+     * @throws IOException
+     */
+    private void writeDeleted(DeltaIndex previous, long[] seen, byte[] headerBytes, int keyIndex) throws IOException {
+        int[] range = new int[2];
+        findField(headerBytes, headerBytes.length, keyIndex, range);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(this.deletedFile), 65536)) {
+            out.write(headerBytes, range[0], range[1] - range[0]);
+            out.write('\n');
+            for (long slot = 0; slot < previous.capacity(); slot++) {
+                if (!previous.isOccupied(slot) || (seen[(int) (slot >>> 6)] & (1L << slot)) != 0L) {
+                    continue;
+                }
+                writeField(out, previous.getKey(slot));
+                out.write('\n');
+                this.deletedCount++;
+            }
+        }
+    }
+
+    /**
+     * ヘッダー行から項目の位置を取得
+     * @param header ヘッダー行
+     * @param length バイト数
+     * @param name 項目の名前
+     * @return 項目の位置 (存在しない場合は-1)
+     */
+    static int indexOfColumn(byte[] header, int length, String name) {
+        int[] range = new int[2];
+        for (int i = 0; findField(header, length, i, range); i++) {
+            String column = new String(header, range[0], range[1] - range[0], StandardCharsets.UTF_8).trim();
+            if (column.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * レコードから項目の範囲を取得 (項目を囲むダブルクォートは範囲に含めない)
+     * @param record レコード
+     * @param length バイト数
+     * @param column 項目の位置
+     * @param range 範囲の格納先 (開始位置, 終了位置)
+     * @return 項目が存在する場合はtrue
+     */
+    static boolean findField(byte[] record, int length, int column, int[] range) {
+        length = trimLineEnd(record, length);
+        int start = 0;
+        int index = 0;
+        boolean quoted = false;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && record[i] == QUOTE) {
+                quoted = !quoted;
+            } else if (i == length || (record[i] == COMMA && !quoted)) {
+                if (index == column) {
+                    int end = i;
+                    if (end - start >= 2 && record[start] == QUOTE && record[end - 1] == QUOTE) {
+                        start++;
+                        end--;
+                    }
+                    range[0] = start;
+                    range[1] = end;
+                    return true;
+                }
+                index++;
+                start = i + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 64ビットのハッシュ値 (FNV-1aの結果を攪拌して下位ビットの偏りをなくす)
+     * @param bytes バイト列
+     * @param offset 開始位置
+     * @param length バイト数
+     * @return ハッシュ値
+     */
+    static long hash(byte[] bytes, int offset, int length) {
+        long h = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 末尾の改行を除いたバイト数
+     */
+    private static int trimLineEnd(byte[] record, int length) {
+        while (length > 0 && (record[length - 1] == '\n' || record[length - 1] == '\r')) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * CSVの項目として出力 (区切り文字を含む場合はダブルクォートで囲む)
+     * キーはダブルクォートで囲まれた項目の内側をそのまま保持しているため、ダブルクォートはエスケープ済み。
+     */
+    private static void writeField(OutputStream out, byte[] value) throws IOException {
+        boolean quote = false;
+        for (byte b : value) {
+            if (b == COMMA || b == QUOTE || b == '\n' || b == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        if (quote) {
+            out.write(QUOTE);
+        }
+        out.write(value);
+        if (quote) {
+            out.write(QUOTE);
+        }
+    }
+}
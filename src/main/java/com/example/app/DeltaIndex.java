@@ -0,0 +1,322 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 差分検出用のインデックス (キーのハッシュ値 → レコード内容のハッシュ値)
+ * オープンアドレス法のハッシュ表をメモリマップしたファイルに保持するため、キーの件数が数千万件でもヒープをほとんど使用しない。
+ * キーの文字列は別ファイル(キーファイル)に追記し、ハッシュ表には位置のみ保持する(削除されたキーの出力に使用)。
+ *
+ * インデックスファイル: ヘッダー(64バイト: 容量, 件数) + エントリ(24バイト: キーのハッシュ値, 内容のハッシュ値, キーファイルの位置)
+ * キーファイル: キーのバイト数(4バイト) + キーのバイト列
+ */
+public class DeltaIndex implements Closeable {
+
+    private static final long MAGIC = 0x44454c5441494458L;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 24;
+    // 1つのマッピングに格納するエントリ数 (2GBの上限を超えないように分割する)
+    private static final int SEGMENT_SHIFT = 25;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long MIN_CAPACITY = 1024L;
+
+    private File indexFile;
+    private final File keysFile;
+    private final boolean writable;
+    private RandomAccessFile indexRaf;
+    private MappedByteBuffer[] segments;
+    private long capacity;
+    private long size;
+    private OutputStream keysOut;
+    private long keysLength;
+    private FileChannel keysChannel;
+
+    private DeltaIndex(File indexFile, File keysFile, boolean writable) {
+        this.indexFile = indexFile;
+        this.keysFile = keysFile;
+        this.writable = writable;
+    }
+
+    /**
+     * 新しいインデックスを作成
+     * @param indexFile インデックスファイル
+     * @param keysFile キーファイル
+     * @param expectedKeys 想定するキーの件数 (超えた場合は拡張する)
+     * @return インデックス
+     * @throws IOException
+     */
+    public static DeltaIndex create(File indexFile, File keysFile, long expectedKeys) throws IOException {
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        DeltaIndex index = new DeltaIndex(indexFile, keysFile, true);
+        index.map(capacityFor(expectedKeys), true);
+        index.keysOut = new BufferedOutputStream(new FileOutputStream(keysFile), 65536);
+        index.keysLength = 0L;
+        return index;
+    }
+
+    /**
+     * 既存のインデックスを読み込み専用で開く
+     * @param indexFile インデックスファイル
+     * @param keysFile キーファイル
+     * @return インデックス (存在しない場合はnull)
+     * @throws IOException
+     */
+    public static DeltaIndex open(File indexFile, File keysFile) throws IOException {
+        if (!indexFile.exists() || !keysFile.exists()) {
+            return null;
+        }
+        DeltaIndex index = new DeltaIndex(indexFile, keysFile, false);
+        index.map(0L, false);
+        index.keysChannel = new RandomAccessFile(keysFile, "r").getChannel();
+        return index;
+    }
+
+    /**
+     * キーを検索
+     * @param keyHash キーのハッシュ値
+     * @return エントリの位置 (存在しない場合は-1)
+     */
+    public long find(long keyHash) {
+        keyHash = normalize(keyHash);
+        long mask = this.capacity - 1;
+        for (long slot = keyHash & mask; ; slot = (slot + 1) & mask) {
+            long current = this.getLong(slot, 0);
+            if (current == 0L) {
+                return -1L;
+            }
+            if (current == keyHash) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * キーを追加 (既に存在する場合は内容のハッシュ値を更新)
+     * @param keyHash キーのハッシュ値
+     * @param contentHash 内容のハッシュ値
+     * @param key キーのバイト列
+     * @param offset 開始位置
+     * @param length バイト数
+     * @throws IOException
+     */
+    public void put(long keyHash, long contentHash, byte[] key, int offset, int length) throws IOException {
+        if (!this.writable) {
+            throw new IllegalStateException("index is read only");
+        }
+        keyHash = normalize(keyHash);
+        if ((this.size + 1) * 2 > this.capacity) {
+            this.grow();
+        }
+        long mask = this.capacity - 1;
+        for (long slot = keyHash & mask; ; slot = (slot + 1) & mask) {
+            long current = this.getLong(slot, 0);
+            if (current == keyHash) {
+                this.putLong(slot, 8, contentHash);
+                return;
+            }
+            if (current == 0L) {
+                this.putLong(slot, 0, keyHash);
+                this.putLong(slot, 8, contentHash);
+                this.putLong(slot, 16, this.keysLength);
+                this.writeKey(key, offset, length);
+                this.size++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * エントリの内容のハッシュ値
+     * @param slot エントリの位置
+     * @return 内容のハッシュ値
+     */
+    public long getContentHash(long slot) {
+        return this.getLong(slot, 8);
+    }
+
+    /**
+     * エントリのキーをキーファイルから読み込み
+     * @param slot エントリの位置
+     * @return キーのバイト列
+     * @throws IOException
+     */
+    public byte[] getKey(long slot) throws IOException {
+        long position = this.getLong(slot, 16);
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        readFully(this.keysChannel, lengthBuffer, position);
+        ByteBuffer keyBuffer = ByteBuffer.allocate(lengthBuffer.getInt(0));
+        readFully(this.keysChannel, keyBuffer, position + 4);
+        return keyBuffer.array();
+    }
+
+    /**
+     * 使用中のエントリか
+     * @param slot エントリの位置
+     * @return 使用中の場合はtrue
+     */
+    public boolean isOccupied(long slot) {
+        return this.getLong(slot, 0) != 0L;
+    }
+
+    /**
+     * エントリ数 (使用中でない位置を含む)
+     * @return 容量
+     */
+    public long capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * キーの件数
+     * @return 件数
+     */
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.segments == null) {
+            return;
+        }
+        if (this.writable) {
+            this.keysOut.close();
+            this.writeHeader();
+            for (MappedByteBuffer segment : this.segments) {
+                segment.force();
+            }
+        } else {
+            this.keysChannel.close();
+        }
+        this.indexRaf.close();
+        this.segments = null;
+    }
+
+    /**
+     * 容量を2倍にして全てのエントリを再配置 (キーファイルの位置は変わらない)
+     * @throws IOException
+     */
+    private void grow() throws IOException {
+        File oldFile = this.indexFile;
+        File tmp = new File(oldFile.getPath() + ".grow");
+        DeltaIndex grown = new DeltaIndex(tmp, this.keysFile, true);
+        grown.map(this.capacity * 2, true);
+        long mask = grown.capacity - 1;
+        for (long slot = 0; slot < this.capacity; slot++) {
+            long keyHash = this.getLong(slot, 0);
+            if (keyHash == 0L) {
+                continue;
+            }
+            long target = keyHash & mask;
+            while (grown.getLong(target, 0) != 0L) {
+                target = (target + 1) & mask;
+            }
+            grown.putLong(target, 0, keyHash);
+            grown.putLong(target, 8, this.getLong(slot, 8));
+            grown.putLong(target, 16, this.getLong(slot, 16));
+        }
+        grown.size = this.size;
+        this.indexRaf.close();
+        grown.indexRaf.close();
+        Files.move(tmp.toPath(), oldFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        this.map(grown.capacity, false);
+    }
+
+    /**
+     * インデックスファイルをメモリにマップ
+     * @param newCapacity 作成する場合の容量 (既存のファイルを開く場合は無視)
+     * @param create 新しく作成する場合はtrue
+     * @throws IOException
+     */
+    private void map(long newCapacity, boolean create) throws IOException {
+        this.indexRaf = new RandomAccessFile(this.indexFile, this.writable ? "rw" : "r");
+        if (create) {
+            this.indexRaf.setLength(0L);
+            this.indexRaf.setLength(HEADER_SIZE + newCapacity * ENTRY_SIZE);
+            this.capacity = newCapacity;
+            this.size = 0L;
+            this.writeHeader();
+        } else {
+            this.indexRaf.seek(0L);
+            if (this.indexRaf.readLong() != MAGIC) {
+                throw new IOException("invalid delta index : " + this.indexFile);
+            }
+            this.capacity = this.indexRaf.readLong();
+            long storedSize = this.indexRaf.readLong();
+            if (!this.writable) {
+                this.size = storedSize;
+            }
+        }
+        FileChannel channel = this.indexRaf.getChannel();
+        FileChannel.MapMode mode = this.writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        int count = (int) ((this.capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long first = (long) i << SEGMENT_SHIFT;
+            long entries = Math.min(1L << SEGMENT_SHIFT, this.capacity - first);
+            this.segments[i] = channel.map(mode, HEADER_SIZE + first * ENTRY_SIZE, entries * ENTRY_SIZE);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        this.indexRaf.seek(0L);
+        this.indexRaf.writeLong(MAGIC);
+        this.indexRaf.writeLong(this.capacity);
+        this.indexRaf.writeLong(this.size);
+    }
+
+    private void writeKey(byte[] key, int offset, int length) throws IOException {
+        this.keysOut.write(length >>> 24);
+        this.keysOut.write(length >>> 16);
+        this.keysOut.write(length >>> 8);
+        this.keysOut.write(length);
+        this.keysOut.write(key, offset, length);
+        this.keysLength += 4 + length;
+    }
+
+    private long getLong(long slot, int field) {
+        return this.segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & SEGMENT_MASK) * ENTRY_SIZE + field);
+    }
+
+    private void putLong(long slot, int field, long value) {
+        this.segments[(int) (slot >>> SEGMENT_SHIFT)].putLong((int) (slot & SEGMENT_MASK) * ENTRY_SIZE + field, value);
+    }
+
+    /**
+     * 0は未使用のエントリを表すため使用しない
+     */
+    private static long normalize(long keyHash) {
+        return keyHash == 0L ? 1L : keyHash;
+    }
+
+    private static long capacityFor(long expectedKeys) {
+        long capacity = MIN_CAPACITY;
+        while (capacity < expectedKeys * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("unexpected end of delta keys file");
+            }
+        }
+    }
+}
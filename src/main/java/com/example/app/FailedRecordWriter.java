@@ -0,0 +1,169 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * 失敗レコードの出力
+ * バッチの処理結果の行番号と読み込み元のレコードを対応付け、失敗したレコードをエラー内容付きでCSVに出力する。
+ * 再実行対象のエラー(行ロック競合など)のレコードは再実行用のCSVにも出力する。
+ * レコードは読み込み元のバイト列のまま出力するため、エラー列も読み込み元の文字コードで出力する。
+ */
+public class FailedRecordWriter implements Closeable {
+
+    private final String sourcePath;
+    private final Set<String> retryableStatusCodes;
+    private final Charset charset;
+    private final File failedFile;
+    private final File retryFile;
+    private final OutputStream failedOut;
+    private final OutputStream retryOut;
+    private int failedCount = 0;
+    private int retryCount = 0;
+
+    /**
+     * コンストラクタ
+     * @param sourcePath 読み込み元のファイルパス
+     * @param headerBytes CSVのヘッダー行
+     * @param failedFile 失敗レコードの出力先
+     * @param retryFile 再実行用CSVの出力先 (nullの場合は出力しない)
+     * @param retryableStatusCodes 再実行対象のステータスコード
+     * @throws IOException
+     */
+    public FailedRecordWriter(String sourcePath, byte[] headerBytes, File failedFile, File retryFile, Set<String> retryableStatusCodes) throws IOException {
+        this(sourcePath, headerBytes, failedFile, retryFile, retryableStatusCodes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * コンストラクタ (文字コードを指定)
+     * @param sourcePath 読み込み元のファイルパス
+     * @param headerBytes CSVのヘッダー行
+     * @param failedFile 失敗レコードの出力先
+     * @param retryFile 再実行用CSVの出力先 (nullの場合は出力しない)
+     * @param retryableStatusCodes 再実行対象のステータスコード
+     * @param charset 読み込み元の文字コード
+     * @throws IOException
+     */
+    public FailedRecordWriter(String sourcePath, byte[] headerBytes, File failedFile, File retryFile, Set<String> retryableStatusCodes, Charset charset) throws IOException {
+        this.sourcePath = sourcePath;
+        this.retryableStatusCodes = retryableStatusCodes;
+        this.charset = charset;
+        this.failedFile = failedFile;
+        this.retryFile = retryFile;
+        File dir = failedFile.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        this.failedOut = new BufferedOutputStream(new FileOutputStream(failedFile), 65536);
+        // ヘッダー行の末尾にエラー列を追加
+        this.failedOut.write(headerBytes, 0, lengthWithoutNewline(headerBytes, headerBytes.length));
+        this.failedOut.write(",\"Error\"\n".getBytes(charset));
+        if (retryFile != null) {
+            this.retryOut = new BufferedOutputStream(new FileOutputStream(retryFile), 65536);
+            this.retryOut.write(headerBytes);
+        } else {
+            this.retryOut = null;
+        }
+    }
+
+    /**
+     * バッチに含まれるレコードの読み込みを開始
+     * @param segment バッチに含まれるレコードの範囲
+     * @return レコード分割 (先頭レコードから)
+     * @throws IOException
+     */
+    public CsvRecordSplitter openSegment(BatchSegment segment) throws IOException {
+        return CsvRecordSplitter.open(this.sourcePath, segment.getStartOffset());
+    }
+
+    /**
+     * 失敗レコードを出力
+     * @param record レコードのバイト列
+     * @param length バイト数
+     * @param statusCode ステータスコード
+     * @param error エラーメッセージ
+     * @param skipped 検知不要エラーの場合はtrue (再実行しない)
+     * @throws IOException
+     */
+    public synchronized void write(byte[] record, int length, String statusCode, String error, boolean skipped) throws IOException {
+        this.failedOut.write(record, 0, lengthWithoutNewline(record, length));
+        this.failedOut.write(',');
+        this.failedOut.write(quote(error).getBytes(this.charset));
+        this.failedOut.write('\n');
+        this.failedCount++;
+        if (this.retryOut != null && !skipped && this.retryableStatusCodes.contains(statusCode)) {
+            this.retryOut.write(record, 0, length);
+            this.retryCount++;
+        }
+    }
+
+    /**
+     * 出力した失敗レコードの件数
+     * @return 件数
+     */
+    public synchronized int getFailedCount() {
+        return this.failedCount;
+    }
+
+    /**
+     * 再実行用CSVに出力したレコードの件数
+     * @return 件数
+     */
+    public synchronized int getRetryCount() {
+        return this.retryCount;
+    }
+
+    public File getFailedFile() {
+        return this.failedFile;
+    }
+
+    public File getRetryFile() {
+        return this.retryFile;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.failedOut.close();
+        } finally {
+            if (this.retryOut != null) {
+                this.retryOut.close();
+            }
+        }
+    }
+
+    /**
+     * 末尾の改行(CRLF/LF)を除いたバイト数
+     * @param record レコードのバイト列
+     * @param length バイト数
+     * @return バイト数
+     */
+    private static int lengthWithoutNewline(byte[] record, int length) {
+        if (length > 0 && record[length - 1] == '\n') {
+            length--;
+        }
+        if (length > 0 && record[length - 1] == '\r') {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * CSVの項目としてダブルクォートで囲む
+     * @param value 値
+     * @return 囲んだ値
+     */
+    static String quote(String value) {
+        if (value == null) {
+            return "\"\"";
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,441 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.sforce.async.CSVReader;
+
+/**
+ * 変換仕様(spec.csv)に基づくアップロード前のレコードの射影と検証
+ * 変換仕様を読み込み、CSVのヘッダー名から項目の位置への対応表を作成する。
+ * 変換仕様で使用しない列を除き、変換仕様の順に並べ替えたファイルを作成する(ヘッダー名は変えないため、サーバー側の変換仕様はそのまま使用できる)。
+ * 項目のルール(fieldRules.csv)の必須・文字数・選択リスト、変換仕様のHintの日付形式を1回の読み込みで検証し、
+ * 不正なレコードはアップロードせずに元のレコードのままエラー内容付きで隔離ファイルに出力する。
+ * 項目の値は読み込み元の文字コードで文字列に変換して検証し、隔離ファイルのエラー列も読み込み元の文字コードで出力する。
+ */
+public class FieldMapper {
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+
+    private final File mappedFile;
+    private final File invalidFile;
+    private final Charset charset;
+    private long totalCount = 0L;
+    private long invalidCount = 0L;
+    private long sourceBytes = 0L;
+    private long mappedBytes = 0L;
+
+    /**
+     * コンストラクタ
+     * @param dir 作業ファイルの出力先
+     * @param name ファイル名 (オブジェクトAPI名と読み込み元のファイル名)
+     */
+    public FieldMapper(File dir, String name) {
+        this(dir, name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * コンストラクタ (文字コードを指定)
+     * @param dir 作業ファイルの出力先
+     * @param name ファイル名 (オブジェクトAPI名と読み込み元のファイル名)
+     * @param charset 読み込み元の文字コード
+     */
+    public FieldMapper(File dir, String name, Charset charset) {
+        this.mappedFile = new File(dir, name + "-mapped.csv");
+        this.invalidFile = new File(dir, name + "-invalid.csv");
+        this.charset = charset;
+    }
+
+    /**
+     * レコードを射影・検証してファイルに出力
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param headerBytes CSVのヘッダー行
+     * @param mapping 項目の対応表
+     * @return 射影後のファイル
+     * @throws IOException
+     */
+    public File map(CsvRecordSplitter splitter, byte[] headerBytes, Mapping mapping) throws IOException {
+        System.out.println("-- mapRecords -- " + mapping.columns.length + " columns");
+        File dir = this.mappedFile.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        // 前回の隔離ファイルが残らないように削除
+        Files.deleteIfExists(this.invalidFile.toPath());
+        int[] indexes = mapping.resolve(headerBytes);
+        int maxIndex = 0;
+        for (int index : indexes) {
+            maxIndex = Math.max(maxIndex, index);
+        }
+        int[] starts = new int[maxIndex + 1];
+        int[] ends = new int[maxIndex + 1];
+        StringBuilder errors = new StringBuilder();
+        OutputStream invalid = null;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(this.mappedFile), 65536)) {
+            this.writeProjected(out, headerBytes, indexes, starts, ends, splitFields(headerBytes, headerBytes.length, starts, ends));
+            while (splitter.nextRecord()) {
+                byte[] record = splitter.getRecordBytes();
+                int length = splitter.getRecordLength();
+                this.totalCount++;
+                this.sourceBytes += length;
+                errors.setLength(0);
+                int found = splitFields(record, length, starts, ends);
+                for (int i = 0; i < indexes.length; i++) {
+                    // ルールのない列は文字列に変換しない
+                    if (!mapping.rules[i].hasChecks()) {
+                        continue;
+                    }
+                    int index = indexes[i];
+                    String value = index < found ? unquote(record, starts[index], ends[index], this.charset) : "";
+                    mapping.rules[i].validate(value, errors);
+                }
+                if (errors.length() > 0) {
+                    if (invalid == null) {
+                        invalid = new BufferedOutputStream(new FileOutputStream(this.invalidFile), 65536);
+                        invalid.write(headerBytes, 0, trimLineEnd(headerBytes, headerBytes.length));
+                        invalid.write(",\"Error\"\n".getBytes(this.charset));
+                    }
+                    invalid.write(record, 0, trimLineEnd(record, length));
+                    invalid.write(COMMA);
+                    invalid.write(FailedRecordWriter.quote(errors.toString()).getBytes(this.charset));
+                    invalid.write('\n');
+                    this.invalidCount++;
+                    continue;
+                }
+                this.mappedBytes += this.writeProjected(out, record, indexes, starts, ends, found);
+            }
+        } finally {
+            splitter.close();
+            if (invalid != null) {
+                invalid.close();
+            }
+        }
+        System.out.println("MappedRecords = " + (this.totalCount - this.invalidCount) + ", InvalidRecords = " + this.invalidCount
+            + ", Bytes = " + this.sourceBytes + " -> " + this.mappedBytes);
+        return this.mappedFile;
+    }
+
+    public File getMappedFile() {
+        return this.mappedFile;
+    }
+
+    public File getInvalidFile() {
+        return this.invalidFile;
+    }
+
+    public long getTotalCount() {
+        return this.totalCount;
+    }
+
+    public long getInvalidCount() {
+        return this.invalidCount;
+    }
+
+    /**
+     * 隔離ファイルのレコード件数を読み込み (前回の射影後のファイルで再開する場合に使用)
+     * @return 件数
+     * @throws IOException
+     */
+    public long loadInvalidCount() throws IOException {
+        this.invalidCount = 0L;
+        if (this.invalidFile.exists()) {
+            CsvRecordSplitter splitter = CsvRecordSplitter.open(this.invalidFile.getPath());
+            try {
+                splitter.nextRecord();
+                while (splitter.nextRecord()) {
+                    this.invalidCount++;
+                }
+            } finally {
+                splitter.close();
+            }
+        }
+        return this.invalidCount;
+    }
+
+    /**
+     * 指定した位置の項目をカンマ区切りで出力 (項目のバイト列はそのまま出力)
+     * @return 出力したバイト数
+     */
+    private long writeProjected(OutputStream out, byte[] record, int[] indexes, int[] starts, int[] ends, int found) throws IOException {
+        long written = 0L;
+        for (int i = 0; i < indexes.length; i++) {
+            if (i > 0) {
+                out.write(COMMA);
+                written++;
+            }
+            int index = indexes[i];
+            if (index < found) {
+                out.write(record, starts[index], ends[index] - starts[index]);
+                written += ends[index] - starts[index];
+            }
+        }
+        out.write('\n');
+        return written + 1;
+    }
+
+    /**
+     * 1回の走査で全ての項目の範囲を取得 (ダブルクォートを含む, 格納先の数を超える項目は無視)
+     * @param record レコード
+     * @param length バイト数
+     * @param starts 開始位置の格納先
+     * @param ends 終了位置の格納先
+     * @return 取得した項目数
+     */
+    static int splitFields(byte[] record, int length, int[] starts, int[] ends) {
+        length = trimLineEnd(record, length);
+        int start = 0;
+        int index = 0;
+        boolean quoted = false;
+        for (int i = 0; i <= length && index < starts.length; i++) {
+            if (i < length && record[i] == QUOTE) {
+                quoted = !quoted;
+            } else if (i == length || (record[i] == COMMA && !quoted)) {
+                starts[index] = start;
+                ends[index] = i;
+                index++;
+                start = i + 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 項目の値 (囲むダブルクォートを除き、エスケープを戻す)
+     */
+    private static String unquote(byte[] record, int start, int end, Charset charset) {
+        if (end - start >= 2 && record[start] == QUOTE && record[end - 1] == QUOTE) {
+            return new String(record, start + 1, end - start - 2, charset).replace("\"\"", "\"");
+        }
+        return new String(record, start, end - start, charset);
+    }
+
+    private static int trimLineEnd(byte[] record, int length) {
+        while (length > 0 && (record[length - 1] == '\n' || record[length - 1] == '\r')) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * 変換仕様と項目のルールから作成した項目の対応表
+     */
+    public static class Mapping {
+
+        private final String[] columns;
+        private final Rule[] rules;
+
+        private Mapping(String[] columns, Rule[] rules) {
+            this.columns = columns;
+            this.rules = rules;
+        }
+
+        /**
+         * 変換仕様と項目のルールを読み込み
+         * @param specFile 変換仕様のファイルパス
+         * @param rulesFile 項目のルールのファイルパス (存在しない場合は変換仕様のHintのみ検証)
+         * @param sobjectType オブジェクトAPI名
+         * @param extraColumns 変換仕様になくても残す列 (差分検出のキー項目など)
+         * @return 項目の対応表
+         * @throws IOException
+         */
+        public static Mapping load(String specFile, String rulesFile, String sobjectType, List<String> extraColumns) throws IOException {
+            Map<String, Rule> rulesByField = loadRules(rulesFile, sobjectType);
+            // CSVのヘッダー名 → ルール (同じ列を複数の項目に対応付けた場合は全てのルールを適用)
+            Map<String, Rule> columns = new LinkedHashMap<String, Rule>();
+            try (InputStream in = new FileInputStream(specFile)) {
+                CSVReader rdr = new CSVReader(in, "UTF-8");
+                rdr.nextRecord();
+                List<String> row;
+                while ((row = rdr.nextRecord()) != null) {
+                    String field = cell(row, 0);
+                    String column = cell(row, 1);
+                    if (column.isEmpty()) {
+                        continue;
+                    }
+                    String defaultValue = cell(row, 2);
+                    String hint = cell(row, 3);
+                    Rule rule = rulesByField.get(field.toLowerCase());
+                    rule = (rule == null ? new Rule(field, false, 0, null) : rule).withSpec(defaultValue, hint);
+                    Rule current = columns.get(column);
+                    columns.put(column, current == null ? rule : current.and(rule));
+                }
+            }
+            for (String column : extraColumns) {
+                if (column != null && !column.isEmpty() && !columns.containsKey(column)) {
+                    columns.put(column, new Rule(column, false, 0, null));
+                }
+            }
+            return new Mapping(columns.keySet().toArray(new String[columns.size()]), columns.values().toArray(new Rule[columns.size()]));
+        }
+
+        /**
+         * ヘッダー行から各列の位置を取得
+         * @param headerBytes CSVのヘッダー行
+         * @return 出力順の列の位置
+         * @throws IOException 変換仕様の列がCSVに存在しない場合
+         */
+        int[] resolve(byte[] headerBytes) throws IOException {
+            int[] indexes = new int[this.columns.length];
+            for (int i = 0; i < this.columns.length; i++) {
+                indexes[i] = DeltaDetector.indexOfColumn(headerBytes, headerBytes.length, this.columns[i]);
+                if (indexes[i] < 0) {
+                    throw new IOException("CSV column not found : " + this.columns[i]);
+                }
+            }
+            return indexes;
+        }
+
+        /**
+         * 項目のルールを読み込み (sObject,Salesforce Field,Required,Length,Picklist)
+         * @return 項目のAPI名(小文字) → ルール
+         */
+        private static Map<String, Rule> loadRules(String rulesFile, String sobjectType) throws IOException {
+            Map<String, Rule> rules = new HashMap<String, Rule>();
+            if (rulesFile == null || rulesFile.isEmpty() || !new File(rulesFile).exists()) {
+                return rules;
+            }
+            try (InputStream in = new FileInputStream(rulesFile)) {
+                CSVReader rdr = new CSVReader(in, "UTF-8");
+                rdr.nextRecord();
+                List<String> row;
+                while ((row = rdr.nextRecord()) != null) {
+                    if (!sobjectType.equalsIgnoreCase(cell(row, 0))) {
+                        continue;
+                    }
+                    String field = cell(row, 1);
+                    boolean required = Boolean.parseBoolean(cell(row, 2));
+                    int maxLength = cell(row, 3).isEmpty() ? 0 : Integer.parseInt(cell(row, 3));
+                    Set<String> picklist = null;
+                    if (!cell(row, 4).isEmpty()) {
+                        picklist = new HashSet<String>();
+                        for (String value : cell(row, 4).split(";")) {
+                            picklist.add(value.trim());
+                        }
+                    }
+                    rules.put(field.toLowerCase(), new Rule(field, required, maxLength, picklist));
+                }
+            }
+            return rules;
+        }
+
+        /**
+         * CSVの列の値 (空・列がない場合は空文字)
+         */
+        private static String cell(List<String> row, int index) {
+            return index < row.size() && row.get(index) != null ? row.get(index).trim() : "";
+        }
+    }
+
+    /**
+     * 項目の検証ルール
+     */
+    static class Rule {
+
+        // SimpleDateFormatはスレッドセーフでないためスレッド毎に保持
+        private static final ThreadLocal<Map<String, SimpleDateFormat>> DATE_FORMATS = new ThreadLocal<Map<String, SimpleDateFormat>>() {
+            @Override
+            protected Map<String, SimpleDateFormat> initialValue() {
+                return new HashMap<String, SimpleDateFormat>();
+            }
+        };
+
+        private final String field;
+        private final boolean required;
+        private final int maxLength;
+        private final Set<String> picklist;
+        private final boolean hasDefault;
+        private final String dateFormat;
+        private final Rule next;
+
+        Rule(String field, boolean required, int maxLength, Set<String> picklist) {
+            this(field, required, maxLength, picklist, false, "", null);
+        }
+
+        private Rule(String field, boolean required, int maxLength, Set<String> picklist, boolean hasDefault, String dateFormat, Rule next) {
+            this.field = field;
+            this.required = required;
+            this.maxLength = maxLength;
+            this.picklist = picklist;
+            this.hasDefault = hasDefault;
+            this.dateFormat = dateFormat;
+            this.next = next;
+        }
+
+        Rule withSpec(String defaultValue, String hint) {
+            return new Rule(this.field, this.required, this.maxLength, this.picklist, !defaultValue.isEmpty(), hint, this.next);
+        }
+
+        Rule and(Rule other) {
+            return new Rule(this.field, this.required, this.maxLength, this.picklist, this.hasDefault, this.dateFormat, this.next == null ? other : this.next.and(other));
+        }
+
+        /**
+         * 検証する内容があるか
+         * @return 検証する場合はtrue
+         */
+        boolean hasChecks() {
+            return this.required || this.maxLength > 0 || this.picklist != null || !this.dateFormat.isEmpty() || this.next != null;
+        }
+
+        /**
+         * 値を検証してエラー内容を追加 (ステータスコードはSalesforceのエラーに合わせる)
+         * @param value 値
+         * @param errors エラー内容の追加先
+         */
+        void validate(String value, StringBuilder errors) {
+            if (value.isEmpty()) {
+                // 空の値はデフォルト値(変換仕様のValue)がない必須項目のみエラー
+                if (this.required && !this.hasDefault) {
+                    append(errors, "REQUIRED_FIELD_MISSING:Required fields are missing: [" + this.field + "]");
+                }
+            } else {
+                if (this.maxLength > 0 && value.codePointCount(0, value.length()) > this.maxLength) {
+                    append(errors, "STRING_TOO_LONG:" + this.field + ": data value too large (max length=" + this.maxLength + ")");
+                }
+                if (this.picklist != null && !this.picklist.contains(value)) {
+                    append(errors, "INVALID_OR_NULL_FOR_RESTRICTED_PICKLIST:" + this.field + ": bad value for restricted picklist field: " + value);
+                }
+                if (!this.dateFormat.isEmpty() && !isDate(value, this.dateFormat)) {
+                    append(errors, "INVALID_FIELD:" + this.field + ": value not of required format (" + this.dateFormat + "): " + value);
+                }
+            }
+            if (this.next != null) {
+                this.next.validate(value, errors);
+            }
+        }
+
+        private static void append(StringBuilder errors, String error) {
+            if (errors.length() > 0) {
+                errors.append(" / ");
+            }
+            errors.append(error);
+        }
+
+        private static boolean isDate(String value, String format) {
+            SimpleDateFormat parser = DATE_FORMATS.get().get(format);
+            if (parser == null) {
+                parser = new SimpleDateFormat(format);
+                parser.setLenient(false);
+                DATE_FORMATS.get().put(format, parser);
+            }
+            ParsePosition position = new ParsePosition(0);
+            return parser.parse(value, position) != null && position.getIndex() == value.length();
+        }
+    }
+}
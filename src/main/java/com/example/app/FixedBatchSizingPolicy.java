@@ -0,0 +1,40 @@
+package com.example.app;
+
+import com.sforce.async.BatchInfo;
+
+/**
+ * 固定のバッチサイズ
+ */
+public class FixedBatchSizingPolicy implements BatchSizingPolicy {
+
+    private final int maxRowsPerBatch;
+    private final int maxBytesPerBatch;
+
+    /**
+     * コンストラクタ
+     * @param maxRowsPerBatch バッチあたりの最大行数
+     * @param maxBytesPerBatch バッチあたりの最大バイト数
+     */
+    public FixedBatchSizingPolicy(int maxRowsPerBatch, int maxBytesPerBatch) {
+        this.maxRowsPerBatch = maxRowsPerBatch;
+        this.maxBytesPerBatch = maxBytesPerBatch;
+    }
+
+    @Override
+    public int getMaxRowsPerBatch() {
+        return this.maxRowsPerBatch;
+    }
+
+    @Override
+    public int getMaxBytesPerBatch() {
+        return this.maxBytesPerBatch;
+    }
+
+    @Override
+    public void onBatchCompleted(BatchInfo batchInfo) {
+    }
+
+    @Override
+    public void onLockErrors(int count) {
+    }
+}
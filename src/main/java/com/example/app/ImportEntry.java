@@ -0,0 +1,88 @@
+package com.example.app;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import com.sforce.async.OperationEnum;
+
+/**
+ * インポート対象 (マニフェストの1行)
+ */
+public class ImportEntry {
+
+    private final String sobjectType;
+    private final String filePath;
+    private final String specFile;
+    private final OperationEnum operation;
+    private final String externalIdFieldName;
+    private final List<String> dependsOn;
+    private final String deltaKeyColumn;
+    private final String groupByColumn;
+
+    /**
+     * コンストラクタ
+     * @param sobjectType オブジェクトAPI名
+     * @param filePath 読み込み元のファイルパス
+     * @param specFile CSVファイル変換仕様のファイルパス
+     * @param operation 処理の種類
+     * @param externalIdFieldName 外部ID項目 (upsert時のみ使用)
+     * @param dependsOn 先に完了している必要があるオブジェクトAPI名
+     * @param deltaKeyColumn 差分検出のキー項目 (空の場合は全件送信)
+     * @param groupByColumn 同じバッチにまとめる親のキー項目 (空の場合は並べ替えない)
+     */
+    public ImportEntry(String sobjectType, String filePath, String specFile, OperationEnum operation, String externalIdFieldName, List<String> dependsOn, String deltaKeyColumn, String groupByColumn) {
+        this.sobjectType = sobjectType;
+        this.filePath = filePath;
+        this.specFile = specFile;
+        this.operation = operation;
+        this.externalIdFieldName = externalIdFieldName;
+        this.dependsOn = Collections.unmodifiableList(dependsOn);
+        this.deltaKeyColumn = deltaKeyColumn;
+        this.groupByColumn = groupByColumn;
+    }
+
+    public String getSobjectType() {
+        return this.sobjectType;
+    }
+
+    public String getFilePath() {
+        return this.filePath;
+    }
+
+    public String getSpecFile() {
+        return this.specFile;
+    }
+
+    public OperationEnum getOperation() {
+        return this.operation;
+    }
+
+    public String getExternalIdFieldName() {
+        return this.externalIdFieldName;
+    }
+
+    public List<String> getDependsOn() {
+        return this.dependsOn;
+    }
+
+    public String getDeltaKeyColumn() {
+        return this.deltaKeyColumn;
+    }
+
+    public String getGroupByColumn() {
+        return this.groupByColumn;
+    }
+
+    /**
+     * 作業ファイル(整形・射影・差分・チェックポイント)の名前 (オブジェクトAPI名-ファイル名)
+     * @return 名前
+     */
+    public String getWorkName() {
+        return this.sobjectType + "-" + (RecordSource.STDIN.equals(this.filePath) ? "stdin" : new File(this.filePath).getName());
+    }
+
+    @Override
+    public String toString() {
+        return this.sobjectType + "(" + this.operation + ") " + this.filePath;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.app;
+
+import java.io.File;
+import java.util.Map;
+import com.sforce.async.JobInfo;
+
+/**
+ * インポートジョブの実行結果
+ */
+public class ImportJobResult {
+
+    private final JobInfo jobInfo;
+    private final int skipErrorCount;
+    private final Map<String, Integer> failuresByStatusCode;
+    private final File failedFile;
+    private final File retryFile;
+    private final int retryCount;
+    private final int failedBatchRecordCount;
+    private final int uncountedBatchCount;
+
+    /**
+     * コンストラクタ
+     * @param jobInfo 完了時のジョブ情報
+     * @param skipErrorCount 検知不要エラー件数
+     * @param failuresByStatusCode ステータスコード毎のエラー件数
+     * @param failedFile 失敗レコードの出力先 (出力しない場合はnull)
+     * @param retryFile 再実行用CSVの出力先 (出力しない場合はnull)
+     * @param retryCount 再実行用CSVに出力したレコードの件数
+     * @param failedBatchRecordCount 失敗・未処理のバッチに含まれるレコード件数
+     * @param uncountedBatchCount 失敗・未処理のバッチのうち、レコード件数が不明なバッチ数
+     */
+    public ImportJobResult(JobInfo jobInfo, int skipErrorCount, Map<String, Integer> failuresByStatusCode, File failedFile, File retryFile, int retryCount,
+            int failedBatchRecordCount, int uncountedBatchCount) {
+        this.jobInfo = jobInfo;
+        this.skipErrorCount = skipErrorCount;
+        this.failuresByStatusCode = failuresByStatusCode;
+        this.failedFile = failedFile;
+        this.retryFile = retryFile;
+        this.retryCount = retryCount;
+        this.failedBatchRecordCount = failedBatchRecordCount;
+        this.uncountedBatchCount = uncountedBatchCount;
+    }
+
+    public JobInfo getJobInfo() {
+        return this.jobInfo;
+    }
+
+    public int getSkipErrorCount() {
+        return this.skipErrorCount;
+    }
+
+    public Map<String, Integer> getFailuresByStatusCode() {
+        return this.failuresByStatusCode;
+    }
+
+    public File getFailedFile() {
+        return this.failedFile;
+    }
+
+    public File getRetryFile() {
+        return this.retryFile;
+    }
+
+    public int getRetryCount() {
+        return this.retryCount;
+    }
+
+    public int getFailedBatchRecordCount() {
+        return this.failedBatchRecordCount;
+    }
+
+    public int getUncountedBatchCount() {
+        return this.uncountedBatchCount;
+    }
+
+    /**
+     * エラー件数 (失敗・未処理のバッチに含まれるレコードを含む)
+     * @return 件数
+     */
+    public int getFailedCount() {
+        return this.jobInfo.getNumberRecordsFailed() + this.failedBatchRecordCount;
+    }
+
+    /**
+     * 検知不要エラー以外のエラー件数
+     * @return 件数
+     */
+    public int getUnexpectedErrorCount() {
+        return this.getFailedCount() - this.skipErrorCount;
+    }
+}
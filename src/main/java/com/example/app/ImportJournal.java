@@ -0,0 +1,244 @@
+package com.example.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * インポート処理のチェックポイント
+ * ジョブID、アップロードするバッチの範囲(読み込み元のバイト位置)、作成されたバッチIDをローカルファイルに追記し、
+ * 1行毎にディスクへ同期する。処理が中断した場合は次回の実行時に同じジョブへ再接続し、未送信の範囲のみアップロードする。
+ *
+ * JOB,ジョブID,ファイルサイズ,更新日時
+ * SUBMIT,番号,開始位置,終了位置,件数      (アップロード開始前)
+ * BATCH,番号,開始位置,終了位置,件数,バッチID (アップロード完了後)
+ * CLOSED                                   (ジョブのクローズ後)
+ */
+public class ImportJournal implements Closeable {
+
+    private final File file;
+    private FileOutputStream out;
+    private String jobId;
+    private long sourceLength;
+    private long sourceLastModified;
+    private boolean jobClosed = false;
+    private final Map<Integer, BatchSegment> submitted = new TreeMap<Integer, BatchSegment>();
+    private final Map<Integer, BatchSegment> uploaded = new TreeMap<Integer, BatchSegment>();
+
+    private ImportJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * チェックポイントを開く (ファイルが存在する場合は前回の状態を読み込む)
+     * @param file チェックポイントのファイル
+     * @return チェックポイント
+     * @throws IOException
+     */
+    public static ImportJournal open(File file) throws IOException {
+        ImportJournal journal = new ImportJournal(file);
+        if (file.exists()) {
+            journal.load();
+        } else {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null) {
+                dir.mkdirs();
+            }
+        }
+        journal.out = new FileOutputStream(file, true);
+        return journal;
+    }
+
+    /**
+     * 前回の処理が中断したジョブが存在するか
+     * @return 再開できる場合はtrue
+     */
+    public boolean isResumable() {
+        return this.jobId != null;
+    }
+
+    public String getJobId() {
+        return this.jobId;
+    }
+
+    /**
+     * ジョブのクローズまで完了しているか
+     * @return クローズ済みの場合はtrue
+     */
+    public boolean isJobClosed() {
+        return this.jobClosed;
+    }
+
+    /**
+     * 前回と同じ読み込み元か (サイズと更新日時で判定)
+     * @param source 読み込み元のファイル
+     * @return 同じ場合はtrue
+     */
+    public boolean isSameSource(File source) {
+        return this.sourceLength == source.length() && this.sourceLastModified == source.lastModified();
+    }
+
+    /**
+     * アップロードが完了したバッチの範囲
+     * @return バッチの範囲 (番号順)
+     */
+    public synchronized List<BatchSegment> getUploadedSegments() {
+        return new ArrayList<BatchSegment>(this.uploaded.values());
+    }
+
+    /**
+     * アップロードを開始したが完了を記録できていないバッチの範囲
+     * @return バッチの範囲 (番号順)
+     */
+    public synchronized List<BatchSegment> getPendingSegments() {
+        List<BatchSegment> pending = new ArrayList<BatchSegment>();
+        for (Map.Entry<Integer, BatchSegment> e : this.submitted.entrySet()) {
+            if (!this.uploaded.containsKey(e.getKey())) {
+                pending.add(e.getValue());
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * ジョブの作成を記録
+     * @param jobId ジョブID
+     * @param source 読み込み元のファイル
+     * @throws IOException
+     */
+    public synchronized void recordJob(String jobId, File source) throws IOException {
+        this.jobId = jobId;
+        this.sourceLength = source.length();
+        this.sourceLastModified = source.lastModified();
+        this.append("JOB," + jobId + "," + this.sourceLength + "," + this.sourceLastModified);
+    }
+
+    /**
+     * バッチのアップロード開始を記録
+     * @param segment バッチの範囲
+     * @throws IOException
+     */
+    public synchronized void recordSubmit(BatchSegment segment) throws IOException {
+        this.submitted.put(segment.getIndex(), segment);
+        this.append("SUBMIT," + segment.getIndex() + "," + segment.getStartOffset() + "," + segment.getEndOffset() + "," + segment.getRowCount());
+    }
+
+    /**
+     * バッチのアップロード完了を記録
+     * @param segment バッチの範囲 (バッチID設定済み)
+     * @throws IOException
+     */
+    public synchronized void recordBatch(BatchSegment segment) throws IOException {
+        this.submitted.put(segment.getIndex(), segment);
+        this.uploaded.put(segment.getIndex(), segment);
+        this.append("BATCH," + segment.getIndex() + "," + segment.getStartOffset() + "," + segment.getEndOffset() + "," + segment.getRowCount() + "," + segment.getBatchId());
+    }
+
+    /**
+     * ジョブのクローズを記録
+     * @throws IOException
+     */
+    public synchronized void recordJobClosed() throws IOException {
+        this.jobClosed = true;
+        this.append("CLOSED");
+    }
+
+    /**
+     * 前回の状態を破棄 (新しいジョブで最初から実行する場合に使用)
+     * @throws IOException
+     */
+    public synchronized void reset() throws IOException {
+        this.close();
+        this.jobId = null;
+        this.sourceLength = 0L;
+        this.sourceLastModified = 0L;
+        this.jobClosed = false;
+        this.submitted.clear();
+        this.uploaded.clear();
+        this.out = new FileOutputStream(this.file, false);
+    }
+
+    /**
+     * 処理完了 (チェックポイントのファイルを削除)
+     * @throws IOException
+     */
+    public synchronized void complete() throws IOException {
+        this.close();
+        Files.deleteIfExists(this.file.toPath());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    /**
+     * 1行追記してディスクへ同期
+     * @param line 行
+     * @throws IOException
+     */
+    private void append(String line) throws IOException {
+        this.out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        this.out.getFD().sync();
+    }
+
+    /**
+     * ファイルから前回の状態を読み込み
+     * 書き込み途中で中断した最終行は無視する。
+     * @throws IOException
+     */
+    private void load() throws IOException {
+        byte[] content = Files.readAllBytes(this.file.toPath());
+        String text = new String(content, StandardCharsets.UTF_8);
+        int end = text.lastIndexOf('\n');
+        // 書き込み途中の行を切り詰めてから追記する
+        long validLength = end < 0 ? 0L : text.substring(0, end + 1).getBytes(StandardCharsets.UTF_8).length;
+        if (validLength < content.length) {
+            try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        if (end < 0) {
+            return;
+        }
+        for (String line : text.substring(0, end).split("\n")) {
+            String[] cols = line.split(",");
+            if ("JOB".equals(cols[0])) {
+                this.jobId = cols[1];
+                this.sourceLength = Long.parseLong(cols[2]);
+                this.sourceLastModified = Long.parseLong(cols[3]);
+            } else if ("SUBMIT".equals(cols[0])) {
+                BatchSegment segment = parseSegment(cols);
+                this.submitted.put(segment.getIndex(), segment);
+            } else if ("BATCH".equals(cols[0])) {
+                BatchSegment segment = parseSegment(cols);
+                segment.setBatchId(cols[5]);
+                this.submitted.put(segment.getIndex(), segment);
+                this.uploaded.put(segment.getIndex(), segment);
+            } else if ("CLOSED".equals(cols[0])) {
+                this.jobClosed = true;
+            }
+        }
+    }
+
+    /**
+     * バッチの範囲を読み込み
+     * @param cols 行の項目
+     * @return バッチの範囲
+     */
+    private static BatchSegment parseSegment(String[] cols) {
+        return new BatchSegment(Integer.parseInt(cols[1]), Long.parseLong(cols[2]), Long.parseLong(cols[3]), Integer.parseInt(cols[4]));
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.app;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.sforce.async.CSVReader;
+import com.sforce.async.OperationEnum;
+
+/**
+ * インポート対象の一覧 (マニフェスト)
+ * 1行に1ジョブ。項目はヘッダー行の名前で判定する。
+ *
+ * sObject,file,spec,operation,externalId,dependsOn,deltaKey,groupBy
+ * Account,./data/accounts.csv,./conf/spec.csv,insert,,,AccountNumber,
+ * Contact,./data/contacts.csv,./conf/contactSpec.csv,upsert,External__c,Account,,AccountId
+ *
+ * dependsOnには先に完了している必要があるオブジェクトAPI名を「;」区切りで指定する。
+ * deltaKeyを指定した場合は差分検出を行う。groupByを指定した場合は同じ親のレコードを同じバッチにまとめる。
+ */
+public class ImportManifest {
+
+    private ImportManifest() {
+    }
+
+    /**
+     * マニフェストの読み込み
+     * @param filePath ファイルパス
+     * @return インポート対象 (記載順)
+     * @throws IOException
+     */
+    public static List<ImportEntry> load(String filePath) throws IOException {
+        try (InputStream in = new FileInputStream(filePath)) {
+            return parse(in);
+        }
+    }
+
+    /**
+     * マニフェストの読み込み
+     * @param in 読み込み元
+     * @return インポート対象 (記載順)
+     * @throws IOException
+     */
+    public static List<ImportEntry> parse(InputStream in) throws IOException {
+        CSVReader rdr = new CSVReader(in, "UTF-8");
+        List<String> header = rdr.nextRecord();
+        if (header == null) {
+            throw new IOException("manifest header not found");
+        }
+        int sobjectIndex = requireColumn(header, "sObject");
+        int fileIndex = requireColumn(header, "file");
+        int specIndex = header.indexOf("spec");
+        int operationIndex = header.indexOf("operation");
+        int externalIdIndex = header.indexOf("externalId");
+        int dependsOnIndex = header.indexOf("dependsOn");
+        int deltaKeyIndex = header.indexOf("deltaKey");
+        int groupByIndex = header.indexOf("groupBy");
+
+        List<ImportEntry> entries = new ArrayList<ImportEntry>();
+        List<String> row;
+        while ((row = rdr.nextRecord()) != null) {
+            String sobjectType = get(row, sobjectIndex);
+            if (sobjectType.isEmpty()) {
+                continue;
+            }
+            String spec = get(row, specIndex);
+            String operation = get(row, operationIndex);
+            if (!operation.isEmpty() && !SalesforceApiUtil.IMPORT_OPERATIONS.contains(operation)) {
+                throw new IllegalArgumentException("invalid operation in manifest : " + sobjectType + " " + operation);
+            }
+            if ("upsert".equals(operation) && get(row, externalIdIndex).isEmpty()) {
+                throw new IllegalArgumentException("externalId is required for upsert : " + sobjectType);
+            }
+            List<String> dependsOn = new ArrayList<String>();
+            for (String name : get(row, dependsOnIndex).split(";")) {
+                if (!name.trim().isEmpty()) {
+                    dependsOn.add(name.trim());
+                }
+            }
+            entries.add(new ImportEntry(
+                sobjectType,
+                get(row, fileIndex),
+                spec.isEmpty() ? "./conf/spec.csv" : spec,
+                operation.isEmpty() ? OperationEnum.insert : OperationEnum.valueOf(operation),
+                get(row, externalIdIndex),
+                dependsOn,
+                get(row, deltaKeyIndex),
+                get(row, groupByIndex)));
+        }
+        validate(entries);
+        return entries;
+    }
+
+    /**
+     * 依存関係の確認 (存在しないオブジェクトと循環参照はエラー)
+     * 作業ファイルの名前(オブジェクトAPI名とファイル名)が同じ行は、並行して実行すると作業ファイルを上書きし合うためエラーとする。
+     * @param entries インポート対象
+     */
+    static void validate(List<ImportEntry> entries) {
+        Map<String, List<ImportEntry>> bySobject = new HashMap<String, List<ImportEntry>>();
+        Map<String, ImportEntry> byWorkName = new HashMap<String, ImportEntry>();
+        for (ImportEntry entry : entries) {
+            ImportEntry duplicate = byWorkName.put(entry.getWorkName(), entry);
+            if (duplicate != null) {
+                throw new IllegalArgumentException("same sObject and file name in manifest : " + duplicate.getFilePath() + ", " + entry.getFilePath()
+                    + " (rename one of the files)");
+            }
+            if (!bySobject.containsKey(entry.getSobjectType())) {
+                bySobject.put(entry.getSobjectType(), new ArrayList<ImportEntry>());
+            }
+            bySobject.get(entry.getSobjectType()).add(entry);
+        }
+        for (ImportEntry entry : entries) {
+            for (String name : entry.getDependsOn()) {
+                if (!bySobject.containsKey(name)) {
+                    throw new IllegalArgumentException("dependsOn not found in manifest : " + entry.getSobjectType() + " -> " + name);
+                }
+            }
+        }
+        // 依存先が全て完了済みのオブジェクトを順に取り除き、残った場合は循環参照
+        Set<String> done = new HashSet<String>();
+        Set<String> remaining = new HashSet<String>(bySobject.keySet());
+        boolean progressed = true;
+        while (!remaining.isEmpty() && progressed) {
+            progressed = false;
+            for (String name : new ArrayList<String>(remaining)) {
+                boolean ready = true;
+                for (ImportEntry entry : bySobject.get(name)) {
+                    if (!done.containsAll(entry.getDependsOn())) {
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    done.add(name);
+                    remaining.remove(name);
+                    progressed = true;
+                }
+            }
+        }
+        if (!remaining.isEmpty()) {
+            List<String> cycle = new ArrayList<String>(remaining);
+            Collections.sort(cycle);
+            throw new IllegalArgumentException("circular dependsOn in manifest : " + cycle);
+        }
+    }
+
+    private static int requireColumn(List<String> header, String name) throws IOException {
+        int index = header.indexOf(name);
+        if (index < 0) {
+            throw new IOException("manifest column not found : " + name);
+        }
+        return index;
+    }
+
+    private static String get(List<String> row, int index) {
+        if (index < 0 || index >= row.size() || row.get(index) == null) {
+            return "";
+        }
+        return row.get(index).trim();
+    }
+}
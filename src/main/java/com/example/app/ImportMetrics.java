@@ -0,0 +1,364 @@
+package com.example.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+import org.codehaus.jackson.map.ObjectMapper;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+
+/**
+ * インポート処理の計測
+ * 読み込み件数・バイト数、バッチのアップロード時間、キューの深さ、サーバー側の処理時間、処理結果の取得時間、ステータスコード毎の失敗件数を集計する。
+ * 実行中はJMX(プラットフォームMBeanServer)で参照でき、終了時には実行結果のサマリーをJSONファイルに出力する。
+ * Spring Boot 1.1にはMicrometerが含まれないため、JDK標準のJMXで公開する。
+ */
+public class ImportMetrics implements ImportMetricsMXBean {
+
+    private static final String OBJECT_NAME = "com.example.app:type=ImportMetrics";
+    private static ImportMetrics instance;
+
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong batchesSubmitted = new AtomicLong();
+    private final AtomicLong batchesUploaded = new AtomicLong();
+    private final AtomicLong batchesCompleted = new AtomicLong();
+    private final AtomicLong batchesFailed = new AtomicLong();
+    private final AtomicInteger uploadQueueDepth = new AtomicInteger();
+    private final AtomicInteger maxUploadQueueDepth = new AtomicInteger();
+    private final AtomicInteger resultQueueDepth = new AtomicInteger();
+    private final Timer uploadTimer = new Timer();
+    private final Timer processingTimer = new Timer();
+    private final Timer resultDownloadTimer = new Timer();
+    private final ConcurrentHashMap<String, AtomicLong> failuresByStatusCode = new ConcurrentHashMap<String, AtomicLong>();
+
+    ImportMetrics() {
+    }
+
+    /**
+     * プロセス全体の計測 (初回呼び出し時にJMXへ登録)
+     * @return 計測
+     */
+    public static synchronized ImportMetrics get() {
+        if (instance == null) {
+            instance = new ImportMetrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                // JMXに登録できなくても計測とサマリーの出力は継続する
+                System.out.println("<< Exception >> " + e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * バッチのアップロード待ちへの追加
+     * @param rows 読み込んだ件数
+     * @param bytes 読み込んだバイト数 (ヘッダー行を除く)
+     */
+    public void onBatchSubmitted(int rows, long bytes) {
+        this.rowsRead.addAndGet(rows);
+        this.bytesRead.addAndGet(bytes);
+        this.batchesSubmitted.incrementAndGet();
+        int depth = this.uploadQueueDepth.incrementAndGet();
+        int max;
+        while (depth > (max = this.maxUploadQueueDepth.get()) && !this.maxUploadQueueDepth.compareAndSet(max, depth)) {
+            // 他のスレッドが更新した場合は再確認
+        }
+    }
+
+    /**
+     * バッチのアップロード終了 (失敗した場合を含む)
+     * @param nanos アップロードに要した時間(ナノ秒)
+     * @param success アップロードに成功した場合はtrue
+     */
+    public void onBatchUploaded(long nanos, boolean success) {
+        this.uploadQueueDepth.decrementAndGet();
+        if (success) {
+            this.batchesUploaded.incrementAndGet();
+            this.uploadTimer.record(nanos);
+        }
+    }
+
+    /**
+     * バッチの処理終了 (作成日時から最終更新日時までをサーバー側の処理時間とする)
+     * @param batchInfo バッチ情報
+     */
+    public void onBatchFinished(BatchInfo batchInfo) {
+        if (batchInfo.getState() == BatchStateEnum.Completed) {
+            this.batchesCompleted.incrementAndGet();
+        } else {
+            this.batchesFailed.incrementAndGet();
+        }
+        if (batchInfo.getCreatedDate() != null && batchInfo.getSystemModstamp() != null) {
+            long millis = batchInfo.getSystemModstamp().getTimeInMillis() - batchInfo.getCreatedDate().getTimeInMillis();
+            this.processingTimer.record(Math.max(0L, millis) * 1000000L);
+        }
+    }
+
+    /**
+     * 処理結果の取得待ちへの追加
+     */
+    public void onResultQueued() {
+        this.resultQueueDepth.incrementAndGet();
+    }
+
+    /**
+     * 処理結果の取得終了
+     * @param nanos 取得とチェックに要した時間(ナノ秒)
+     */
+    public void onResultDownloaded(long nanos) {
+        this.resultQueueDepth.decrementAndGet();
+        this.resultDownloadTimer.record(nanos);
+    }
+
+    /**
+     * 失敗レコードのカウント
+     * @param statusCode ステータスコード
+     */
+    public void onFailure(String statusCode) {
+        this.onFailure(statusCode, 1L);
+    }
+
+    /**
+     * 失敗レコードのカウント (件数を指定)
+     * @param statusCode ステータスコード
+     * @param count 件数
+     */
+    public void onFailure(String statusCode, long count) {
+        AtomicLong total = this.failuresByStatusCode.get(statusCode);
+        if (total == null) {
+            AtomicLong created = new AtomicLong();
+            total = this.failuresByStatusCode.putIfAbsent(statusCode, created);
+            if (total == null) {
+                total = created;
+            }
+        }
+        total.addAndGet(count);
+    }
+
+    @Override
+    public long getRowsRead() {
+        return this.rowsRead.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return this.bytesRead.get();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return perSecond(this.rowsRead.get(), this.elapsedMillis());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return perSecond(this.bytesRead.get(), this.elapsedMillis());
+    }
+
+    @Override
+    public long getBatchesSubmitted() {
+        return this.batchesSubmitted.get();
+    }
+
+    @Override
+    public long getBatchesUploaded() {
+        return this.batchesUploaded.get();
+    }
+
+    @Override
+    public long getBatchesCompleted() {
+        return this.batchesCompleted.get();
+    }
+
+    @Override
+    public long getBatchesFailed() {
+        return this.batchesFailed.get();
+    }
+
+    @Override
+    public int getUploadQueueDepth() {
+        return this.uploadQueueDepth.get();
+    }
+
+    @Override
+    public int getMaxUploadQueueDepth() {
+        return this.maxUploadQueueDepth.get();
+    }
+
+    @Override
+    public long getBatchesAwaitingCompletion() {
+        return Math.max(0L, this.batchesUploaded.get() - this.batchesCompleted.get() - this.batchesFailed.get());
+    }
+
+    @Override
+    public int getResultQueueDepth() {
+        return this.resultQueueDepth.get();
+    }
+
+    @Override
+    public double getAverageUploadMillis() {
+        return this.uploadTimer.averageMillis();
+    }
+
+    @Override
+    public long getMaxUploadMillis() {
+        return this.uploadTimer.maxMillis();
+    }
+
+    @Override
+    public double getAverageProcessingMillis() {
+        return this.processingTimer.averageMillis();
+    }
+
+    @Override
+    public long getMaxProcessingMillis() {
+        return this.processingTimer.maxMillis();
+    }
+
+    @Override
+    public double getAverageResultDownloadMillis() {
+        return this.resultDownloadTimer.averageMillis();
+    }
+
+    @Override
+    public long getMaxResultDownloadMillis() {
+        return this.resultDownloadTimer.maxMillis();
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByStatusCode() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : this.failuresByStatusCode.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * 実行結果のサマリー
+     * @return 項目名 → 値 (出力順)
+     */
+    public Map<String, Object> toSummary() {
+        long elapsed = this.elapsedMillis();
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("startTime", format.format(new Date(this.startMillis)));
+        summary.put("endTime", format.format(new Date(this.startMillis + elapsed)));
+        summary.put("elapsedMillis", elapsed);
+        summary.put("rowsRead", this.rowsRead.get());
+        summary.put("bytesRead", this.bytesRead.get());
+        summary.put("rowsPerSecond", round(perSecond(this.rowsRead.get(), elapsed)));
+        summary.put("bytesPerSecond", round(perSecond(this.bytesRead.get(), elapsed)));
+        Map<String, Object> batches = new LinkedHashMap<String, Object>();
+        batches.put("submitted", this.batchesSubmitted.get());
+        batches.put("uploaded", this.batchesUploaded.get());
+        batches.put("completed", this.batchesCompleted.get());
+        batches.put("failed", this.batchesFailed.get());
+        batches.put("maxUploadQueueDepth", this.maxUploadQueueDepth.get());
+        summary.put("batches", batches);
+        summary.put("upload", this.uploadTimer.toSummary());
+        summary.put("processing", this.processingTimer.toSummary());
+        summary.put("resultDownload", this.resultDownloadTimer.toSummary());
+        summary.put("failuresByStatusCode", this.getFailuresByStatusCode());
+        return summary;
+    }
+
+    /**
+     * 実行結果のサマリーをJSONファイルに出力
+     * @param file 出力先
+     * @throws IOException
+     */
+    public void writeSummary(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file, this.toSummary());
+        System.out.println("MetricsSummary = " + file);
+    }
+
+    /**
+     * 終了時(System.exitを含む)に実行結果のサマリーを出力
+     * @param path 出力先のファイルパス (空の場合は出力しない)
+     */
+    public void writeSummaryOnExit(final String path) {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSummary(new File(path));
+                } catch (IOException e) {
+                    System.out.println("<< IOException >> " + e.getMessage());
+                }
+            }
+        }, "metrics-summary"));
+    }
+
+    private long elapsedMillis() {
+        return Math.max(1L, System.currentTimeMillis() - this.startMillis);
+    }
+
+    private static double perSecond(long value, long millis) {
+        return value * 1000.0 / Math.max(1L, millis);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10.0) / 10.0;
+    }
+
+    /**
+     * 所要時間の件数・合計・最大
+     */
+    static class Timer {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            this.count.incrementAndGet();
+            this.totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = this.maxNanos.get()) && !this.maxNanos.compareAndSet(max, nanos)) {
+                // 他のスレッドが更新した場合は再確認
+            }
+        }
+
+        long count() {
+            return this.count.get();
+        }
+
+        double averageMillis() {
+            long n = this.count.get();
+            return n == 0L ? 0.0 : this.totalNanos.get() / 1000000.0 / n;
+        }
+
+        long maxMillis() {
+            return this.maxNanos.get() / 1000000L;
+        }
+
+        Map<String, Object> toSummary() {
+            Map<String, Object> summary = new LinkedHashMap<String, Object>();
+            summary.put("count", this.count());
+            summary.put("averageMillis", round(this.averageMillis()));
+            summary.put("maxMillis", this.maxMillis());
+            return summary;
+        }
+    }
+}
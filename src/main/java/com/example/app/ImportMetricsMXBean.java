@@ -0,0 +1,57 @@
+package com.example.app;
+
+import java.util.Map;
+
+/**
+ * インポート処理の計測値 (JMXで公開する項目)
+ * JConsoleなどで「com.example.app:type=ImportMetrics」を参照する。
+ */
+public interface ImportMetricsMXBean {
+
+    long getRowsRead();
+
+    long getBytesRead();
+
+    double getRowsPerSecond();
+
+    double getBytesPerSecond();
+
+    long getBatchesSubmitted();
+
+    long getBatchesUploaded();
+
+    long getBatchesCompleted();
+
+    long getBatchesFailed();
+
+    /**
+     * アップロード待ち・アップロード中のバッチ数
+     */
+    int getUploadQueueDepth();
+
+    int getMaxUploadQueueDepth();
+
+    /**
+     * アップロード済みでサーバー側の処理が終了していないバッチ数
+     */
+    long getBatchesAwaitingCompletion();
+
+    /**
+     * 処理結果の取得待ち・取得中のバッチ数
+     */
+    int getResultQueueDepth();
+
+    double getAverageUploadMillis();
+
+    long getMaxUploadMillis();
+
+    double getAverageProcessingMillis();
+
+    long getMaxProcessingMillis();
+
+    double getAverageResultDownloadMillis();
+
+    long getMaxResultDownloadMillis();
+
+    Map<String, Long> getFailuresByStatusCode();
+}
@@ -0,0 +1,148 @@
+package com.example.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 複数オブジェクトのインポートの並行実行
+ * 依存先のオブジェクトのジョブが全て成功したジョブから順に開始し、同時に実行するジョブ数は上限を超えない。
+ * 依存先のジョブが失敗した場合、そのジョブは実行しない。
+ */
+public class ImportRunner {
+
+    /**
+     * 1ジョブのインポート処理
+     */
+    public interface ImportTask {
+        /**
+         * インポートを実行
+         * @param entry インポート対象
+         * @return 異常なエラーが発生していない場合はtrue
+         * @throws Exception
+         */
+        boolean run(ImportEntry entry) throws Exception;
+    }
+
+    private final ImportTask task;
+    private final int maxConcurrentJobs;
+
+    /**
+     * コンストラクタ
+     * @param task 1ジョブのインポート処理
+     * @param maxConcurrentJobs 同時に実行するジョブ数の上限
+     */
+    public ImportRunner(ImportTask task, int maxConcurrentJobs) {
+        if (maxConcurrentJobs < 1) {
+            throw new IllegalArgumentException("maxConcurrentJobs must be >= 1 : " + maxConcurrentJobs);
+        }
+        this.task = task;
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    /**
+     * 全てのインポートを実行
+     * @param entries インポート対象
+     * @return インポート対象毎の結果 (成功した場合はtrue、実行しなかった場合も含めて失敗はfalse)
+     * @throws InterruptedException
+     */
+    public Map<ImportEntry, Boolean> run(List<ImportEntry> entries) throws InterruptedException {
+        System.out.println("-- runImports -- " + entries.size());
+        ImportManifest.validate(entries);
+        Map<ImportEntry, Boolean> results = new LinkedHashMap<ImportEntry, Boolean>();
+        // オブジェクト毎の未完了のジョブ数と失敗したオブジェクト
+        Map<String, Integer> unfinished = new HashMap<String, Integer>();
+        for (ImportEntry entry : entries) {
+            Integer count = unfinished.get(entry.getSobjectType());
+            unfinished.put(entry.getSobjectType(), count == null ? 1 : count + 1);
+        }
+        Set<String> failed = new HashSet<String>();
+        List<ImportEntry> waiting = new ArrayList<ImportEntry>(entries);
+        Map<Future<Boolean>, ImportEntry> running = new HashMap<Future<Boolean>, ImportEntry>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.maxConcurrentJobs, new NamedThreadFactory("import-job"));
+        CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+        try {
+            while (!waiting.isEmpty() || !running.isEmpty()) {
+                // 依存先が全て完了したジョブを開始 (依存先が失敗したジョブは実行しない)
+                for (ImportEntry entry : new ArrayList<ImportEntry>(waiting)) {
+                    boolean ready = true;
+                    boolean skipped = false;
+                    for (String name : entry.getDependsOn()) {
+                        if (failed.contains(name)) {
+                            skipped = true;
+                        } else if (unfinished.get(name) > 0) {
+                            ready = false;
+                        }
+                    }
+                    if (skipped) {
+                        System.out.println("<< SKIP >> 依存先のジョブが失敗したため実行しません : " + entry);
+                        waiting.remove(entry);
+                        this.finish(entry, false, results, unfinished, failed);
+                    } else if (ready) {
+                        waiting.remove(entry);
+                        running.put(completion.submit(this.newCallable(entry)), entry);
+                    }
+                }
+                if (running.isEmpty()) {
+                    // スキップしたジョブの依存先を再判定
+                    continue;
+                }
+                Future<Boolean> future = completion.take();
+                ImportEntry entry = running.remove(future);
+                this.finish(entry, this.getResult(entry, future), results, unfinished, failed);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * ジョブの完了を記録
+     */
+    private void finish(ImportEntry entry, boolean success, Map<ImportEntry, Boolean> results, Map<String, Integer> unfinished, Set<String> failed) {
+        System.out.println("-- finishImport -- " + entry + " : " + (success ? "SUCCESS" : "FAILURE"));
+        results.put(entry, success);
+        unfinished.put(entry.getSobjectType(), unfinished.get(entry.getSobjectType()) - 1);
+        if (!success) {
+            failed.add(entry.getSobjectType());
+        }
+    }
+
+    private Callable<Boolean> newCallable(final ImportEntry entry) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return task.run(entry);
+            }
+        };
+    }
+
+    /**
+     * ジョブの結果を取得 (例外が発生した場合は失敗として扱う)
+     * @param entry インポート対象
+     * @param future ジョブ
+     * @return 成功した場合はtrue
+     * @throws InterruptedException
+     */
+    private boolean getResult(ImportEntry entry, Future<Boolean> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            System.out.println("<< Exception >> " + entry + " : " + e.getCause());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * JDBCのクエリ結果をCSV(UTF-8)として読み込むストリーム
+ * 1行目は列のラベル(SELECT句の別名)をヘッダー行として出力し、以降はカーソルから1行ずつ取得してCSVの行に変換する。
+ * 全件をメモリに読み込まないように、フェッチサイズを指定して自動コミットを無効にする(PostgreSQLなどのカーソル取得の条件)。
+ * 日時はBulkAPIの形式(UTC)に変換し、NULLは空の項目として出力する。
+ */
+public class JdbcCsvInputStream extends InputStream {
+
+    private final Connection connection;
+    private final Statement statement;
+    private final ResultSet resultSet;
+    private final int columnCount;
+    private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private final StringBuilder line = new StringBuilder();
+    private byte[] buffer;
+    private int bufferPosition = 0;
+    private long rowCount = 0L;
+    private boolean eof = false;
+
+    /**
+     * コンストラクタ (ヘッダー行を作成)
+     * @param connection JDBCの接続 (ストリームを閉じる時に閉じる)
+     * @param query クエリ
+     * @param fetchSize 1回に取得する行数
+     * @throws SQLException
+     */
+    public JdbcCsvInputStream(Connection connection, String query, int fetchSize) throws SQLException {
+        this.connection = connection;
+        this.dateTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            connection.setAutoCommit(false);
+            this.statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            this.statement.setFetchSize(fetchSize);
+            this.resultSet = this.statement.executeQuery(query);
+            ResultSetMetaData metaData = this.resultSet.getMetaData();
+            this.columnCount = metaData.getColumnCount();
+            for (int i = 1; i <= this.columnCount; i++) {
+                if (i > 1) {
+                    this.line.append(',');
+                }
+                appendField(this.line, metaData.getColumnLabel(i));
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        this.line.append('\n');
+        this.buffer = this.line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.ensureBuffer()) {
+            return -1;
+        }
+        return this.buffer[this.bufferPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int total = 0;
+        // 要求されたバイト数に達するまで複数行をまとめて返す
+        while (total < len && this.ensureBuffer()) {
+            int n = Math.min(len - total, this.buffer.length - this.bufferPosition);
+            System.arraycopy(this.buffer, this.bufferPosition, b, off + total, n);
+            this.bufferPosition += n;
+            total += n;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    /**
+     * 読み込んだ行数 (ヘッダー行を除く)
+     * @return 行数
+     */
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.resultSet.close();
+            this.statement.close();
+            this.connection.close();
+        } catch (SQLException e) {
+            throw new IOException("jdbc close failed", e);
+        }
+    }
+
+    /**
+     * 読み込み済みの場合は次の行をCSVに変換
+     * @return データが存在する場合はtrue
+     * @throws IOException
+     */
+    private boolean ensureBuffer() throws IOException {
+        while (this.bufferPosition >= this.buffer.length) {
+            if (this.eof) {
+                return false;
+            }
+            try {
+                if (!this.resultSet.next()) {
+                    this.eof = true;
+                    System.out.println("JdbcRows = " + this.rowCount);
+                    return false;
+                }
+                this.line.setLength(0);
+                for (int i = 1; i <= this.columnCount; i++) {
+                    if (i > 1) {
+                        this.line.append(',');
+                    }
+                    Object value = this.resultSet.getObject(i);
+                    if (value instanceof Timestamp) {
+                        appendField(this.line, this.dateTimeFormat.format((Timestamp) value));
+                    } else if (value != null) {
+                        appendField(this.line, value.toString());
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IOException("jdbc read failed", e);
+            }
+            this.line.append('\n');
+            this.buffer = this.line.toString().getBytes(StandardCharsets.UTF_8);
+            this.bufferPosition = 0;
+            this.rowCount++;
+        }
+        return true;
+    }
+
+    /**
+     * 項目を追加 (区切り文字・ダブルクォート・改行を含む場合はダブルクォートで囲む)
+     * @param sb 出力先
+     * @param value 値
+     */
+    static void appendField(StringBuilder sb, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
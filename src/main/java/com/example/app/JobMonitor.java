@@ -0,0 +1,217 @@
+package com.example.app;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+
+/**
+ * ジョブの完了監視
+ * 最初は短い間隔で確認し、変化がない間は確認間隔を徐々に延ばす。
+ * ジョブのバッチ件数に変化がない場合はバッチ情報の一覧を取得しない。
+ */
+public class JobMonitor {
+
+    /**
+     * バッチの処理完了通知
+     */
+    public interface BatchListener {
+        /**
+         * バッチの処理完了(または失敗)時に呼び出される
+         * @param batchInfo バッチ情報
+         */
+        void onBatchFinished(BatchInfo batchInfo);
+    }
+
+    private final BulkConnection connection;
+    private final String jobId;
+    private final Set<String> incomplete = new HashSet<String>();
+    private final Set<String> known = new HashSet<String>();
+    private final List<BatchListener> listeners = new CopyOnWriteArrayList<BatchListener>();
+    private long initialPollMillis = 500L;
+    private long maxPollMillis = 10000L;
+    private double backoffMultiplier = 1.5;
+    private int pollCount = 0;
+    private int batchListCount = 0;
+    private boolean trackNewBatches = false;
+
+    /**
+     * コンストラクタ
+     * @param connection BulkAPIの接続情報
+     * @param job ジョブ情報
+     * @param batchInfoList 監視するバッチ情報
+     */
+    public JobMonitor(BulkConnection connection, JobInfo job, List<BatchInfo> batchInfoList) {
+        this.connection = connection;
+        this.jobId = job.getId();
+        for (BatchInfo bi : batchInfoList) {
+            this.incomplete.add(bi.getId());
+            this.known.add(bi.getId());
+        }
+    }
+
+    /**
+     * サーバー側で追加されたバッチも監視する (PK Chunkingで分割されたバッチなど)
+     * 全てのバッチが終了し、かつジョブの総バッチ数と同じ件数のバッチを確認した時点で完了とする。
+     * @param trackNewBatches 追加されたバッチも監視する場合はtrue
+     * @return JobMonitor
+     */
+    public JobMonitor setTrackNewBatches(boolean trackNewBatches) {
+        this.trackNewBatches = trackNewBatches;
+        return this;
+    }
+
+    /**
+     * バッチの処理完了通知先を追加
+     * @param listener 通知先
+     * @return JobMonitor
+     */
+    public JobMonitor addListener(BatchListener listener) {
+        this.listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * 確認間隔の設定
+     * @param initialPollMillis 最初の確認間隔(ミリ秒)
+     * @param maxPollMillis 最大の確認間隔(ミリ秒)
+     * @param backoffMultiplier 変化がない場合に確認間隔を延ばす倍率
+     * @return JobMonitor
+     */
+    public JobMonitor setPollInterval(long initialPollMillis, long maxPollMillis, double backoffMultiplier) {
+        this.initialPollMillis = initialPollMillis;
+        this.maxPollMillis = maxPollMillis;
+        this.backoffMultiplier = backoffMultiplier;
+        return this;
+    }
+
+    /**
+     * 別スレッドで監視を開始
+     * @param executor 監視を実行するスレッド
+     * @param timeoutMillis タイムアウト(ミリ秒, 0の場合は無制限)
+     * @return 完了時のジョブ情報
+     */
+    public Future<JobInfo> start(ExecutorService executor, final long timeoutMillis) {
+        return executor.submit(new Callable<JobInfo>() {
+            @Override
+            public JobInfo call() throws Exception {
+                return await(timeoutMillis);
+            }
+        });
+    }
+
+    /**
+     * 全てのバッチが完了するまで待機
+     * @param timeoutMillis タイムアウト(ミリ秒, 0の場合は無制限)
+     * @return 完了時のジョブ情報
+     * @throws AsyncApiException
+     * @throws InterruptedException 待機中に割り込まれた場合
+     * @throws TimeoutException タイムアウトまでに完了しなかった場合
+     */
+    public JobInfo await(long timeoutMillis) throws AsyncApiException, InterruptedException, TimeoutException {
+        long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+        long sleepTime = this.initialPollMillis;
+        String lastSignature = null;
+        while (true) {
+            JobInfo status = this.connection.getJobStatus(this.jobId);
+            this.pollCount++;
+            // 完了・失敗・処理待ち(処理中を含む)・総バッチ数が変化した場合のみバッチ情報の一覧を取得
+            // (未処理(NotProcessed)になったバッチは処理待ちの件数の減少で検知する)
+            String signature = status.getNumberBatchesCompleted() + "/" + status.getNumberBatchesFailed() + "/"
+                + (status.getNumberBatchesQueued() + status.getNumberBatchesInProgress()) + "/" + status.getNumberBatchesTotal();
+            boolean changed = !signature.equals(lastSignature);
+            if (changed) {
+                lastSignature = signature;
+                this.refreshBatches();
+                // 処理が進んでいる間は次の変化も短い間隔で検知する
+                sleepTime = this.initialPollMillis;
+            }
+            // ジョブが中止・失敗した場合は終了していないバッチも終了として通知して監視を終える
+            if (status.getState() == JobStateEnum.Aborted || status.getState() == JobStateEnum.Failed) {
+                System.out.println("<< WARN >> ジョブが終了しました : " + this.jobId + " " + status.getState() + " (未完了のバッチ " + this.incomplete.size() + ")");
+                this.finishIncomplete();
+                System.out.println("Polls = " + this.pollCount + ", BatchInfoList = " + this.batchListCount);
+                return status;
+            }
+            if (this.incomplete.isEmpty() && (!this.trackNewBatches || this.known.size() >= status.getNumberBatchesTotal())) {
+                System.out.println("Polls = " + this.pollCount + ", BatchInfoList = " + this.batchListCount);
+                // ジョブ情報の取得後に完了したバッチがある場合は件数を取り直す
+                if (status.getNumberBatchesQueued() + status.getNumberBatchesInProgress() > 0) {
+                    status = this.connection.getJobStatus(this.jobId);
+                }
+                return status;
+            }
+            System.out.println("Awaiting results..." + this.incomplete.size());
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("job " + this.jobId + " did not complete : " + this.incomplete.size() + " batches remaining");
+            }
+            // 割り込まれた場合はInterruptedExceptionをそのまま送出する
+            Thread.sleep(Math.min(sleepTime, remaining));
+            if (!changed) {
+                sleepTime = Math.min(this.maxPollMillis, (long) (sleepTime * this.backoffMultiplier));
+            }
+        }
+    }
+
+    /**
+     * バッチ情報の一覧を取得して完了したバッチを通知
+     * @throws AsyncApiException
+     */
+    private void refreshBatches() throws AsyncApiException {
+        this.batchListCount++;
+        BatchInfo[] statusList = this.connection.getBatchInfoList(this.jobId).getBatchInfo();
+        for (BatchInfo b : statusList) {
+            if (this.trackNewBatches && this.known.add(b.getId())) {
+                this.incomplete.add(b.getId());
+            }
+            if (isFinished(b.getState()) && this.incomplete.remove(b.getId())) {
+                ImportMetrics.get().onBatchFinished(b);
+                for (BatchListener listener : this.listeners) {
+                    listener.onBatchFinished(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * 終了していないバッチを終了として通知 (ジョブが中止・失敗した場合)
+     * @throws AsyncApiException
+     */
+    private void finishIncomplete() throws AsyncApiException {
+        if (this.incomplete.isEmpty()) {
+            return;
+        }
+        BatchInfo[] statusList = this.connection.getBatchInfoList(this.jobId).getBatchInfo();
+        this.batchListCount++;
+        for (BatchInfo b : statusList) {
+            if (this.incomplete.remove(b.getId())) {
+                ImportMetrics.get().onBatchFinished(b);
+                for (BatchListener listener : this.listeners) {
+                    listener.onBatchFinished(b);
+                }
+            }
+        }
+        this.incomplete.clear();
+    }
+
+    /**
+     * バッチの処理が終了しているか判定
+     * @param state バッチの状態
+     * @return 判定結果
+     */
+    private static boolean isFinished(BatchStateEnum state) {
+        return state == BatchStateEnum.Completed || state == BatchStateEnum.Failed || state == BatchStateEnum.NotProcessed;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.app;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ジョブ単位の実行スコープ (取消と期限)
+ * スコープを開いたスレッドで作成した通信スレッド(BulkExecutors)を登録し、スコープを閉じる時に全て停止する。
+ * 期限を過ぎた場合や取消した場合は、登録したスレッドとスコープを開いたスレッドに割り込み、アップロード・完了待ち・処理結果の取得を中断する。
+ * スコープはスレッド毎に保持するため、複数のジョブを並行して実行してもジョブ毎に独立して取消できる。
+ */
+public class JobScope implements Closeable {
+
+    private static final ThreadLocal<JobScope> CURRENT = new ThreadLocal<JobScope>();
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("job-deadline"));
+
+    private final String name;
+    private final Thread owner;
+    private final JobScope parent;
+    private final long deadline;
+    private final List<ExecutorService> executors = new CopyOnWriteArrayList<ExecutorService>();
+    private final ScheduledFuture<?> watchdog;
+    private volatile boolean cancelled = false;
+    private volatile boolean expired = false;
+    private boolean closed = false;
+
+    private JobScope(String name, long deadlineMillis) {
+        this.name = name;
+        this.owner = Thread.currentThread();
+        this.parent = CURRENT.get();
+        this.deadline = deadlineMillis > 0 ? System.currentTimeMillis() + deadlineMillis : Long.MAX_VALUE;
+        if (deadlineMillis > 0) {
+            this.watchdog = WATCHDOG.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire();
+                }
+            }, deadlineMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.watchdog = null;
+        }
+    }
+
+    /**
+     * 現在のスレッドでスコープを開始 (終了時は close() を呼び出すこと)
+     * @param name ジョブの名前 (ログ出力用)
+     * @param deadlineMillis 期限(ミリ秒, 0の場合は無期限)
+     * @return JobScope
+     */
+    public static JobScope open(String name, long deadlineMillis) {
+        JobScope scope = new JobScope(name, deadlineMillis);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * 現在のスレッドのスコープ
+     * @return JobScope (スコープ外の場合はnull)
+     */
+    public static JobScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 通信スレッドを登録 (取消・終了時に停止する)
+     * @param executor 通信スレッド
+     */
+    void register(ExecutorService executor) {
+        this.executors.add(executor);
+        if (this.cancelled) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * ジョブを取消 (実行中の通信スレッドとスコープを開いたスレッドに割り込む)
+     */
+    public synchronized void cancel() {
+        if (this.cancelled || this.closed) {
+            return;
+        }
+        this.cancelled = true;
+        System.out.println("-- cancelJob -- " + this.name + (this.expired ? " (deadline exceeded)" : ""));
+        // 待機中のスレッドを先に中断し、通信スレッドの失敗より取消を優先して検知させる
+        this.owner.interrupt();
+        for (ExecutorService executor : this.executors) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * 期限切れで取消したか
+     * @return 期限切れの場合はtrue
+     */
+    public boolean isExpired() {
+        return this.expired;
+    }
+
+    /**
+     * 期限までの残り時間を考慮したタイムアウト
+     * @param timeoutMillis 処理のタイムアウト(ミリ秒, 0の場合は無制限)
+     * @return タイムアウトと期限までの残り時間の短い方 (どちらも無制限の場合は0)
+     */
+    public long remainingMillis(long timeoutMillis) {
+        if (this.deadline == Long.MAX_VALUE) {
+            return timeoutMillis;
+        }
+        long remaining = Math.max(1L, this.deadline - System.currentTimeMillis());
+        return timeoutMillis > 0 ? Math.min(timeoutMillis, remaining) : remaining;
+    }
+
+    /**
+     * スコープを終了 (登録した通信スレッドを停止し、取消による割り込みを解除)
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.watchdog != null) {
+            this.watchdog.cancel(false);
+        }
+        for (ExecutorService executor : this.executors) {
+            executor.shutdownNow();
+        }
+        if (CURRENT.get() == this) {
+            if (this.parent == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(this.parent);
+            }
+        }
+        if (this.cancelled && Thread.currentThread() == this.owner) {
+            Thread.interrupted();
+        }
+    }
+
+    private synchronized void expire() {
+        if (this.closed) {
+            return;
+        }
+        this.expired = true;
+        this.cancel();
+    }
+}
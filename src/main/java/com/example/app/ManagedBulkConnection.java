@@ -0,0 +1,262 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchInfoList;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.ContentType;
+import com.sforce.async.JobInfo;
+import com.sforce.async.QueryResultList;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+
+/**
+ * セッションを共有するBulkAPI接続
+ * INVALID_SESSION_IDで失敗した場合はセッションを再作成して1回だけ再実行する。
+ * 複数スレッドから同時に使用できる(呼び出し毎に設定からセッションIDを取得する)。
+ * バッチのアップロードは入力を読み直せないため、呼び出し元で refreshSession() を呼び出して再実行する。
+ * 全ての呼び出しはApiGovernorを通し、API制限・同時実行数の上限に達する前に待機する。
+ */
+public class ManagedBulkConnection extends BulkConnection {
+
+    /**
+     * BulkAPIの呼び出し
+     */
+    private interface Call<T> {
+        T call() throws AsyncApiException;
+    }
+
+    private final SessionManager sessionManager;
+    private final ApiGovernor governor;
+
+    /**
+     * コンストラクタ
+     * @param config BulkAPI接続設定 (セッションの再作成時に更新される)
+     * @param sessionManager セッションの共有 (API制限はセッションで共有)
+     * @throws AsyncApiException
+     */
+    public ManagedBulkConnection(ConnectorConfig config, SessionManager sessionManager) throws AsyncApiException {
+        super(config);
+        this.sessionManager = sessionManager;
+        this.governor = sessionManager.getGovernor();
+    }
+
+    /**
+     * セッションの再作成
+     * @param staleSessionId 失敗した呼び出しで使用したセッションID
+     * @throws AsyncApiException
+     */
+    public void refreshSession(String staleSessionId) throws AsyncApiException {
+        try {
+            this.sessionManager.refresh(staleSessionId);
+        } catch (ConnectionException e) {
+            throw SessionManager.toAsyncApiException(e);
+        }
+    }
+
+    @Override
+    public JobInfo createJob(final JobInfo job) throws AsyncApiException {
+        return this.execute(new Call<JobInfo>() {
+            @Override
+            public JobInfo call() throws AsyncApiException {
+                return ManagedBulkConnection.super.createJob(job);
+            }
+        });
+    }
+
+    @Override
+    public JobInfo updateJob(final JobInfo job, final ContentType contentType) throws AsyncApiException {
+        return this.execute(new Call<JobInfo>() {
+            @Override
+            public JobInfo call() throws AsyncApiException {
+                return ManagedBulkConnection.super.updateJob(job, contentType);
+            }
+        });
+    }
+
+    @Override
+    public JobInfo getJobStatus(final String jobId, final ContentType contentType) throws AsyncApiException {
+        return this.execute(new Call<JobInfo>() {
+            @Override
+            public JobInfo call() throws AsyncApiException {
+                return ManagedBulkConnection.super.getJobStatus(jobId, contentType);
+            }
+        });
+    }
+
+    @Override
+    public BatchInfoList getBatchInfoList(final String jobId, final ContentType contentType) throws AsyncApiException {
+        return this.execute(new Call<BatchInfoList>() {
+            @Override
+            public BatchInfoList call() throws AsyncApiException {
+                return ManagedBulkConnection.super.getBatchInfoList(jobId, contentType);
+            }
+        });
+    }
+
+    @Override
+    public BatchInfo getBatchInfo(final String jobId, final String batchId, final ContentType contentType) throws AsyncApiException {
+        return this.execute(new Call<BatchInfo>() {
+            @Override
+            public BatchInfo call() throws AsyncApiException {
+                return ManagedBulkConnection.super.getBatchInfo(jobId, batchId, contentType);
+            }
+        });
+    }
+
+    @Override
+    public InputStream getBatchResultStream(final String jobId, final String batchId) throws AsyncApiException {
+        return this.execute(new Call<InputStream>() {
+            @Override
+            public InputStream call() throws AsyncApiException {
+                return ManagedBulkConnection.super.getBatchResultStream(jobId, batchId);
+            }
+        });
+    }
+
+    @Override
+    public InputStream getBatchRequestInputStream(final String jobId, final String batchId) throws AsyncApiException {
+        return this.execute(new Call<InputStream>() {
+            @Override
+            public InputStream call() throws AsyncApiException {
+                return ManagedBulkConnection.super.getBatchRequestInputStream(jobId, batchId);
+            }
+        });
+    }
+
+    @Override
+    public QueryResultList getQueryResultList(final String jobId, final String batchId, final ContentType contentType) throws AsyncApiException {
+        return this.execute(new Call<QueryResultList>() {
+            @Override
+            public QueryResultList call() throws AsyncApiException {
+                return ManagedBulkConnection.super.getQueryResultList(jobId, batchId, contentType);
+            }
+        });
+    }
+
+    @Override
+    public InputStream getQueryResultStream(final String jobId, final String batchId, final String resultId) throws AsyncApiException {
+        return this.execute(new Call<InputStream>() {
+            @Override
+            public InputStream call() throws AsyncApiException {
+                return ManagedBulkConnection.super.getQueryResultStream(jobId, batchId, resultId);
+            }
+        });
+    }
+
+    @Override
+    public BatchInfo createBatchFromForeignCsvStream(final JobInfo job, final InputStream input, final String charSet) throws AsyncApiException {
+        // 入力を読み直せないため再実行しない (API制限を超えた場合は以降の呼び出しを待機させる)
+        this.acquireBatch();
+        try {
+            return this.governed(new Call<BatchInfo>() {
+                @Override
+                public BatchInfo call() throws AsyncApiException {
+                    return ManagedBulkConnection.super.createBatchFromForeignCsvStream(job, input, charSet);
+                }
+            });
+        } catch (AsyncApiException e) {
+            if (e.getExceptionCode() == AsyncExceptionCode.ExceededQuota) {
+                this.governor.onQuotaExceeded();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public BatchInfo createBatchFromStream(final JobInfo job, InputStream input) throws AsyncApiException {
+        // クエリは小さいため、再実行できるようにメモリに読み込む
+        final byte[] query = readFully(input);
+        this.acquireBatch();
+        return this.execute(new Call<BatchInfo>() {
+            @Override
+            public BatchInfo call() throws AsyncApiException {
+                return ManagedBulkConnection.super.createBatchFromStream(job, new ByteArrayInputStream(query));
+            }
+        });
+    }
+
+    @Override
+    public void createTransformationSpecFromStream(final JobInfo job, InputStream input) throws AsyncApiException {
+        // 変換仕様は小さいため、再実行できるようにメモリに読み込む
+        final byte[] spec = readFully(input);
+        this.execute(new Call<Void>() {
+            @Override
+            public Void call() throws AsyncApiException {
+                ManagedBulkConnection.super.createTransformationSpecFromStream(job, new ByteArrayInputStream(spec));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 呼び出しを実行 (INVALID_SESSION_IDの場合はセッションを再作成して1回だけ再実行)
+     * @param call BulkAPIの呼び出し
+     * @return 呼び出し結果
+     * @throws AsyncApiException
+     */
+    private <T> T execute(Call<T> call) throws AsyncApiException {
+        String sessionId = this.getConfig().getSessionId();
+        try {
+            return this.governed(call);
+        } catch (AsyncApiException e) {
+            if (e.getExceptionCode() == AsyncExceptionCode.ExceededQuota && this.governor.onQuotaExceeded()) {
+                // 制限内になるまで待機して1回だけ再実行
+                return this.governed(call);
+            }
+            if (e.getExceptionCode() != AsyncExceptionCode.InvalidSessionId) {
+                throw e;
+            }
+            System.out.println("<< InvalidSessionId >> " + e.getExceptionMessage());
+            this.refreshSession(sessionId);
+            return this.governed(call);
+        }
+    }
+
+    /**
+     * API制限・同時実行数の上限内で呼び出しを実行
+     * @param call BulkAPIの呼び出し
+     * @return 呼び出し結果
+     * @throws AsyncApiException
+     */
+    private <T> T governed(Call<T> call) throws AsyncApiException {
+        try {
+            this.governor.acquireCall();
+        } catch (InterruptedIOException e) {
+            throw new AsyncApiException(e.getMessage(), AsyncExceptionCode.ClientInputError);
+        }
+        try {
+            return call.call();
+        } finally {
+            this.governor.releaseCall();
+        }
+    }
+
+    private void acquireBatch() throws AsyncApiException {
+        try {
+            this.governor.acquireBatch();
+        } catch (InterruptedIOException e) {
+            throw new AsyncApiException(e.getMessage(), AsyncExceptionCode.ClientInputError);
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws AsyncApiException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = input.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new AsyncApiException("failed to read input : " + e.getMessage(), AsyncExceptionCode.ClientInputError);
+        }
+    }
+}
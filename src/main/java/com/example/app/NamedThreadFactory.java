@@ -0,0 +1,28 @@
+package com.example.app;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 名前付きのデーモンスレッドの作成
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * コンストラクタ
+     * @param prefix スレッド名の接頭辞
+     */
+    public NamedThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, this.prefix + "-" + this.count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
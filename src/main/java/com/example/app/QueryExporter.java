@@ -0,0 +1,338 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+
+/**
+ * クエリ結果のエクスポート
+ * バッチ(PK Chunkingで分割されたチャンク)の処理完了通知を受けた時点で、そのバッチの結果を別スレッドで取得する。
+ * 複数のチャンクの結果を並行して取得し、1つのCSVにまとめる場合は固定サイズのブロック単位で書き込みスレッドへ渡す。
+ * 書き込み待ちのブロック数には上限があるため、チャンク数や件数に関係なく使用するメモリは一定。
+ * 分割出力の場合は結果毎に別ファイルへ直接書き込む。
+ */
+public class QueryExporter implements JobMonitor.BatchListener {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final byte[] NO_RECORDS = "Records not found for this query".getBytes(StandardCharsets.UTF_8);
+    private static final ExportBlock END = new ExportBlock(null);
+
+    private final BulkConnection connection;
+    private final String jobId;
+    private final File outputFile;
+    private final boolean sharded;
+    private final ExecutorService downloader;
+    private final ExecutorService writer;
+    private final BlockingQueue<ExportBlock> queue;
+    private final Future<Void> writerFuture;
+    private final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    private final List<File> shardFiles = new ArrayList<File>();
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /**
+     * コンストラクタ
+     * @param connection BulkAPIの接続情報
+     * @param job クエリジョブ
+     * @param outputFile 出力先 (分割出力の場合は「ファイル名-バッチID-番号.csv」に出力)
+     * @param sharded 分割出力の場合はtrue
+     * @param threads 結果を取得するスレッド数
+     * @param queueBlocks 書き込み待ちのブロック数の上限 (1ブロック1MB)
+     */
+    public QueryExporter(BulkConnection connection, JobInfo job, File outputFile, boolean sharded, int threads, int queueBlocks) {
+        this.connection = connection;
+        this.jobId = job.getId();
+        this.outputFile = outputFile;
+        this.sharded = sharded;
+        File dir = outputFile.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        this.downloader = BulkExecutors.newExecutor("export-download", threads);
+        if (sharded) {
+            this.queue = null;
+            this.writer = null;
+            this.writerFuture = null;
+        } else {
+            this.queue = new ArrayBlockingQueue<ExportBlock>(queueBlocks);
+            this.writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("export-writer"));
+            this.writerFuture = this.writer.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    writeBlocks();
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onBatchFinished(final BatchInfo batchInfo) {
+        // PK Chunking時の元のバッチ(NotProcessed)には結果がない
+        if (batchInfo.getState() != BatchStateEnum.Completed) {
+            return;
+        }
+        Future<Void> future = this.downloader.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                download(batchInfo.getId());
+                return null;
+            }
+        });
+        synchronized (this.futures) {
+            this.futures.add(future);
+        }
+    }
+
+    /**
+     * 全ての結果の取得と書き込みの完了を待機
+     * @return エクスポートした件数
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    public long awaitRecordCount() throws AsyncApiException, IOException {
+        System.out.println("-- awaitExport --");
+        try {
+            List<Future<Void>> pending;
+            synchronized (this.futures) {
+                pending = new ArrayList<Future<Void>>(this.futures);
+            }
+            for (Future<Void> future : pending) {
+                getResult(future);
+            }
+            if (this.writerFuture != null) {
+                this.put(END);
+                getResult(this.writerFuture);
+            }
+        } finally {
+            this.shutdown();
+        }
+        System.out.println("ExportRecords = " + this.recordCount.get() + ", ExportBytes = " + this.byteCount.get());
+        return this.recordCount.get();
+    }
+
+    /**
+     * スレッドを停止
+     */
+    public void shutdown() {
+        this.downloader.shutdownNow();
+        if (this.writer != null) {
+            this.writer.shutdownNow();
+        }
+    }
+
+    /**
+     * 分割出力したファイル
+     * @return ファイル (作成順)
+     */
+    public List<File> getShardFiles() {
+        synchronized (this.shardFiles) {
+            return new ArrayList<File>(this.shardFiles);
+        }
+    }
+
+    /**
+     * バッチの結果を取得
+     * @param batchId バッチID
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    private void download(String batchId) throws AsyncApiException, IOException {
+        String[] resultIds = this.connection.getQueryResultList(this.jobId, batchId).getResult();
+        for (int i = 0; i < resultIds.length; i++) {
+            InputStream in = this.connection.getQueryResultStream(this.jobId, batchId, resultIds[i]);
+            CsvRecordSplitter splitter = new CsvRecordSplitter(Channels.newChannel(in));
+            try {
+                if (!splitter.nextRecord() || startsWith(splitter.getRecordBytes(), splitter.getRecordLength(), NO_RECORDS)) {
+                    continue;
+                }
+                byte[] header = splitter.copyRecord();
+                if (this.sharded) {
+                    this.writeShard(batchId, i, header, splitter);
+                } else {
+                    this.queueBlocks(header, splitter);
+                }
+            } finally {
+                splitter.close();
+            }
+        }
+    }
+
+    /**
+     * 結果をブロック単位で書き込み待ちに追加 (ブロックにはレコード単位で格納する)
+     * @param header ヘッダー行
+     * @param splitter 結果のレコード分割 (ヘッダー行は読み込み済み)
+     * @throws IOException
+     */
+    private void queueBlocks(byte[] header, CsvRecordSplitter splitter) throws IOException {
+        ExportBlock block = new ExportBlock(header);
+        while (splitter.nextRecord()) {
+            int length = splitter.getRecordLength();
+            if (block.length > 0 && block.length + length > BLOCK_SIZE) {
+                this.put(block);
+                block = new ExportBlock(header);
+            }
+            block.append(splitter.getRecordBytes(), length);
+        }
+        if (block.length > 0) {
+            this.put(block);
+        }
+    }
+
+    /**
+     * 結果を別ファイルに書き込み
+     * @param batchId バッチID
+     * @param index 結果の番号
+     * @param header ヘッダー行
+     * @param splitter 結果のレコード分割 (ヘッダー行は読み込み済み)
+     * @throws IOException
+     */
+    private void writeShard(String batchId, int index, byte[] header, CsvRecordSplitter splitter) throws IOException {
+        String name = this.outputFile.getName();
+        String base = name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+        File shard = new File(this.outputFile.getAbsoluteFile().getParentFile(), base + "-" + batchId + "-" + index + ".csv");
+        long records = 0L;
+        long bytes = 0L;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(shard), 65536)) {
+            out.write(header);
+            while (splitter.nextRecord()) {
+                out.write(splitter.getRecordBytes(), 0, splitter.getRecordLength());
+                records++;
+                bytes += splitter.getRecordLength();
+            }
+        }
+        this.recordCount.addAndGet(records);
+        this.byteCount.addAndGet(bytes);
+        synchronized (this.shardFiles) {
+            this.shardFiles.add(shard);
+        }
+    }
+
+    /**
+     * 書き込みスレッド (ヘッダー行は最初の1回のみ出力)
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void writeBlocks() throws IOException, InterruptedException {
+        byte[] header = null;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(this.outputFile), 65536)) {
+            while (true) {
+                ExportBlock block = this.queue.take();
+                if (block == END) {
+                    break;
+                }
+                if (header == null) {
+                    header = block.header;
+                    out.write(header);
+                } else if (!Arrays.equals(header, block.header)) {
+                    throw new IOException("query result headers do not match");
+                }
+                out.write(block.data, 0, block.length);
+                this.recordCount.addAndGet(block.records);
+                this.byteCount.addAndGet(block.length);
+            }
+        }
+    }
+
+    /**
+     * 書き込み待ちに追加 (上限に達している場合は空きが出るまで待機)
+     * @param block ブロック
+     * @throws IOException 書き込みスレッドが終了している場合
+     */
+    private void put(ExportBlock block) throws IOException {
+        try {
+            while (!this.queue.offer(block, 1L, TimeUnit.SECONDS)) {
+                if (this.writerFuture.isDone()) {
+                    throw new IOException("export writer stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("export interrupted");
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 結果を取得 (ワーカーで発生した例外は元の型で送出)
+     * @param future 処理
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    private static void getResult(Future<Void> future) throws AsyncApiException, IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("export interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AsyncApiException) {
+                throw (AsyncApiException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("export failed", cause);
+        }
+    }
+
+    /**
+     * 書き込み単位 (レコード単位で格納したバイト列)
+     */
+    private static class ExportBlock {
+
+        private final byte[] header;
+        private byte[] data = new byte[0];
+        private int length = 0;
+        private int records = 0;
+
+        ExportBlock(byte[] header) {
+            this.header = header;
+        }
+
+        void append(byte[] record, int recordLength) {
+            if (this.length + recordLength > this.data.length) {
+                this.data = Arrays.copyOf(this.data, Math.max(this.length + recordLength, Math.max(BLOCK_SIZE, this.data.length * 2)));
+            }
+            System.arraycopy(record, 0, this.data, this.length, recordLength);
+            this.length += recordLength;
+            this.records++;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import com.sforce.async.CSVReader;
+
+/**
+ * アップロード前のレコードの整形
+ * キー項目(外部IDなど)が重複するレコードは最後のレコードのみ残し、それ以外は重複ファイルに出力する。
+ * (同じバッチ内でキーが重複すると、そのレコードが全て失敗するため)
+ * 親のキー項目(ParentId、OwnerIdなど)を指定した場合は、同じ親のレコードが連続するように並べ替える。
+ * 同じ親のレコードが同じバッチにまとまるため、並列処理時の行ロック競合(UNABLE_TO_LOCK_ROW)が減る。
+ * 並べ替えは親のキーのハッシュ値でバケットファイルに振り分けてからバケット毎にメモリ上で行うため、使用するメモリはバケットのサイズ程度。
+ */
+public class RecordPreparer {
+
+    private final File preparedFile;
+    private final File duplicateFile;
+    private final File dedupIndexFile;
+    private final File dedupKeysFile;
+    private final File dir;
+    private final String name;
+    private long totalCount = 0L;
+    private long duplicateCount = 0L;
+
+    /**
+     * コンストラクタ
+     * @param dir 作業ファイルの出力先
+     * @param name ファイル名 (オブジェクトAPI名と読み込み元のファイル名)
+     */
+    public RecordPreparer(File dir, String name) {
+        this.dir = dir;
+        this.name = name;
+        this.preparedFile = new File(dir, name + "-prepared.csv");
+        this.duplicateFile = new File(dir, name + "-duplicates.csv");
+        this.dedupIndexFile = new File(dir, name + ".dedup.idx");
+        this.dedupKeysFile = new File(dir, name + ".dedup.keys");
+    }
+
+    /**
+     * レコードを整形してファイルに出力
+     * @param sourcePath 読み込み元のファイルパス
+     * @param dedupColumn 重複を除くキー項目 (CSVのヘッダー名, 空の場合は重複を除かない)
+     * @param groupColumn 親のキー項目 (CSVのヘッダー名, 空の場合は並べ替えない)
+     * @param bucketBytes 並べ替えのバケット1つあたりのバイト数
+     * @return 整形後のファイル
+     * @throws IOException
+     */
+    public File prepare(String sourcePath, String dedupColumn, String groupColumn, long bucketBytes) throws IOException {
+        System.out.println("-- prepareRecords -- dedup=" + dedupColumn + " groupBy=" + groupColumn);
+        this.dir.mkdirs();
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(sourcePath);
+        DeltaIndex lastOffsets = null;
+        try {
+            if (!splitter.nextRecord()) {
+                throw new IOException("CSV header not found : " + sourcePath);
+            }
+            byte[] headerBytes = splitter.copyRecord();
+            int dedupIndex = columnIndex(headerBytes, dedupColumn);
+            int groupIndex = columnIndex(headerBytes, groupColumn);
+            if (dedupIndex >= 0) {
+                lastOffsets = this.indexLastOffsets(splitter, dedupIndex);
+                splitter = CsvRecordSplitter.open(sourcePath, headerBytes.length);
+            }
+            int buckets = groupIndex < 0 ? 0 : (int) Math.max(1L, Math.min(1024L, (new File(sourcePath).length() + bucketBytes - 1) / bucketBytes));
+            this.split(splitter, headerBytes, dedupIndex, lastOffsets, groupIndex, buckets);
+            if (buckets > 0) {
+                this.sortBuckets(headerBytes, groupIndex, buckets);
+            }
+        } finally {
+            splitter.close();
+            if (lastOffsets != null) {
+                lastOffsets.close();
+                Files.deleteIfExists(this.dedupIndexFile.toPath());
+                Files.deleteIfExists(this.dedupKeysFile.toPath());
+            }
+        }
+        System.out.println("PreparedRecords = " + (this.totalCount - this.duplicateCount) + ", Duplicates = " + this.duplicateCount);
+        return this.preparedFile;
+    }
+
+    public File getPreparedFile() {
+        return this.preparedFile;
+    }
+
+    public File getDuplicateFile() {
+        return this.duplicateFile;
+    }
+
+    public long getDuplicateCount() {
+        return this.duplicateCount;
+    }
+
+    /**
+     * キー毎に最後のレコードの位置を記録 (インデックスの内容のハッシュ値の代わりに位置を格納)
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param keyIndex キー項目の位置
+     * @return キーのハッシュ値 → 最後のレコードの開始位置
+     * @throws IOException
+     */
+    private DeltaIndex indexLastOffsets(CsvRecordSplitter splitter, int keyIndex) throws IOException {
+        DeltaIndex index = DeltaIndex.create(this.dedupIndexFile, this.dedupKeysFile, 0L);
+        int[] range = new int[2];
+        try {
+            while (splitter.nextRecord()) {
+                byte[] record = splitter.getRecordBytes();
+                if (DeltaDetector.findField(record, splitter.getRecordLength(), keyIndex, range) && range[0] < range[1]) {
+                    index.put(DeltaDetector.hash(record, range[0], range[1] - range[0]), splitter.getRecordOffset(), record, range[0], range[1] - range[0]);
+                }
+            }
+        } finally {
+            splitter.close();
+        }
+        return index;
+    }
+
+    /**
+     * 重複を除いて出力 (並べ替える場合はバケットファイルに振り分け)
+     */
+    private void split(CsvRecordSplitter splitter, byte[] headerBytes, int dedupIndex, DeltaIndex lastOffsets, int groupIndex, int buckets) throws IOException {
+        int[] range = new int[2];
+        OutputStream out = null;
+        OutputStream duplicates = null;
+        OutputStream[] bucketOuts = new OutputStream[buckets];
+        try {
+            if (buckets == 0) {
+                out = new BufferedOutputStream(new FileOutputStream(this.preparedFile), 65536);
+                out.write(headerBytes);
+            }
+            for (int i = 0; i < buckets; i++) {
+                bucketOuts[i] = new BufferedOutputStream(new FileOutputStream(this.getBucketFile(i)), 65536);
+            }
+            while (splitter.nextRecord()) {
+                byte[] record = splitter.getRecordBytes();
+                int length = splitter.getRecordLength();
+                this.totalCount++;
+                if (dedupIndex >= 0 && DeltaDetector.findField(record, length, dedupIndex, range) && range[0] < range[1]) {
+                    long slot = lastOffsets.find(DeltaDetector.hash(record, range[0], range[1] - range[0]));
+                    if (lastOffsets.getContentHash(slot) != splitter.getRecordOffset()) {
+                        if (duplicates == null) {
+                            duplicates = new BufferedOutputStream(new FileOutputStream(this.duplicateFile), 65536);
+                            duplicates.write(headerBytes);
+                        }
+                        duplicates.write(record, 0, length);
+                        this.duplicateCount++;
+                        continue;
+                    }
+                }
+                if (buckets == 0) {
+                    out.write(record, 0, length);
+                } else {
+                    bucketOuts[this.bucketOf(record, length, groupIndex, buckets, range)].write(record, 0, length);
+                }
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            if (duplicates != null) {
+                duplicates.close();
+            }
+            for (OutputStream bucketOut : bucketOuts) {
+                if (bucketOut != null) {
+                    bucketOut.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * バケット毎に親のキーで並べ替えて出力 (同じ親のレコードは元の順序を保つ)
+     */
+    private void sortBuckets(byte[] headerBytes, int groupIndex, int buckets) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(this.preparedFile), 65536)) {
+            out.write(headerBytes);
+            for (int i = 0; i < buckets; i++) {
+                File bucketFile = this.getBucketFile(i);
+                final byte[] data = Files.readAllBytes(bucketFile.toPath());
+                Files.delete(bucketFile.toPath());
+                CsvRecordSplitter splitter = new CsvRecordSplitter(Channels.newChannel(new ByteArrayInputStream(data)));
+                final List<long[]> records = new ArrayList<long[]>();
+                int[] range = new int[2];
+                while (splitter.nextRecord()) {
+                    long parent = DeltaDetector.findField(splitter.getRecordBytes(), splitter.getRecordLength(), groupIndex, range)
+                        ? DeltaDetector.hash(splitter.getRecordBytes(), range[0], range[1] - range[0]) : 0L;
+                    records.add(new long[] { parent, splitter.getRecordOffset(), splitter.getRecordLength() });
+                }
+                Collections.sort(records, new Comparator<long[]>() {
+                    @Override
+                    public int compare(long[] a, long[] b) {
+                        return Long.compare(a[0], b[0]);
+                    }
+                });
+                for (long[] record : records) {
+                    out.write(data, (int) record[1], (int) record[2]);
+                }
+            }
+        }
+    }
+
+    private int bucketOf(byte[] record, int length, int groupIndex, int buckets, int[] range) {
+        if (!DeltaDetector.findField(record, length, groupIndex, range)) {
+            return 0;
+        }
+        return (int) ((DeltaDetector.hash(record, range[0], range[1] - range[0]) >>> 1) % buckets);
+    }
+
+    private File getBucketFile(int index) {
+        return new File(this.dir, this.name + ".bucket" + index);
+    }
+
+    private static int columnIndex(byte[] headerBytes, String column) throws IOException {
+        if (column == null || column.isEmpty()) {
+            return -1;
+        }
+        int index = DeltaDetector.indexOfColumn(headerBytes, headerBytes.length, column);
+        if (index < 0) {
+            throw new IOException("CSV column not found : " + column);
+        }
+        return index;
+    }
+
+    /**
+     * CSVファイル変換仕様から項目に対応するCSVのヘッダー名を取得
+     * @param specFile CSVファイル変換仕様のファイルパス
+     * @param fieldName 項目のAPI名
+     * @return CSVのヘッダー名 (変換仕様に記載がない場合は項目のAPI名)
+     * @throws IOException
+     */
+    public static String resolveCsvColumn(String specFile, String fieldName) throws IOException {
+        if (specFile == null || !new File(specFile).exists()) {
+            return fieldName;
+        }
+        try (InputStream in = new FileInputStream(specFile)) {
+            CSVReader rdr = new CSVReader(in, "UTF-8");
+            rdr.nextRecord();
+            List<String> row;
+            while ((row = rdr.nextRecord()) != null) {
+                if (row.size() >= 2 && row.get(0) != null && row.get(0).trim().equalsIgnoreCase(fieldName)) {
+                    return row.get(1).trim();
+                }
+            }
+        }
+        return fieldName;
+    }
+}
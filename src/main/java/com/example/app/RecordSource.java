@@ -0,0 +1,132 @@
+package com.example.app;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * インポートの読み込み元
+ * ファイルパスの形式で読み込み元を判定し、展開済みのファイルを作成せずにCSVのレコード分割を作成する。
+ * <ul>
+ * <li>"-" : 標準入力</li>
+ * <li>*.gz : gzip圧縮したCSV</li>
+ * <li>*.zip : zipの最初のファイル</li>
+ * <li>*.sql : ファイルに記載したクエリをjdbcUrlのデータベースで実行した結果</li>
+ * <li>上記以外 : CSVファイル</li>
+ * </ul>
+ * CSVファイル以外(ストリーミング)は読み直せないため、分割読み込み・再開・失敗レコードの抽出は行わない。
+ */
+public final class RecordSource {
+
+    /** 標準入力を表すファイルパス */
+    public static final String STDIN = "-";
+
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+    private RecordSource() {
+    }
+
+    /**
+     * ストリーミングの読み込み元か (位置を指定して読み直せない)
+     * @param filePath ファイルパス
+     * @return ストリーミングの場合はtrue
+     */
+    public static boolean isStreaming(String filePath) {
+        String path = filePath.toLowerCase();
+        return STDIN.equals(filePath) || path.endsWith(".gz") || path.endsWith(".zip") || isJdbc(filePath);
+    }
+
+    /**
+     * JDBCのクエリ結果の読み込み元か
+     * @param filePath ファイルパス
+     * @return クエリのファイルの場合はtrue
+     */
+    public static boolean isJdbc(String filePath) {
+        return filePath.toLowerCase().endsWith(".sql");
+    }
+
+    /**
+     * 読み込み元の文字コード (クエリ結果は常にUTF-8)
+     * @param filePath ファイルパス
+     * @param userInfo ユーザ情報
+     * @return 文字コード
+     */
+    public static Charset getCharset(String filePath, UserInfo userInfo) {
+        return isJdbc(filePath) ? StandardCharsets.UTF_8 : Charset.forName(userInfo.fileEncoding);
+    }
+
+    /**
+     * 読み込み元のレコード分割を作成
+     * @param filePath ファイルパス
+     * @param userInfo ユーザ情報 (JDBCの接続情報)
+     * @return CSVのレコード分割
+     * @throws IOException
+     */
+    public static CsvRecordSplitter open(String filePath, UserInfo userInfo) throws IOException {
+        if (!isStreaming(filePath)) {
+            return CsvRecordSplitter.open(filePath);
+        }
+        System.out.println("-- openStream -- " + filePath);
+        return new CsvRecordSplitter(Channels.newChannel(openStream(filePath, userInfo)));
+    }
+
+    /**
+     * ストリーミングの読み込み元を開く
+     * @param filePath ファイルパス
+     * @param userInfo ユーザ情報
+     * @return 入力ストリーム
+     * @throws IOException
+     */
+    static InputStream openStream(String filePath, UserInfo userInfo) throws IOException {
+        if (STDIN.equals(filePath)) {
+            // 標準入力は閉じない
+            return new FilterInputStream(new BufferedInputStream(System.in, STREAM_BUFFER_SIZE)) {
+                @Override
+                public void close() {
+                }
+            };
+        }
+        if (isJdbc(filePath)) {
+            String query = new String(Files.readAllBytes(Paths.get(filePath)), StandardCharsets.UTF_8).trim();
+            if (query.endsWith(";")) {
+                query = query.substring(0, query.length() - 1);
+            }
+            try {
+                return new JdbcCsvInputStream(DriverManager.getConnection(userInfo.jdbcUrl, userInfo.jdbcUser, userInfo.jdbcPassword), query, userInfo.jdbcFetchSize);
+            } catch (SQLException e) {
+                throw new IOException("jdbc query failed : " + filePath, e);
+            }
+        }
+        InputStream in = new FileInputStream(filePath);
+        try {
+            if (filePath.toLowerCase().endsWith(".gz")) {
+                return new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+            }
+            // zipはディレクトリ以外の最初のエントリを読み込む
+            ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    System.out.println("ZipEntry = " + entry.getName());
+                    return zip;
+                }
+            }
+            throw new IOException("zip entry not found : " + filePath);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
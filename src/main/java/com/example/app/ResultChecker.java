@@ -0,0 +1,395 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.CSVReader;
+import com.sforce.async.JobInfo;
+
+/**
+ * バッチ処理結果のチェック
+ * バッチの処理完了通知を受けた時点で、そのバッチの処理結果を別スレッドで取得してエラーを集計する。
+ * 他のバッチの処理待ちと処理結果の取得を並行して実行する。
+ */
+public class ResultChecker implements JobMonitor.BatchListener {
+
+    private static final String UNKNOWN_STATUS_CODE = "UNKNOWN";
+    /** 失敗・未処理のバッチに含まれるレコードのステータスコード */
+    static final String BATCH_FAILED_STATUS_CODE = "BATCH_FAILED";
+
+    private final BulkConnection connection;
+    private final String jobId;
+    private final SkipErrorMatcher skipErrorMatcher;
+    private final BatchSizingPolicy sizingPolicy;
+    private final ExecutorService executor;
+    private final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    private final AtomicInteger successCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final AtomicInteger skipErrorCount = new AtomicInteger();
+    private final AtomicInteger failedBatchCount = new AtomicInteger();
+    private final AtomicInteger failedBatchRecordCount = new AtomicInteger();
+    private final AtomicInteger uncountedBatchCount = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> failuresByStatusCode = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Map<String, BatchSegment> segmentsByBatchId = new HashMap<String, BatchSegment>();
+    private FailedRecordWriter failedRecordWriter;
+    private RunReport runReport;
+    private String sobjectType;
+
+    /**
+     * コンストラクタ
+     * @param connection BulkAPIの接続情報
+     * @param job ジョブ情報
+     * @param skipErrorMatcher 検知不要エラーの判定
+     * @param sizingPolicy バッチサイズの決定方法 (行ロック競合の件数を通知)
+     * @param threads 処理結果を取得するスレッド数
+     */
+    public ResultChecker(BulkConnection connection, JobInfo job, SkipErrorMatcher skipErrorMatcher, BatchSizingPolicy sizingPolicy, int threads) {
+        this.connection = connection;
+        this.jobId = job.getId();
+        this.skipErrorMatcher = skipErrorMatcher;
+        this.sizingPolicy = sizingPolicy;
+        this.executor = BulkExecutors.newExecutor("batch-result", threads);
+    }
+
+    /**
+     * 失敗レコードの出力先を設定
+     * @param failedRecordWriter 失敗レコードの出力
+     * @param segments バッチ毎のレコードの範囲
+     * @return ResultChecker
+     */
+    public ResultChecker setFailedRecordWriter(FailedRecordWriter failedRecordWriter, List<BatchSegment> segments) {
+        this.failedRecordWriter = failedRecordWriter;
+        return this.setSegments(segments);
+    }
+
+    /**
+     * バッチ毎のレコードの範囲を設定 (失敗したバッチのレコード件数に使用)
+     * @param segments バッチ毎のレコードの範囲
+     * @return ResultChecker
+     */
+    public ResultChecker setSegments(List<BatchSegment> segments) {
+        for (BatchSegment segment : segments) {
+            this.segmentsByBatchId.put(segment.getBatchId(), segment);
+        }
+        return this;
+    }
+
+    /**
+     * 実行レポートの出力先を設定
+     * @param runReport 実行レポート
+     * @param sobjectType オブジェクトAPI名
+     * @return ResultChecker
+     */
+    public ResultChecker setRunReport(RunReport runReport, String sobjectType) {
+        this.runReport = runReport;
+        this.sobjectType = sobjectType;
+        return this;
+    }
+
+    @Override
+    public void onBatchFinished(final BatchInfo batchInfo) {
+        // 処理されたバッチのみ結果を取得 (失敗・未処理のバッチには処理結果がない)
+        if (batchInfo.getState() != BatchStateEnum.Completed) {
+            this.onBatchFailed(batchInfo);
+            return;
+        }
+        ImportMetrics.get().onResultQueued();
+        Future<Void> future = this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    checkBatch(batchInfo);
+                } finally {
+                    ImportMetrics.get().onResultDownloaded(System.nanoTime() - start);
+                }
+                return null;
+            }
+        });
+        synchronized (this.futures) {
+            this.futures.add(future);
+        }
+    }
+
+    /**
+     * 全ての処理結果のチェック完了を待機
+     * @return 検知不要エラー件数
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    public int awaitSkipErrorCount() throws AsyncApiException, IOException {
+        System.out.println("-- checkResults --");
+        try {
+            List<Future<Void>> pending;
+            synchronized (this.futures) {
+                pending = new ArrayList<Future<Void>>(this.futures);
+            }
+            for (Future<Void> future : pending) {
+                this.getResult(future);
+            }
+        } finally {
+            this.executor.shutdownNow();
+        }
+        System.out.println("SuccessCount = " + this.successCount.get());
+        System.out.println("FailureCount = " + this.failureCount.get() + " " + this.getFailuresByStatusCode());
+        System.out.println("SkipErrorHits = " + this.skipErrorMatcher.getHitCounts());
+        if (this.failedBatchCount.get() > 0) {
+            System.out.println("FailedBatches = " + this.failedBatchCount.get() + " (records=" + this.failedBatchRecordCount.get() + ", uncounted=" + this.uncountedBatchCount.get() + ")");
+        }
+        return this.skipErrorCount.get();
+    }
+
+    /**
+     * 失敗・未処理のバッチ数
+     * @return バッチ数
+     */
+    public int getFailedBatchCount() {
+        return this.failedBatchCount.get();
+    }
+
+    /**
+     * 失敗・未処理のバッチに含まれるレコード件数 (ジョブのnumberRecordsFailedには含まれない)
+     * @return レコード件数
+     */
+    public int getFailedBatchRecordCount() {
+        return this.failedBatchRecordCount.get();
+    }
+
+    /**
+     * 失敗・未処理のバッチのうち、レコードの範囲が不明で件数を数えられないバッチ数
+     * @return バッチ数
+     */
+    public int getUncountedBatchCount() {
+        return this.uncountedBatchCount.get();
+    }
+
+    /**
+     * ステータスコード毎のエラー件数
+     * @return エラー件数
+     */
+    public Map<String, Integer> getFailuresByStatusCode() {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> e : this.failuresByStatusCode.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * バッチの処理結果をチェック
+     * 列の位置はヘッダー行から一度だけ取得し、行毎にMapを作成しない。
+     * @param batchInfo バッチ情報
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    private void checkBatch(BatchInfo batchInfo) throws AsyncApiException, IOException {
+        long start = System.nanoTime();
+        InputStream in = this.connection.getBatchResultStream(this.jobId, batchInfo.getId());
+        // 失敗レコードがある場合のみ読み込み元のレコードを結果の行と同じ順に読み込む
+        CsvRecordSplitter source = null;
+        BatchSegment segment = this.segmentsByBatchId.get(batchInfo.getId());
+        if (this.failedRecordWriter != null && segment != null && batchInfo.getNumberRecordsFailed() > 0) {
+            source = this.failedRecordWriter.openSegment(segment);
+        }
+        int lockErrorCount = 0;
+        int batchSuccessCount = 0;
+        int batchSkipErrorCount = 0;
+        // 実行レポートを出力する場合のみバッチ毎のステータスコード毎の件数を集計
+        Map<String, Integer> batchFailures = this.runReport != null ? new TreeMap<String, Integer>() : null;
+        try {
+            CSVReader rdr = new CSVReader(in);
+            List<String> resultHeader = rdr.nextRecord();
+            int successIndex = resultHeader.indexOf("Success");
+            int errorIndex = resultHeader.indexOf("Error");
+            List<String> row;
+            while ((row = rdr.nextRecord()) != null) {
+                if (source != null && !source.nextRecord()) {
+                    throw new IOException("source records do not match results : " + segment);
+                }
+                boolean success = Boolean.valueOf(row.get(successIndex));
+                if (success) {
+                    this.successCount.incrementAndGet();
+                    batchSuccessCount++;
+                    continue;
+                }
+                String error = row.get(errorIndex);
+                String statusCode = getStatusCode(error);
+                this.failureCount.incrementAndGet();
+                this.countFailure(statusCode, 1);
+                ImportMetrics.get().onFailure(statusCode);
+                if (batchFailures != null) {
+                    Integer count = batchFailures.get(statusCode);
+                    batchFailures.put(statusCode, count == null ? 1 : count + 1);
+                }
+                if ("UNABLE_TO_LOCK_ROW".equals(statusCode)) {
+                    lockErrorCount++;
+                }
+                // 発生しても問題ないエラーの件数をカウント
+                boolean skipped = this.skipErrorMatcher.matches(error);
+                if (skipped) {
+                    this.skipErrorCount.incrementAndGet();
+                    batchSkipErrorCount++;
+                }
+                if (source != null) {
+                    this.failedRecordWriter.write(source.getRecordBytes(), source.getRecordLength(), statusCode, error, skipped);
+                }
+            }
+        } finally {
+            in.close();
+            if (source != null) {
+                source.close();
+            }
+        }
+        this.sizingPolicy.onLockErrors(lockErrorCount);
+        if (this.runReport != null) {
+            int batchFailureCount = 0;
+            for (Integer count : batchFailures.values()) {
+                batchFailureCount += count;
+            }
+            this.runReport.recordBatch(this.sobjectType, batchInfo, batchSuccessCount, batchFailureCount, batchFailures, batchSkipErrorCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * 失敗・未処理のバッチの集計
+     * バッチの全レコードを失敗として数え、失敗レコードの出力先がある場合はバッチの範囲を読み込み元から出力する。
+     * (レコードの範囲が不明なバッチは件数を数えられないため、呼び出し元で異常として扱う)
+     * @param batchInfo バッチ情報
+     */
+    private void onBatchFailed(BatchInfo batchInfo) {
+        System.out.println("<< WARN >> バッチが失敗しました : " + batchInfo.getId() + " " + batchInfo.getState() + " " + batchInfo.getStateMessage());
+        this.failedBatchCount.incrementAndGet();
+        final BatchSegment segment = this.segmentsByBatchId.get(batchInfo.getId());
+        int rowCount = segment != null ? segment.getRowCount() : 0;
+        if (segment == null) {
+            this.uncountedBatchCount.incrementAndGet();
+        } else {
+            this.failedBatchRecordCount.addAndGet(rowCount);
+            this.failureCount.addAndGet(rowCount);
+            this.countFailure(BATCH_FAILED_STATUS_CODE, rowCount);
+            ImportMetrics.get().onFailure(BATCH_FAILED_STATUS_CODE, rowCount);
+        }
+        if (this.runReport != null) {
+            Map<String, Integer> failures = new TreeMap<String, Integer>();
+            if (rowCount > 0) {
+                failures.put(BATCH_FAILED_STATUS_CODE, rowCount);
+            }
+            this.runReport.recordBatch(this.sobjectType, batchInfo, 0, rowCount, failures, 0, 0L);
+        }
+        if (this.failedRecordWriter == null || segment == null || rowCount == 0) {
+            return;
+        }
+        final String error = BATCH_FAILED_STATUS_CODE + ":" + batchInfo.getState() + " " + batchInfo.getStateMessage();
+        Future<Void> future = this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                writeFailedBatch(segment, error);
+                return null;
+            }
+        });
+        synchronized (this.futures) {
+            this.futures.add(future);
+        }
+    }
+
+    /**
+     * 失敗したバッチの全レコードを失敗レコードとして出力
+     * @param segment バッチに含まれるレコードの範囲
+     * @param error エラーメッセージ
+     * @throws IOException
+     */
+    private void writeFailedBatch(BatchSegment segment, String error) throws IOException {
+        CsvRecordSplitter source = this.failedRecordWriter.openSegment(segment);
+        try {
+            for (int i = 0; i < segment.getRowCount(); i++) {
+                if (!source.nextRecord()) {
+                    throw new IOException("source records do not match segment : " + segment);
+                }
+                this.failedRecordWriter.write(source.getRecordBytes(), source.getRecordLength(), BATCH_FAILED_STATUS_CODE, error, false);
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * ステータスコード毎のエラー件数をカウント
+     * @param statusCode ステータスコード
+     * @param delta 件数
+     */
+    private void countFailure(String statusCode, int delta) {
+        AtomicInteger count = this.failuresByStatusCode.get(statusCode);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = this.failuresByStatusCode.putIfAbsent(statusCode, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.addAndGet(delta);
+    }
+
+    /**
+     * エラーメッセージからステータスコードを取得 (例 "UNABLE_TO_LOCK_ROW:unable to obtain exclusive access...")
+     * @param error エラーメッセージ
+     * @return ステータスコード
+     */
+    static String getStatusCode(String error) {
+        if (error == null) {
+            return UNKNOWN_STATUS_CODE;
+        }
+        int end = error.indexOf(':');
+        if (end <= 0) {
+            return UNKNOWN_STATUS_CODE;
+        }
+        for (int i = 0; i < end; i++) {
+            char c = error.charAt(i);
+            if (!(c == '_' || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+                return UNKNOWN_STATUS_CODE;
+            }
+        }
+        return error.substring(0, end);
+    }
+
+    /**
+     * チェック結果を取得 (ワーカーで発生した例外は元の型で送出)
+     * @param future チェック処理
+     * @throws AsyncApiException
+     * @throws IOException
+     */
+    private void getResult(Future<Void> future) throws AsyncApiException, IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("result check interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AsyncApiException) {
+                throw (AsyncApiException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("result check failed", cause);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.app;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.codehaus.jackson.map.ObjectMapper;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.JobInfo;
+
+/**
+ * 実行レポート
+ * バッチの処理結果のチェックが終わる度に、バッチ毎の件数・ステータスコード毎の失敗件数・検知不要エラー件数・処理時間を
+ * 1行1件のJSON(JSON Lines)で追記し、ジョブの終了時にジョブ全体の件数を追記する。
+ * 実行中も1行ずつ書き込むため、異常終了した場合も途中までの結果が残る。
+ * 書き込みに失敗してもインポートは中断しない。複数スレッドから同時に使用できる。
+ */
+public class RunReport implements Closeable {
+
+    private final File file;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Writer writer;
+    private int batchCount = 0;
+    private int jobCount = 0;
+
+    /**
+     * コンストラクタ
+     * @param file 出力先のファイル
+     * @throws IOException
+     */
+    public RunReport(File file) throws IOException {
+        this.file = file;
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("report directory not created : " + dir);
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 実行毎のファイル(run-yyyyMMdd-HHmmss-SSS.jsonl)を作成
+     * @param dir 出力先のディレクトリ
+     * @return RunReport
+     * @throws IOException
+     */
+    public static RunReport open(String dir) throws IOException {
+        String name = "run-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + ".jsonl";
+        return new RunReport(new File(dir, name));
+    }
+
+    /**
+     * バッチの処理結果を記録
+     * @param sobjectType オブジェクトAPI名
+     * @param batchInfo バッチ情報 (処理完了時)
+     * @param successCount 成功件数
+     * @param failureCount 失敗件数
+     * @param failuresByStatusCode ステータスコード毎の失敗件数
+     * @param skipErrorCount 検知不要エラー件数
+     * @param resultMillis 処理結果の取得・チェックの時間(ミリ秒)
+     */
+    public void recordBatch(String sobjectType, BatchInfo batchInfo, int successCount, int failureCount, Map<String, Integer> failuresByStatusCode, int skipErrorCount, long resultMillis) {
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        line.put("type", "batch");
+        line.put("sobject", sobjectType);
+        line.put("jobId", batchInfo.getJobId());
+        line.put("batchId", batchInfo.getId());
+        line.put("state", String.valueOf(batchInfo.getState()));
+        if (batchInfo.getStateMessage() != null) {
+            line.put("stateMessage", batchInfo.getStateMessage());
+        }
+        line.put("processed", batchInfo.getNumberRecordsProcessed());
+        line.put("success", successCount);
+        line.put("failed", failureCount);
+        line.put("failures", failuresByStatusCode);
+        line.put("skipped", skipErrorCount);
+        // サーバー側の処理時間 (バッチの作成日時から最終更新日時まで、およびサーバーが集計した処理時間)
+        line.put("processingMillis", elapsedMillis(batchInfo.getCreatedDate(), batchInfo.getSystemModstamp()));
+        line.put("totalProcessingMillis", batchInfo.getTotalProcessingTime());
+        line.put("apiActiveProcessingMillis", batchInfo.getApiActiveProcessingTime());
+        line.put("resultMillis", resultMillis);
+        synchronized (this) {
+            this.batchCount++;
+        }
+        this.write(line);
+    }
+
+    /**
+     * ジョブの実行結果を記録
+     * @param sobjectType オブジェクトAPI名
+     * @param job ジョブ情報 (完了時)
+     * @param failedCount 失敗件数 (再実行後の件数、アップロード前に隔離したレコードを含む)
+     * @param skipErrorCount 検知不要エラー件数
+     * @param invalidCount アップロード前に隔離したレコード件数
+     * @param success 異常なエラーが発生していない場合はtrue
+     */
+    public void recordJob(String sobjectType, JobInfo job, int failedCount, int skipErrorCount, long invalidCount, boolean success) {
+        Map<String, Object> line = new LinkedHashMap<String, Object>();
+        line.put("type", "job");
+        line.put("sobject", sobjectType);
+        line.put("jobId", job.getId());
+        line.put("operation", String.valueOf(job.getOperation()));
+        line.put("batches", job.getNumberBatchesTotal());
+        line.put("batchesFailed", job.getNumberBatchesFailed());
+        line.put("processed", job.getNumberRecordsProcessed());
+        line.put("failed", failedCount);
+        line.put("skipped", skipErrorCount);
+        line.put("invalid", invalidCount);
+        line.put("processingMillis", elapsedMillis(job.getCreatedDate(), job.getSystemModstamp()));
+        line.put("totalProcessingMillis", job.getTotalProcessingTime());
+        line.put("success", success);
+        synchronized (this) {
+            this.jobCount++;
+        }
+        this.write(line);
+    }
+
+    /**
+     * 出力先のファイル
+     * @return ファイル
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * 記録したバッチ数
+     * @return バッチ数
+     */
+    public synchronized int getBatchCount() {
+        return this.batchCount;
+    }
+
+    /**
+     * 記録したジョブ数
+     * @return ジョブ数
+     */
+    public synchronized int getJobCount() {
+        return this.jobCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    /**
+     * 1行を書き込み (書き込みに失敗した場合は以降の記録を行わない)
+     * @param line 記録する内容
+     */
+    private void write(Map<String, Object> line) {
+        line.put("recordedAt", System.currentTimeMillis());
+        synchronized (this) {
+            if (this.writer == null) {
+                return;
+            }
+            try {
+                this.writer.write(this.mapper.writeValueAsString(line));
+                this.writer.write('\n');
+                this.writer.flush();
+            } catch (IOException e) {
+                System.out.println("<< WARN >> 実行レポートを出力できません : " + this.file + " " + e.getMessage());
+                try {
+                    this.writer.close();
+                } catch (IOException ignore) {
+                    // 書き込みに失敗したファイルは閉じるのみ
+                }
+                this.writer = null;
+            }
+        }
+    }
+
+    private static long elapsedMillis(Calendar from, Calendar to) {
+        if (from == null || to == null) {
+            return 0L;
+        }
+        return Math.max(0L, to.getTimeInMillis() - from.getTimeInMillis());
+    }
+}
@@ -1,17 +1,25 @@
 package com.example.app;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.sforce.async.AsyncApiException;
 import com.sforce.async.BatchInfo;
-import com.sforce.async.BatchStateEnum;
 import com.sforce.async.BulkConnection;
 import com.sforce.async.ContentType;
 import com.sforce.async.JobInfo;
@@ -22,6 +30,13 @@ import com.sforce.ws.ConnectionException;
 import com.sforce.ws.ConnectorConfig;
 
 public class SalesforceApiUtil {
+
+    /** バッチあたりの最大バイト数 */
+    public static final int MAX_BYTES_PER_BATCH = 10000000;
+    /** バッチあたりの最大行数 */
+    public static final int MAX_ROWS_PER_BATCH = 10000;
+    /** インポートで指定できる処理の種類 */
+    public static final Set<String> IMPORT_OPERATIONS = new HashSet<String>(Arrays.asList("insert", "update", "upsert", "delete", "hardDelete"));
 	
 	/**
      * ユーザ情報の値存在判定
@@ -44,6 +59,12 @@ public class SalesforceApiUtil {
         } else if (userInfo.filePath.isEmpty()) {
             System.out.println("<< ERROR >> ファイルパスの取得に失敗しました。userInfo.propertiesが正しく設定されているか確認してください。");
             return true;
+        } else if (!IMPORT_OPERATIONS.contains(userInfo.operation)) {
+            System.out.println("<< ERROR >> 処理の種類が正しくありません(" + userInfo.operation + ")。insert, update, upsert, delete, hardDeleteのいずれかを指定してください。");
+            return true;
+        } else if ("upsert".equals(userInfo.operation) && userInfo.externalIdField.isEmpty()) {
+            System.out.println("<< ERROR >> upsertの場合は外部ID項目(externalIdField)を指定してください。");
+            return true;
         }
 
         return false;
@@ -62,6 +83,13 @@ public class SalesforceApiUtil {
         partnerConfig.setUsername(userInfo.userId);
         partnerConfig.setPassword(userInfo.password);
         partnerConfig.setAuthEndpoint(userInfo.authEndpoint);
+        // シミュレーター使用時はログインせずに固定のセッションIDを使用
+        if (userInfo.simulateBulkApi) {
+            // (PartnerConnectionはSOAPの形式のエンドポイントのみ受け付けるため、シミュレーターのホストでSOAPの形式にする)
+            partnerConfig.setSessionId("SIMULATED_SESSION");
+            partnerConfig.setServiceEndpoint(userInfo.bulkEndpoint.replace("/services/async/", "/services/Soap/u/") + "/00DSIMULATED");
+            return partnerConfig;
+        }
         new PartnerConnection(partnerConfig);
         return partnerConfig;
     }
@@ -76,42 +104,92 @@ public class SalesforceApiUtil {
      */
     public BulkConnection getBulkConnection(UserInfo userInfo, ConnectorConfig partnerConfig) throws ConnectionException, AsyncApiException {
         System.out.println("-- getBulkConnection --");
+        // BulkAPI接続
+        BulkConnection connection = new BulkConnection(this.getBulkConfig(userInfo, partnerConfig));
+        return connection;
+    }
+    
+    /**
+     * BulkAPI接続設定の作成
+     * @param userInfo ユーザ情報
+     * @param partnerConfig セッション情報
+     * @return ConnectorConfig
+     */
+    public ConnectorConfig getBulkConfig(UserInfo userInfo, ConnectorConfig partnerConfig) {
         // ConnectorConfigにセッションIDをセット。BulkConnectionで使用する。
         ConnectorConfig config = new ConnectorConfig();
         config.setSessionId(partnerConfig.getSessionId());
         
         // BulkAPIの接続情報を作成
-        String soapEndpoint = partnerConfig.getServiceEndpoint();
-        String restEndpoint = soapEndpoint.substring(0, soapEndpoint.indexOf("Soap/")) + "async/" + userInfo.apiVersion;
+        // bulkEndpointを指定した場合はそのエンドポイントに接続 (シミュレーターなど)
+        String restEndpoint = userInfo.bulkEndpoint;
+        if (restEndpoint.isEmpty()) {
+            String soapEndpoint = partnerConfig.getServiceEndpoint();
+            restEndpoint = soapEndpoint.substring(0, soapEndpoint.indexOf("Soap/")) + "async/" + userInfo.apiVersion;
+        }
         config.setRestEndpoint(restEndpoint);
         config.setCompression(true);   // Debugしたいときは「false」
         config.setTraceMessage(false); // トレースメッセージを確認したいときは「true」
-        
-        // BulkAPI接続
-        BulkConnection connection = new BulkConnection(config);
-        return connection;
+        return config;
     }
     
     /**
-     * ジョブの作成
+     * ジョブの作成 (処理の種類を指定)
      * @param sobjectType オブジェクトAPI名
      * @param connection Bulk API接続情報
-     * @param externalIdFieldName 外部ID項目のAPI名
+     * @param operation 処理の種類
+     * @param externalIdFieldName 外部ID項目のAPI名 (upsert時のみ使用)
+     * @return ジョブ情報
+     * @throws AsyncApiException
+     */
+    public JobInfo createJob(String sobjectType, BulkConnection connection, OperationEnum operation, String externalIdFieldName) throws AsyncApiException {
+        System.out.println("-- createJob -- " + sobjectType + " " + operation);
+        JobInfo job = new JobInfo();
+        job.setObject(sobjectType);
+        job.setOperation(operation);
+        if (operation == OperationEnum.upsert) {
+            job.setExternalIdFieldName(externalIdFieldName);
+        }
+        job.setContentType(ContentType.CSV);
+        job = connection.createJob(job);
+        return job;
+    }
+    
+    /**
+     * クエリジョブの作成 (PK Chunkingを有効にする)
+     * PK Chunkingのヘッダーは接続単位で送信されるため、ジョブ作成専用の接続を使用すること。
+     * @param sobjectType オブジェクトAPI名
+     * @param connection Bulk API接続情報 (ジョブ作成専用)
+     * @param chunkSize 1チャンクあたりの件数 (0の場合はPK Chunkingを使用しない)
      * @return ジョブ情報
      * @throws AsyncApiException
      */
-    public JobInfo createUpsertJob(String sobjectType, BulkConnection connection, String externalIdFieldName) throws AsyncApiException {
-        System.out.println("-- createUpsertJob --");
+    public JobInfo createQueryJob(String sobjectType, BulkConnection connection, int chunkSize) throws AsyncApiException {
+        System.out.println("-- createQueryJob -- " + sobjectType + " chunkSize=" + chunkSize);
+        if (chunkSize > 0) {
+            connection.addHeader("Sforce-Enable-PKChunking", "chunkSize=" + chunkSize);
+        }
         JobInfo job = new JobInfo();
         job.setObject(sobjectType);
-        job.setOperation(OperationEnum.insert);
-        //job.setOperation(OperationEnum.upsert);
-        //job.setExternalIdFieldName(externalIdFieldName);
+        job.setOperation(OperationEnum.query);
         job.setContentType(ContentType.CSV);
         job = connection.createJob(job);
         return job;
     }
     
+    /**
+     * ログアウト
+     * @param partnerConfig ログイン済みのConnectorConfig
+     */
+    public void logout(ConnectorConfig partnerConfig) {
+        System.out.println("-- logout --");
+        try {
+            new PartnerConnection(partnerConfig).logout();
+        } catch (ConnectionException e) {
+            System.out.println("<< ConnectionException >> " + e.getMessage());
+        }
+    }
+    
     /**
      * ジョブのクローズ
      * @param connection BulkAPIの接続情報
@@ -131,111 +209,306 @@ public class SalesforceApiUtil {
      * @param connection BulkAPIの接続情報
      * @param job ジョブ情報
      * @param batchInfoList バッチ情報
+     * @param sizingPolicy バッチサイズの決定方法 (完了したバッチの情報を通知)
+     * @param timeoutMillis タイムアウト(ミリ秒, 0の場合は無制限)
+     * @param listeners バッチの処理完了通知先
+     * @return 完了時のジョブ情報
      * @throws AsyncApiException
+     * @throws InterruptedException
+     * @throws TimeoutException
      */
-    public void awaitCompletion(BulkConnection connection, JobInfo job, List<BatchInfo> batchInfoList) throws AsyncApiException {
+    public JobInfo awaitCompletion(BulkConnection connection, JobInfo job, List<BatchInfo> batchInfoList, final BatchSizingPolicy sizingPolicy, long timeoutMillis, JobMonitor.BatchListener... listeners) throws AsyncApiException, InterruptedException, TimeoutException {
         System.out.println("-- awaitCompletion --");
         
-        long sleepTime = 0L;
-        Set<String> incomplete = new HashSet<String>();
-        for (BatchInfo bi : batchInfoList) {
-            incomplete.add(bi.getId());
-        }
-        while (!incomplete.isEmpty()) {
-            try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {}
-                System.out.println("Awaiting results..." + incomplete.size());
-                sleepTime = 10000L;
-                BatchInfo[] statusList = connection.getBatchInfoList(job.getId()).getBatchInfo();
-                for (BatchInfo b : statusList) {
-                if (b.getState() == BatchStateEnum.Completed || b.getState() == BatchStateEnum.Failed) {
-                    if (incomplete.remove(b.getId())) {
-                        System.out.println("BATCH STATUS:\n" + b);
-                    }
-                }
+        JobMonitor monitor = new JobMonitor(connection, job, batchInfoList);
+        monitor.addListener(new JobMonitor.BatchListener() {
+            @Override
+            public void onBatchFinished(BatchInfo b) {
+                System.out.println("BATCH STATUS:\n" + b);
+                sizingPolicy.onBatchCompleted(b);
             }
+        });
+        for (JobMonitor.BatchListener listener : listeners) {
+            monitor.addListener(listener);
         }
+        return monitor.await(timeoutMillis);
     }
     
     /**
      * CSVの読み込みとバッチの作成
-     * @param connection
-     * @param jobInfo
-     * @param userInfo
-     * @return バッチ情報
+     * 読み込んだCSVをプールのバッファに分割しながら、分割済みのバッチを並列にアップロードする。
+     * レコードはバイト列のままバッファにコピーする。
+     * @param connection BulkAPIの接続情報
+     * @param jobInfo ジョブ情報
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param headerBytes CSVのヘッダー行
+     * @param sizingPolicy バッチサイズの決定方法
+     * @param bufferPool バッチ作成用のバッファ
+     * @param maxInFlightBatches 同時にアップロードするバッチ数の上限
+     * @param segments バッチ毎のレコードの範囲 (作成したバッチの範囲を追加する。
+     *                 再開時はアップロード済みのバッチの範囲を設定しておくと、その範囲のレコードは読み飛ばす)
+     * @param journal チェックポイント (記録しない場合はnull)
+     * @return 作成したバッチ情報 (CSVの先頭から順)
      * @throws IOException
      * @throws AsyncApiException
      */
-    public List<BatchInfo> createBatchesFromCSVFile(BulkConnection connection, JobInfo jobInfo, BufferedReader rdr, byte[] headerBytes) throws IOException, AsyncApiException {
+    public List<BatchInfo> createBatchesFromCSVFile(BulkConnection connection, JobInfo jobInfo, CsvRecordSplitter splitter, byte[] headerBytes, BatchSizingPolicy sizingPolicy, BatchBufferPool bufferPool, int maxInFlightBatches, List<BatchSegment> segments, ImportJournal journal) throws IOException, AsyncApiException {
+        return this.createBatchesFromCSVFile(connection, jobInfo, splitter, headerBytes, sizingPolicy, bufferPool, maxInFlightBatches, segments, journal, null);
+    }
+
+    /**
+     * CSVの読み込みとバッチの作成 (バッチを圧縮してアップロード)
+     * @param connection BulkAPIの接続情報
+     * @param jobInfo ジョブ情報
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param headerBytes CSVのヘッダー行
+     * @param sizingPolicy バッチサイズの決定方法
+     * @param bufferPool バッチ作成用のバッファ
+     * @param maxInFlightBatches 同時にアップロードするバッチ数の上限
+     * @param segments バッチ毎のレコードの範囲
+     * @param journal チェックポイント (記録しない場合はnull)
+     * @param compressor バッチの圧縮 (圧縮しない場合はnull)
+     * @return 作成したバッチ情報 (CSVの先頭から順)
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    public List<BatchInfo> createBatchesFromCSVFile(BulkConnection connection, JobInfo jobInfo, CsvRecordSplitter splitter, byte[] headerBytes, BatchSizingPolicy sizingPolicy, BatchBufferPool bufferPool, int maxInFlightBatches, List<BatchSegment> segments, ImportJournal journal, BatchCompressor compressor) throws IOException, AsyncApiException {
+        return this.createBatchesFromCSVFile(connection, jobInfo, splitter, headerBytes, sizingPolicy, bufferPool, maxInFlightBatches, segments, journal, compressor, null);
+    }
+
+    /**
+     * CSVの読み込みとバッチの作成 (UTF-8以外の読み込み元はUTF-8に変換してアップロード)
+     * 標準入力・圧縮ファイル・クエリ結果などのストリーミングの読み込み元はこちらを使用する。
+     * @param connection BulkAPIの接続情報
+     * @param jobInfo ジョブ情報
+     * @param splitter CSVのレコード分割 (ヘッダー行は読み込み済み)
+     * @param headerBytes CSVのヘッダー行
+     * @param sizingPolicy バッチサイズの決定方法
+     * @param bufferPool バッチ作成用のバッファ
+     * @param maxInFlightBatches 同時にアップロードするバッチ数の上限
+     * @param segments バッチ毎のレコードの範囲
+     * @param journal チェックポイント (記録しない場合はnull)
+     * @param compressor バッチの圧縮 (圧縮しない場合はnull)
+     * @param charset 読み込み元の文字コード (nullの場合はUTF-8)
+     * @return 作成したバッチ情報 (CSVの先頭から順)
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    public List<BatchInfo> createBatchesFromCSVFile(BulkConnection connection, JobInfo jobInfo, CsvRecordSplitter splitter, byte[] headerBytes, BatchSizingPolicy sizingPolicy, BatchBufferPool bufferPool, int maxInFlightBatches, List<BatchSegment> segments, ImportJournal journal, BatchCompressor compressor, Charset charset) throws IOException, AsyncApiException {
         System.out.println("-- createBatchesFromCSVFile --");
         
-        List<BatchInfo> batchInfos = new ArrayList<BatchInfo>();
-        int headerBytesLength = headerBytes.length;
-        
-        // ファイル情報作成
-        File tmpFile = File.createTempFile("tmpCsvFile", ".csv");
-        
-        // CSVをバッチ実行用に分割
+        BatchUploadPipeline pipeline = new BatchUploadPipeline(connection, jobInfo, maxInFlightBatches).setJournal(journal).setCompressor(compressor);
         try {
-            FileOutputStream tmpOut = new FileOutputStream(tmpFile);
-            int maxBytesPerBatch = 10000000; // バッチあたり10000000バイト
-            int maxRowsPerBatch = 10000;     // バッチあたり1000行
-            int currentBytes = 0;
-            int currentLines = 0;
-            
-            String nextLine;
-            while ((nextLine = rdr.readLine()) != null) {
-                byte[] bytes = (nextLine + "\n").getBytes("UTF-8");
-                // 指定したバッチサイズの上限に達した時に新しいバッチを作成
-                if (currentBytes + bytes.length > maxBytesPerBatch || currentLines > maxRowsPerBatch) {
-                    this.createBatch(tmpOut, tmpFile, batchInfos, connection, jobInfo);
-                    currentBytes = 0;
-                    currentLines = 0;
-                }
-                if (currentBytes == 0) {
-                    tmpOut = new FileOutputStream(tmpFile);
-                    // 置換したヘッダーをBytesに変換して処理を実行
-                    tmpOut.write(headerBytes);
-                    currentBytes = headerBytesLength;
-                    currentLines = 1;
-                }
-                tmpOut.write(bytes);
-                currentBytes += bytes.length;
-                currentLines++;
-            }
-            
-            // 残りの行をバッチ実行して処理終了
-            if (currentLines > 1) {
-                this.createBatch(tmpOut, tmpFile, batchInfos, connection, jobInfo);
-            }
+            new BatchChunker(pipeline, headerBytes, sizingPolicy, bufferPool, segments, charset).chunk(splitter);
+            return pipeline.awaitBatchInfos();
         } finally {
-            tmpFile.delete();
-            rdr.close();
+            pipeline.shutdown();
+            splitter.close();
         }
-        return batchInfos;
     }
-    
+
     /**
-     * バッチの作成
-     * @param tmpOut ファイル出力情報
-     * @param tmpFile ファイル情報
-     * @param batchInfos バッチ情報
+     * CSVの分割読み込みとバッチの作成
+     * 読み込み範囲毎にスレッドを分けてレコードの分割とバッチの作成を並列に実行し、アップロードは共通のワーカースレッドで行う。
+     * ヘッダー行は全ての範囲のバッチで共通。UTF-8以外のファイルはバッチに書き込む時にUTF-8に変換する。
      * @param connection BulkAPIの接続情報
      * @param jobInfo ジョブ情報
+     * @param filePath ファイルパス
+     * @param shards 読み込み範囲 (CsvShardPlanner.plan)
+     * @param headerBytes CSVのヘッダー行
+     * @param sizingPolicy バッチサイズの決定方法
+     * @param bufferPool バッチ作成用のバッファ
+     * @param maxInFlightBatches 同時にアップロードするバッチ数の上限
+     * @param segments バッチ毎のレコードの範囲 (再開時はアップロード済みのバッチの範囲を設定しておくと、その範囲のレコードは読み飛ばす)
+     * @param journal チェックポイント (記録しない場合はnull)
+     * @param compressor バッチの圧縮 (圧縮しない場合はnull)
+     * @param charset ファイルの文字コード
+     * @return 作成したバッチ情報 (アップロードを開始した順)
      * @throws IOException
      * @throws AsyncApiException
      */
-    public void createBatch(FileOutputStream tmpOut, File tmpFile, List<BatchInfo> batchInfos, BulkConnection connection, JobInfo jobInfo) throws IOException, AsyncApiException {
-        System.out.println("-- createBatch --");
-        tmpOut.flush();
-        tmpOut.close();
-        FileInputStream tmpInputStream = new FileInputStream(tmpFile);
+    public List<BatchInfo> createBatchesFromShards(BulkConnection connection, JobInfo jobInfo, final String filePath, List<CsvShardPlanner.Shard> shards, byte[] headerBytes, BatchSizingPolicy sizingPolicy, BatchBufferPool bufferPool, int maxInFlightBatches, List<BatchSegment> segments, ImportJournal journal, BatchCompressor compressor, Charset charset) throws IOException, AsyncApiException {
+        System.out.println("-- createBatchesFromShards -- " + shards.size());
+        
+        BatchUploadPipeline pipeline = new BatchUploadPipeline(connection, jobInfo, maxInFlightBatches).setJournal(journal).setCompressor(compressor);
+        final BatchChunker chunker = new BatchChunker(pipeline, headerBytes, sizingPolicy, bufferPool, segments, charset);
+        ExecutorService readers = Executors.newFixedThreadPool(Math.max(1, shards.size()), new NamedThreadFactory("csv-reader"));
         try {
-            BatchInfo batchInfo = connection.createBatchFromForeignCsvStream(jobInfo, tmpInputStream, "UTF-8");
-            batchInfos.add(batchInfo);
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final CsvShardPlanner.Shard shard : shards) {
+                futures.add(readers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try (CsvRecordSplitter splitter = CsvRecordSplitter.open(filePath, shard.getStart(), shard.getEnd())) {
+                            chunker.chunk(splitter);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                getReaderResult(future);
+            }
+            return pipeline.awaitBatchInfos();
         } finally {
-            tmpInputStream.close();
+            readers.shutdownNow();
+            pipeline.shutdown();
+        }
+    }
+
+    /**
+     * 読み込み結果を取得 (読み込みスレッドで発生した例外は元の型で送出)
+     * @param future 読み込み処理
+     * @throws IOException
+     * @throws AsyncApiException
+     */
+    private static void getReaderResult(Future<Void> future) throws IOException, AsyncApiException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("csv read interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AsyncApiException) {
+                throw (AsyncApiException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("csv read failed", cause);
+        }
+    }
+
+    /**
+     * レコードをバッチに分割してアップロード待ちに追加 (複数の読み込みスレッドから同時に使用できる)
+     */
+    private static class BatchChunker {
+
+        private final BatchUploadPipeline pipeline;
+        private final byte[] headerBytes;
+        private final BatchSizingPolicy sizingPolicy;
+        private final BatchBufferPool bufferPool;
+        private final List<BatchSegment> segments;
+        private final Charset charset;
+        private final List<BatchSegment> uploaded;
+        private final AtomicInteger nextSegmentIndex;
+
+        BatchChunker(BatchUploadPipeline pipeline, byte[] headerBytes, BatchSizingPolicy sizingPolicy, BatchBufferPool bufferPool, List<BatchSegment> segments, Charset charset) {
+            this.pipeline = pipeline;
+            this.sizingPolicy = sizingPolicy;
+            this.bufferPool = bufferPool;
+            this.segments = segments;
+            this.charset = charset == null || StandardCharsets.UTF_8.equals(charset) ? null : charset;
+            this.headerBytes = this.transcode(headerBytes, headerBytes.length);
+            // アップロード済みの範囲 (開始位置順)
+            this.uploaded = new ArrayList<BatchSegment>(segments);
+            Collections.sort(this.uploaded, new Comparator<BatchSegment>() {
+                @Override
+                public int compare(BatchSegment a, BatchSegment b) {
+                    return Long.compare(a.getStartOffset(), b.getStartOffset());
+                }
+            });
+            int next = 0;
+            for (BatchSegment segment : segments) {
+                next = Math.max(next, segment.getIndex() + 1);
+            }
+            this.nextSegmentIndex = new AtomicInteger(next);
+        }
+
+        /**
+         * 読み込み範囲のレコードをバッチに分割
+         * @param splitter CSVのレコード分割 (レコードの開始位置から読み込むこと)
+         * @throws IOException
+         * @throws AsyncApiException
+         */
+        void chunk(CsvRecordSplitter splitter) throws IOException, AsyncApiException {
+            int headerBytesLength = this.headerBytes.length;
+            int uploadedIndex = 0;
+            BatchBuffer buffer = null;
+            try {
+                // バッチサイズはバッチを区切る度に取得 (処理済みバッチの結果で変化する)
+                int maxBytesPerBatch = this.sizingPolicy.getMaxBytesPerBatch();
+                int maxRowsPerBatch = this.sizingPolicy.getMaxRowsPerBatch();
+                int currentBytes = 0;
+                int currentRows = 0;
+                long segmentStart = 0L;
+                long segmentEnd = 0L;
+                
+                while (splitter.nextRecord()) {
+                    long offset = splitter.getRecordOffset();
+                    // アップロード済みの範囲のレコードは読み飛ばす (作成中のバッチはそこで区切る)
+                    while (uploadedIndex < this.uploaded.size() && this.uploaded.get(uploadedIndex).getEndOffset() <= offset) {
+                        uploadedIndex++;
+                    }
+                    boolean isUploaded = uploadedIndex < this.uploaded.size() && this.uploaded.get(uploadedIndex).getStartOffset() <= offset;
+                    byte[] record = splitter.getRecordBytes();
+                    int length = splitter.getRecordLength();
+                    if (!isUploaded && this.charset != null) {
+                        record = this.transcode(record, length);
+                        length = record.length;
+                    }
+                    // 指定したバッチサイズの上限に達した時に新しいバッチを作成
+                    if (buffer != null && (isUploaded || currentBytes + length > maxBytesPerBatch || currentRows >= maxRowsPerBatch)) {
+                        this.submit(buffer, segmentStart, segmentEnd, currentRows);
+                        buffer = null;
+                        maxBytesPerBatch = this.sizingPolicy.getMaxBytesPerBatch();
+                        maxRowsPerBatch = this.sizingPolicy.getMaxRowsPerBatch();
+                    }
+                    if (isUploaded) {
+                        continue;
+                    }
+                    if (buffer == null) {
+                        // プールからバッファを取得 (メモリの上限を超える場合は一時ファイル)
+                        buffer = this.bufferPool.acquire();
+                        // 置換したヘッダーをBytesに変換して処理を実行
+                        buffer.write(this.headerBytes);
+                        currentBytes = headerBytesLength;
+                        currentRows = 0;
+                        segmentStart = offset;
+                    }
+                    buffer.write(record, 0, length);
+                    currentBytes += length;
+                    currentRows++;
+                    segmentEnd = splitter.getPosition();
+                }
+                
+                // 残りの行をバッチ実行して処理終了
+                if (buffer != null) {
+                    this.submit(buffer, segmentStart, segmentEnd, currentRows);
+                    buffer = null;
+                }
+            } finally {
+                if (buffer != null) {
+                    buffer.release();
+                }
+                splitter.close();
+            }
+        }
+
+        /**
+         * バッチの範囲を記録してアップロード待ちに追加 (アップロード中のバッチが上限に達している場合はここで待機)
+         */
+        private void submit(BatchBuffer buffer, long segmentStart, long segmentEnd, int rows) throws IOException, AsyncApiException {
+            BatchSegment segment = new BatchSegment(this.nextSegmentIndex.getAndIncrement(), segmentStart, segmentEnd, rows);
+            synchronized (this.segments) {
+                this.segments.add(segment);
+            }
+            this.pipeline.submit(buffer, segment);
+        }
+
+        /**
+         * UTF-8に変換 (UTF-8のファイルはそのまま)
+         * @param bytes 読み込んだバイト列
+         * @param length バイト数
+         * @return UTF-8のバイト列
+         */
+        private byte[] transcode(byte[] bytes, int length) {
+            if (this.charset == null) {
+                return bytes;
+            }
+            return new String(bytes, 0, length, this.charset).getBytes(StandardCharsets.UTF_8);
         }
     }
 }
@@ -0,0 +1,207 @@
+package com.example.app;
+
+import java.io.IOException;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BulkConnection;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+
+/**
+ * セッションの共有
+ * ログインは最初の1回のみ行い、セッションIDとRESTエンドポイントを保持して全てのジョブ・スレッドで共有する。
+ * セッションが無効になった場合(INVALID_SESSION_ID)のみ再ログインする。
+ * API制限の制御(ApiGovernor)もセッション単位で共有する。
+ * 使用中の処理がなくなった時点でログアウトする。
+ */
+public class SessionManager {
+
+    private final SalesforceApiUtil sfdcApiUtil = new SalesforceApiUtil();
+    private final UserInfo userInfo;
+    private final ApiGovernor governor;
+    private ConnectorConfig partnerConfig;
+    private ConnectorConfig bulkConfig;
+    private ManagedBulkConnection bulkConnection;
+    private PartnerConnection partnerConnection;
+    private int references = 0;
+    private int loginCount = 0;
+
+    /**
+     * コンストラクタ
+     * @param userInfo ユーザ情報
+     */
+    public SessionManager(UserInfo userInfo) {
+        this.userInfo = userInfo;
+        this.governor = ApiGovernor.fromUserInfo(userInfo);
+    }
+
+    /**
+     * セッションの使用を開始 (未ログインの場合はログイン)
+     * 使用を終了した時は release() を呼び出すこと。
+     * @return SessionManager
+     * @throws ConnectionException
+     * @throws AsyncApiException
+     */
+    public synchronized SessionManager acquire() throws ConnectionException, AsyncApiException {
+        if (this.partnerConfig == null) {
+            this.login();
+        }
+        this.references++;
+        return this;
+    }
+
+    /**
+     * セッションの使用を終了 (使用中の処理がなくなった場合はログアウト)
+     */
+    public synchronized void release() {
+        if (this.references <= 0) {
+            return;
+        }
+        this.references--;
+        if (this.references == 0 && this.partnerConfig != null) {
+            this.governor.printSummary();
+            this.logout(this.partnerConfig);
+            this.partnerConfig = null;
+            this.bulkConfig = null;
+            this.bulkConnection = null;
+            this.partnerConnection = null;
+        }
+    }
+
+    /**
+     * 共有のBulkAPI接続情報
+     * @return BulkConnection
+     */
+    public synchronized BulkConnection getBulkConnection() {
+        this.checkAcquired();
+        return this.bulkConnection;
+    }
+
+    /**
+     * 共有のセッションを使用する別のBulkAPI接続情報
+     * 追加のHTTPヘッダーは接続単位で送信されるため、特定のリクエストにのみヘッダーを付与する場合に使用する。
+     * @return BulkConnection
+     * @throws AsyncApiException
+     */
+    public synchronized BulkConnection newBulkConnection() throws AsyncApiException {
+        this.checkAcquired();
+        return new ManagedBulkConnection(this.bulkConfig, this);
+    }
+
+    /**
+     * 共有のPartnerConnection
+     * @return PartnerConnection
+     */
+    public synchronized PartnerConnection getPartnerConnection() {
+        this.checkAcquired();
+        return this.partnerConnection;
+    }
+
+    /**
+     * セッションで共有するAPI制限の制御 (BulkAPI・PartnerAPIの全ての呼び出しで使用)
+     * @return ApiGovernor
+     */
+    public ApiGovernor getGovernor() {
+        return this.governor;
+    }
+
+    /**
+     * 現在のセッションID
+     * @return セッションID
+     */
+    public synchronized String getSessionId() {
+        this.checkAcquired();
+        return this.bulkConfig.getSessionId();
+    }
+
+    /**
+     * ログイン回数 (再ログインを含む)
+     * @return ログイン回数
+     */
+    public synchronized int getLoginCount() {
+        return this.loginCount;
+    }
+
+    /**
+     * セッションの再作成
+     * 無効になったセッションIDが現在のセッションIDと異なる場合は、他のスレッドで再作成済みのため何もしない。
+     * @param staleSessionId 無効になったセッションID
+     * @throws ConnectionException
+     */
+    public synchronized void refresh(String staleSessionId) throws ConnectionException {
+        this.checkAcquired();
+        if (staleSessionId != null && !staleSessionId.equals(this.bulkConfig.getSessionId())) {
+            return;
+        }
+        System.out.println("-- refreshSession --");
+        ConnectorConfig config = this.newLoginConfig();
+        this.partnerConfig = config;
+        this.partnerConnection = new PartnerConnection(config);
+        // BulkConnectionは呼び出し毎に設定からセッションIDを取得するため、共有の設定を更新する
+        ConnectorConfig refreshed = this.sfdcApiUtil.getBulkConfig(this.userInfo, config);
+        this.bulkConfig.setSessionId(refreshed.getSessionId());
+        this.bulkConfig.setRestEndpoint(refreshed.getRestEndpoint());
+    }
+
+    /**
+     * ログイン (セッションIDとサービスエンドポイントを設定したConnectorConfigを作成)
+     * @return ログイン済みのConnectorConfig
+     * @throws ConnectionException
+     */
+    protected ConnectorConfig login(UserInfo userInfo) throws ConnectionException {
+        try {
+            return this.sfdcApiUtil.getConnectorConfig(userInfo);
+        } catch (AsyncApiException e) {
+            throw new ConnectionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * ログアウト
+     * @param config ログイン済みのConnectorConfig
+     */
+    protected void logout(ConnectorConfig config) {
+        if (this.userInfo.simulateBulkApi) {
+            return;
+        }
+        this.sfdcApiUtil.logout(config);
+    }
+
+    private void login() throws ConnectionException, AsyncApiException {
+        this.partnerConfig = this.newLoginConfig();
+        this.partnerConnection = new PartnerConnection(this.partnerConfig);
+        // 組織の1日の上限と残数を制限に反映 (シミュレーターはLimitsリソースに応答しない)
+        if (this.userInfo.readApiLimits && !this.userInfo.simulateBulkApi) {
+            try {
+                this.governor.loadLimits(this.partnerConfig.getServiceEndpoint(), this.partnerConfig.getSessionId(), this.userInfo.apiVersion);
+            } catch (IOException e) {
+                System.out.println("<< WARN >> API制限の取得に失敗しました。設定値の制限を使用します。 " + e);
+            }
+        }
+        this.bulkConfig = this.sfdcApiUtil.getBulkConfig(this.userInfo, this.partnerConfig);
+        this.bulkConnection = new ManagedBulkConnection(this.bulkConfig, this);
+    }
+
+    private ConnectorConfig newLoginConfig() throws ConnectionException {
+        this.loginCount++;
+        return this.login(this.userInfo);
+    }
+
+    private void checkAcquired() {
+        if (this.partnerConfig == null) {
+            throw new IllegalStateException("session is not acquired");
+        }
+    }
+
+    /**
+     * AsyncApiExceptionに変換 (BulkAPIの呼び出し元へ再ログインの失敗を通知する)
+     * @param e ログインの例外
+     * @return AsyncApiException
+     */
+    static AsyncApiException toAsyncApiException(ConnectionException e) {
+        AsyncApiException result = new AsyncApiException("session refresh failed : " + e.getMessage(), AsyncExceptionCode.InvalidSessionId);
+        result.initCause(e);
+        return result;
+    }
+}
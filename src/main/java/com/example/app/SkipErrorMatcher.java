@@ -0,0 +1,210 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 検知不要エラーの判定
+ * 検知不要エラー情報(エラーメッセージに含まれる文字列)をAho-Corasick法で1つのオートマトンにまとめ、
+ * ルール数に関係なくエラーメッセージを1回走査するだけで判定する。
+ * ルール毎に一致した件数を保持する。
+ */
+public class SkipErrorMatcher {
+
+    /** 検知不要エラー情報のファイルが存在しない場合のルール */
+    public static final String DEFAULT_RULE = "[Allowable Error]";
+
+    private static final int ROOT = 0;
+
+    private final List<String> rules;
+    private final AtomicLongArray hits;
+    // ノード毎の遷移 (文字の昇順)
+    private char[][] edgeChars;
+    private int[][] edgeTargets;
+    private int[] failures;
+    // ノードで一致するルールの番号 (一致しない場合は-1)
+    private int[] outputs;
+
+    /**
+     * コンストラクタ
+     * @param rules 検知不要エラー情報
+     */
+    public SkipErrorMatcher(List<String> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<String>(rules));
+        this.hits = new AtomicLongArray(rules.size());
+        this.compile();
+    }
+
+    /**
+     * ファイルから検知不要エラー情報を読み込み
+     * 1行に1ルール。空行と「#」で始まる行は無視する。ファイルが存在しない場合は DEFAULT_RULE を使用する。
+     * @param filePath ファイルパス
+     * @return 検知不要エラーの判定
+     * @throws IOException
+     */
+    public static SkipErrorMatcher load(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        List<String> rules = new ArrayList<String>();
+        if (!Files.exists(path)) {
+            System.out.println("<< WARN >> " + filePath + " が存在しないため既定のルールを使用します。" + DEFAULT_RULE);
+            rules.add(DEFAULT_RULE);
+            return new SkipErrorMatcher(rules);
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String rule = line.trim();
+            if (!rule.isEmpty() && !rule.startsWith("#")) {
+                rules.add(rule);
+            }
+        }
+        return new SkipErrorMatcher(rules);
+    }
+
+    /**
+     * 発生したエラーが検知不要のエラー情報と一致するか判定
+     * @param error エラーメッセージ
+     * @return 判定結果
+     */
+    public boolean matches(String error) {
+        if (error == null) {
+            return false;
+        }
+        int state = ROOT;
+        for (int i = 0; i < error.length(); i++) {
+            state = this.next(state, error.charAt(i));
+            int rule = this.outputs[state];
+            if (rule >= 0) {
+                this.hits.incrementAndGet(rule);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ルール毎の一致件数
+     * @return 一致件数 (ルールの定義順)
+     */
+    public Map<String, Long> getHitCounts() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < this.rules.size(); i++) {
+            result.put(this.rules.get(i), this.hits.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 検知不要エラー情報
+     * @return ルール
+     */
+    public List<String> getRules() {
+        return this.rules;
+    }
+
+    /**
+     * オートマトンの作成
+     * 作成時のみMapを使用し、判定に使用する遷移表は配列に変換する。
+     */
+    private void compile() {
+        // (ノード番号 << 16 | 文字) -> 遷移先のノード番号
+        Map<Long, Integer> trie = new HashMap<Long, Integer>();
+        List<Integer> output = new ArrayList<Integer>();
+        output.add(-1);
+        // ルールをトライ木に追加
+        for (int r = 0; r < this.rules.size(); r++) {
+            String rule = this.rules.get(r);
+            if (rule.isEmpty()) {
+                continue;
+            }
+            int state = ROOT;
+            for (int i = 0; i < rule.length(); i++) {
+                Long key = ((long) state << 16) | rule.charAt(i);
+                Integer child = trie.get(key);
+                if (child == null) {
+                    child = output.size();
+                    trie.put(key, child);
+                    output.add(-1);
+                }
+                state = child;
+            }
+            if (output.get(state) < 0) {
+                output.set(state, r);
+            }
+        }
+
+        // ノード毎の遷移を文字順の配列に変換
+        int size = output.size();
+        Map<Integer, List<Long>> edges = new HashMap<Integer, List<Long>>();
+        for (Long key : trie.keySet()) {
+            int parent = (int) (key >>> 16);
+            List<Long> list = edges.get(parent);
+            if (list == null) {
+                list = new ArrayList<Long>();
+                edges.put(parent, list);
+            }
+            list.add(key);
+        }
+        this.edgeChars = new char[size][];
+        this.edgeTargets = new int[size][];
+        this.failures = new int[size];
+        this.outputs = new int[size];
+        for (int state = 0; state < size; state++) {
+            List<Long> keys = edges.containsKey(state) ? edges.get(state) : Collections.<Long>emptyList();
+            Collections.sort(keys);
+            this.edgeChars[state] = new char[keys.size()];
+            this.edgeTargets[state] = new int[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                this.edgeChars[state][i] = (char) (keys.get(i) & 0xFFFF);
+                this.edgeTargets[state][i] = trie.get(keys.get(i));
+            }
+            this.outputs[state] = output.get(state);
+        }
+
+        // 幅優先で失敗時の遷移先を作成し、遷移先で一致するルールを引き継ぐ
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(ROOT);
+        while (!queue.isEmpty()) {
+            int parent = queue.poll();
+            for (int i = 0; i < this.edgeChars[parent].length; i++) {
+                int child = this.edgeTargets[parent][i];
+                int failure = parent == ROOT ? ROOT : this.next(this.failures[parent], this.edgeChars[parent][i]);
+                this.failures[child] = failure;
+                if (this.outputs[child] < 0) {
+                    this.outputs[child] = this.outputs[failure];
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * 次の状態への遷移
+     * @param state 現在の状態
+     * @param c 文字
+     * @return 次の状態
+     */
+    private int next(int state, char c) {
+        while (true) {
+            int i = Arrays.binarySearch(this.edgeChars[state], c);
+            if (i >= 0) {
+                return this.edgeTargets[state][i];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = this.failures[state];
+        }
+    }
+}
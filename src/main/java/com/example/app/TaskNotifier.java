@@ -0,0 +1,130 @@
+package com.example.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+
+/**
+ * ジョブ実行通知のタスクレコードの一括作成
+ * ジョブの終了時にタスクレコードを溜めておき、1回の呼び出しで作成できる件数(200件)毎にまとめて作成する。
+ * 作成は別スレッドで実行するため、ジョブの終了処理は作成の完了を待たない。
+ * 実行の終了時に flush() で残りを作成して完了を待つ(flush後は使用しない)。
+ * 作成に失敗してもインポートの結果には影響しない。
+ */
+public class TaskNotifier {
+
+    /** PartnerAPIのcreateで1回に作成できる件数の上限 */
+    static final int MAX_TASKS_PER_CALL = 200;
+
+    /**
+     * タスクレコードの作成
+     */
+    public interface TaskSender {
+
+        /**
+         * タスクレコードを作成
+         * @param tasks タスクレコード
+         * @return 作成した件数
+         * @throws ConnectionException
+         */
+        int send(SObject[] tasks) throws ConnectionException;
+    }
+
+    private final TaskSender sender;
+    private final int tasksPerCall;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("task-notify"));
+    private final List<SObject> pending = new ArrayList<SObject>();
+    private final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+    private int queuedCount = 0;
+
+    /**
+     * コンストラクタ
+     * @param sender タスクレコードの作成
+     */
+    public TaskNotifier(TaskSender sender) {
+        this(sender, MAX_TASKS_PER_CALL);
+    }
+
+    /**
+     * コンストラクタ
+     * @param sender タスクレコードの作成
+     * @param tasksPerCall 1回に作成する件数
+     */
+    TaskNotifier(TaskSender sender, int tasksPerCall) {
+        this.sender = sender;
+        this.tasksPerCall = Math.max(1, Math.min(MAX_TASKS_PER_CALL, tasksPerCall));
+    }
+
+    /**
+     * タスクレコードを追加 (1回に作成する件数に達した場合は作成を開始)
+     * @param task タスクレコード
+     */
+    public synchronized void add(SObject task) {
+        this.pending.add(task);
+        this.queuedCount++;
+        if (this.pending.size() >= this.tasksPerCall) {
+            this.submitPending();
+        }
+    }
+
+    /**
+     * 残りのタスクレコードを作成し、全ての作成の完了を待機
+     * @return 作成した件数
+     */
+    public int flush() {
+        List<Future<Integer>> submitted;
+        synchronized (this) {
+            this.submitPending();
+            submitted = new ArrayList<Future<Integer>>(this.futures);
+            this.futures.clear();
+        }
+        int created = 0;
+        try {
+            for (Future<Integer> future : submitted) {
+                try {
+                    created += future.get();
+                } catch (ExecutionException e) {
+                    System.out.println("<< ConnectionException >> " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("<< WARN >> タスクレコードの作成の完了を待たずに終了します");
+        } finally {
+            this.executor.shutdown();
+        }
+        return created;
+    }
+
+    /**
+     * 追加したタスクレコードの件数
+     * @return 件数
+     */
+    public synchronized int getQueuedCount() {
+        return this.queuedCount;
+    }
+
+    /**
+     * 溜めているタスクレコードの作成を別スレッドで開始
+     */
+    private void submitPending() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        final SObject[] tasks = this.pending.toArray(new SObject[this.pending.size()]);
+        this.pending.clear();
+        this.futures.add(this.executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                System.out.println("-- createTasks -- " + tasks.length);
+                return sender.send(tasks);
+            }
+        }));
+    }
+}
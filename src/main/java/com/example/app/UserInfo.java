@@ -5,8 +5,11 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 public class UserInfo {
     public String userId;
@@ -14,6 +17,69 @@ public class UserInfo {
     public String apiVersion;
     public String authEndpoint;
     public String filePath;
+    public int maxInFlightBatches = 4;
+    public long batchMemoryBudget = 64L * 1024 * 1024;
+    public String batchSizing = "fixed";
+    public int maxRowsPerBatch = SalesforceApiUtil.MAX_ROWS_PER_BATCH;
+    public int minRowsPerBatch = 200;
+    public long targetBatchMillis = 60000L;
+    public long jobTimeoutMillis = 0L;
+    public int resultThreads = 4;
+    public String skipErrorFile = "./conf/skipErrors.txt";
+    public boolean extractFailedRecords = true;
+    public String failedRecordDir = "./failed";
+    public boolean retryFailedRecords = false;
+    public Set<String> retryableErrors = new HashSet<String>(Arrays.asList("UNABLE_TO_LOCK_ROW"));
+    public int retryRowsPerBatch = 1000;
+    public boolean resumable = false;
+    public String journalDir = "./journal";
+    public String manifestFile = "";
+    public int maxConcurrentJobs = 3;
+    public String exportObject = "";
+    public String exportQuery = "";
+    public String exportFile = "./export/export.csv";
+    public boolean exportSharded = false;
+    public int pkChunkSize = 100000;
+    public int exportThreads = 4;
+    public int exportQueueBlocks = 16;
+    public String deltaKeyColumn = "";
+    public String deltaDir = "./delta";
+    public String operation = "insert";
+    public String externalIdField = "Id";
+    public String groupByColumn = "";
+    public String workDir = "./work";
+    public long groupBucketBytes = 64L * 1024 * 1024;
+    public boolean compressBatches = true;
+    public int compressionLevel = 6;
+    public int compressionBufferSize = 65536;
+    public String metricsFile = "./metrics/summary.json";
+    public String bulkEndpoint = "";
+    public boolean simulateBulkApi = false;
+    public int simulatorPort = 0;
+    public long simulatorLatencyMillis = 20L;
+    public long simulatorRowsPerSecond = 0L;
+    public double simulatorRowFailureRate = 0.0;
+    public double simulatorLockErrorRate = 0.0;
+    public double simulatorBatchFailureRate = 0.0;
+    public int simulatorThreads = 4;
+    public boolean mapRecords = false;
+    public String fieldRulesFile = "./conf/fieldRules.csv";
+    public boolean virtualThreads = false;
+    public long jobDeadlineMillis = 0L;
+    public int readerShards = 1;
+    public String fileEncoding = "UTF-8";
+    public String jdbcUrl = "";
+    public String jdbcUser = "";
+    public String jdbcPassword = "";
+    public int jdbcFetchSize = 1000;
+    public long apiCallLimit = 0L;
+    public long batchLimit = 0L;
+    public long apiLimitWindowMillis = 24L * 60 * 60 * 1000;
+    public int maxConcurrentCalls = 0;
+    public boolean readApiLimits = false;
+    public double apiLimitReserve = 0.1;
+    public String reportDir = "./report";
+    public boolean notifyTasks = true;
 
     /**
      * コンストラクタ
@@ -27,10 +93,150 @@ public class UserInfo {
             this.apiVersion = resouce.getString("apiVersion");
             this.authEndpoint = resouce.getString("authEndpoint") + apiVersion;
             this.filePath = resouce.getString("filePath");
+            this.maxInFlightBatches = this.getInt(resouce, "maxInFlightBatches", this.maxInFlightBatches);
+            this.batchMemoryBudget = this.getLong(resouce, "batchMemoryBudget", this.batchMemoryBudget);
+            this.batchSizing = this.getString(resouce, "batchSizing", this.batchSizing);
+            this.maxRowsPerBatch = this.getInt(resouce, "maxRowsPerBatch", this.maxRowsPerBatch);
+            this.minRowsPerBatch = this.getInt(resouce, "minRowsPerBatch", this.minRowsPerBatch);
+            this.targetBatchMillis = this.getLong(resouce, "targetBatchMillis", this.targetBatchMillis);
+            this.jobTimeoutMillis = this.getLong(resouce, "jobTimeoutMillis", this.jobTimeoutMillis);
+            this.resultThreads = this.getInt(resouce, "resultThreads", this.resultThreads);
+            this.skipErrorFile = this.getString(resouce, "skipErrorFile", this.skipErrorFile);
+            this.extractFailedRecords = this.getBoolean(resouce, "extractFailedRecords", this.extractFailedRecords);
+            this.failedRecordDir = this.getString(resouce, "failedRecordDir", this.failedRecordDir);
+            this.retryFailedRecords = this.getBoolean(resouce, "retryFailedRecords", this.retryFailedRecords);
+            if (resouce.containsKey("retryableErrors")) {
+                this.retryableErrors = new HashSet<String>();
+                for (String code : resouce.getString("retryableErrors").split(",")) {
+                    if (!code.trim().isEmpty()) {
+                        this.retryableErrors.add(code.trim());
+                    }
+                }
+            }
+            this.retryRowsPerBatch = this.getInt(resouce, "retryRowsPerBatch", this.retryRowsPerBatch);
+            this.resumable = this.getBoolean(resouce, "resumable", this.resumable);
+            this.journalDir = this.getString(resouce, "journalDir", this.journalDir);
+            this.manifestFile = this.getString(resouce, "manifestFile", this.manifestFile);
+            this.maxConcurrentJobs = this.getInt(resouce, "maxConcurrentJobs", this.maxConcurrentJobs);
+            this.exportObject = this.getString(resouce, "exportObject", this.exportObject);
+            this.exportQuery = this.getString(resouce, "exportQuery", this.exportQuery);
+            this.exportFile = this.getString(resouce, "exportFile", this.exportFile);
+            this.exportSharded = this.getBoolean(resouce, "exportSharded", this.exportSharded);
+            this.pkChunkSize = this.getInt(resouce, "pkChunkSize", this.pkChunkSize);
+            this.exportThreads = this.getInt(resouce, "exportThreads", this.exportThreads);
+            this.exportQueueBlocks = this.getInt(resouce, "exportQueueBlocks", this.exportQueueBlocks);
+            this.deltaKeyColumn = this.getString(resouce, "deltaKeyColumn", this.deltaKeyColumn);
+            this.deltaDir = this.getString(resouce, "deltaDir", this.deltaDir);
+            this.operation = this.getString(resouce, "operation", this.operation);
+            this.externalIdField = this.getString(resouce, "externalIdField", this.externalIdField);
+            this.groupByColumn = this.getString(resouce, "groupByColumn", this.groupByColumn);
+            this.workDir = this.getString(resouce, "workDir", this.workDir);
+            this.groupBucketBytes = this.getLong(resouce, "groupBucketBytes", this.groupBucketBytes);
+            this.compressBatches = this.getBoolean(resouce, "compressBatches", this.compressBatches);
+            this.compressionLevel = this.getInt(resouce, "compressionLevel", this.compressionLevel);
+            this.compressionBufferSize = this.getInt(resouce, "compressionBufferSize", this.compressionBufferSize);
+            this.metricsFile = this.getString(resouce, "metricsFile", this.metricsFile);
+            this.bulkEndpoint = this.getString(resouce, "bulkEndpoint", this.bulkEndpoint);
+            this.simulateBulkApi = this.getBoolean(resouce, "simulateBulkApi", this.simulateBulkApi);
+            this.simulatorPort = this.getInt(resouce, "simulatorPort", this.simulatorPort);
+            this.simulatorLatencyMillis = this.getLong(resouce, "simulatorLatencyMillis", this.simulatorLatencyMillis);
+            this.simulatorRowsPerSecond = this.getLong(resouce, "simulatorRowsPerSecond", this.simulatorRowsPerSecond);
+            this.simulatorRowFailureRate = this.getDouble(resouce, "simulatorRowFailureRate", this.simulatorRowFailureRate);
+            this.simulatorLockErrorRate = this.getDouble(resouce, "simulatorLockErrorRate", this.simulatorLockErrorRate);
+            this.simulatorBatchFailureRate = this.getDouble(resouce, "simulatorBatchFailureRate", this.simulatorBatchFailureRate);
+            this.simulatorThreads = this.getInt(resouce, "simulatorThreads", this.simulatorThreads);
+            this.mapRecords = this.getBoolean(resouce, "mapRecords", this.mapRecords);
+            this.fieldRulesFile = this.getString(resouce, "fieldRulesFile", this.fieldRulesFile);
+            this.virtualThreads = this.getBoolean(resouce, "virtualThreads", this.virtualThreads);
+            this.jobDeadlineMillis = this.getLong(resouce, "jobDeadlineMillis", this.jobDeadlineMillis);
+            this.readerShards = this.getInt(resouce, "readerShards", this.readerShards);
+            this.fileEncoding = this.getString(resouce, "fileEncoding", this.fileEncoding);
+            this.jdbcUrl = this.getString(resouce, "jdbcUrl", this.jdbcUrl);
+            this.jdbcUser = this.getString(resouce, "jdbcUser", this.jdbcUser);
+            this.jdbcPassword = this.getString(resouce, "jdbcPassword", this.jdbcPassword);
+            this.jdbcFetchSize = this.getInt(resouce, "jdbcFetchSize", this.jdbcFetchSize);
+            this.apiCallLimit = this.getLong(resouce, "apiCallLimit", this.apiCallLimit);
+            this.batchLimit = this.getLong(resouce, "batchLimit", this.batchLimit);
+            this.apiLimitWindowMillis = this.getLong(resouce, "apiLimitWindowMillis", this.apiLimitWindowMillis);
+            this.maxConcurrentCalls = this.getInt(resouce, "maxConcurrentCalls", this.maxConcurrentCalls);
+            this.readApiLimits = this.getBoolean(resouce, "readApiLimits", this.readApiLimits);
+            this.apiLimitReserve = this.getDouble(resouce, "apiLimitReserve", this.apiLimitReserve);
+            this.reportDir = this.getString(resouce, "reportDir", this.reportDir);
+            this.notifyTasks = this.getBoolean(resouce, "notifyTasks", this.notifyTasks);
         } catch (FileNotFoundException e) {
             System.out.println("<< FileNotFoundException >> " + e.getMessage());
         } catch (IOException e) {
             System.out.println("<< IOException >> " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 任意項目(文字列)の取得
+     * @param resouce プロパティ情報
+     * @param key キー
+     * @param defaultValue 未設定時の値
+     * @return 設定値
+     */
+    private String getString(ResourceBundle resouce, String key, String defaultValue) {
+        if (!resouce.containsKey(key) || resouce.getString(key).trim().isEmpty()) {
+            return defaultValue;
+        }
+        return resouce.getString(key).trim();
+    }
+
+    /**
+     * 任意項目(数値)の取得
+     * @param resouce プロパティ情報
+     * @param key キー
+     * @param defaultValue 未設定時の値
+     * @return 設定値
+     */
+    private int getInt(ResourceBundle resouce, String key, int defaultValue) {
+        if (!resouce.containsKey(key) || resouce.getString(key).trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(resouce.getString(key).trim());
+    }
+
+    /**
+     * 任意項目(数値)の取得
+     * @param resouce プロパティ情報
+     * @param key キー
+     * @param defaultValue 未設定時の値
+     * @return 設定値
+     */
+    private long getLong(ResourceBundle resouce, String key, long defaultValue) {
+        if (!resouce.containsKey(key) || resouce.getString(key).trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Long.parseLong(resouce.getString(key).trim());
+    }
+
+    /**
+     * 任意項目(小数)の取得
+     * @param resouce プロパティ情報
+     * @param key キー
+     * @param defaultValue 未設定時の値
+     * @return 設定値
+     */
+    private double getDouble(ResourceBundle resouce, String key, double defaultValue) {
+        if (!resouce.containsKey(key) || resouce.getString(key).trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Double.parseDouble(resouce.getString(key).trim());
+    }
+
+    /**
+     * 任意項目(真偽値)の取得
+     * @param resouce プロパティ情報
+     * @param key キー
+     * @param defaultValue 未設定時の値
+     * @return 設定値
+     */
+    private boolean getBoolean(ResourceBundle resouce, String key, boolean defaultValue) {
+        if (!resouce.containsKey(key) || resouce.getString(key).trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(resouce.getString(key).trim());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+
+/**
+ * AdaptiveBatchSizingPolicyのテスト
+ */
+public class AdaptiveBatchSizingPolicyTest extends TestCase {
+
+    public void testShrinksOnContention() throws Exception {
+        AdaptiveBatchSizingPolicy policy = new AdaptiveBatchSizingPolicy(100, 1000, 1024, 10000L);
+        assertEquals(1000, policy.getMaxRowsPerBatch());
+        policy.onLockErrors(0);
+        assertEquals(1000, policy.getMaxRowsPerBatch());
+        policy.onLockErrors(3);
+        assertEquals(500, policy.getMaxRowsPerBatch());
+        // タイムアウト・行ロック競合で失敗したバッチのみ半分にする
+        policy.onBatchCompleted(failed("InvalidBatch : Failed to process query"));
+        assertEquals(500, policy.getMaxRowsPerBatch());
+        policy.onBatchCompleted(failed("UNABLE_TO_LOCK_ROW:unable to obtain exclusive access"));
+        assertEquals(250, policy.getMaxRowsPerBatch());
+        policy.onBatchCompleted(failed("Max CPU time exceeded"));
+        assertEquals(125, policy.getMaxRowsPerBatch());
+        // 最小行数より小さくしない
+        policy.onLockErrors(1);
+        assertEquals(100, policy.getMaxRowsPerBatch());
+    }
+
+    public void testGrowsTowardsTargetTime() throws Exception {
+        AdaptiveBatchSizingPolicy policy = new AdaptiveBatchSizingPolicy(100, 1000, 1024, 10000L);
+        policy.onLockErrors(1);
+        policy.onLockErrors(1);
+        assertEquals(250, policy.getMaxRowsPerBatch());
+        // 1行1ミリ秒の場合は目標時間に余裕があるため増やす (1回の増加は2倍までの推定値との平均)
+        policy.onBatchCompleted(completed(250, 250L));
+        assertEquals(375, policy.getMaxRowsPerBatch());
+        policy.onBatchCompleted(completed(375, 375L));
+        assertEquals(562, policy.getMaxRowsPerBatch());
+        // 1行100ミリ秒の場合は目標時間に収まる100行に近づける
+        policy.onBatchCompleted(completed(562, 56200L));
+        assertEquals(331, policy.getMaxRowsPerBatch());
+        // 処理時間がないバッチは反映しない
+        policy.onBatchCompleted(completed(0, 0L));
+        assertEquals(331, policy.getMaxRowsPerBatch());
+        // 最大行数より大きくしない
+        for (int i = 0; i < 10; i++) {
+            policy.onBatchCompleted(completed(1000, 1L));
+        }
+        assertEquals(1000, policy.getMaxRowsPerBatch());
+    }
+
+    public void testRowsAreCarriedOverToNextRun() throws Exception {
+        File stateFile = new File(Files.createTempDirectory("sizing").toFile(), "Account.batchsize");
+        AdaptiveBatchSizingPolicy policy = new AdaptiveBatchSizingPolicy(100, 1000, 1024, 10000L).load(stateFile);
+        assertEquals(1000, policy.getMaxRowsPerBatch());
+        policy.onLockErrors(1);
+        policy.save(stateFile);
+
+        assertEquals(500, new AdaptiveBatchSizingPolicy(100, 1000, 1024, 10000L).load(stateFile).getMaxRowsPerBatch());
+        // 設定の範囲外の値は範囲内にする
+        assertEquals(300, new AdaptiveBatchSizingPolicy(100, 300, 1024, 10000L).load(stateFile).getMaxRowsPerBatch());
+        Files.write(stateFile.toPath(), "invalid".getBytes(StandardCharsets.UTF_8));
+        assertEquals(1000, new AdaptiveBatchSizingPolicy(100, 1000, 1024, 10000L).load(stateFile).getMaxRowsPerBatch());
+    }
+
+    private static BatchInfo failed(String stateMessage) {
+        BatchInfo batchInfo = new BatchInfo();
+        batchInfo.setState(BatchStateEnum.Failed);
+        batchInfo.setStateMessage(stateMessage);
+        return batchInfo;
+    }
+
+    private static BatchInfo completed(int processed, long processingTime) {
+        BatchInfo batchInfo = new BatchInfo();
+        batchInfo.setState(BatchStateEnum.Completed);
+        batchInfo.setNumberRecordsProcessed(processed);
+        batchInfo.setTotalProcessingTime(processingTime);
+        return batchInfo;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.app;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+/**
+ * ApiGovernorのテスト
+ */
+public class ApiGovernorTest extends TestCase {
+
+    public void testCallsAreThrottledInsteadOfFailing() throws Exception {
+        // 500ミリ秒あたり5回 (100ミリ秒毎に1回補充)
+        ApiGovernor governor = new ApiGovernor(5L, 2L, 500L, 0, 0.0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            governor.acquireCall();
+            governor.releaseCall();
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 80L);
+        assertEquals(0L, governor.getAvailableCalls());
+        governor.acquireCall();
+        governor.releaseCall();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 80L);
+        assertTrue(governor.getThrottledMillis() > 0L);
+        assertEquals(6L, governor.getCallCount());
+
+        governor.acquireBatch();
+        governor.acquireBatch();
+        assertEquals(0L, governor.getAvailableBatches());
+        // サーバーで制限を超えた場合は残数を0にする
+        assertTrue(governor.onQuotaExceeded());
+        assertEquals(0L, governor.getAvailableCalls());
+        assertFalse(ApiGovernor.unlimited().onQuotaExceeded());
+        assertEquals(-1L, ApiGovernor.unlimited().getAvailableCalls());
+    }
+
+    public void testLimitsResourceKeepsReserve() throws Exception {
+        ApiGovernor governor = new ApiGovernor(0L, 20000L, ApiGovernor.DAILY_WINDOW_MILLIS, 0, 0.1);
+        Map<String, Object> limits = new HashMap<String, Object>();
+        limits.put("DailyApiRequests", limit(1000, 150));
+        limits.put("DailyBulkApiRequests", limit(15000, 14000));
+        governor.applyLimits(limits);
+        // 上限の10%を残して使用する
+        assertEquals(50L, governor.getAvailableCalls());
+        assertEquals(12500L, governor.getAvailableBatches());
+
+        // 設定値の方が少ない場合は設定値を使用
+        ApiGovernor configured = new ApiGovernor(10L, 0L, ApiGovernor.DAILY_WINDOW_MILLIS, 0, 0.1);
+        configured.applyLimits(limits);
+        assertEquals(10L, configured.getAvailableCalls());
+        assertEquals(-1L, new ApiGovernor(0L, 0L, 1000L, 0, 0.1).getAvailableBatches());
+    }
+
+    public void testStalledLimitsCallTimesOut() throws Exception {
+        // 接続を受け付けて応答しないサーバー
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            ApiGovernor governor = new ApiGovernor(10L, 0L, ApiGovernor.DAILY_WINDOW_MILLIS, 0, 0.1);
+            long start = System.nanoTime();
+            try {
+                governor.loadLimits("http://127.0.0.1:" + server.getLocalPort() + "/services/Soap/u/35.0/00D", "SESSION", "35.0", 200);
+                fail();
+            } catch (SocketTimeoutException e) {
+                // 呼び出し元で設定値の制限を使用する
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000L);
+            assertEquals(10L, governor.getAvailableCalls());
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testConcurrentCallsAreBounded() throws Exception {
+        final ApiGovernor governor = new ApiGovernor(0L, 0L, 1000L, 1, 0.0);
+        governor.acquireCall();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AtomicLong waited = new AtomicLong();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    governor.acquireCall();
+                    waited.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    governor.releaseCall();
+                    acquired.countDown();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        governor.releaseCall();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertTrue(waited.get() >= 80L);
+    }
+
+    private static Map<String, Object> limit(int max, int remaining) {
+        Map<String, Object> limit = new HashMap<String, Object>();
+        limit.put("Max", max);
+        limit.put("Remaining", remaining);
+        return limit;
+    }
+}
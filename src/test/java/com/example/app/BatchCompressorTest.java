@@ -0,0 +1,65 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.JobInfo;
+
+/**
+ * BatchCompressorのテスト
+ */
+public class BatchCompressorTest extends TestCase {
+
+    public void testUploadsGzipPayloadReusingDeflater() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = new JobInfo();
+        job.setId("job0");
+        StringBuilder csv = new StringBuilder("Name,Phone\n");
+        for (int i = 0; i < 20000; i++) {
+            csv.append("name").append(i % 50).append(",03-0000-0000\n");
+        }
+        byte[] first = csv.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] second = "Name,Phone\nb,1\n".getBytes(StandardCharsets.UTF_8);
+
+        BatchCompressor compressor = new BatchCompressor(connection, 1, 1024);
+        try {
+            BatchInfo batchInfo = compressor.createBatch(job, new ByteArrayInputStream(first));
+            assertEquals("batch0", batchInfo.getId());
+            compressor.createBatch(job, new ByteArrayInputStream(second));
+            // 空のバッチも正しいgzip形式になること
+            compressor.createBatch(job, new ByteArrayInputStream(new byte[0]));
+        } finally {
+            compressor.close();
+        }
+        assertEquals(csv.toString(), gunzip(connection.batchBytes.get(0)));
+        assertEquals("Name,Phone\nb,1\n", gunzip(connection.batchBytes.get(1)));
+        assertEquals("", gunzip(connection.batchBytes.get(2)));
+        assertEquals((long) first.length + second.length, compressor.getRawBytes());
+        assertTrue(compressor.getCompressedBytes() < compressor.getRawBytes() / 10);
+    }
+
+    public void testRejectsInvalidLevel() throws Exception {
+        try {
+            new BatchCompressor(new StubBulkConnection(), 0, 1024);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 期待通り
+        }
+    }
+
+    private static String gunzip(byte[] bytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.JobInfo;
+
+/**
+ * バッチ並列アップロードのテスト
+ */
+public class BatchUploadPipelineTest extends TestCase {
+
+    private SalesforceApiUtil sfdcApiUtil = new SalesforceApiUtil();
+
+    public void testBatchInfosAreReturnedInOrder() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        connection.uploadMillis = 20L;
+
+        // メモリブロック1つ分の上限で、残りは一時ファイルに書き出される
+        BatchBufferPool pool = newPool(SalesforceApiUtil.MAX_BYTES_PER_BATCH);
+        List<BatchInfo> batchInfos = this.sfdcApiUtil.createBatchesFromCSVFile(
+            connection, newJob(), newReader(25000), "Name\n".getBytes("UTF-8"), newPolicy(), pool, 2, new ArrayList<BatchSegment>(), null);
+
+        assertEquals(3, batchInfos.size());
+        // 後に送ったバッチが先に終わっても、バッチ情報は内容(CSVの先頭から)の順に返されること
+        Map<String, String> contents = new HashMap<String, String>();
+        for (String batch : connection.batches) {
+            contents.put(batch.substring(0, batch.indexOf('\n')), batch);
+        }
+        int expected = 0;
+        for (BatchInfo batchInfo : batchInfos) {
+            String[] lines = contents.get(batchInfo.getId()).split("\n");
+            for (int i = 2; i < lines.length; i++) {
+                assertEquals(batchInfo.getId(), "Account" + expected++, lines[i]);
+            }
+        }
+        assertEquals(25000, expected);
+        assertTrue(connection.maxInFlight.get() <= 2);
+        assertEquals(SalesforceApiUtil.MAX_BYTES_PER_BATCH, pool.getAllocatedBytes());
+        assertTrue(pool.getSpillCount() > 0);
+        // 全ての行が一度だけアップロードされていること
+        int rows = 0;
+        for (String batch : connection.batches) {
+            String[] lines = batch.split("\n");
+            assertEquals("Name", lines[1]);
+            // 1バッチあたりの行数が上限を超えないこと
+            assertTrue(lines.length - 2 <= SalesforceApiUtil.MAX_ROWS_PER_BATCH);
+            rows += lines.length - 2;
+        }
+        assertEquals(25000, rows);
+    }
+
+    public void testUploadFailureIsRethrown() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        connection.failAt = 1;
+
+        try {
+            this.sfdcApiUtil.createBatchesFromCSVFile(
+                connection, newJob(), newReader(30000), "Name\n".getBytes("UTF-8"), newPolicy(), newPool(0L), 1, new ArrayList<BatchSegment>(), null);
+            fail("AsyncApiException expected");
+        } catch (AsyncApiException e) {
+            assertEquals("stub failure", e.getExceptionMessage());
+        }
+    }
+
+    public void testBufferSpillsWhenBlockIsFull() throws Exception {
+        BatchBufferPool pool = new BatchBufferPool(8, 8L);
+        BatchBuffer buffer = pool.acquire();
+        buffer.write("Name\n".getBytes("UTF-8"));
+        assertFalse(buffer.isSpilled());
+        buffer.write("Account0\n".getBytes("UTF-8"));
+        assertTrue(buffer.isSpilled());
+
+        InputStream in = buffer.openInputStream();
+        try {
+            byte[] bytes = new byte[buffer.size()];
+            assertEquals(bytes.length, in.read(bytes));
+            assertEquals("Name\nAccount0\n", new String(bytes, "UTF-8"));
+        } finally {
+            in.close();
+        }
+        buffer.release();
+        // 返却されたメモリブロックは再利用される
+        assertFalse(pool.acquire().isSpilled());
+    }
+
+    private static BatchSizingPolicy newPolicy() {
+        return new FixedBatchSizingPolicy(SalesforceApiUtil.MAX_ROWS_PER_BATCH, SalesforceApiUtil.MAX_BYTES_PER_BATCH);
+    }
+
+    private static BatchBufferPool newPool(long memoryBudget) {
+        return new BatchBufferPool(SalesforceApiUtil.MAX_BYTES_PER_BATCH, memoryBudget);
+    }
+
+    private static JobInfo newJob() {
+        JobInfo job = new JobInfo();
+        job.setId("job0");
+        return job;
+    }
+
+    private static CsvRecordSplitter newReader(int rows) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            sb.append("Account").append(i).append('\n');
+        }
+        return new CsvRecordSplitter(Channels.newChannel(new ByteArrayInputStream(sb.toString().getBytes("UTF-8"))));
+    }
+}
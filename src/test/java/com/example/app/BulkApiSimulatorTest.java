@@ -0,0 +1,185 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.codehaus.jackson.map.ObjectMapper;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.CSVReader;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.async.OperationEnum;
+import com.sforce.ws.ConnectorConfig;
+
+/**
+ * BulkApiSimulatorのテスト
+ */
+public class BulkApiSimulatorTest extends TestCase {
+
+    private static final String CSV = "Name,AccountNumber\n\"a,1\",A1\nb,A2\nc,A3\n";
+
+    private BulkApiSimulator simulator;
+
+    @Override
+    protected void setUp() throws Exception {
+        this.simulator = new BulkApiSimulator().setLatencyMillis(0L);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.simulator.stop();
+    }
+
+    public void testImportJobCompletesWithResults() throws Exception {
+        BulkConnection connection = this.connect(this.simulator.start(0));
+        JobInfo job = new SalesforceApiUtil().createJob("Account", connection, OperationEnum.insert, null);
+        connection.createTransformationSpecFromStream(job, toStream("Salesforce Field,Csv Header\nName,Name\n"));
+        List<BatchInfo> batchInfos = new ArrayList<BatchInfo>();
+        batchInfos.add(connection.createBatchFromForeignCsvStream(job, toStream(CSV), "UTF-8"));
+        // gzip圧縮したバッチも展開して処理する
+        BatchCompressor compressor = new BatchCompressor(this.connect(this.simulator), 6, 1024);
+        batchInfos.add(compressor.createBatch(job, toStream(CSV)));
+        compressor.close();
+
+        JobInfo status = new JobMonitor(connection, job, batchInfos).setPollInterval(10L, 50L, 1.5).await(10000L);
+        assertEquals(2, status.getNumberBatchesCompleted());
+        assertEquals(6, status.getNumberRecordsProcessed());
+        assertEquals(0, status.getNumberRecordsFailed());
+
+        List<List<String>> rows = readResult(connection, job, batchInfos.get(1));
+        assertEquals(3, rows.size());
+        assertEquals("true", rows.get(0).get(1));
+
+        new SalesforceApiUtil().closeJob(connection, job.getId());
+        assertEquals(JobStateEnum.Closed, connection.getJobStatus(job.getId()).getState());
+    }
+
+    public void testLockErrorsAndBatchFailures() throws Exception {
+        BulkConnection connection = this.connect(this.simulator.setLockErrorRate(1.0).start(0));
+        JobInfo job = new SalesforceApiUtil().createJob("Account", connection, OperationEnum.upsert, "AccountNumber");
+        List<BatchInfo> batchInfos = new ArrayList<BatchInfo>();
+        batchInfos.add(connection.createBatchFromForeignCsvStream(job, toStream(CSV), "UTF-8"));
+        new JobMonitor(connection, job, batchInfos).setPollInterval(10L, 50L, 1.5).await(10000L);
+
+        BatchInfo batchInfo = connection.getBatchInfo(job.getId(), batchInfos.get(0).getId());
+        assertEquals(BatchStateEnum.Completed, batchInfo.getState());
+        assertEquals(3, batchInfo.getNumberRecordsFailed());
+        for (List<String> row : readResult(connection, job, batchInfo)) {
+            assertEquals("false", row.get(1));
+            assertEquals("UNABLE_TO_LOCK_ROW", ResultChecker.getStatusCode(row.get(3)));
+        }
+
+        this.simulator.setBatchFailureRate(1.0);
+        BatchInfo failed = connection.createBatchFromForeignCsvStream(job, toStream(CSV), "UTF-8");
+        List<BatchInfo> failedList = new ArrayList<BatchInfo>();
+        failedList.add(failed);
+        JobInfo status = new JobMonitor(connection, job, failedList).setPollInterval(10L, 50L, 1.5).await(10000L);
+        assertEquals(1, status.getNumberBatchesFailed());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testFailedBatchesFailTheImportRun() throws Exception {
+        this.simulator.setBatchFailureRate(1.0).start(0);
+        File dir = Files.createTempDirectory("simulated").toFile();
+        File source = new File(dir, "accounts.csv");
+        Files.write(source.toPath(), "NAME,NUMBER\nAccount0,A0\nAccount1,A1\nAccount2,A2\n".getBytes(StandardCharsets.UTF_8));
+        File spec = new File(dir, "spec.csv");
+        Files.write(spec.toPath(), "Salesforce Field,Csv Header\nName,NAME\nAccountNumber,NUMBER\n".getBytes(StandardCharsets.UTF_8));
+        UserInfo userInfo = new UserInfo();
+        userInfo.simulateBulkApi = true;
+        userInfo.apiVersion = "35.0";
+        userInfo.authEndpoint = "http://127.0.0.1/services/Soap/u/35.0";
+        userInfo.bulkEndpoint = this.simulator.getRestEndpoint(userInfo.apiVersion);
+        // シミュレーターのジョブは再開できないため、チェックポイントは記録しない
+        userInfo.resumable = true;
+        userInfo.journalDir = new File(dir, "journal").getPath();
+        userInfo.compressBatches = false;
+        userInfo.failedRecordDir = new File(dir, "failed").getPath();
+        userInfo.deltaDir = new File(dir, "delta").getPath();
+        userInfo.workDir = new File(dir, "work").getPath();
+        File reportDir = new File(dir, "report");
+        userInfo.reportDir = reportDir.getPath();
+        ImportEntry entry = new ImportEntry("Account", source.getPath(), spec.getPath(), OperationEnum.insert, null, new ArrayList<String>(), "NUMBER", "");
+
+        // 全てのバッチが失敗した場合は失敗とし、差分のインデックスを反映しない
+        AccountDataImport dataImport = new AccountDataImport();
+        SessionManager session = new SessionManager(userInfo).acquire();
+        try {
+            assertFalse(dataImport.runDataImport(entry, userInfo, session, CsvRecordSplitter.open(source.getPath())));
+            dataImport.finishRun();
+            File[] failedFiles = new File(userInfo.failedRecordDir).listFiles();
+            assertEquals(1, failedFiles.length);
+            String failed = new String(Files.readAllBytes(failedFiles[0].toPath()), StandardCharsets.UTF_8);
+            assertEquals(failed, 4, failed.split("\n").length);
+            assertFalse(new File(userInfo.journalDir).exists());
+
+            // 次回の実行では同じレコードを再度送信する
+            this.simulator.setBatchFailureRate(0.0);
+            assertTrue(dataImport.runDataImport(entry, userInfo, session, CsvRecordSplitter.open(source.getPath())));
+            dataImport.finishRun();
+        } finally {
+            session.release();
+        }
+        List<Map<String, Object>> jobs = new ArrayList<Map<String, Object>>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (File report : reportDir.listFiles()) {
+            for (String line : Files.readAllLines(report.toPath(), StandardCharsets.UTF_8)) {
+                Map<String, Object> value = mapper.readValue(line, Map.class);
+                if ("job".equals(value.get("type"))) {
+                    jobs.add(value);
+                }
+            }
+        }
+        assertEquals(2, jobs.size());
+        Map<String, Object> failedJob = Boolean.FALSE.equals(jobs.get(0).get("success")) ? jobs.get(0) : jobs.get(1);
+        Map<String, Object> retriedJob = failedJob == jobs.get(0) ? jobs.get(1) : jobs.get(0);
+        assertEquals(3, failedJob.get("failed"));
+        assertEquals(Boolean.TRUE, retriedJob.get("success"));
+        assertEquals(3, retriedJob.get("processed"));
+    }
+
+    public void testUnknownJobIsRejected() throws Exception {
+        BulkConnection connection = this.connect(this.simulator.start(0));
+        try {
+            connection.getJobStatus("750000000000000AAA");
+            fail();
+        } catch (AsyncApiException e) {
+            assertEquals(AsyncExceptionCode.InvalidJob, e.getExceptionCode());
+        }
+    }
+
+    private BulkConnection connect(BulkApiSimulator simulator) throws Exception {
+        ConnectorConfig config = new ConnectorConfig();
+        config.setSessionId("SIMULATED_SESSION");
+        config.setRestEndpoint(simulator.getRestEndpoint("35.0"));
+        config.setCompression(true);
+        return new BulkConnection(config);
+    }
+
+    private static List<List<String>> readResult(BulkConnection connection, JobInfo job, BatchInfo batchInfo) throws Exception {
+        List<List<String>> rows = new ArrayList<List<String>>();
+        try (InputStream in = connection.getBatchResultStream(job.getId(), batchInfo.getId())) {
+            CSVReader rdr = new CSVReader(in);
+            rdr.nextRecord();
+            List<String> row;
+            while ((row = rdr.nextRecord()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static InputStream toStream(String value) {
+        return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * CSVのレコード分割のテスト
+ */
+public class CsvRecordSplitterTest extends TestCase {
+
+    public void testQuotedNewlineIsNotRecordBoundary() throws Exception {
+        List<String> records = split("Name,Description\n\"A\",\"line1\nline2\"\n\"B\",\"say \"\"hi\"\"\"\n", 4);
+
+        assertEquals(3, records.size());
+        assertEquals("\"A\",\"line1\nline2\"\n", records.get(1));
+        assertEquals("\"B\",\"say \"\"hi\"\"\"\n", records.get(2));
+    }
+
+    public void testLastRecordWithoutNewline() throws Exception {
+        List<String> records = split("Name\r\nA\r\nB", 3);
+
+        assertEquals(3, records.size());
+        assertEquals("A\r\n", records.get(1));
+        assertEquals("B\n", records.get(2));
+    }
+
+    public void testRecordOffsets() throws Exception {
+        CsvRecordSplitter splitter = newSplitter("Name\n取引先\nB\n", 2);
+        assertTrue(splitter.nextRecord());
+        assertEquals(0L, splitter.getRecordOffset());
+        assertTrue(splitter.nextRecord());
+        assertEquals(5L, splitter.getRecordOffset());
+        assertTrue(splitter.nextRecord());
+        assertEquals(5L + "取引先\n".getBytes("UTF-8").length, splitter.getRecordOffset());
+        assertFalse(splitter.nextRecord());
+    }
+
+    private static List<String> split(String csv, int bufferSize) throws Exception {
+        CsvRecordSplitter splitter = newSplitter(csv, bufferSize);
+        List<String> records = new ArrayList<String>();
+        while (splitter.nextRecord()) {
+            records.add(new String(splitter.getRecordBytes(), 0, splitter.getRecordLength(), "UTF-8"));
+        }
+        splitter.close();
+        return records;
+    }
+
+    private static CsvRecordSplitter newSplitter(String csv, int bufferSize) throws Exception {
+        return new CsvRecordSplitter(Channels.newChannel(new ByteArrayInputStream(csv.getBytes("UTF-8"))), bufferSize);
+    }
+}
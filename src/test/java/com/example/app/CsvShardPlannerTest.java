@@ -0,0 +1,101 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.JobInfo;
+
+/**
+ * CSVファイルの分割読み込みのテスト
+ */
+public class CsvShardPlannerTest extends TestCase {
+
+    public void testShardsStartAtRecordBoundaries() throws Exception {
+        StringBuilder sb = new StringBuilder("Name,Description\n");
+        for (int i = 0; i < 500; i++) {
+            // 項目内の改行とエスケープされたダブルクォートで区切らないこと
+            sb.append("Account").append(i).append(",\"line1\nline2 \"\"quoted\"\"\n,end\"\n");
+        }
+        File file = write(sb.toString(), Charset.forName("UTF-8"));
+
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(file.getPath());
+        splitter.nextRecord();
+        long dataStart = splitter.getPosition();
+        List<String> expected = new ArrayList<String>();
+        Set<Long> boundaries = new HashSet<Long>();
+        while (splitter.nextRecord()) {
+            boundaries.add(splitter.getRecordOffset());
+            expected.add(new String(splitter.copyRecord(), "UTF-8"));
+        }
+        splitter.close();
+
+        List<CsvShardPlanner.Shard> shards = CsvShardPlanner.plan(file.getPath(), dataStart, 7, 1024L);
+        assertTrue(shards.size() > 1);
+        assertEquals(dataStart, shards.get(0).getStart());
+        assertEquals(file.length(), shards.get(shards.size() - 1).getEnd());
+        List<String> actual = new ArrayList<String>();
+        long previous = dataStart;
+        for (CsvShardPlanner.Shard shard : shards) {
+            assertEquals(previous, shard.getStart());
+            assertTrue(shard.toString(), boundaries.contains(shard.getStart()));
+            try (CsvRecordSplitter reader = CsvRecordSplitter.open(file.getPath(), shard.getStart(), shard.getEnd())) {
+                while (reader.nextRecord()) {
+                    actual.add(new String(reader.copyRecord(), "UTF-8"));
+                }
+                assertEquals(shard.getEnd(), reader.getPosition());
+            }
+            previous = shard.getEnd();
+        }
+        assertEquals(expected, actual);
+
+        // 小さいファイルは分割しない
+        assertEquals(1, CsvShardPlanner.plan(file.getPath(), dataStart, 7).size());
+        assertTrue(CsvShardPlanner.plan(file.getPath(), file.length(), 7).isEmpty());
+    }
+
+    public void testShardedBatchesAreTranscodedToUtf8() throws Exception {
+        Charset sjis = Charset.forName("Shift_JIS");
+        StringBuilder sb = new StringBuilder("Name\n");
+        for (int i = 0; i < 3000; i++) {
+            sb.append("\"株式会社表示").append(i).append("\"\n");
+        }
+        File file = write(sb.toString(), sjis);
+        long dataStart = "Name\n".length();
+        List<CsvShardPlanner.Shard> shards = CsvShardPlanner.plan(file.getPath(), dataStart, 4, 4096L);
+        assertEquals(4, shards.size());
+
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = new JobInfo();
+        job.setId("job0");
+        List<BatchSegment> segments = new ArrayList<BatchSegment>();
+        List<BatchInfo> batchInfos = new SalesforceApiUtil().createBatchesFromShards(connection, job, file.getPath(), shards, "Name\n".getBytes(sjis),
+            new FixedBatchSizingPolicy(500, SalesforceApiUtil.MAX_BYTES_PER_BATCH), new BatchBufferPool(SalesforceApiUtil.MAX_BYTES_PER_BATCH, 0L),
+            2, segments, null, null, sjis);
+
+        assertEquals(segments.size(), batchInfos.size());
+        assertTrue(connection.maxInFlight.get() <= 2);
+        Set<String> rows = new HashSet<String>();
+        for (String batch : connection.batches) {
+            String[] lines = batch.split("\n");
+            assertEquals("Name", lines[1]);
+            for (int i = 2; i < lines.length; i++) {
+                rows.add(lines[i]);
+            }
+        }
+        assertEquals(3000, rows.size());
+        assertTrue(rows.contains("\"株式会社表示2999\""));
+    }
+
+    private static File write(String content, Charset charset) throws Exception {
+        File file = File.createTempFile("shard", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(charset));
+        return file;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+
+/**
+ * DeltaDetectorのテスト
+ */
+public class DeltaDetectorTest extends TestCase {
+
+    private static final String HEADER = "Name,\"AccountNumber\",Phone\n";
+
+    public void testOnlyChangedRecordsAndDeletedKeysAreWritten() throws Exception {
+        File dir = Files.createTempDirectory("delta").toFile();
+
+        // 初回は全件が差分
+        DeltaDetector first = this.detect(dir, HEADER + "a,A1,111\nb,A2,222\nc,\"A,3\",333\nd,A4,444\n");
+        assertEquals(4L, first.getChangedCount());
+        assertFalse(first.getDeletedFile().exists());
+        first.commit();
+
+        // A2を変更、A4を削除、A5を追加、キーなしは常に送信
+        DeltaDetector second = this.detect(dir, HEADER + "a,A1,111\nb,A2,999\nc,\"A,3\",333\ne,A5,555\nf,,666\n");
+        assertEquals(5L, second.getTotalCount());
+        assertEquals(3L, second.getChangedCount());
+        assertEquals(HEADER + "b,A2,999\ne,A5,555\nf,,666\n", read(second.getDeltaFile()));
+        assertEquals(1L, second.getDeletedCount());
+        assertEquals("AccountNumber\nA4\n", read(second.getDeletedFile()));
+
+        // 反映前に失敗した場合は前回のインデックスと比較
+        assertTrue(second.isPending());
+        DeltaDetector retry = this.detect(dir, HEADER + "a,A1,111\nb,A2,999\nc,\"A,3\",333\ne,A5,555\n");
+        assertEquals(2L, retry.getChangedCount());
+        retry.commit();
+        assertFalse(retry.isPending());
+
+        DeltaDetector unchanged = this.detect(dir, HEADER + "c,\"A,3\",333\na,A1,111\nb,A2,999\ne,A5,555\n");
+        assertEquals(0L, unchanged.getChangedCount());
+        assertEquals(0L, unchanged.getDeletedCount());
+    }
+
+    public void testIndexGrowsBeyondInitialCapacity() throws Exception {
+        File dir = Files.createTempDirectory("delta").toFile();
+        StringBuilder data = new StringBuilder(HEADER);
+        for (int i = 0; i < 5000; i++) {
+            data.append("name").append(i).append(",K").append(i).append(",").append(i).append("\n");
+        }
+        DeltaDetector first = this.detect(dir, data.toString());
+        assertEquals(5000L, first.getChangedCount());
+        first.commit();
+
+        DeltaIndex index = DeltaIndex.open(new File(dir, "Account-source.csv.idx"), new File(dir, "Account-source.csv.keys"));
+        try {
+            assertEquals(5000L, index.size());
+            assertTrue(index.capacity() >= 10000L);
+            long slot = index.find(DeltaDetector.hash("K4321".getBytes(StandardCharsets.UTF_8), 0, 5));
+            assertTrue(slot >= 0);
+            assertEquals("K4321", new String(index.getKey(slot), StandardCharsets.UTF_8));
+        } finally {
+            index.close();
+        }
+        assertEquals(0L, this.detect(dir, data.toString()).getChangedCount());
+    }
+
+    private DeltaDetector detect(File dir, String content) throws Exception {
+        File source = new File(dir, "source.csv");
+        Files.write(source.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(source.getPath());
+        splitter.nextRecord();
+        DeltaDetector detector = new DeltaDetector(dir, "Account-source.csv");
+        detector.detect(splitter, splitter.copyRecord(), "AccountNumber");
+        return detector;
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.JobInfo;
+
+/**
+ * FailedRecordWriterのテスト
+ */
+public class FailedRecordWriterTest extends TestCase {
+
+    public void testWritesFailedRecordsOfSegment() throws Exception {
+        File dir = Files.createTempDirectory("failed").toFile();
+        File source = new File(dir, "source.csv");
+        String header = "Name,Description\n";
+        String content = header + "a,x\nb,\"multi\nline\"\nc,y\nd,z\n";
+        Files.write(source.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        // 2件目以降の3件を1つのバッチとする
+        long start = header.length() + "a,x\n".length();
+        BatchSegment segment = new BatchSegment(1, start, content.length() - "d,z\n".length(), 2);
+        segment.setBatchId("batch1");
+
+        StubBulkConnection connection = new StubBulkConnection();
+        connection.batchResults.put("batch1", "\"Id\",\"Success\",\"Created\",\"Error\"\n"
+            + "\"\",\"false\",\"false\",\"UNABLE_TO_LOCK_ROW:unable to obtain exclusive access\"\n"
+            + "\"001\",\"true\",\"true\",\"\"\n");
+        JobInfo job = new JobInfo();
+        job.setId("job1");
+
+        File failedFile = new File(dir, "failed.csv");
+        File retryFile = new File(dir, "retry.csv");
+        FailedRecordWriter writer = new FailedRecordWriter(source.getPath(), header.getBytes(StandardCharsets.UTF_8),
+            failedFile, retryFile, new HashSet<String>(Arrays.asList("UNABLE_TO_LOCK_ROW")));
+        ResultChecker checker = new ResultChecker(connection, job,
+            new SkipErrorMatcher(Collections.singletonList("[Allowable Error]")), new FixedBatchSizingPolicy(10, 1000), 1);
+        checker.setFailedRecordWriter(writer, Collections.singletonList(segment));
+
+        BatchInfo batchInfo = new BatchInfo();
+        batchInfo.setId("batch1");
+        batchInfo.setState(BatchStateEnum.Completed);
+        batchInfo.setNumberRecordsFailed(1);
+        checker.onBatchFinished(batchInfo);
+        assertEquals(0, checker.awaitSkipErrorCount());
+        writer.close();
+
+        assertEquals(1, writer.getFailedCount());
+        assertEquals(1, writer.getRetryCount());
+        assertEquals("Name,Description,\"Error\"\nb,\"multi\nline\",\"UNABLE_TO_LOCK_ROW:unable to obtain exclusive access\"\n",
+            new String(Files.readAllBytes(failedFile.toPath()), StandardCharsets.UTF_8));
+        assertEquals("Name,Description\nb,\"multi\nline\"\n",
+            new String(Files.readAllBytes(retryFile.toPath()), StandardCharsets.UTF_8));
+    }
+}
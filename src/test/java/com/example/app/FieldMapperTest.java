@@ -0,0 +1,101 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+/**
+ * FieldMapperのテスト
+ */
+public class FieldMapperTest extends TestCase {
+
+    private static final String SPEC = "Salesforce Field,Csv Header,Value,Hint\n"
+        + "Name,NAME,,\n"
+        + "Type,TYPE,,\n"
+        + "Rating,RATING,Warm,\n"
+        + "SLAExpirationDate__c,EXPIRE,,yyyy/MM/dd\n"
+        + "Description,,Imported,\n";
+    private static final String RULES = "sObject,Salesforce Field,Required,Length,Picklist\n"
+        + "Account,NAME,true,5,\n"
+        + "Account,Type,,,Customer;Partner\n"
+        + "Account,Rating,true,,\n"
+        + "Contact,LastName,true,80,\n";
+
+    public void testProjectsAndQuarantinesInvalidRecords() throws Exception {
+        File dir = Files.createTempDirectory("mapper").toFile();
+        String header = "MEMO,EXPIRE,NAME,TYPE,RATING,NUMBER\n";
+        File source = write(dir, "source.csv", header
+            + "x,2020/01/31,\"a,b\",Customer,,N1\n"
+            + "y,2020/02/30,b,Customer,Hot,N2\n"
+            + "z,,\"toolong\",Other,Hot,N3\n"
+            + "w,,,Partner,,N4\n"
+            + "v,,\"\"\"q\"\"\",,,N5\n");
+
+        FieldMapper.Mapping mapping = FieldMapper.Mapping.load(write(dir, "spec.csv", SPEC).getPath(), write(dir, "rules.csv", RULES).getPath(),
+            "Account", Arrays.asList("NUMBER", "NAME", ""));
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(source.getPath());
+        splitter.nextRecord();
+        FieldMapper mapper = new FieldMapper(dir, "Account-source.csv");
+        File mapped = mapper.map(splitter, splitter.copyRecord(), mapping);
+
+        // 変換仕様の順に並べ替え、使用しない列(MEMO)を除く (デフォルト値のある必須項目は空でも可)
+        assertEquals("NAME,TYPE,RATING,EXPIRE,NUMBER\n\"a,b\",Customer,,2020/01/31,N1\n\"\"\"q\"\"\",,,,N5\n", read(mapped));
+        assertEquals(5L, mapper.getTotalCount());
+        assertEquals(3L, mapper.getInvalidCount());
+        String[] invalid = read(mapper.getInvalidFile()).split("\n");
+        assertEquals("MEMO,EXPIRE,NAME,TYPE,RATING,NUMBER,\"Error\"", invalid[0]);
+        assertTrue(invalid[1], invalid[1].startsWith("y,2020/02/30,b,Customer,Hot,N2,\"INVALID_FIELD:SLAExpirationDate__c"));
+        assertTrue(invalid[2], invalid[2].contains("STRING_TOO_LONG:NAME") && invalid[2].contains("INVALID_OR_NULL_FOR_RESTRICTED_PICKLIST:Type"));
+        assertTrue(invalid[3], invalid[3].contains("REQUIRED_FIELD_MISSING:Required fields are missing: [NAME]"));
+        assertEquals(3L, new FieldMapper(dir, "Account-source.csv").loadInvalidCount());
+    }
+
+    public void testValidatesInSourceCharset() throws Exception {
+        File dir = Files.createTempDirectory("mapper").toFile();
+        Charset sjis = Charset.forName("Shift_JIS");
+        File source = new File(dir, "source.csv");
+        Files.write(source.toPath(), ("NAME,TYPE,RATING,EXPIRE\n"
+            + "\u682a\u5f0f\u4f1a\u793e,Customer,Hot,\n"
+            + "\u682a\u5f0f\u4f1a\u793e\u3042\u3044,Customer,Hot,\n").getBytes(sjis));
+        FieldMapper.Mapping mapping = FieldMapper.Mapping.load(write(dir, "spec.csv", SPEC).getPath(), write(dir, "rules.csv", RULES).getPath(),
+            "Account", Collections.<String>emptyList());
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(source.getPath());
+        splitter.nextRecord();
+        FieldMapper mapper = new FieldMapper(dir, "Account-source.csv", sjis);
+        mapper.map(splitter, splitter.copyRecord(), mapping);
+
+        // 文字数は読み込み元の文字コードで数える (4文字は可、6文字は不可)
+        assertEquals(1L, mapper.getInvalidCount());
+        String[] invalid = new String(Files.readAllBytes(mapper.getInvalidFile().toPath()), sjis).split("\n");
+        assertEquals("NAME,TYPE,RATING,EXPIRE,\"Error\"", invalid[0]);
+        assertTrue(invalid[1], invalid[1].startsWith("\u682a\u5f0f\u4f1a\u793e\u3042\u3044,Customer,Hot,,\"STRING_TOO_LONG:NAME"));
+    }
+
+    public void testMissingSpecColumnIsRejected() throws Exception {
+        File dir = Files.createTempDirectory("mapper").toFile();
+        File source = write(dir, "source.csv", "NAME,TYPE\na,b\n");
+        FieldMapper.Mapping mapping = FieldMapper.Mapping.load(write(dir, "spec.csv", SPEC).getPath(), "", "Account", Collections.<String>emptyList());
+        CsvRecordSplitter splitter = CsvRecordSplitter.open(source.getPath());
+        splitter.nextRecord();
+        try {
+            new FieldMapper(dir, "Account-source.csv").map(splitter, splitter.copyRecord(), mapping);
+            fail();
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage().contains("RATING"));
+        }
+    }
+
+    private static File write(File dir, String name, String content) throws Exception {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import com.sforce.async.JobInfo;
+
+/**
+ * ImportJournalのテスト
+ */
+public class ImportJournalTest extends TestCase {
+
+    public void testRestoresStateAndIgnoresTornLine() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        File source = new File(dir, "source.csv");
+        Files.write(source.toPath(), "Name\na\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+        File file = new File(dir, "Account-source.csv.journal");
+
+        ImportJournal journal = ImportJournal.open(file);
+        assertFalse(journal.isResumable());
+        journal.recordJob("job1", source);
+        BatchSegment first = new BatchSegment(0, 5L, 7L, 1);
+        journal.recordSubmit(first);
+        first.setBatchId("batch0");
+        journal.recordBatch(first);
+        journal.recordSubmit(new BatchSegment(1, 7L, 9L, 1));
+        journal.close();
+        // 書き込み途中で中断した行
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("BATCH,1,7,9".getBytes(StandardCharsets.UTF_8));
+        }
+
+        journal = ImportJournal.open(file);
+        assertTrue(journal.isResumable());
+        assertEquals("job1", journal.getJobId());
+        assertTrue(journal.isSameSource(source));
+        assertFalse(journal.isJobClosed());
+        assertEquals(1, journal.getUploadedSegments().size());
+        assertEquals("batch0", journal.getUploadedSegments().get(0).getBatchId());
+        assertEquals(1, journal.getPendingSegments().size());
+        assertEquals(7L, journal.getPendingSegments().get(0).getStartOffset());
+        // 切り詰めた後に追記した行が読み込めること
+        journal.recordJobClosed();
+        journal.close();
+        assertTrue(ImportJournal.open(file).isJobClosed());
+    }
+
+    public void testResetDiscardsPreviousJob() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        File source = new File(dir, "source.csv");
+        Files.write(source.toPath(), "Name\na\n".getBytes(StandardCharsets.UTF_8));
+        File file = new File(dir, "Account-source.csv.journal");
+
+        ImportJournal journal = ImportJournal.open(file);
+        journal.recordJob("job1", source);
+        journal.recordSubmit(new BatchSegment(0, 5L, 7L, 1));
+        journal.close();
+
+        journal = ImportJournal.open(file);
+        journal.reset();
+        assertFalse(journal.isResumable());
+        assertTrue(journal.getPendingSegments().isEmpty());
+        // 破棄後に記録した新しいジョブのみ読み込まれること
+        journal.recordJob("job2", source);
+        journal.close();
+        journal = ImportJournal.open(file);
+        assertEquals("job2", journal.getJobId());
+        assertTrue(journal.getPendingSegments().isEmpty());
+    }
+
+    public void testUploadedRangesAreSkipped() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = new JobInfo();
+        job.setId("job0");
+        String data = "a\nb\nc\nd\ne\n";
+        // 2件目(b)と4件目(d)はアップロード済み
+        List<BatchSegment> segments = new ArrayList<BatchSegment>(Arrays.asList(
+            new BatchSegment(0, 2L, 4L, 1), new BatchSegment(2, 6L, 8L, 1)));
+        CsvRecordSplitter splitter = new CsvRecordSplitter(Channels.newChannel(new ByteArrayInputStream(data.getBytes("UTF-8"))));
+
+        new SalesforceApiUtil().createBatchesFromCSVFile(connection, job, splitter, "Name\n".getBytes("UTF-8"),
+            new FixedBatchSizingPolicy(10, 1000), new BatchBufferPool(1000, 1000L), 1, segments, null);
+
+        assertEquals(Arrays.asList("batch0\nName\na\n", "batch1\nName\nc\n", "batch2\nName\ne\n"), connection.batches);
+        assertEquals(5, segments.size());
+        assertEquals(3, segments.get(2).getIndex());
+        assertEquals("batch0", segments.get(2).getBatchId());
+        assertEquals(4L, segments.get(3).getStartOffset());
+        // 先頭から連続してアップロード済みの位置から再開する
+        assertEquals(4L, AccountDataImport.getResumeOffset(segments.subList(0, 3), 0L));
+    }
+}
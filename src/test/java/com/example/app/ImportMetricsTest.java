@@ -0,0 +1,79 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.codehaus.jackson.map.ObjectMapper;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+
+/**
+ * ImportMetricsのテスト
+ */
+public class ImportMetricsTest extends TestCase {
+
+    public void testCountersAndTimers() {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.onBatchSubmitted(100, 4000L);
+        metrics.onBatchSubmitted(50, 2000L);
+        assertEquals(2, metrics.getUploadQueueDepth());
+        metrics.onBatchUploaded(30000000L, true);
+        metrics.onBatchUploaded(10000000L, false);
+        assertEquals(0, metrics.getUploadQueueDepth());
+        assertEquals(2, metrics.getMaxUploadQueueDepth());
+        assertEquals(150L, metrics.getRowsRead());
+        assertEquals(6000L, metrics.getBytesRead());
+        assertEquals(1L, metrics.getBatchesUploaded());
+        assertEquals(30L, metrics.getMaxUploadMillis());
+        assertEquals(1L, metrics.getBatchesAwaitingCompletion());
+
+        metrics.onBatchFinished(batchInfo(BatchStateEnum.Completed, 2500L));
+        assertEquals(0L, metrics.getBatchesAwaitingCompletion());
+        assertEquals(2500L, metrics.getMaxProcessingMillis());
+
+        metrics.onResultQueued();
+        assertEquals(1, metrics.getResultQueueDepth());
+        metrics.onResultDownloaded(5000000L);
+        assertEquals(0, metrics.getResultQueueDepth());
+        assertEquals(5.0, metrics.getAverageResultDownloadMillis(), 0.001);
+
+        metrics.onFailure("UNABLE_TO_LOCK_ROW");
+        metrics.onFailure("UNABLE_TO_LOCK_ROW");
+        metrics.onFailure("REQUIRED_FIELD_MISSING");
+        metrics.onFailure("BATCH_FAILED", 10000L);
+        assertEquals(Long.valueOf(2L), metrics.getFailuresByStatusCode().get("UNABLE_TO_LOCK_ROW"));
+        assertEquals(Long.valueOf(10000L), metrics.getFailuresByStatusCode().get("BATCH_FAILED"));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testSummaryIsWrittenAsJson() throws Exception {
+        ImportMetrics metrics = new ImportMetrics();
+        metrics.onBatchSubmitted(10, 100L);
+        metrics.onBatchUploaded(1000000L, true);
+        metrics.onBatchFinished(batchInfo(BatchStateEnum.Failed, 100L));
+        metrics.onFailure("UNKNOWN");
+        File file = new File(Files.createTempDirectory("metrics").toFile(), "out/summary.json");
+        metrics.writeSummary(file);
+
+        Map<String, Object> summary = new ObjectMapper().readValue(file, Map.class);
+        assertEquals(10, ((Number) summary.get("rowsRead")).intValue());
+        Map<String, Object> batches = (Map<String, Object>) summary.get("batches");
+        assertEquals(1, ((Number) batches.get("failed")).intValue());
+        Map<String, Object> upload = (Map<String, Object>) summary.get("upload");
+        assertEquals(1, ((Number) upload.get("count")).intValue());
+        assertEquals(1, ((Number) ((Map<String, Object>) summary.get("failuresByStatusCode")).get("UNKNOWN")).intValue());
+    }
+
+    private static BatchInfo batchInfo(BatchStateEnum state, long processingMillis) {
+        BatchInfo batchInfo = new BatchInfo();
+        batchInfo.setState(state);
+        Calendar created = Calendar.getInstance();
+        Calendar modified = (Calendar) created.clone();
+        modified.setTimeInMillis(created.getTimeInMillis() + processingMillis);
+        batchInfo.setCreatedDate(created);
+        batchInfo.setSystemModstamp(modified);
+        return batchInfo;
+    }
+}
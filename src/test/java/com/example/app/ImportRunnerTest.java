@@ -0,0 +1,112 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import com.sforce.async.OperationEnum;
+
+/**
+ * ImportRunnerとImportManifestのテスト
+ */
+public class ImportRunnerTest extends TestCase {
+
+    private static final String MANIFEST = "sObject,file,operation,externalId,dependsOn\n"
+        + "Account,accounts.csv,insert,,\n"
+        + "Product2,products.csv,,,\n"
+        + "Contact,contacts.csv,upsert,External__c,Account\n"
+        + "Opportunity,opportunities.csv,insert,,Account;Product2\n";
+
+    public void testParsesManifestByHeaderName() throws Exception {
+        List<ImportEntry> entries = ImportManifest.parse(new ByteArrayInputStream(MANIFEST.getBytes("UTF-8")));
+        assertEquals(4, entries.size());
+        ImportEntry contact = entries.get(2);
+        assertEquals("Contact", contact.getSobjectType());
+        assertEquals("contacts.csv", contact.getFilePath());
+        assertEquals("./conf/spec.csv", contact.getSpecFile());
+        assertEquals(OperationEnum.upsert, contact.getOperation());
+        assertEquals("External__c", contact.getExternalIdFieldName());
+        assertEquals(OperationEnum.insert, entries.get(1).getOperation());
+        assertEquals(2, entries.get(3).getDependsOn().size());
+    }
+
+    public void testRejectsCircularDependency() throws Exception {
+        String manifest = "sObject,file,dependsOn\nAccount,a.csv,Contact\nContact,c.csv,Account\n";
+        try {
+            ImportManifest.parse(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("circular"));
+        }
+    }
+
+    public void testRejectsSameSobjectAndFileName() throws Exception {
+        String manifest = "sObject,file\nAccount,east/accounts.csv\nAccount,west/accounts.csv\n";
+        try {
+            ImportManifest.parse(new ByteArrayInputStream(manifest.getBytes("UTF-8")));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("west/accounts.csv"));
+        }
+        // オブジェクトが異なる場合は作業ファイルが重ならない
+        String other = "sObject,file\nAccount,east/accounts.csv\nContact,west/accounts.csv\n";
+        assertEquals(2, ImportManifest.parse(new ByteArrayInputStream(other.getBytes("UTF-8"))).size());
+    }
+
+    public void testRunsParentsFirstWithinConcurrencyLimit() throws Exception {
+        List<ImportEntry> entries = ImportManifest.parse(new ByteArrayInputStream(MANIFEST.getBytes("UTF-8")));
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        ImportRunner runner = new ImportRunner(new ImportRunner.ImportTask() {
+            @Override
+            public boolean run(ImportEntry entry) throws Exception {
+                for (String name : entry.getDependsOn()) {
+                    assertTrue(finished.contains(name));
+                }
+                started.add(entry.getSobjectType());
+                int current = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                Thread.sleep(20L);
+                running.decrementAndGet();
+                finished.add(entry.getSobjectType());
+                return true;
+            }
+        }, 2);
+
+        Map<ImportEntry, Boolean> results = runner.run(entries);
+        assertEquals(4, results.size());
+        assertFalse(results.containsValue(Boolean.FALSE));
+        assertEquals(4, started.size());
+        assertEquals(2, maxRunning.get());
+    }
+
+    public void testSkipsChildrenOfFailedParent() throws Exception {
+        List<ImportEntry> entries = ImportManifest.parse(new ByteArrayInputStream(MANIFEST.getBytes("UTF-8")));
+        final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        ImportRunner runner = new ImportRunner(new ImportRunner.ImportTask() {
+            @Override
+            public boolean run(ImportEntry entry) throws Exception {
+                started.add(entry.getSobjectType());
+                if ("Account".equals(entry.getSobjectType())) {
+                    throw new IllegalStateException("stub failure");
+                }
+                return true;
+            }
+        }, 3);
+
+        Map<ImportEntry, Boolean> results = runner.run(entries);
+        assertEquals(Boolean.FALSE, results.get(entries.get(0)));
+        assertEquals(Boolean.TRUE, results.get(entries.get(1)));
+        assertEquals(Boolean.FALSE, results.get(entries.get(2)));
+        assertEquals(Boolean.FALSE, results.get(entries.get(3)));
+        assertFalse(started.contains("Contact"));
+        assertFalse(started.contains("Opportunity"));
+    }
+}
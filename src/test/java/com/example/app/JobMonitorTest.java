@@ -0,0 +1,183 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+
+/**
+ * ジョブの完了監視のテスト
+ */
+public class JobMonitorTest extends TestCase {
+
+    public void testBatchListIsFetchedOnlyWhenCountsChange() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = newJob();
+        List<BatchInfo> batchInfos = createBatches(connection, job, 2);
+        final List<String> finished = new ArrayList<String>();
+        JobMonitor monitor = new JobMonitor(connection, job, batchInfos)
+            .setPollInterval(5L, 20L, 2.0)
+            .addListener(new JobMonitor.BatchListener() {
+                @Override
+                public void onBatchFinished(BatchInfo batchInfo) {
+                    finished.add(batchInfo.getId());
+                }
+            });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JobInfo> future = monitor.start(executor, 5000L);
+            Thread.sleep(100L);
+            connection.complete("batch1");
+            Thread.sleep(100L);
+            connection.complete("batch0");
+
+            JobInfo result = future.get();
+            assertEquals(2, result.getNumberBatchesCompleted());
+            assertEquals("batch1", finished.get(0));
+            assertEquals("batch0", finished.get(1));
+            // 件数が変化した時(初回・batch1完了・batch0完了)のみ一覧を取得
+            assertEquals(3, connection.batchInfoListCount.get());
+            assertTrue(connection.jobStatusCount.get() > 3);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPollIntervalIsResetWhenJobChanges() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = newJob();
+        final CountDownLatch firstFinished = new CountDownLatch(1);
+        JobMonitor monitor = new JobMonitor(connection, job, createBatches(connection, job, 2))
+            .setPollInterval(10L, 1000L, 10.0)
+            .addListener(new JobMonitor.BatchListener() {
+                @Override
+                public void onBatchFinished(BatchInfo batchInfo) {
+                    firstFinished.countDown();
+                }
+            });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JobInfo> future = monitor.start(executor, 10000L);
+            // 変化がない間に最大の間隔(1秒)まで延ばしてから完了させる
+            Thread.sleep(200L);
+            connection.complete("batch0");
+            assertTrue(firstFinished.await(5, TimeUnit.SECONDS));
+            // 変化を検知した後は最初の間隔に戻すため、次のバッチの完了は最大の間隔を待たずに検知する
+            connection.complete("batch1");
+            long start = System.nanoTime();
+            future.get(5, TimeUnit.SECONDS);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testNotProcessedBatchFinishesMonitor() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = newJob();
+        final List<BatchInfo> finished = new ArrayList<BatchInfo>();
+        JobMonitor monitor = new JobMonitor(connection, job, createBatches(connection, job, 2))
+            .setPollInterval(5L, 20L, 2.0)
+            .addListener(new JobMonitor.BatchListener() {
+                @Override
+                public void onBatchFinished(BatchInfo batchInfo) {
+                    finished.add(batchInfo);
+                }
+            });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JobInfo> future = monitor.start(executor, 5000L);
+            connection.complete("batch0");
+            Thread.sleep(100L);
+            // 完了・失敗・総バッチ数が変化しない状態の変更でも監視を終える
+            connection.setState("batch1", BatchStateEnum.NotProcessed);
+            future.get(2, TimeUnit.SECONDS);
+            assertEquals(2, finished.size());
+            assertEquals(BatchStateEnum.NotProcessed, finished.get(1).getState());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testAbortedJobFinishesMonitor() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = newJob();
+        final List<BatchInfo> finished = new ArrayList<BatchInfo>();
+        JobMonitor monitor = new JobMonitor(connection, job, createBatches(connection, job, 2))
+            .setPollInterval(5L, 20L, 2.0)
+            .addListener(new JobMonitor.BatchListener() {
+                @Override
+                public void onBatchFinished(BatchInfo batchInfo) {
+                    finished.add(batchInfo);
+                }
+            });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JobInfo> future = monitor.start(executor, 0L);
+            connection.complete("batch0");
+            Thread.sleep(100L);
+            connection.jobState = JobStateEnum.Aborted;
+            JobInfo result = future.get(2, TimeUnit.SECONDS);
+            assertEquals(JobStateEnum.Aborted, result.getState());
+            // 処理待ちのまま残ったバッチも終了として通知する
+            assertEquals(2, finished.size());
+            assertEquals("batch1", finished.get(1).getId());
+            assertEquals(BatchStateEnum.Queued, finished.get(1).getState());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testTimeout() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = newJob();
+        JobMonitor monitor = new JobMonitor(connection, job, createBatches(connection, job, 1)).setPollInterval(5L, 20L, 2.0);
+        try {
+            monitor.await(50L);
+            fail("TimeoutException expected");
+        } catch (TimeoutException e) {
+            assertTrue(e.getMessage().indexOf("1 batches remaining") != -1);
+        }
+    }
+
+    public void testInterruptIsPropagated() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = newJob();
+        JobMonitor monitor = new JobMonitor(connection, job, createBatches(connection, job, 1));
+        Thread.currentThread().interrupt();
+        try {
+            monitor.await(0L);
+            fail("InterruptedException expected");
+        } catch (InterruptedException e) {
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+
+    private static List<BatchInfo> createBatches(StubBulkConnection connection, JobInfo job, int count) throws Exception {
+        List<BatchInfo> batchInfos = new ArrayList<BatchInfo>();
+        for (int i = 0; i < count; i++) {
+            batchInfos.add(connection.createBatchFromForeignCsvStream(job, new ByteArrayInputStream("Name\nA\n".getBytes("UTF-8")), "UTF-8"));
+        }
+        return batchInfos;
+    }
+
+    private static JobInfo newJob() {
+        JobInfo job = new JobInfo();
+        job.setId("job0");
+        return job;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.app;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * JobScope・BulkExecutorsのテスト
+ */
+public class JobScopeTest extends TestCase {
+
+    public void testDeadlineCancelsBlockingCalls() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        JobScope scope = JobScope.open("Account", 200L);
+        try {
+            ExecutorService executor = BulkExecutors.newExecutor("test-upload", 2);
+            Future<Void> future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        Thread.sleep(10000L);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return null;
+                }
+            });
+            // 待機中のスレッドと通信スレッドの両方に割り込む
+            try {
+                future.get();
+                fail();
+            } catch (InterruptedException e) {
+                assertTrue(scope.isExpired());
+            }
+            assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+            assertTrue(executor.isShutdown());
+        } finally {
+            scope.close();
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertNull(JobScope.current());
+    }
+
+    public void testNestedScopesAndRemainingTime() throws Exception {
+        JobScope outer = JobScope.open("Account", 0L);
+        assertEquals(0L, outer.remainingMillis(0L));
+        assertEquals(5000L, outer.remainingMillis(5000L));
+        JobScope inner = JobScope.open("Contact", 60000L);
+        ExecutorService executor = BulkExecutors.newExecutor("test-result", 1);
+        assertSame(inner, JobScope.current());
+        assertEquals(5000L, inner.remainingMillis(5000L));
+        assertTrue(inner.remainingMillis(0L) > 50000L);
+        inner.close();
+        // 閉じたスコープの通信スレッドは停止し、外側のスコープに戻る
+        assertTrue(executor.isShutdown());
+        assertFalse(inner.isCancelled());
+        assertSame(outer, JobScope.current());
+        outer.close();
+        assertNull(JobScope.current());
+    }
+
+    public void testVirtualThreadsFallBackOnOlderJdk() throws Exception {
+        BulkExecutors.setVirtualThreads(true);
+        try {
+            assertEquals(BulkExecutors.isVirtualThreadsSupported(), BulkExecutors.isVirtualThreads());
+            ExecutorService executor = BulkExecutors.newExecutor("test-virtual", 1);
+            String name = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get();
+            executor.shutdown();
+            assertEquals("test-virtual-1", name);
+        } finally {
+            BulkExecutors.setVirtualThreads(false);
+        }
+    }
+}
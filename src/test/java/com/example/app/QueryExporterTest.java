@@ -0,0 +1,102 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.JobInfo;
+
+/**
+ * QueryExporterのテスト (PK Chunkingで分割されたバッチの結果取得)
+ */
+public class QueryExporterTest extends TestCase {
+
+    private static final String HEADER = "\"Id\",\"Name\"\n";
+
+    public void testMergesChunksIntoOneFileWithSingleHeader() throws Exception {
+        File output = new File(Files.createTempDirectory("export").toFile(), "accounts.csv");
+        StubBulkConnection connection = newConnection();
+        QueryExporter exporter = new QueryExporter(connection, newJob(), output, false, 2, 1);
+        assertEquals(4L, this.runChunkedQuery(connection, exporter));
+
+        String content = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+        // ヘッダー行は先頭の1回のみで、チャンクの結果はレコード単位で書き込まれる
+        assertTrue(content.startsWith(HEADER));
+        assertEquals(content.indexOf(HEADER), content.lastIndexOf(HEADER));
+        assertTrue(content.contains("\"001A\",\"a\"\n\"001B\",\"multi\nline\"\n"));
+        assertTrue(content.contains("\"001C\",\"c\"\n"));
+        assertTrue(content.contains("\"001D\",\"d\"\n"));
+        assertEquals(HEADER.length() + 53, content.length());
+    }
+
+    public void testWritesOneShardPerResult() throws Exception {
+        File output = new File(Files.createTempDirectory("export").toFile(), "accounts.csv");
+        StubBulkConnection connection = newConnection();
+        QueryExporter exporter = new QueryExporter(connection, newJob(), output, true, 2, 1);
+        assertEquals(4L, this.runChunkedQuery(connection, exporter));
+
+        List<File> shards = exporter.getShardFiles();
+        assertEquals(3, shards.size());
+        for (File shard : shards) {
+            assertTrue(shard.getName().startsWith("accounts-batch"));
+            assertTrue(new String(Files.readAllBytes(shard.toPath()), StandardCharsets.UTF_8).startsWith(HEADER));
+        }
+    }
+
+    private StubBulkConnection newConnection() throws Exception {
+        StubBulkConnection connection = new StubBulkConnection();
+        connection.queryResults.put("batch1", Arrays.asList(HEADER + "\"001A\",\"a\"\n\"001B\",\"multi\nline\"\n", HEADER + "\"001C\",\"c\"\n"));
+        connection.queryResults.put("batch2", Arrays.asList(HEADER + "\"001D\",\"d\"\n"));
+        connection.queryResults.put("batch3", Arrays.asList("Records not found for this query"));
+        return connection;
+    }
+
+    /**
+     * 元のバッチが分割されてNotProcessedになり、分割後のバッチが完了する流れを再現
+     */
+    private long runChunkedQuery(StubBulkConnection connection, QueryExporter exporter) throws Exception {
+        JobInfo job = newJob();
+        List<BatchInfo> batchInfos = new ArrayList<BatchInfo>();
+        batchInfos.add(this.createBatch(connection, job));
+        JobMonitor monitor = new JobMonitor(connection, job, batchInfos).setPollInterval(5L, 20L, 2.0).setTrackNewBatches(true);
+        monitor.addListener(exporter);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JobInfo> future = monitor.start(executor, 5000L);
+            Thread.sleep(50L);
+            for (int i = 0; i < 3; i++) {
+                this.createBatch(connection, job);
+            }
+            connection.batchInfos.get(0).setState(BatchStateEnum.NotProcessed);
+            Thread.sleep(50L);
+            connection.complete("batch1");
+            connection.complete("batch3");
+            Thread.sleep(50L);
+            assertFalse(future.isDone());
+            connection.complete("batch2");
+            future.get();
+            return exporter.awaitRecordCount();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BatchInfo createBatch(StubBulkConnection connection, JobInfo job) throws Exception {
+        return connection.createBatchFromForeignCsvStream(job, new ByteArrayInputStream("SELECT Id FROM Account".getBytes("UTF-8")), "UTF-8");
+    }
+
+    private static JobInfo newJob() {
+        JobInfo job = new JobInfo();
+        job.setId("job0");
+        return job;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * RecordPreparerのテスト
+ */
+public class RecordPreparerTest extends TestCase {
+
+    public void testDropsDuplicateKeysKeepingLastRecord() throws Exception {
+        File dir = Files.createTempDirectory("prepare").toFile();
+        File source = write(dir, "Ext,Name\nE1,a\nE2,b\nE1,c\n,d\n,e\n\"E2\",f\n");
+
+        RecordPreparer preparer = new RecordPreparer(dir, "Account-source.csv");
+        File prepared = preparer.prepare(source.getPath(), "Ext", "", 1024L);
+        // キーのないレコードは重複として扱わない
+        assertEquals("Ext,Name\nE1,c\n,d\n,e\n\"E2\",f\n", read(prepared));
+        assertEquals(2L, preparer.getDuplicateCount());
+        assertEquals("Ext,Name\nE1,a\nE2,b\n", read(preparer.getDuplicateFile()));
+        assertFalse(new File(dir, "Account-source.csv.dedup.idx").exists());
+    }
+
+    public void testGroupsRecordsByParentAcrossBuckets() throws Exception {
+        File dir = Files.createTempDirectory("prepare").toFile();
+        StringBuilder data = new StringBuilder("Name,ParentId\n");
+        for (int i = 0; i < 300; i++) {
+            data.append("name").append(i).append(",P").append(i % 7).append("\n");
+        }
+        File source = write(dir, data.toString());
+
+        RecordPreparer preparer = new RecordPreparer(dir, "Contact-source.csv");
+        // 小さいバケットで複数のバケットに振り分ける
+        String[] lines = read(preparer.prepare(source.getPath(), "", "ParentId", 512L)).split("\n");
+        assertEquals(301, lines.length);
+        assertEquals("Name,ParentId", lines[0]);
+        // 同じ親のレコードは連続し、元の順序を保つ
+        Set<String> finished = new HashSet<String>();
+        String current = null;
+        int previous = -1;
+        for (int i = 1; i < lines.length; i++) {
+            String[] cols = lines[i].split(",");
+            if (!cols[1].equals(current)) {
+                assertTrue(finished.add(cols[1]));
+                current = cols[1];
+                previous = -1;
+            }
+            int index = Integer.parseInt(cols[0].substring(4));
+            assertTrue(index > previous);
+            previous = index;
+        }
+        assertEquals(7, finished.size());
+        assertFalse(new File(dir, "Contact-source.csv.bucket0").exists());
+    }
+
+    public void testResolvesCsvColumnFromSpec() throws Exception {
+        File dir = Files.createTempDirectory("prepare").toFile();
+        File spec = write(dir, "Salesforce Field,Csv Header,Value,Hint\nName,NAME,,\nAccountNumber__c,NUMBER,,\n");
+        assertEquals("NUMBER", RecordPreparer.resolveCsvColumn(spec.getPath(), "accountnumber__c"));
+        assertEquals("Id", RecordPreparer.resolveCsvColumn(spec.getPath(), "Id"));
+    }
+
+    private static File write(File dir, String content) throws Exception {
+        File file = File.createTempFile("source", ".csv", dir);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
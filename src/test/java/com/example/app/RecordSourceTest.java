@@ -0,0 +1,103 @@
+package com.example.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.JobInfo;
+
+/**
+ * RecordSourceのテスト
+ */
+public class RecordSourceTest extends TestCase {
+
+    private static final String CSV = "Name,Description\nAccount0,\"a\nb\"\nAccount1,\"x,\"\"y\"\"\"\n";
+
+    public void testCompressedFilesAreStreamed() throws Exception {
+        File dir = Files.createTempDirectory("source").toFile();
+        File gz = new File(dir, "accounts.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+            out.write(CSV.getBytes(StandardCharsets.UTF_8));
+        }
+        File zip = new File(dir, "accounts.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("data/"));
+            out.putNextEntry(new ZipEntry("data/accounts.csv"));
+            out.write(CSV.getBytes(StandardCharsets.UTF_8));
+        }
+        File csv = new File(dir, "accounts.csv");
+        Files.write(csv.toPath(), CSV.getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(RecordSource.isStreaming(gz.getPath()));
+        assertTrue(RecordSource.isStreaming(zip.getPath()));
+        assertTrue(RecordSource.isStreaming(RecordSource.STDIN));
+        assertFalse(RecordSource.isStreaming(csv.getPath()));
+        List<String> expected = readAll(RecordSource.open(csv.getPath(), new UserInfo()));
+        assertEquals(3, expected.size());
+        assertEquals(expected, readAll(RecordSource.open(gz.getPath(), new UserInfo())));
+        assertEquals(expected, readAll(RecordSource.open(zip.getPath(), new UserInfo())));
+    }
+
+    public void testQueryResultsAreStreamedIntoBatches() throws Exception {
+        UserInfo userInfo = new UserInfo();
+        userInfo.jdbcUrl = "jdbc:h2:mem:source;DB_CLOSE_DELAY=-1";
+        userInfo.jdbcUser = "sa";
+        userInfo.jdbcPassword = "";
+        userInfo.jdbcFetchSize = 100;
+        try (Connection connection = DriverManager.getConnection(userInfo.jdbcUrl, userInfo.jdbcUser, userInfo.jdbcPassword);
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE ACCOUNTS (ID INT PRIMARY KEY, NAME VARCHAR(80), DESCRIPTION VARCHAR(255), CREATED TIMESTAMP)");
+            statement.execute("INSERT INTO ACCOUNTS VALUES (0, '株式会社0', 'a,\"b\"', NULL)");
+            statement.execute("INSERT INTO ACCOUNTS SELECT X, CONCAT('Account', X), NULL, NULL FROM SYSTEM_RANGE(1, 2499)");
+        }
+        File query = File.createTempFile("accounts", ".sql");
+        query.deleteOnExit();
+        Files.write(query.toPath(), "SELECT NAME AS \"Name\", DESCRIPTION AS \"Description\" FROM ACCOUNTS ORDER BY ID;\n".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(RecordSource.isJdbc(query.getPath()));
+        assertEquals(StandardCharsets.UTF_8, RecordSource.getCharset(query.getPath(), userInfo));
+        CsvRecordSplitter splitter = RecordSource.open(query.getPath(), userInfo);
+        assertTrue(splitter.nextRecord());
+        byte[] headerBytes = splitter.copyRecord();
+        assertEquals("Name,Description\n", new String(headerBytes, StandardCharsets.UTF_8));
+
+        StubBulkConnection connection = new StubBulkConnection();
+        JobInfo job = new JobInfo();
+        job.setId("job0");
+        List<BatchInfo> batchInfos = new SalesforceApiUtil().createBatchesFromCSVFile(connection, job, splitter, headerBytes,
+            new FixedBatchSizingPolicy(1000, SalesforceApiUtil.MAX_BYTES_PER_BATCH), new BatchBufferPool(SalesforceApiUtil.MAX_BYTES_PER_BATCH, 0L),
+            2, new ArrayList<BatchSegment>(), null, null, StandardCharsets.UTF_8);
+
+        assertEquals(3, batchInfos.size());
+        String first = connection.batches.get(0);
+        assertTrue(first, first.contains("\nName,Description\n株式会社0,\"a,\"\"b\"\"\"\nAccount1,\n"));
+        int rows = 0;
+        for (String batch : connection.batches) {
+            rows += batch.split("\n").length - 2;
+        }
+        assertEquals(2500, rows);
+    }
+
+    private static List<String> readAll(CsvRecordSplitter splitter) throws Exception {
+        List<String> records = new ArrayList<String>();
+        try {
+            while (splitter.nextRecord()) {
+                records.add(new String(splitter.copyRecord(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            splitter.close();
+        }
+        return records;
+    }
+}
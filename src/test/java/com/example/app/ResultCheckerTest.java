@@ -0,0 +1,83 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import junit.framework.TestCase;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.JobInfo;
+
+/**
+ * ResultCheckerのテスト
+ */
+public class ResultCheckerTest extends TestCase {
+
+    public void testFailedBatchRecordsAreCountedAsFailures() throws Exception {
+        File dir = Files.createTempDirectory("result").toFile();
+        File source = new File(dir, "source.csv");
+        String header = "Name\n";
+        String content = header + "a\nb\nc\nd\n";
+        Files.write(source.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        // 1件目は処理済みのバッチ、2〜4件目は失敗したバッチ
+        BatchSegment completedSegment = new BatchSegment(0, header.length(), header.length() + 2, 1);
+        completedSegment.setBatchId("batch1");
+        BatchSegment failedSegment = new BatchSegment(1, header.length() + 2, content.length(), 3);
+        failedSegment.setBatchId("batch2");
+
+        StubBulkConnection connection = new StubBulkConnection();
+        connection.batchResults.put("batch1", "\"Id\",\"Success\",\"Created\",\"Error\"\n\"001\",\"true\",\"true\",\"\"\n");
+        JobInfo job = new JobInfo();
+        job.setId("job1");
+        File failedFile = new File(dir, "failed.csv");
+        File retryFile = new File(dir, "retry.csv");
+        FailedRecordWriter writer = new FailedRecordWriter(source.getPath(), header.getBytes(StandardCharsets.UTF_8),
+            failedFile, retryFile, new HashSet<String>(Arrays.asList(ResultChecker.BATCH_FAILED_STATUS_CODE)));
+        ResultChecker checker = new ResultChecker(connection, job,
+            new SkipErrorMatcher(Collections.singletonList("[Allowable Error]")), new FixedBatchSizingPolicy(10, 1000), 1);
+        checker.setFailedRecordWriter(writer, Arrays.asList(completedSegment, failedSegment));
+
+        checker.onBatchFinished(batch("batch1", BatchStateEnum.Completed, null));
+        checker.onBatchFinished(batch("batch2", BatchStateEnum.Failed, "InvalidBatch : Records not processed"));
+        assertEquals(0, checker.awaitSkipErrorCount());
+        writer.close();
+
+        assertEquals(1, checker.getFailedBatchCount());
+        assertEquals(3, checker.getFailedBatchRecordCount());
+        assertEquals(0, checker.getUncountedBatchCount());
+        assertEquals(Integer.valueOf(3), checker.getFailuresByStatusCode().get(ResultChecker.BATCH_FAILED_STATUS_CODE));
+        // 失敗したバッチのレコードは失敗レコード・再実行用CSVに出力する
+        assertEquals(3, writer.getFailedCount());
+        assertEquals("Name\nb\nc\nd\n", new String(Files.readAllBytes(retryFile.toPath()), StandardCharsets.UTF_8));
+        assertTrue(new String(Files.readAllBytes(failedFile.toPath()), StandardCharsets.UTF_8)
+            .contains("b,\"BATCH_FAILED:Failed InvalidBatch : Records not processed\"\n"));
+    }
+
+    public void testFailedBatchWithoutSegmentIsUncounted() throws Exception {
+        JobInfo job = new JobInfo();
+        job.setId("job1");
+        ResultChecker checker = new ResultChecker(new StubBulkConnection(), job,
+            new SkipErrorMatcher(Collections.<String>emptyList()), new FixedBatchSizingPolicy(10, 1000), 1);
+        checker.setSegments(Collections.<BatchSegment>emptyList());
+
+        checker.onBatchFinished(batch("batch1", BatchStateEnum.NotProcessed, null));
+        assertEquals(0, checker.awaitSkipErrorCount());
+        assertEquals(1, checker.getFailedBatchCount());
+        assertEquals(0, checker.getFailedBatchRecordCount());
+        // 件数が不明なバッチは呼び出し元で異常として扱う
+        assertEquals(1, checker.getUncountedBatchCount());
+    }
+
+    private static BatchInfo batch(String id, BatchStateEnum state, String stateMessage) {
+        BatchInfo batchInfo = new BatchInfo();
+        batchInfo.setId(id);
+        batchInfo.setJobId("job1");
+        batchInfo.setState(state);
+        batchInfo.setStateMessage(stateMessage);
+        return batchInfo;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.app;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.codehaus.jackson.map.ObjectMapper;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.JobInfo;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+
+/**
+ * RunReportとTaskNotifierのテスト
+ */
+public class RunReportTest extends TestCase {
+
+    @SuppressWarnings("unchecked")
+    public void testBatchResultsAreStreamedToReport() throws Exception {
+        File dir = Files.createTempDirectory("report").toFile();
+        RunReport report = RunReport.open(dir.getPath());
+
+        StubBulkConnection connection = new StubBulkConnection();
+        connection.batchResults.put("batch1", "\"Id\",\"Success\",\"Created\",\"Error\"\n"
+            + "\"\",\"false\",\"false\",\"UNABLE_TO_LOCK_ROW:unable to obtain exclusive access\"\n"
+            + "\"\",\"false\",\"false\",\"DUPLICATE_VALUE:duplicate value found [Allowable Error]\"\n"
+            + "\"001\",\"true\",\"true\",\"\"\n");
+        JobInfo job = new JobInfo();
+        job.setId("job1");
+        ResultChecker checker = new ResultChecker(connection, job,
+            new SkipErrorMatcher(Collections.singletonList("[Allowable Error]")), new FixedBatchSizingPolicy(10, 1000), 1);
+        checker.setRunReport(report, "Account");
+
+        Calendar created = Calendar.getInstance();
+        Calendar modified = (Calendar) created.clone();
+        modified.add(Calendar.MILLISECOND, 1500);
+        BatchInfo completed = new BatchInfo();
+        completed.setId("batch1");
+        completed.setJobId("job1");
+        completed.setState(BatchStateEnum.Completed);
+        completed.setNumberRecordsProcessed(3);
+        completed.setNumberRecordsFailed(2);
+        completed.setCreatedDate(created);
+        completed.setSystemModstamp(modified);
+        BatchInfo failed = new BatchInfo();
+        failed.setId("batch2");
+        failed.setJobId("job1");
+        failed.setState(BatchStateEnum.Failed);
+        failed.setStateMessage("InvalidBatch : Failed to process query");
+        checker.onBatchFinished(failed);
+        checker.onBatchFinished(completed);
+        assertEquals(1, checker.awaitSkipErrorCount());
+
+        job.setNumberRecordsProcessed(3);
+        report.recordJob("Account", job, 2, 1, 0L, false);
+        report.close();
+        assertEquals(2, report.getBatchCount());
+        assertEquals(1, report.getJobCount());
+
+        ObjectMapper mapper = new ObjectMapper();
+        List<Map<String, Object>> lines = new ArrayList<Map<String, Object>>();
+        for (String line : Files.readAllLines(report.getFile().toPath(), StandardCharsets.UTF_8)) {
+            lines.add(mapper.readValue(line, Map.class));
+        }
+        assertEquals(3, lines.size());
+        // 失敗したバッチは処理結果を取得せずに通知を受けた時点で記録される
+        Map<String, Object> failedLine = lines.get(0);
+        assertEquals("batch2", failedLine.get("batchId"));
+        assertEquals("Failed", failedLine.get("state"));
+        Map<String, Object> batchLine = lines.get(1);
+        assertEquals("batch", batchLine.get("type"));
+        assertEquals("batch1", batchLine.get("batchId"));
+        assertEquals(1, batchLine.get("success"));
+        assertEquals(2, batchLine.get("failed"));
+        assertEquals(1, batchLine.get("skipped"));
+        assertEquals(1500, batchLine.get("processingMillis"));
+        Map<String, Object> failures = (Map<String, Object>) batchLine.get("failures");
+        assertEquals(1, failures.get("UNABLE_TO_LOCK_ROW"));
+        assertEquals(1, failures.get("DUPLICATE_VALUE"));
+        Map<String, Object> jobLine = lines.get(2);
+        assertEquals("job", jobLine.get("type"));
+        assertEquals(Boolean.FALSE, jobLine.get("success"));
+    }
+
+    public void testTasksAreCreatedInBatchedCalls() throws Exception {
+        final List<Integer> calls = Collections.synchronizedList(new ArrayList<Integer>());
+        TaskNotifier notifier = new TaskNotifier(new TaskNotifier.TaskSender() {
+            @Override
+            public int send(SObject[] tasks) throws ConnectionException {
+                calls.add(tasks.length);
+                if (calls.size() == 2) {
+                    throw new ConnectionException("create failed");
+                }
+                return tasks.length;
+            }
+        });
+        for (int i = 0; i < 450; i++) {
+            SObject task = new SObject();
+            task.setType("Task");
+            notifier.add(task);
+        }
+        // 失敗した呼び出しの件数は作成件数に含めない
+        assertEquals(250, notifier.flush());
+        assertEquals(450, notifier.getQueuedCount());
+        assertEquals(3, calls.size());
+        assertEquals(Integer.valueOf(200), calls.get(0));
+        assertEquals(Integer.valueOf(200), calls.get(1));
+        assertEquals(Integer.valueOf(50), calls.get(2));
+    }
+}
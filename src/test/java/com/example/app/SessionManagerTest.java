@@ -0,0 +1,134 @@
+package com.example.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.ws.ConnectorConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * SessionManagerとManagedBulkConnectionのテスト
+ */
+public class SessionManagerTest extends TestCase {
+
+    private static final String NS = "http://www.force.com/2009/06/asyncapi/dataload";
+
+    private HttpServer server;
+    private volatile String validSessionId = "session1";
+    private final List<String> sessionHeaders = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void setUp() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/services/async/34.0/job/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String sessionId = exchange.getRequestHeaders().getFirst("X-SFDC-Session");
+                sessionHeaders.add(sessionId);
+                String body;
+                int status;
+                if (validSessionId.equals(sessionId)) {
+                    status = 200;
+                    body = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><jobInfo xmlns=\"" + NS + "\"><id>750000000000001</id><state>Open</state></jobInfo>";
+                } else {
+                    status = 400;
+                    body = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><error xmlns=\"" + NS + "\"><exceptionCode>InvalidSessionId</exceptionCode><exceptionMessage>Invalid session id</exceptionMessage></error>";
+                }
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/xml");
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        this.server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.server.stop(0);
+    }
+
+    public void testRefreshesSessionOnInvalidSessionId() throws Exception {
+        StubSessionManager session = new StubSessionManager(this.newUserInfo(), this.server.getAddress().getPort());
+        session.acquire();
+        BulkConnection connection = session.getBulkConnection();
+        assertEquals("750000000000001", connection.getJobStatus("750000000000001").getId());
+        assertEquals(1, session.getLoginCount());
+
+        // サーバー側でセッションが無効になった場合は1回だけ再ログインして再実行
+        this.validSessionId = "session2";
+        JobInfo job = connection.getJobStatus("750000000000001");
+        assertEquals("750000000000001", job.getId());
+        assertEquals(2, session.getLoginCount());
+        assertEquals("session2", session.getSessionId());
+        assertEquals(Collections.singletonList("session2"), this.sessionHeaders.subList(2, 3));
+
+        // 他のスレッドで再作成済みのセッションIDでは再ログインしない
+        session.refresh("session1");
+        assertEquals(2, session.getLoginCount());
+    }
+
+    public void testLogsOutWhenLastUserReleases() throws Exception {
+        StubSessionManager session = new StubSessionManager(this.newUserInfo(), this.server.getAddress().getPort());
+        session.acquire();
+        session.acquire();
+        session.release();
+        assertEquals(0, session.logoutCount);
+        session.getBulkConnection();
+        session.release();
+        assertEquals(1, session.logoutCount);
+        assertEquals(1, session.getLoginCount());
+        try {
+            session.getBulkConnection();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // ログアウト後は使用できない
+        }
+    }
+
+    private UserInfo newUserInfo() {
+        UserInfo userInfo = new UserInfo();
+        userInfo.apiVersion = "34.0";
+        return userInfo;
+    }
+
+    /**
+     * ログインせずに連番のセッションIDを発行するSessionManager
+     */
+    private static class StubSessionManager extends SessionManager {
+
+        private final int port;
+        private int sessions = 0;
+        int logoutCount = 0;
+
+        StubSessionManager(UserInfo userInfo, int port) {
+            super(userInfo);
+            this.port = port;
+        }
+
+        @Override
+        protected ConnectorConfig login(UserInfo userInfo) {
+            ConnectorConfig config = new ConnectorConfig();
+            config.setAuthEndpoint("http://localhost:" + this.port + "/services/Soap/u/34.0");
+            config.setServiceEndpoint("http://localhost:" + this.port + "/services/Soap/u/34.0/00D000000000001");
+            config.setSessionId("session" + (++this.sessions));
+            return config;
+        }
+
+        @Override
+        protected void logout(ConnectorConfig config) {
+            this.logoutCount++;
+        }
+    }
+}
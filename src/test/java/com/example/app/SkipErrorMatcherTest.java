@@ -0,0 +1,42 @@
+package com.example.app;
+
+import java.util.Arrays;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * 検知不要エラーの判定のテスト
+ */
+public class SkipErrorMatcherTest extends TestCase {
+
+    public void testMatchesAnyRule() {
+        SkipErrorMatcher matcher = new SkipErrorMatcher(Arrays.asList("[Allowable Error]", "DUPLICATE_VALUE", "取引先"));
+
+        assertTrue(matcher.matches("FIELD_CUSTOM_VALIDATION_EXCEPTION:[Allowable Error]:--"));
+        assertTrue(matcher.matches("DUPLICATE_VALUE:duplicate value found"));
+        assertTrue(matcher.matches("ERROR:この取引先は登録できません"));
+        assertFalse(matcher.matches("UNABLE_TO_LOCK_ROW:unable to obtain exclusive access to this record"));
+        assertFalse(matcher.matches(null));
+    }
+
+    public void testOverlappingRules() {
+        // 失敗時の遷移で別のルールに一致すること
+        SkipErrorMatcher matcher = new SkipErrorMatcher(Arrays.asList("he", "she", "hers", "abcd", "bc"));
+
+        assertTrue(matcher.matches("ushers"));
+        assertTrue(matcher.matches("xabcx"));
+        assertFalse(matcher.matches("abxcd"));
+    }
+
+    public void testHitCounts() {
+        SkipErrorMatcher matcher = new SkipErrorMatcher(Arrays.asList("A_ERROR", "B_ERROR"));
+        matcher.matches("B_ERROR:1");
+        matcher.matches("B_ERROR:2");
+        matcher.matches("A_ERROR:1");
+        matcher.matches("C_ERROR:1");
+
+        Map<String, Long> hits = matcher.getHitCounts();
+        assertEquals(Long.valueOf(1L), hits.get("A_ERROR"));
+        assertEquals(Long.valueOf(2L), hits.get("B_ERROR"));
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchInfoList;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.async.QueryResultList;
+import com.sforce.ws.ConnectorConfig;
+
+/**
+ * テスト用のBulkConnection (通信せずにアップロードされたバッチを保持する)
+ */
+public class StubBulkConnection extends BulkConnection {
+
+    public final List<String> batches = Collections.synchronizedList(new ArrayList<String>());
+    public final List<byte[]> batchBytes = Collections.synchronizedList(new ArrayList<byte[]>());
+    public final AtomicInteger inFlight = new AtomicInteger();
+    public final AtomicInteger maxInFlight = new AtomicInteger();
+    public volatile long uploadMillis = 0L;
+    public volatile int failAt = -1;
+    public final List<BatchInfo> batchInfos = Collections.synchronizedList(new ArrayList<BatchInfo>());
+    public final AtomicInteger jobStatusCount = new AtomicInteger();
+    public final AtomicInteger batchInfoListCount = new AtomicInteger();
+    public final Map<String, String> batchResults = new ConcurrentHashMap<String, String>();
+    public final Map<String, List<String>> queryResults = new ConcurrentHashMap<String, List<String>>();
+    public volatile JobStateEnum jobState = null;
+    private final AtomicInteger batchCount = new AtomicInteger();
+
+    public StubBulkConnection() throws AsyncApiException {
+        super(newConfig());
+    }
+
+    private static ConnectorConfig newConfig() {
+        ConnectorConfig config = new ConnectorConfig();
+        config.setSessionId("stub-session");
+        config.setRestEndpoint("http://localhost/services/async/34.0/");
+        return config;
+    }
+
+    @Override
+    public BatchInfo createBatchFromForeignCsvStream(JobInfo job, InputStream input, String charSet) throws AsyncApiException {
+        int index = this.batchCount.getAndIncrement();
+        int current = this.inFlight.incrementAndGet();
+        try {
+            synchronized (this.maxInFlight) {
+                if (current > this.maxInFlight.get()) {
+                    this.maxInFlight.set(current);
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = input.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            // 後に送ったバッチが先に終わるように待機時間をずらす
+            Thread.sleep(this.uploadMillis * (3 - (index % 3)));
+            if (index == this.failAt) {
+                throw new AsyncApiException("stub failure", AsyncExceptionCode.InvalidBatch);
+            }
+            String content = new String(out.toByteArray(), charSet);
+            BatchInfo batchInfo = new BatchInfo();
+            batchInfo.setId("batch" + index);
+            batchInfo.setJobId(job.getId());
+            batchInfo.setState(BatchStateEnum.Queued);
+            this.batches.add(batchInfo.getId() + "\n" + content);
+            this.batchBytes.add(out.toByteArray());
+            this.batchInfos.add(batchInfo);
+            return batchInfo;
+        } catch (IOException e) {
+            throw new AsyncApiException(e.getMessage(), AsyncExceptionCode.ClientInputError);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AsyncApiException("interrupted", AsyncExceptionCode.ClientInputError);
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * 指定したバッチを完了状態にする
+     * @param batchId バッチID
+     */
+    public void complete(String batchId) {
+        this.setState(batchId, BatchStateEnum.Completed);
+    }
+
+    /**
+     * 指定したバッチの状態を変更する
+     * @param batchId バッチID
+     * @param state バッチの状態
+     */
+    public void setState(String batchId, BatchStateEnum state) {
+        synchronized (this.batchInfos) {
+            for (BatchInfo batchInfo : this.batchInfos) {
+                if (batchInfo.getId().equals(batchId)) {
+                    batchInfo.setState(state);
+                }
+            }
+        }
+    }
+
+    @Override
+    public JobInfo getJobStatus(String jobId) throws AsyncApiException {
+        this.jobStatusCount.incrementAndGet();
+        JobInfo job = new JobInfo();
+        job.setId(jobId);
+        int completed = 0;
+        int failed = 0;
+        int queued = 0;
+        int total = 0;
+        synchronized (this.batchInfos) {
+            for (BatchInfo batchInfo : this.batchInfos) {
+                total++;
+                // 未処理(NotProcessed)のバッチは総バッチ数のみに数える
+                if (batchInfo.getState() == BatchStateEnum.Completed) {
+                    completed++;
+                } else if (batchInfo.getState() == BatchStateEnum.Failed) {
+                    failed++;
+                } else if (batchInfo.getState() != BatchStateEnum.NotProcessed) {
+                    queued++;
+                }
+            }
+        }
+        job.setNumberBatchesCompleted(completed);
+        job.setNumberBatchesFailed(failed);
+        job.setNumberBatchesQueued(queued);
+        job.setNumberBatchesTotal(total);
+        if (this.jobState != null) {
+            job.setState(this.jobState);
+        }
+        return job;
+    }
+
+    @Override
+    public BatchInfoList getBatchInfoList(String jobId) throws AsyncApiException {
+        this.batchInfoListCount.incrementAndGet();
+        BatchInfoList list = new BatchInfoList();
+        synchronized (this.batchInfos) {
+            list.setBatchInfo(this.batchInfos.toArray(new BatchInfo[this.batchInfos.size()]));
+        }
+        return list;
+    }
+
+    @Override
+    public InputStream getBatchResultStream(String jobId, String batchId) throws AsyncApiException {
+        String result = this.batchResults.get(batchId);
+        if (result == null) {
+            throw new AsyncApiException("result not found : " + batchId, AsyncExceptionCode.InvalidBatch);
+        }
+        try {
+            return new ByteArrayInputStream(result.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new AsyncApiException(e.getMessage(), AsyncExceptionCode.ClientInputError);
+        }
+    }
+
+    @Override
+    public QueryResultList getQueryResultList(String jobId, String batchId) throws AsyncApiException {
+        List<String> results = this.queryResults.get(batchId);
+        String[] resultIds = new String[results == null ? 0 : results.size()];
+        for (int i = 0; i < resultIds.length; i++) {
+            resultIds[i] = "result" + i;
+        }
+        QueryResultList list = new QueryResultList();
+        list.setResult(resultIds);
+        return list;
+    }
+
+    @Override
+    public InputStream getQueryResultStream(String jobId, String batchId, String resultId) throws AsyncApiException {
+        String result = this.queryResults.get(batchId).get(Integer.parseInt(resultId.substring("result".length())));
+        try {
+            return new ByteArrayInputStream(result.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new AsyncApiException(e.getMessage(), AsyncExceptionCode.ClientInputError);
+        }
+    }
+}